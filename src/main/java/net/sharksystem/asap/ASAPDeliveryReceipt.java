@@ -0,0 +1,61 @@
+package net.sharksystem.asap;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handed out when an asynchronously sent message is persisted. Handing that message to online peers
+ * happens afterwards - wait for online delivery if required.
+ *
+ * @author thsc
+ */
+public class ASAPDeliveryReceipt {
+    private final CharSequence format;
+    private final CharSequence uri;
+    private final int era;
+    private final CompletableFuture<Integer> onlineDelivery;
+
+    public ASAPDeliveryReceipt(CharSequence format, CharSequence uri, int era,
+                               CompletableFuture<Integer> onlineDelivery) {
+        this.format = format;
+        this.uri = uri;
+        this.era = era;
+        this.onlineDelivery = onlineDelivery;
+    }
+
+    public CharSequence getFormat() {
+        return this.format;
+    }
+
+    public CharSequence getUri() {
+        return this.uri;
+    }
+
+    /**
+     * @return era message was stored in
+     */
+    public int getEra() {
+        return this.era;
+    }
+
+    /**
+     * @return completes with number of online peers message was handed to - 0 if none is online
+     */
+    public CompletableFuture<Integer> getOnlineDelivery() {
+        return this.onlineDelivery;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("format: ");
+        sb.append(this.format);
+        sb.append(" | uri: ");
+        sb.append(this.uri);
+        sb.append(" | era: ");
+        sb.append(this.era);
+        if(this.onlineDelivery.isDone() && !this.onlineDelivery.isCompletedExceptionally()) {
+            sb.append(" | online peers: ");
+            sb.append(this.onlineDelivery.join());
+        }
+        return sb.toString();
+    }
+}
@@ -1,6 +1,8 @@
 package net.sharksystem.asap;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 public interface ASAPMessageSender {
     /**
@@ -13,6 +15,33 @@ public interface ASAPMessageSender {
     void sendASAPMessage(CharSequence appName, CharSequence uri,
                          byte[] message) throws ASAPException;
 
+    /**
+     * Send a number of messages at once - much faster than sending each message.
+     * @param appName
+     * @param uri
+     * @param messages
+     * @throws ASAPException
+     */
+    void sendASAPMessages(CharSequence appName, CharSequence uri,
+                         Collection<byte[]> messages) throws ASAPException;
+
+    /**
+     * Send a message without waiting for storage and network. Message must not be changed until it is persisted.
+     * @param appName
+     * @param uri
+     * @param message
+     * @return completes when message is persisted - receipt tells when it was handed to online peers
+     * @throws ASAPException
+     */
+    CompletableFuture<ASAPDeliveryReceipt> sendASAPMessageAsync(CharSequence appName, CharSequence uri,
+                         byte[] message) throws ASAPException;
+
+    /**
+     * Send a number of messages without waiting for storage and network - see sendASAPMessageAsync
+     */
+    CompletableFuture<ASAPDeliveryReceipt> sendASAPMessagesAsync(CharSequence appName, CharSequence uri,
+                         Collection<byte[]> messages) throws ASAPException;
+
     /**
      * When calling this methode, this asap message is sent over any existing connection.
      * It is not stored on sender or receiver side. Message listeners are called as usual. Nothing happens (no
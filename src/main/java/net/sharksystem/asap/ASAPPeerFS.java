@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ASAPPeerFS extends ASAPInternalPeerWrapper implements ASAPPeerService, ASAPChunkAssimilatedListener {
     public static final CharSequence DEFAULT_ROOT_FOLDER_NAME = ASAPEngineFS.DEFAULT_ROOT_FOLDER_NAME;
@@ -21,6 +22,17 @@ public class ASAPPeerFS extends ASAPInternalPeerWrapper implements ASAPPeerServi
         this.rootFolder = rootFolder.toString();
     }
 
+    /**
+     * @param chunkStorageType how engines keep their chunks - see ASAPChunkStorageType. Existing engines keep
+     *                         their type.
+     */
+    public ASAPPeerFS(CharSequence owner, CharSequence rootFolder, Collection<CharSequence> supportFormats,
+                      ASAPChunkStorageType chunkStorageType) throws IOException, ASAPException {
+        super.setInternalPeer(ASAPInternalPeerFS.createASAPPeer(owner, rootFolder,
+                ASAPInternalPeer.DEFAULT_MAX_PROCESSING_TIME, supportFormats, chunkStorageType, this));
+        this.rootFolder = rootFolder.toString();
+    }
+
     public ASAPPeerFS(CharSequence owner, CharSequence rootFolder) throws IOException, ASAPException {
         super.setInternalPeer(ASAPInternalPeerFS.createASAPPeer(owner, rootFolder, null, this));
         this.rootFolder = rootFolder.toString();
@@ -138,6 +150,40 @@ public class ASAPPeerFS extends ASAPInternalPeerWrapper implements ASAPPeerServi
         }
     }
 
+    @Override
+    public void sendASAPMessages(CharSequence appName, CharSequence uri, Collection<byte[]> messages)
+            throws ASAPException {
+        try {
+            ASAPEngine engine = this.getInternalPeer().createEngineByFormat(appName);
+            engine.activateOnlineMessages(this.getInternalPeer());
+            engine.addAll(uri, messages);
+        } catch (IOException e) {
+            Log.writeLog(this, this.getPeerID(),e.getLocalizedMessage());
+            throw new ASAPException("problems getting asap engine", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<ASAPDeliveryReceipt> sendASAPMessageAsync(CharSequence appName, CharSequence uri,
+                                                                       byte[] message) throws ASAPException {
+        List<byte[]> messages = new ArrayList<>();
+        messages.add(message);
+        return this.sendASAPMessagesAsync(appName, uri, messages);
+    }
+
+    @Override
+    public CompletableFuture<ASAPDeliveryReceipt> sendASAPMessagesAsync(CharSequence appName, CharSequence uri,
+                                                     Collection<byte[]> messages) throws ASAPException {
+        try {
+            ASAPEngine engine = this.getInternalPeer().createEngineByFormat(appName);
+            engine.activateOnlineMessages(this.getInternalPeer());
+            return engine.addAllAsync(uri, messages);
+        } catch (IOException e) {
+            Log.writeLog(this, this.getPeerID(),e.getLocalizedMessage());
+            throw new ASAPException("problems getting asap engine", e);
+        }
+    }
+
     public void sendTransientASAPMessage(CharSequence appName, CharSequence uri, byte[] message)
             throws ASAPException, IOException {
 
@@ -1,6 +1,7 @@
 package net.sharksystem.asap;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 public interface ASAPStorage {
@@ -125,6 +126,16 @@ public interface ASAPStorage {
      */
     void add(CharSequence uri, byte[] messageAsBytes) throws IOException;
 
+    /**
+     * Add a number of messages at once - they are written in one go and sent in one PDU to online peers.
+     * Much faster than adding each message.
+     * @param uri
+     * @param messagesAsBytes
+     * @throws IOException
+     * @see #add(CharSequence, byte[])
+     */
+    void addAll(CharSequence uri, Collection<byte[]> messagesAsBytes) throws IOException;
+
     /**
      * Put some extra information on that channel
      * @param uri describing the channel
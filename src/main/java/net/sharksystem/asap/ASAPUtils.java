@@ -2,6 +2,8 @@ package net.sharksystem.asap;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 public class ASAPUtils {
     /**
@@ -9,29 +11,33 @@ public class ASAPUtils {
      * @param searchSpace list of possible eras
      * @param fromEra lowest era
      * @param toEra highest era
-     * @return list of era which are within from and to and also in search space
+     * @return list of era which are within from and to and also in search space - in chronological order,
+     * beginning with fromEra
      */
     public static Collection<Integer> getErasInRange(Collection<Integer> searchSpace,
                                                      int fromEra, int toEra) {
 
+        NavigableSet<Integer> sortedEras;
+        if(searchSpace instanceof NavigableSet) {
+            sortedEras = (NavigableSet<Integer>) searchSpace;
+        } else {
+            sortedEras = new TreeSet<>(searchSpace);
+        }
+
         Collection<Integer> eras = new ArrayList<>();
 
         // the only trick is to be aware of the cyclic nature of era numbers
         boolean wrapped = fromEra > toEra; // it reached the era end and started new
 
-        for(Integer era : searchSpace) {
-            if(!wrapped) {
-                //INIT ---- from-> +++++++++++++ <-to ----- MAX (+ fits)
-                if(era >= fromEra && era <= toEra) eras.add(era);
-            } else {
-                // INIT+++++++++<-to ------ from->++++++MAX
-                if(era <= toEra && era >= ASAP.INITIAL_ERA
-                        || era >= fromEra && era <= ASAP.MAX_ERA
-                ) eras.add(era);
-            }
+        if(!wrapped) {
+            //INIT ---- from-> +++++++++++++ <-to ----- MAX (+ fits)
+            eras.addAll(sortedEras.subSet(fromEra, true, toEra, true));
+        } else {
+            // INIT+++++++++<-to ------ from->++++++MAX
+            eras.addAll(sortedEras.subSet(fromEra, true, ASAP.MAX_ERA, true));
+            eras.addAll(sortedEras.subSet(ASAP.INITIAL_ERA, true, toEra, true));
         }
 
         return eras;
-
     }
 }
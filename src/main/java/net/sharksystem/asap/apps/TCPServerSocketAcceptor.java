@@ -4,6 +4,7 @@ import net.sharksystem.asap.ASAPEncounterManager;
 import net.sharksystem.asap.ASAPEncounterConnectionType;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.streams.StreamPair;
+import net.sharksystem.utils.tcp.NIOTCPServer;
 import net.sharksystem.utils.tcp.SocketFactory;
 import net.sharksystem.utils.tcp.StreamPairCreatedListener;
 
@@ -12,17 +13,36 @@ import java.io.IOException;
 public class TCPServerSocketAcceptor implements StreamPairCreatedListener {
     private final ASAPEncounterManager encounterManager;
     private final SocketFactory socketFactory;
+    private final NIOTCPServer nioServer;
 
     public TCPServerSocketAcceptor(int portNumber, ASAPEncounterManager encounterManager) throws IOException {
+        this(portNumber, encounterManager, false);
+    }
+
+    /**
+     * @param acceptMany true: keep accepting connections on this port (one selector thread serves all of them),
+     *                   false: accept a single connection
+     */
+    public TCPServerSocketAcceptor(int portNumber, ASAPEncounterManager encounterManager, boolean acceptMany)
+            throws IOException {
         this.encounterManager = encounterManager;
-        this.socketFactory = new SocketFactory(portNumber, this);
 
-        Log.writeLog(this, "start socket factory - no race condition assumed");
-        new Thread(socketFactory).start();
+        if(acceptMany) {
+            this.socketFactory = null;
+            this.nioServer = new NIOTCPServer(portNumber, this);
+            Log.writeLog(this, "start NIO TCP server");
+            new Thread(this.nioServer).start();
+        } else {
+            this.nioServer = null;
+            this.socketFactory = new SocketFactory(portNumber, this);
+            Log.writeLog(this, "start socket factory - no race condition assumed");
+            new Thread(socketFactory).start();
+        }
     }
 
     public void close() throws IOException {
-        this.socketFactory.close();
+        if(this.nioServer != null) this.nioServer.close();
+        else this.socketFactory.close();
     }
 
     @Override
@@ -5,11 +5,13 @@ import net.sharksystem.asap.ASAPException;
 import net.sharksystem.asap.ASAPEncounterConnectionType;
 import net.sharksystem.asap.protocol.ASAPConnection;
 import net.sharksystem.asap.protocol.ASAPConnectionListener;
+import net.sharksystem.asap.protocol.ASAPConnectionStatistics;
 import net.sharksystem.asap.protocol.ASAPOnlineMessageSource;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashSet;
 import java.util.Set;
 
 public class TestASAPConnectionHandler implements ASAPConnectionHandler {
@@ -66,6 +68,16 @@ public class TestASAPConnectionHandler implements ASAPConnectionHandler {
                 return false;
             }
 
+            @Override
+            public Set<String> getAgreedCapabilities() {
+                return new HashSet<>();
+            }
+
+            @Override
+            public ASAPConnectionStatistics getStatistics() {
+                return new ASAPConnectionStatistics();
+            }
+
             @Override
             public void kill() {
 
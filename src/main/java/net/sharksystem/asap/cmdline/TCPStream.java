@@ -1,12 +1,19 @@
 package net.sharksystem.asap.cmdline;
 
+import net.sharksystem.utils.streams.ChannelInputStream;
+import net.sharksystem.utils.streams.ChannelOutputStream;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
+ * TCP connection between two local processes. Sockets are created from channels: the output stream
+ * exposes the socket channel - files can be sent without copying them into the JVM.
  *
  * @author thsc
  */
@@ -150,20 +157,22 @@ public class TCPStream extends Thread {
     
     public InputStream getInputStream() throws IOException {
         this.checkConnected();
-        return this.socket.getInputStream();
+        return new ChannelInputStream(this.socket.getChannel());
     }
     
     public OutputStream getOutputStream() throws IOException {
         this.checkConnected();
-        return this.socket.getOutputStream();
+        return new ChannelOutputStream(this.socket.getChannel());
     }
     
     private class TCPServer {
-        private ServerSocket srvSocket = null;
+        private ServerSocketChannel srvSocket = null;
 
         Socket getSocket() throws IOException {
             if(this.srvSocket == null) {
-                this.srvSocket = new ServerSocket(port);
+                this.srvSocket = ServerSocketChannel.open();
+                this.srvSocket.socket().setReuseAddress(true);
+                this.srvSocket.socket().bind(new InetSocketAddress(port));
             }
 
             //<<<<<<<<<<<<<<<<<<debug
@@ -177,7 +186,9 @@ public class TCPStream extends Thread {
             System.out.println(b.toString());
             //>>>>>>>>>>>>>>>>>>>debug
 
-            Socket socket = this.srvSocket.accept();
+            Socket socket = this.srvSocket.accept().socket();
+            // one connection only - free port right now
+            this.srvSocket.close();
             //<<<<<<<<<<<<<<<<<<debug
             b = new StringBuilder();
             b.append("TCPChannel (");
@@ -214,8 +225,7 @@ public class TCPStream extends Thread {
                     b.append(port);
                     System.out.println(b.toString());
                     //>>>>>>>>>>>>>>>>>>>debug
-                    Socket socket = new Socket("localhost", port);
-                    return socket;
+                    return SocketChannel.open(new InetSocketAddress("localhost", port)).socket();
                 }
                 catch(IOException ioe) {
                     //<<<<<<<<<<<<<<<<<<debug
@@ -234,6 +234,37 @@ public class ASAPCryptoAlgorithms {
         }
     }
 
+    /**
+     * @return signature to be fed with data to be signed - chunk by chunk if needed
+     */
+    public static Signature initSigning(ASAPKeyStore ASAPKeyStore) throws ASAPSecurityException {
+        try {
+            Signature signature = Signature.getInstance(ASAPKeyStore.getAsymmetricSigningAlgorithm());
+            signature.initSign(ASAPKeyStore.getPrivateKey());
+            return signature;
+        } catch (InvalidKeyException | NoSuchAlgorithmException e) {
+            throw new ASAPSecurityException("signing failed: " + ASAPKeyStore.getAsymmetricSigningAlgorithm(), e);
+        }
+    }
+
+    /**
+     * @return signature to be fed with signed data - null if public key of sender is unknown
+     */
+    public static Signature initVerification(String sender, ASAPKeyStore ASAPKeyStore)
+            throws ASAPSecurityException {
+
+        PublicKey publicKey = ASAPKeyStore.getPublicKey(sender);
+        if(publicKey == null) return null;
+
+        try {
+            Signature signature = Signature.getInstance(ASAPKeyStore.getAsymmetricSigningAlgorithm());
+            signature.initVerify(publicKey);
+            return signature;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new ASAPSecurityException("verifying failed: " + ASAPKeyStore.getAsymmetricSigningAlgorithm(), e);
+        }
+    }
+
     public static boolean verify(byte[] signedData, byte[] signatureBytes, String sender,
                         ASAPKeyStore ASAPKeyStore) throws ASAPSecurityException {
 
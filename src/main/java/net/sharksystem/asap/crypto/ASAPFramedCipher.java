@@ -0,0 +1,293 @@
+package net.sharksystem.asap.crypto;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPSecurityException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts a message of any length in authenticated frames (AES-GCM). Frames are encrypted and sent while
+ * the message is written and decrypted while it is read - memory is bounded by frame size.
+ * <pre>
+ * RECIPIENT | ENCRYPTED SYMMETRIC KEY | NONCE PREFIX | FRAME | ... | LAST FRAME
+ * FRAME: LENGTH (4 bytes, highest bit marks last frame) | ENCRYPTED DATA | TAG
+ * </pre>
+ * Each frame has its own nonce: nonce prefix | frame number | last frame flag. Frames cannot be dropped,
+ * reordered or cut off without failing authentication. The symmetric key is a session key
+ * (see {@link ASAPSessionKeys}) - the nonce prefix is the number of the message encrypted with that key.
+ *
+ * @author thsc
+ */
+public class ASAPFramedCipher {
+    public static final String ALGORITHM = "AES/GCM/NoPadding";
+    public static final int DEFAULT_FRAME_SIZE = 16 * 1024;
+    /** frames of encounter peers are accepted up to that size */
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private static final int TAG_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = ASAPSessionKeys.NONCE_PREFIX_LENGTH;
+    private static final int NONCE_LENGTH = 12;
+    private static final int LAST_FRAME_FLAG = 0x80000000;
+
+    private static int frameSize = DEFAULT_FRAME_SIZE;
+
+    public static void setFrameSize(int size) {
+        if(size < 1 || size > MAX_FRAME_SIZE) throw new IllegalArgumentException("invalid frame size: " + size);
+        frameSize = size;
+    }
+
+    public static int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Header of a received message
+     */
+    public interface FramedMessageHeader {
+        CharSequence getReceiver();
+        byte[] getEncryptedSymmetricKey();
+    }
+
+    /**
+     * Writes header - frames are written into os while returned stream is written. Close returned stream
+     * to write last frame - os is not closed.
+     * @param recipient only recipient can decrypt
+     * @return stream message is to be written to
+     */
+    public static OutputStream encrypt(CharSequence recipient, ASAPKeyStore ASAPKeyStore, OutputStream os)
+            throws ASAPSecurityException, IOException {
+
+        ASAPSessionKeys.MessageKey messageKey = ASAPSessionKeys.getSendingKey(recipient, ASAPKeyStore);
+        byte[] noncePrefix = messageKey.getNoncePrefix();
+
+        // send receiver - unencrypted - need this for ad-hoc routing
+        ASAPSerialization.writeCharSequenceParameter(recipient, os);
+        ASAPSerialization.writeByteArray(messageKey.getEncryptedKey(), os);
+        os.write(noncePrefix);
+
+        return new FrameOutputStream(os, messageKey.getKey(), noncePrefix);
+    }
+
+    public static FramedMessageHeader readHeader(InputStream is) throws IOException, ASAPException {
+        final String recipient = ASAPSerialization.readCharSequenceParameter(is);
+        final byte[] encryptedSymmetricKey = ASAPSerialization.readByteArray(is);
+
+        return new FramedMessageHeader() {
+            @Override
+            public CharSequence getReceiver() { return recipient; }
+            @Override
+            public byte[] getEncryptedSymmetricKey() { return encryptedSymmetricKey; }
+        };
+    }
+
+    /**
+     * @param header already read from is
+     * @return decrypted message - frames are read from is when needed. Anything read is authenticated.
+     * @throws ASAPSecurityException this peer is not recipient
+     */
+    public static InputStream decrypt(FramedMessageHeader header, ASAPKeyStore ASAPKeyStore, InputStream is)
+            throws ASAPSecurityException, IOException {
+
+        SecretKey key = ASAPSessionKeys.getReceivedKey(header.getEncryptedSymmetricKey(), ASAPKeyStore);
+
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        ASAPSerialization.readFully(is, noncePrefix, 0, noncePrefix.length);
+
+        return new FrameInputStream(is, key, noncePrefix);
+    }
+
+    /**
+     * Take frames of a message from stream without decrypting - header already read.
+     */
+    public static void skip(InputStream is) throws IOException {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        ASAPSerialization.readFully(is, noncePrefix, 0, noncePrefix.length);
+
+        byte[] buffer = new byte[DEFAULT_FRAME_SIZE];
+        boolean last = false;
+        while(!last) {
+            int lengthField = readFrameLength(is);
+            last = (lengthField & LAST_FRAME_FLAG) != 0;
+            long remaining = (lengthField & ~LAST_FRAME_FLAG) + TAG_LENGTH;
+            while(remaining > 0) {
+                int read = is.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+                if(read < 0) throw new EOFException("encrypted message cut off");
+                remaining -= read;
+            }
+        }
+    }
+
+    private static GCMParameterSpec nonce(byte[] noncePrefix, int frameNumber, boolean last) {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        System.arraycopy(noncePrefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+        nonce[7] = (byte) (frameNumber >> 24);
+        nonce[8] = (byte) (frameNumber >> 16);
+        nonce[9] = (byte) (frameNumber >> 8);
+        nonce[10] = (byte) frameNumber;
+        nonce[11] = (byte) (last ? 1 : 0);
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    private static int readFrameLength(InputStream is) throws IOException {
+        byte[] b = new byte[4];
+        ASAPSerialization.readFully(is, b, 0, 4);
+        return ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+    }
+
+    private static class FrameOutputStream extends OutputStream {
+        private final OutputStream os;
+        private final SecretKey key;
+        private final byte[] noncePrefix;
+        private final Cipher cipher;
+        private final byte[] plain;
+        private final byte[] encrypted;
+        private int size = 0;
+        private int frameNumber = 0;
+        private boolean closed = false;
+
+        FrameOutputStream(OutputStream os, SecretKey key, byte[] noncePrefix) throws ASAPSecurityException {
+            this.os = os;
+            this.key = key;
+            this.noncePrefix = noncePrefix;
+            this.plain = new byte[frameSize];
+            this.encrypted = new byte[4 + frameSize + TAG_LENGTH];
+            try {
+                this.cipher = Cipher.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new ASAPSecurityException("framed encryption not available: " + ALGORITHM, e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(this.closed) throw new IOException("encrypted message already finished");
+            while(len > 0) {
+                // a full frame is sent when there is more: last frame is never empty (unless message is)
+                if(this.size == this.plain.length) this.writeFrame(false);
+                int number = Math.min(len, this.plain.length - this.size);
+                System.arraycopy(b, off, this.plain, this.size, number);
+                this.size += number;
+                off += number;
+                len -= number;
+            }
+        }
+
+        private void writeFrame(boolean last) throws IOException {
+            if(this.frameNumber == Integer.MAX_VALUE) throw new IOException("encrypted message too long");
+            int lengthField = last ? this.size | LAST_FRAME_FLAG : this.size;
+            this.encrypted[0] = (byte) (lengthField >> 24);
+            this.encrypted[1] = (byte) (lengthField >> 16);
+            this.encrypted[2] = (byte) (lengthField >> 8);
+            this.encrypted[3] = (byte) lengthField;
+
+            try {
+                this.cipher.init(Cipher.ENCRYPT_MODE, this.key, nonce(this.noncePrefix, this.frameNumber++, last));
+                int length = this.cipher.doFinal(this.plain, 0, this.size, this.encrypted, 4);
+                this.os.write(this.encrypted, 0, 4 + length);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("frame encryption failed", e);
+            }
+            this.size = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.os.flush();
+        }
+
+        /**
+         * Writes last frame.
+         */
+        @Override
+        public void close() throws IOException {
+            if(this.closed) return;
+            this.writeFrame(true);
+            this.closed = true;
+        }
+    }
+
+    private static class FrameInputStream extends InputStream {
+        private final InputStream is;
+        private final SecretKey key;
+        private final byte[] noncePrefix;
+        private final Cipher cipher;
+        private byte[] encrypted = new byte[0];
+        private byte[] plain = new byte[0];
+        private int position = 0;
+        private int size = 0;
+        private int frameNumber = 0;
+        private boolean lastFrameRead = false;
+
+        FrameInputStream(InputStream is, SecretKey key, byte[] noncePrefix) throws ASAPSecurityException {
+            this.is = is;
+            this.key = key;
+            this.noncePrefix = noncePrefix;
+            try {
+                this.cipher = Cipher.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new ASAPSecurityException("framed encryption not available: " + ALGORITHM, e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            while(this.position == this.size) {
+                if(this.lastFrameRead) return -1;
+                this.readFrame();
+            }
+
+            int number = Math.min(len, this.size - this.position);
+            System.arraycopy(this.plain, this.position, b, off, number);
+            this.position += number;
+            return number;
+        }
+
+        @Override
+        public int available() {
+            return this.size - this.position;
+        }
+
+        private void readFrame() throws IOException {
+            int lengthField = readFrameLength(this.is);
+            boolean last = (lengthField & LAST_FRAME_FLAG) != 0;
+            int length = lengthField & ~LAST_FRAME_FLAG;
+            if(length > MAX_FRAME_SIZE) throw new IOException("encrypted frame exceeds limit: " + length);
+
+            int encryptedLength = length + TAG_LENGTH;
+            if(this.encrypted.length < encryptedLength) {
+                this.encrypted = new byte[encryptedLength];
+                this.plain = new byte[length];
+            }
+            ASAPSerialization.readFully(this.is, this.encrypted, 0, encryptedLength);
+
+            try {
+                this.cipher.init(Cipher.DECRYPT_MODE, this.key, nonce(this.noncePrefix, this.frameNumber++, last));
+                this.size = this.cipher.doFinal(this.encrypted, 0, encryptedLength, this.plain, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("encrypted frame not authentic", e);
+            }
+            this.position = 0;
+            this.lastFrameRead = last;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package net.sharksystem.asap.crypto;
+
+import net.sharksystem.asap.ASAPSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Symmetric session keys for framed encryption. A sender uses the same key for messages to a recipient
+ * until it is rotated (number of messages or age) - the key is encrypted with recipients' public key only
+ * once. A recipient remembers keys it decrypted: a known encrypted key is not decrypted again. Both sides
+ * only use key stores as before.
+ * <p>
+ * Session keys are kept per key store and are dropped with it - a key store that is no longer used does not
+ * keep its keys in memory. Each message encrypted with a session key gets its number as nonce prefix - a
+ * nonce prefix is never used twice with the same key.
+ *
+ * @author thsc
+ */
+public class ASAPSessionKeys {
+    public static final int DEFAULT_MAX_MESSAGES_PER_KEY = 10000;
+    public static final long DEFAULT_MAX_KEY_AGE_MS = 60 * 60 * 1000; // an hour
+    /** received keys remembered per key store */
+    public static final int RECEIVED_KEYS_CACHE_SIZE = 256;
+    /** length of nonce prefix made of message number */
+    static final int NONCE_PREFIX_LENGTH = 7;
+
+    private static int maxMessagesPerKey = DEFAULT_MAX_MESSAGES_PER_KEY;
+    private static long maxKeyAge = DEFAULT_MAX_KEY_AGE_MS;
+
+    // key store -> its session keys, entry is dropped when key store is garbage
+    private static final Map<ASAPKeyStore, KeyStoreSessionKeys> sessionKeys = new WeakHashMap<>();
+
+    /**
+     * @param number messages encrypted with a session key - 1: new key with each message
+     */
+    public static synchronized void setMaxMessagesPerKey(int number) {
+        if(number < 1) throw new IllegalArgumentException("a key is used at least once");
+        maxMessagesPerKey = number;
+    }
+
+    /**
+     * @param milliseconds session key is replaced after that time
+     */
+    public static synchronized void setMaxKeyAge(long milliseconds) {
+        maxKeyAge = milliseconds;
+    }
+
+    /**
+     * Forget all session keys, e.g. after a key pair was replaced.
+     */
+    public static synchronized void clear() {
+        sessionKeys.clear();
+    }
+
+    /** @return number of key stores session keys are kept for */
+    static synchronized int getNumberKeyStores() {
+        return sessionKeys.size();
+    }
+
+    /**
+     * Session keys of a key store. Must not refer to its key store.
+     */
+    private static class KeyStoreSessionKeys {
+        // recipient -> key
+        private final Map<String, SessionKey> sendingKeys = new HashMap<>();
+        // received keys can only be decrypted with that private key
+        private PrivateKey privateKey;
+        // least recently used key is dropped
+        private final Map<ByteBuffer, SecretKey> receivedKeys =
+                new LinkedHashMap<ByteBuffer, SecretKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKey> eldest) {
+                return this.size() > RECEIVED_KEYS_CACHE_SIZE;
+            }
+        };
+
+        private Map<ByteBuffer, SecretKey> getReceivedKeys(PrivateKey privateKey) {
+            // owner got a new key pair
+            if(!privateKey.equals(this.privateKey)) {
+                this.receivedKeys.clear();
+                this.privateKey = privateKey;
+            }
+            return this.receivedKeys;
+        }
+    }
+
+    private static KeyStoreSessionKeys getSessionKeys(ASAPKeyStore ASAPKeyStore) {
+        KeyStoreSessionKeys keys = sessionKeys.get(ASAPKeyStore);
+        if(keys == null) {
+            keys = new KeyStoreSessionKeys();
+            sessionKeys.put(ASAPKeyStore, keys);
+        }
+        return keys;
+    }
+
+    static class SessionKey {
+        private final SecretKey key;
+        private final byte[] encryptedKey;
+        private final PublicKey recipientKey;
+        private final long creationTime;
+        private long used = 0;
+
+        SessionKey(SecretKey key, byte[] encryptedKey, PublicKey recipientKey) {
+            this.key = key;
+            this.encryptedKey = encryptedKey;
+            this.recipientKey = recipientKey;
+            this.creationTime = System.currentTimeMillis();
+        }
+
+        SecretKey getKey() { return this.key; }
+
+        /** @return symmetric key encrypted with recipients' public key */
+        byte[] getEncryptedKey() { return this.encryptedKey; }
+
+        /** @return nonce prefix of next message - made of its number */
+        private byte[] nextNoncePrefix() {
+            long number = ++this.used;
+            byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            for(int i = NONCE_PREFIX_LENGTH - 1; i >= 0; i--) {
+                noncePrefix[i] = (byte) number;
+                number >>= 8;
+            }
+            return noncePrefix;
+        }
+
+        private boolean usable(PublicKey recipientKey) {
+            return this.used < maxMessagesPerKey
+                    && System.currentTimeMillis() - this.creationTime < maxKeyAge
+                    // recipient got a new key pair
+                    && this.recipientKey.equals(recipientKey);
+        }
+    }
+
+    /**
+     * Key and nonce prefix of a single message
+     */
+    static class MessageKey {
+        private final SessionKey sessionKey;
+        private final byte[] noncePrefix;
+
+        MessageKey(SessionKey sessionKey, byte[] noncePrefix) {
+            this.sessionKey = sessionKey;
+            this.noncePrefix = noncePrefix;
+        }
+
+        SecretKey getKey() { return this.sessionKey.getKey(); }
+
+        /** @return symmetric key encrypted with recipients' public key */
+        byte[] getEncryptedKey() { return this.sessionKey.getEncryptedKey(); }
+
+        /** @return nonce prefix - not used with this key before */
+        byte[] getNoncePrefix() { return this.noncePrefix; }
+    }
+
+    /**
+     * @return key to encrypt next message to recipient
+     */
+    static MessageKey getSendingKey(CharSequence recipient, ASAPKeyStore ASAPKeyStore)
+            throws ASAPSecurityException {
+
+        PublicKey publicKey = ASAPKeyStore.getPublicKey(recipient);
+        // there should be an exception - but better safe than sorry
+        if(publicKey == null) {
+            throw new ASAPSecurityException("recipients' public key cannot be found");
+        }
+
+        String id = recipient.toString();
+        synchronized(ASAPSessionKeys.class) {
+            SessionKey sessionKey = getSessionKeys(ASAPKeyStore).sendingKeys.get(id);
+            if(sessionKey != null && sessionKey.usable(publicKey)) {
+                return new MessageKey(sessionKey, sessionKey.nextNoncePrefix());
+            }
+        }
+
+        // rotate - asymmetric encryption outside lock
+        SecretKey key = ASAPKeyStore.generateSymmetricKey();
+        SessionKey sessionKey = new SessionKey(key, encryptAsymmetric(key.getEncoded(), publicKey, ASAPKeyStore),
+                publicKey);
+
+        synchronized(ASAPSessionKeys.class) {
+            getSessionKeys(ASAPKeyStore).sendingKeys.put(id, sessionKey);
+            return new MessageKey(sessionKey, sessionKey.nextNoncePrefix());
+        }
+    }
+
+    /**
+     * @param encryptedKey symmetric key encrypted with owners' public key
+     * @return symmetric key
+     */
+    static SecretKey getReceivedKey(byte[] encryptedKey, ASAPKeyStore ASAPKeyStore) throws ASAPSecurityException {
+        PrivateKey privateKey = ASAPKeyStore.getPrivateKey();
+        ByteBuffer id = ByteBuffer.wrap(encryptedKey.clone());
+
+        synchronized(ASAPSessionKeys.class) {
+            SecretKey key = getSessionKeys(ASAPKeyStore).getReceivedKeys(privateKey).get(id);
+            if(key != null) return key;
+        }
+
+        // unknown key - asymmetric decryption outside lock
+        SecretKey key = ASAPCryptoAlgorithms.createSymmetricKey(
+                ASAPCryptoAlgorithms.decryptAsymmetric(encryptedKey, ASAPKeyStore), ASAPKeyStore);
+
+        synchronized(ASAPSessionKeys.class) {
+            getSessionKeys(ASAPKeyStore).getReceivedKeys(privateKey).put(id, key);
+        }
+        return key;
+    }
+
+    private static byte[] encryptAsymmetric(byte[] bytes, PublicKey publicKey, ASAPKeyStore ASAPKeyStore)
+            throws ASAPSecurityException {
+        try {
+            Cipher cipher = Cipher.getInstance(ASAPKeyStore.getAsymmetricEncryptionAlgorithm());
+            cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+            return cipher.doFinal(bytes);
+        } catch (GeneralSecurityException e) {
+            throw new ASAPSecurityException("problems when encrypting", e);
+        }
+    }
+}
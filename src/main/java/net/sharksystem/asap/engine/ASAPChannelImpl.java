@@ -35,17 +35,17 @@ public class ASAPChannelImpl implements ASAPChannel {
 
     @Override
     public HashMap<String, String> getExtraData() throws IOException {
-        return this.asapEngine.getStorage().getChunk(uri, this.asapEngine.getEra()).getExtraData();
+        return this.asapEngine.getChannelChunk(uri).getExtraData();
     }
 
     @Override
     public void putExtraData(String key, String value) throws IOException {
-        this.asapEngine.getStorage().getChunk(uri, this.asapEngine.getEra()).putExtra(key, value);
+        this.asapEngine.getCurrentChunk(uri).putExtra(key, value);
     }
 
     @Override
     public void removeExtraData(String key) throws IOException {
-        this.asapEngine.getStorage().getChunk(uri, this.asapEngine.getEra()).removeExtra(key);
+        this.asapEngine.getCurrentChunk(uri).removeExtra(key);
     }
 
     @Override
@@ -0,0 +1,175 @@
+package net.sharksystem.asap.engine;
+
+import java.io.*;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Start offsets of messages in a chunk content file. Index is kept in an append-only file with
+ * fixed-width records (8 byte, big endian) - one record for each message but the first one (offset 0 is implicit).
+ * Appending a message costs a single record - there is no need to rewrite the whole list.
+ *
+ * @author thsc
+ */
+class ASAPChunkOffsetIndex {
+    public static final String INDEX_EXTENSION = "idx";
+    static final int RECORD_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final File indexFile;
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // kept open while a batch of messages is appended
+    private DataOutputStream appendStream = null;
+
+    ASAPChunkOffsetIndex(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    boolean exists() {
+        return this.indexFile.exists();
+    }
+
+    /**
+     * read index file. An incomplete last record (e.g. after a crash) is ignored.
+     * @throws IOException
+     */
+    void load() throws IOException {
+        this.size = 0;
+        if(!this.indexFile.exists()) return;
+
+        long records = this.indexFile.length() / RECORD_SIZE;
+        if(records > Integer.MAX_VALUE) throw new IOException("index file too large: " + this.indexFile);
+        this.offsets = new long[Math.max(INITIAL_CAPACITY, (int) records)];
+
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)));
+        try {
+            for(int i = 0; i < records; i++) {
+                this.offsets[this.size++] = dis.readLong();
+            }
+        }
+        finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * replace index with a list - used to migrate offsets from former meta data format
+     * @param offsetList
+     * @throws IOException
+     */
+    void write(List<Long> offsetList) throws IOException {
+        this.close();
+        this.offsets = new long[Math.max(INITIAL_CAPACITY, offsetList.size())];
+        this.size = 0;
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.indexFile)));
+        try {
+            for(Long offset : offsetList) {
+                dos.writeLong(offset);
+                this.offsets[this.size++] = offset;
+            }
+        }
+        finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * append an offset. File is opened if necessary and kept open until close is called.
+     * @param offset
+     * @throws IOException
+     */
+    void append(long offset) throws IOException {
+        if(this.appendStream == null) {
+            if(!this.indexFile.getParentFile().exists()) {
+                this.indexFile.getParentFile().mkdirs();
+            }
+            this.appendStream = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(this.indexFile, true)));
+        }
+
+        this.appendStream.writeLong(offset);
+
+        if(this.size == this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        }
+        this.offsets[this.size++] = offset;
+    }
+
+    /**
+     * write buffered records - index file is kept open
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        if(this.appendStream != null) this.appendStream.flush();
+    }
+
+    /**
+     * write buffered records and close index file
+     * @throws IOException
+     */
+    void close() throws IOException {
+        if(this.appendStream != null) {
+            DataOutputStream dos = this.appendStream;
+            this.appendStream = null;
+            dos.close();
+        }
+    }
+
+    void delete() {
+        try {
+            this.close();
+        } catch (IOException e) {
+            // going to delete it anyway
+        }
+        this.indexFile.delete();
+        this.size = 0;
+    }
+
+    /**
+     * @return false if index file was changed by another object or process
+     */
+    boolean isUpToDate() {
+        if(this.appendStream != null) return true; // we are writing
+        return this.indexFile.length() == (long) this.size * RECORD_SIZE;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    long get(int index) {
+        if(index < 0 || index >= this.size) throw new IndexOutOfBoundsException("index: " + index);
+        return this.offsets[index];
+    }
+
+    /**
+     * @return read-only list view - no copy of the offsets. Offsets appended later are not part of that view.
+     */
+    List<Long> asList() {
+        return new OffsetListView(this.size);
+    }
+
+    private class OffsetListView extends AbstractList<Long> implements RandomAccess {
+        private final int size;
+
+        OffsetListView(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Long get(int index) {
+            if(index >= this.size) throw new IndexOutOfBoundsException("index: " + index);
+            return ASAPChunkOffsetIndex.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+    }
+}
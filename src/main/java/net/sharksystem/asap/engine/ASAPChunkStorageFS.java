@@ -3,16 +3,13 @@ package net.sharksystem.asap.engine;
 import net.sharksystem.utils.Utils;
 import net.sharksystem.asap.ASAP;
 import net.sharksystem.asap.ASAPException;
-import net.sharksystem.asap.ASAPChunkStorage;
 import net.sharksystem.asap.ASAPMessages;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.fs.FSUtils;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 import static net.sharksystem.asap.engine.ASAPInternalChunkFS.META_DATA_EXTENSION;
 
@@ -20,10 +17,33 @@ import static net.sharksystem.asap.engine.ASAPInternalChunkFS.META_DATA_EXTENSIO
  *
  * @author thsc
  */
-class ASAPChunkStorageFS implements ASAPChunkStorage {
+class ASAPChunkStorageFS implements ASAPLocalChunkStorage {
+    /** max number of chunk objects kept for each storage folder */
+    public static final int DEFAULT_CHUNK_CACHE_SIZE = 128;
+    private static int chunkCacheSize = DEFAULT_CHUNK_CACHE_SIZE;
+
+    /*
+    Chunk objects are shared by all storage objects with same root folder - there can be more than one
+    engine for a folder. Cached chunks write meta data through. Changes by other processes are detected
+    by a cheap file state check.
+     */
+    private static final Map<String, ChunkCache> chunkCaches = new HashMap<>();
+
     private final String rootDirectory;
     private final String format;
     private int era = -1;
+    private ChunkCache chunkCache = null;
+    private ASAPStorageManifest manifest = null;
+
+    /**
+     * @param size max number of chunk objects kept for each storage. 0 switches cache off.
+     */
+    static void setChunkCacheSize(int size) {
+        synchronized(chunkCaches) {
+            chunkCacheSize = size < 0 ? 0 : size;
+            for(ChunkCache cache : chunkCaches.values()) cache.clear();
+        }
+    }
 
     ASAPChunkStorageFS(String rootDirectory, String format) {
         this.rootDirectory = rootDirectory;
@@ -44,9 +64,84 @@ class ASAPChunkStorageFS implements ASAPChunkStorage {
         return this.rootDirectory;
     }
 
+    @Override
+    public boolean isMessageCacheable() {
+        return true;
+    }
+
+    ASAPStorageManifest getManifest() {
+        if(this.manifest == null) {
+            this.manifest = ASAPStorageManifest.getManifest(this.rootDirectory);
+        }
+        return this.manifest;
+    }
+
+    private ChunkCache getChunkCache() {
+        if(this.chunkCache == null) {
+            // same key as message block cache - both must see a folder as one storage
+            String key = FSUtils.getCanonicalPath(this.rootDirectory);
+            synchronized(chunkCaches) {
+                this.chunkCache = chunkCaches.get(key);
+                if(this.chunkCache == null) {
+                    this.chunkCache = new ChunkCache();
+                    chunkCaches.put(key, this.chunkCache);
+                }
+            }
+        }
+
+        return this.chunkCache;
+    }
+
+    /**
+     * @param chunkName chunk file name - known from manifest without reading a chunk
+     */
+    private static String getChunkCacheKey(int era, String chunkName) {
+        return era + "/" + chunkName;
+    }
+
     @Override
     public ASAPInternalChunk getChunk(CharSequence uriTarget, int era) throws IOException {
-        return new ASAPInternalChunkFS(this, uriTarget.toString(), era);
+        ChunkCache cache = this.getChunkCache();
+        String key = getChunkCacheKey(era, Utils.url2FileName(uriTarget.toString()));
+        synchronized(cache) {
+            ASAPInternalChunkFS chunk = cache.get(key);
+            if(chunk != null && chunk.isUpToDate()) return chunk;
+
+            chunk = new ASAPInternalChunkFS(this, uriTarget.toString(), era);
+            cache.put(key, chunk);
+            return chunk;
+        }
+    }
+
+    /**
+     * take cached object if any - chunk is only set up from its files (meta data parsed) if not
+     */
+    private ASAPInternalChunkFS getCachedChunk(int era, String chunkName) throws IOException {
+        ChunkCache cache = this.getChunkCache();
+        String key = getChunkCacheKey(era, chunkName);
+        synchronized(cache) {
+            ASAPInternalChunkFS chunk = cache.get(key);
+            if(chunk != null && chunk.isUpToDate()) return chunk;
+
+            chunk = new ASAPInternalChunkFS(this, era, this.getFileNameByUri(era, chunkName));
+            cache.put(key, chunk);
+            return chunk;
+        }
+    }
+
+    /**
+     * called by chunk when dropped
+     */
+    void chunkDropped(ASAPInternalChunkFS chunk) throws IOException {
+        this.getManifest().chunkDropped(chunk.getEra(), Utils.url2FileName(chunk.getUri()));
+
+        ChunkCache cache = this.getChunkCache();
+        synchronized(cache) {
+            Iterator<ASAPInternalChunkFS> iterator = cache.values().iterator();
+            while(iterator.hasNext()) {
+                if(iterator.next() == chunk) iterator.remove();
+            }
+        }
     }
 
     @Override
@@ -72,17 +167,23 @@ class ASAPChunkStorageFS implements ASAPChunkStorage {
      * @return full name (path/name) of that given url and target. Directories
      * are created if necessary.
      */
-    String setupChunkFolder(int era, String targetUrl) {
+    String setupChunkFolder(int era, String targetUrl) throws IOException {
         String eraFolderString = this.getPath(era);
         File eraFolder = new File(eraFolderString);
         Log.writeLog(this, "setup chunk folder: " + eraFolderString);
         Log.writeLog(this, "setup chunk folder-file: " + eraFolder);
         if(!eraFolder.exists()) {
             Log.writeLog(this, "folder does not exist - create: " + eraFolderString);
+            File rootFolder = new File(this.rootDirectory);
+            boolean rootCreated = !rootFolder.exists();
             eraFolder.mkdirs();
+            if(rootCreated) ASAPStorageManifest.folderCreated(rootFolder);
         }
         
-        String fileName = eraFolderString + "/" + Utils.url2FileName(targetUrl);
+        String chunkName = Utils.url2FileName(targetUrl);
+        this.getManifest().addChunk(era, chunkName);
+
+        String fileName = eraFolderString + "/" + chunkName;
         return fileName;
     }
 
@@ -103,40 +204,52 @@ class ASAPChunkStorageFS implements ASAPChunkStorage {
     @Override
     public List<ASAPInternalChunk> getChunks(int era) throws IOException {
         List<ASAPInternalChunk> chunkList = new ArrayList<>();
-        
-        File dir = new File(this.getPath(era));
-        
-        // can be null!
-        File[] contentFileList = dir.listFiles(new FilenameFilter() {
-                @Override
-                public boolean accept(File dir, String fileName) {
-                    return fileName.endsWith(META_DATA_EXTENSION);
-                }
-            });
-
-        if(contentFileList != null) {
-            for (int i = 0; i < contentFileList.length; i++) {
-                String name = contentFileList[i].getName();
-
-                // cut extension
-                int index = name.lastIndexOf('.');
-                if(index != -1) {
-                    String chunkName = name.substring(0, index);
-                    String fName = this.getFileNameByUri(era, chunkName);
-                    chunkList.add(new ASAPInternalChunkFS(this, fName));
-                }
-            }
+
+        // no directory listing - chunks are taken from manifest
+        for(String chunkName : this.getManifest().getChunkNames(era)) {
+            chunkList.add(this.getCachedChunk(era, chunkName));
         }
         
         return chunkList;
     }
 
+    @Override
+    public NavigableSet<Integer> getEras() throws IOException {
+        return this.getManifest().getEras();
+    }
+
+    @Override
+    public NavigableSet<Integer> getChannelEras(CharSequence uri) throws IOException {
+        return this.getManifest().getChunkEras(Utils.url2FileName(uri.toString()));
+    }
+
+    @Override
+    public Set<CharSequence> getChannelURIs() throws IOException {
+        // chunk names are no uris - uri is taken from a (usually cached) chunk
+        Set<CharSequence> uris = new HashSet<>();
+        for(Map.Entry<String, Integer> chunkName : this.getManifest().getChunkNames().entrySet()) {
+            uris.add(this.getCachedChunk(chunkName.getValue(), chunkName.getKey()).getUri());
+        }
+        return uris;
+    }
+
     @Override
     public void dropChunks(int era) throws IOException {
         // here comes a Java 6 compatible version - fits to android SDK 23
         String eraPathName = this.rootDirectory + "/" + Integer.toString(era);
 
         FSUtils.removeFolder(eraPathName);
+        this.getManifest().eraDropped(era);
+        ASAPMessageBlockCache.getInstance().invalidateAll(this.rootDirectory, era, null);
+
+        ChunkCache cache = this.getChunkCache();
+        String eraPrefix = getChunkCacheKey(era, "");
+        synchronized(cache) {
+            Iterator<String> iterator = cache.keySet().iterator();
+            while(iterator.hasNext()) {
+                if(iterator.next().startsWith(eraPrefix)) iterator.remove();
+            }
+        }
     }
 
     @Override
@@ -179,4 +292,20 @@ class ASAPChunkStorageFS implements ASAPChunkStorage {
         sb.append(this.era);
         return sb.toString();
     }
+
+    /**
+     * bounded cache of chunk objects - least recently used are removed first
+     */
+    private static class ChunkCache extends LinkedHashMap<String, ASAPInternalChunkFS> {
+        private static final long serialVersionUID = 1L;
+
+        ChunkCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ASAPInternalChunkFS> eldest) {
+            return this.size() > chunkCacheSize;
+        }
+    }
 }
@@ -0,0 +1,228 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAP;
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPMessages;
+import net.sharksystem.utils.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Chunk storage that keeps chunks in memory only. Chunks are kept per root directory name within this
+ * process - storage objects with the same root directory share their chunks like file based storages
+ * share a folder. Nothing is written to disk.
+ *
+ * @author thsc
+ */
+class ASAPChunkStorageInMemo implements ASAPLocalChunkStorage {
+    // root directory -> era -> uri -> chunk
+    private static final Map<String, TreeMap<Integer, Map<String, ASAPInternalChunkInMemo>>> storages
+            = new HashMap<>();
+    // root directory -> uri -> eras with a chunk of that channel; guarded by eras map of that root
+    private static final Map<String, Map<String, TreeSet<Integer>>> channelIndexes = new HashMap<>();
+
+    private final String rootDirectory;
+    private final String format;
+    private int era = -1;
+    private final TreeMap<Integer, Map<String, ASAPInternalChunkInMemo>> eras;
+    private final Map<String, TreeSet<Integer>> channelEras;
+
+    ASAPChunkStorageInMemo(String rootDirectory, String format) {
+        this.rootDirectory = rootDirectory;
+        this.format = format;
+        this.eras = getEras(rootDirectory);
+        this.channelEras = getChannelIndex(rootDirectory);
+    }
+
+    ASAPChunkStorageInMemo(String rootDirectory, String format, int era) {
+        this(rootDirectory, format);
+        this.era = era;
+    }
+
+    static String getKey(String rootDirectory) {
+        return new File(rootDirectory).getAbsolutePath();
+    }
+
+    private static TreeMap<Integer, Map<String, ASAPInternalChunkInMemo>> getEras(String rootDirectory) {
+        String key = getKey(rootDirectory);
+        synchronized(storages) {
+            TreeMap<Integer, Map<String, ASAPInternalChunkInMemo>> eras = storages.get(key);
+            if(eras == null) {
+                eras = new TreeMap<>();
+                storages.put(key, eras);
+            }
+            return eras;
+        }
+    }
+
+    private static Map<String, TreeSet<Integer>> getChannelIndex(String rootDirectory) {
+        String key = getKey(rootDirectory);
+        synchronized(storages) {
+            Map<String, TreeSet<Integer>> channelIndex = channelIndexes.get(key);
+            if(channelIndex == null) {
+                channelIndex = new HashMap<>();
+                channelIndexes.put(key, channelIndex);
+            }
+            return channelIndex;
+        }
+    }
+
+    /**
+     * remove chunks of that storage and of all storages in sub folders
+     */
+    static void release(String rootDirectory) {
+        String key = getKey(rootDirectory);
+        synchronized(storages) {
+            Iterator<String> keyIter = storages.keySet().iterator();
+            while(keyIter.hasNext()) {
+                String storageKey = keyIter.next();
+                if(storageKey.equals(key) || storageKey.startsWith(key + File.separator)) {
+                    keyIter.remove();
+                    channelIndexes.remove(storageKey);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getFormat() {
+        return this.format;
+    }
+
+    @Override
+    public String getRootDirectory() {
+        return this.rootDirectory;
+    }
+
+    @Override
+    public boolean isMessageCacheable() {
+        // messages are kept in memory anyway - no need to cache copies
+        return false;
+    }
+
+    @Override
+    public ASAPInternalChunk getChunk(CharSequence uri, int era) {
+        synchronized(this.eras) {
+            Map<String, ASAPInternalChunkInMemo> chunks = this.eras.get(era);
+            if(chunks == null) {
+                chunks = new HashMap<>();
+                this.eras.put(era, chunks);
+            }
+            ASAPInternalChunkInMemo chunk = chunks.get(uri.toString());
+            if(chunk == null) {
+                chunk = new ASAPInternalChunkInMemo(this, uri.toString(), era);
+                chunks.put(uri.toString(), chunk);
+
+                TreeSet<Integer> channelEras = this.channelEras.get(uri.toString());
+                if(channelEras == null) {
+                    channelEras = new TreeSet<>();
+                    this.channelEras.put(uri.toString(), channelEras);
+                }
+                channelEras.add(era);
+            }
+            return chunk;
+        }
+    }
+
+    @Override
+    public boolean existsChunk(CharSequence uri, int era) {
+        synchronized(this.eras) {
+            Map<String, ASAPInternalChunkInMemo> chunks = this.eras.get(era);
+            return chunks != null && chunks.containsKey(uri.toString());
+        }
+    }
+
+    @Override
+    public List<ASAPInternalChunk> getChunks(int era) {
+        synchronized(this.eras) {
+            Map<String, ASAPInternalChunkInMemo> chunks = this.eras.get(era);
+            if(chunks == null) return new ArrayList<>();
+            return new ArrayList<ASAPInternalChunk>(chunks.values());
+        }
+    }
+
+    @Override
+    public void dropChunks(int era) {
+        synchronized(this.eras) {
+            Map<String, ASAPInternalChunkInMemo> chunks = this.eras.remove(era);
+            if(chunks != null) {
+                for(String uri : chunks.keySet()) this.removeFromIndex(era, uri);
+            }
+        }
+    }
+
+    private void removeFromIndex(int era, String uri) {
+        TreeSet<Integer> channelEras = this.channelEras.get(uri);
+        if(channelEras != null) {
+            channelEras.remove(era);
+            if(channelEras.isEmpty()) this.channelEras.remove(uri);
+        }
+    }
+
+    void chunkDropped(ASAPInternalChunkInMemo chunk) {
+        synchronized(this.eras) {
+            Map<String, ASAPInternalChunkInMemo> chunks = this.eras.get(chunk.getEra());
+            if(chunks != null && chunks.get(chunk.getUri()) == chunk) {
+                chunks.remove(chunk.getUri());
+                if(chunks.isEmpty()) this.eras.remove(chunk.getEra());
+                this.removeFromIndex(chunk.getEra(), chunk.getUri());
+            }
+        }
+    }
+
+    @Override
+    public NavigableSet<Integer> getEras() {
+        synchronized(this.eras) {
+            return new TreeSet<>(this.eras.keySet());
+        }
+    }
+
+    @Override
+    public NavigableSet<Integer> getChannelEras(CharSequence uri) {
+        synchronized(this.eras) {
+            TreeSet<Integer> channelEras = this.channelEras.get(uri.toString());
+            return channelEras == null ? new TreeSet<Integer>() : new TreeSet<>(channelEras);
+        }
+    }
+
+    @Override
+    public Set<CharSequence> getChannelURIs() {
+        synchronized(this.eras) {
+            return new HashSet<CharSequence>(this.channelEras.keySet());
+        }
+    }
+
+    @Override
+    public ASAPMessages getASAPMessages(CharSequence uri, int toEra) throws IOException {
+        int fromEra = ASAP.nextEra(toEra); // the whole cycle
+        return this.getASAPMessages(uri, fromEra, toEra);
+    }
+
+    @Override
+    public ASAPMessages getASAPMessages(CharSequence uri, int fromEra, int toEra) throws IOException {
+        Log.writeLog(this, "create ASAPInMemoMessages");
+        return new ASAPInMemoMessages(this, this.getFormat(), uri, fromEra, toEra);
+    }
+
+    @Override
+    public ASAPMessages getASAPMessages(String uri) throws ASAPException, IOException {
+        if(this.era == -1) {
+            throw new ASAPException("internal error: era not set - use other constructor or method");
+        }
+        return this.getASAPMessages(uri, this.era);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(": ");
+        sb.append(this.rootDirectory);
+        sb.append(" | ");
+        sb.append(this.format);
+        sb.append(" | ");
+        sb.append(this.era);
+        return sb.toString();
+    }
+}
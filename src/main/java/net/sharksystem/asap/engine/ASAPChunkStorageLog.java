@@ -0,0 +1,141 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAP;
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPMessages;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Chunk storage that keeps all eras and chunks in a segmented log - see ASAPSegmentedLog.
+ *
+ * @author thsc
+ */
+class ASAPChunkStorageLog implements ASAPLocalChunkStorage {
+    private final String rootDirectory;
+    private final String format;
+    private int era = -1;
+
+    ASAPChunkStorageLog(String rootDirectory, String format) {
+        this.rootDirectory = rootDirectory;
+        this.format = format;
+    }
+
+    ASAPChunkStorageLog(String rootDirectory, String format, int era) {
+        this(rootDirectory, format);
+        this.era = era;
+    }
+
+    /**
+     * @param create create log if it does not exist yet
+     * @return log or null if there is no log yet and create == false
+     */
+    ASAPSegmentedLog getLog(boolean create) throws IOException {
+        return ASAPSegmentedLog.getLog(this.rootDirectory, create);
+    }
+
+    @Override
+    public String getFormat() {
+        return this.format;
+    }
+
+    @Override
+    public String getRootDirectory() {
+        return this.rootDirectory;
+    }
+
+    @Override
+    public boolean isMessageCacheable() {
+        return true;
+    }
+
+    @Override
+    public ASAPInternalChunk getChunk(CharSequence uri, int era) throws IOException {
+        this.getLog(true).getOrCreateEntry(era, uri.toString());
+        return new ASAPInternalChunkLog(this, uri.toString(), era);
+    }
+
+    @Override
+    public boolean existsChunk(CharSequence uri, int era) throws IOException {
+        ASAPSegmentedLog log = this.getLog(false);
+        return log != null && log.getEntry(era, uri.toString()) != null;
+    }
+
+    @Override
+    public List<ASAPInternalChunk> getChunks(int era) throws IOException {
+        List<ASAPInternalChunk> chunkList = new ArrayList<>();
+        ASAPSegmentedLog log = this.getLog(false);
+        if(log == null) return chunkList;
+
+        for(ASAPSegmentedLog.ChunkEntry entry : log.getEntries(era)) {
+            chunkList.add(new ASAPInternalChunkLog(this, entry.uri, era));
+        }
+        return chunkList;
+    }
+
+    @Override
+    public void dropChunks(int era) throws IOException {
+        ASAPSegmentedLog log = this.getLog(false);
+        if(log != null) log.dropEra(era);
+    }
+
+    @Override
+    public NavigableSet<Integer> getEras() throws IOException {
+        ASAPSegmentedLog log = this.getLog(false);
+        if(log == null) return new TreeSet<>();
+        return log.getEras();
+    }
+
+    @Override
+    public NavigableSet<Integer> getChannelEras(CharSequence uri) throws IOException {
+        ASAPSegmentedLog log = this.getLog(false);
+        if(log == null) return new TreeSet<>();
+        return log.getChannelEras(uri.toString());
+    }
+
+    @Override
+    public Set<CharSequence> getChannelURIs() throws IOException {
+        ASAPSegmentedLog log = this.getLog(false);
+        if(log == null) return new HashSet<>();
+        return log.getChannelURIs();
+    }
+
+    @Override
+    public ASAPMessages getASAPMessages(CharSequence uri, int toEra) throws IOException {
+        int fromEra = ASAP.nextEra(toEra); // the whole cycle
+        return this.getASAPMessages(uri, fromEra, toEra);
+    }
+
+    @Override
+    public ASAPMessages getASAPMessages(CharSequence uri, int fromEra, int toEra) throws IOException {
+        Log.writeLog(this, "create ASAPInMemoMessages");
+        return new ASAPInMemoMessages(this, this.getFormat(), uri, fromEra, toEra);
+    }
+
+    @Override
+    public ASAPMessages getASAPMessages(String uri) throws ASAPException, IOException {
+        if(this.era == -1) {
+            throw new ASAPException("internal error: era not set - use other constructor or method");
+        }
+        return this.getASAPMessages(uri, this.era);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(": ");
+        sb.append(this.rootDirectory);
+        sb.append(" | ");
+        sb.append(this.format);
+        sb.append(" | ");
+        sb.append(this.era);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package net.sharksystem.asap.engine;
+
+/**
+ * How an engine keeps its chunks in a folder.
+ *
+ * FILE_PER_CHUNK: a folder for each era, meta data and content files for each chunk.
+ * SEGMENTED_LOG: all eras and chunks in a few append-only segment files - see ASAPSegmentedLog.
+ * IN_MEMORY: nothing is written to disk - folder name is just a name. See ASAPEngineInMemo.
+ *
+ * Type of an existing storage is detected - it cannot be changed.
+ */
+public enum ASAPChunkStorageType {
+    FILE_PER_CHUNK, SEGMENTED_LOG, IN_MEMORY
+}
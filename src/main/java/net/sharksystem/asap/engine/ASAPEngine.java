@@ -12,10 +12,12 @@ import net.sharksystem.asap.utils.PeerIDHelper;
 import net.sharksystem.utils.Log;
 import net.sharksystem.asap.crypto.ASAPPoint2PointCryptoSettings;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * That ASAPEngine manages exchange of stored messages with peers.
@@ -49,7 +51,7 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
     protected boolean contentChanged = false;
     protected boolean routingAllowed = true;
 
-    protected ASAPEngine(ASAPChunkStorage chunkStorage, CharSequence chunkContentFormat)
+    protected ASAPEngine(ASAPLocalChunkStorage chunkStorage, CharSequence chunkContentFormat)
             throws ASAPException, IOException {
         //super(chunkStorage, chunkContentFormat);
 
@@ -101,6 +103,16 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
         return chunk.getRecipients().isEmpty();
     }
 
+    /**
+     * Engine state (era, last seen, chunks, memento) is only changed while holding this lock. Messages
+     * submitted asynchronously are written by another thread - see ASAPSubmissionQueue. Nothing is
+     * sent to peers while holding it.
+     */
+    final Object mutationLock = new Object();
+
+    /**
+     * take state changes of other engine objects of the same storage - call with mutation lock held
+     */
     abstract void syncMemento() throws IOException;
 
     @Override
@@ -109,6 +121,12 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
     }
 
     private void newEra(boolean force, int nextEra) {
+        synchronized(this.mutationLock) {
+            this.newEraLocked(force, nextEra);
+        }
+    }
+
+    private void newEraLocked(boolean force, int nextEra) {
         try {
             this.syncMemento();
         } catch (IOException e) {
@@ -130,18 +148,14 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
 
                 // persistent values
                 if(this.memento != null) this.memento.save(this);
+                this.getEraTimes().eraStarted(nextEra, System.currentTimeMillis());
 
                 // drop very very old chunks - if available
                 // This seems is a bug. We are dropping the next chunk and not old ones
                 // this.getChunkStorage().dropChunks(nextEra);
 
-                // setup new era - copy all chunks
-                for(ASAPInternalChunk chunk : this.getChunkStorage().getChunks(oldEra)) {
-                    ASAPInternalChunk copyChunk = this.getChunkStorage().getChunk(chunk.getUri(), nextEra);
-                    copyChunk.clone(chunk);
-                }
-
-                Log.writeLog(this, this.toString(), "era incremented");
+                // chunks are not copied into new era - see getCurrentChunk
+                Log.writeLog(this, this.toString(), "era incremented: " + oldEra + " -> " + nextEra);
             } catch (IOException ex) {
                 Log.writeLogErr(this, this.toString(),
                         "IOException while incrementing era: " + ex.getLocalizedMessage());
@@ -151,6 +165,122 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
         }
     }
 
+    ASAPEraTimes getEraTimes() {
+        return ASAPEraTimes.getEraTimes(this.chunkStorage.getRootDirectory(), true);
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    //                              Retention                           //
+    //////////////////////////////////////////////////////////////////////
+
+    /**
+     * Drop oldest eras as long as a limit of that policy is exceeded - see ASAPRetentionPolicy. Oldest era is
+     * advanced. Current era is never dropped. Pruning stops at the first era a peer in lastSeen has not got yet
+     * unless policy allows dropping it. Channel meta data of dropped eras are kept in current era.
+     *
+     * @return what was reclaimed
+     */
+    public ASAPRetentionReport prune(ASAPRetentionPolicy policy) throws IOException {
+        synchronized(this.mutationLock) {
+            return this.pruneLocked(policy);
+        }
+    }
+
+    private ASAPRetentionReport pruneLocked(ASAPRetentionPolicy policy) throws IOException {
+        this.syncMemento();
+        ASAPRetentionReport report =
+                new ASAPRetentionReport(this.chunkStorage.getRootDirectory(), this.format, this.oldestEra);
+        if(policy == null || policy.keepsAll() || this.oldestEra == this.era) return report;
+
+        // oldest first - without current era
+        List<Integer> eras = new ArrayList<>(ASAPUtils.getErasInRange(
+                this.chunkStorage.getEras(), this.oldestEra, this.getPreviousEra(this.era)));
+
+        long remainingBytes = this.getEraSize(this.era);
+        Map<Integer, Long> eraSizes = new HashMap<>();
+        for(Integer era : eras) {
+            long eraSize = this.getEraSize(era);
+            eraSizes.put(era, eraSize);
+            remainingBytes += eraSize;
+        }
+        int remainingEras = eras.size() + 1;
+
+        long maxEndTime = System.currentTimeMillis() - policy.getMaxAge();
+        ASAPEraTimes eraTimes = this.getEraTimes();
+
+        for(Integer era : eras) {
+            boolean tooMany = policy.getMaxEras() != ASAPRetentionPolicy.NO_LIMIT
+                    && remainingEras > policy.getMaxEras();
+
+            // era ended when next one started
+            long endTime = eraTimes.getStartTime(this.getNextEra(era));
+            boolean tooOld = policy.getMaxAge() != ASAPRetentionPolicy.NO_LIMIT
+                    && endTime != ASAPEraTimes.UNKNOWN && endTime < maxEndTime;
+
+            boolean tooLarge = policy.getMaxBytes() != ASAPRetentionPolicy.NO_LIMIT
+                    && remainingBytes > policy.getMaxBytes();
+
+            boolean undelivered = this.isUndelivered(era);
+            // eras are dropped from oldest on - no gaps
+            if(!(tooMany || tooOld || tooLarge)) break;
+            // peers have not got it yet
+            if(undelivered && !policy.dropsUndelivered()) break;
+
+            this.dropEra(era, report);
+            if(undelivered) report.undeliveredErasDropped++;
+            report.reclaimedBytes += eraSizes.get(era);
+            remainingBytes -= eraSizes.get(era);
+            remainingEras--;
+        }
+
+        if(report.reclaimedAnything()) {
+            int lastDropped = report.droppedEras.get(report.droppedEras.size() - 1);
+            this.oldestEra = this.getNextEra(lastDropped);
+            report.oldestEraAfter = this.oldestEra;
+            if(this.memento != null) this.memento.save(this);
+            eraTimes.erasDropped(report.droppedEras);
+            Log.writeLog(this, this.toString(), "pruned: " + report);
+        }
+
+        return report;
+    }
+
+    private long getEraSize(int era) throws IOException {
+        long size = 0;
+        for(ASAPInternalChunk chunk : this.chunkStorage.getChunks(era)) {
+            size += chunk.getLength();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if a peer we met has not yet got that era
+     */
+    private boolean isUndelivered(int era) {
+        if(this.lastSeen == null) return false;
+        for(Integer lastSeenEra : this.lastSeen.values()) {
+            // peer got everything before last seen era - ignore outdated entries
+            if(ASAP.isEraInRange(lastSeenEra, this.oldestEra, this.era)
+                    && ASAP.isEraInRange(era, lastSeenEra, this.era)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dropEra(int era, ASAPRetentionReport report) throws IOException {
+        for(ASAPInternalChunk chunk : this.chunkStorage.getChunks(era)) {
+            // keep channel meta data if there is no later chunk of that channel
+            ASAPInternalChunk latestChunk = this.getLatestChunk(chunk.getUri());
+            if(latestChunk != null && latestChunk.getEra() == era) {
+                this.getCurrentChunk(chunk.getUri());
+            }
+            report.droppedChunks++;
+        }
+        this.chunkStorage.dropChunks(era);
+        report.droppedEras.add(era);
+    }
+
     //////////////////////////////////////////////////////////////////////
     //                               Writer                             //
     //////////////////////////////////////////////////////////////////////
@@ -211,19 +341,70 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
     }
 
     public void addRecipient(CharSequence urlTarget, CharSequence recipient) throws IOException {
-        this.chunkStorage.getChunk(urlTarget, this.era).addRecipient(recipient);
+        synchronized(this.mutationLock) {
+            this.getCurrentChunk(urlTarget).addRecipient(recipient);
+        }
     }
 
     public void setRecipients(CharSequence urlTarget, Collection<CharSequence> recipients) throws IOException {
-        this.chunkStorage.getChunk(urlTarget, this.era).setRecipients(recipients);
+        synchronized(this.mutationLock) {
+            this.getCurrentChunk(urlTarget).setRecipients(recipients);
+        }
     }
 
     public Set<CharSequence> getRecipients(CharSequence urlTarget) throws IOException {
-        return this.chunkStorage.getChunk(urlTarget, this.era).getRecipients();
+        return this.getChannelChunk(urlTarget).getRecipients();
     }
 
     public void removeRecipient(CharSequence urlTarget, CharSequence recipient) throws IOException {
-        this.chunkStorage.getChunk(urlTarget, this.era).removeRecipient(recipient);
+        synchronized(this.mutationLock) {
+            this.getCurrentChunk(urlTarget).removeRecipient(recipient);
+        }
+    }
+
+    /**
+     * Era rollover does not copy chunks. Chunk of a channel in current era is created with first change.
+     * It gets meta data of latest chunk of that channel.
+     *
+     * @return chunk in current era - created if necessary
+     */
+    ASAPInternalChunk getCurrentChunk(CharSequence uri) throws IOException {
+        if(this.chunkStorage.existsChunk(uri, this.era)) {
+            return this.chunkStorage.getChunk(uri, this.era);
+        }
+
+        ASAPInternalChunk latestChunk = this.getLatestChunk(uri);
+        ASAPInternalChunk chunk = this.chunkStorage.getChunk(uri, this.era);
+        if(latestChunk != null) chunk.clone(latestChunk);
+        return chunk;
+    }
+
+    /**
+     * @return latest chunk of that channel to read channel meta data - nothing is created if there is one
+     */
+    ASAPInternalChunk getChannelChunk(CharSequence uri) throws IOException {
+        ASAPInternalChunk latestChunk = this.getLatestChunk(uri);
+        return latestChunk != null ? latestChunk : this.chunkStorage.getChunk(uri, this.era);
+    }
+
+    /**
+     * @return latest chunk of a channel - current era first, back to the era after current one (whole cycle).
+     * null if there is no chunk of that channel.
+     */
+    private ASAPInternalChunk getLatestChunk(CharSequence uri) throws IOException {
+        Integer latestEra = this.getLatestEra(this.chunkStorage.getChannelEras(uri));
+        return latestEra == null ? null : this.chunkStorage.getChunk(uri, latestEra);
+    }
+
+    /**
+     * @param channelEras eras of a channel - from channel index
+     * @return most recent era in era cycle that ends with current era, null if there is none
+     */
+    private Integer getLatestEra(NavigableSet<Integer> channelEras) {
+        if(channelEras.isEmpty()) return null;
+        Integer latestEra = channelEras.floor(this.era);
+        // eras after current era are from previous cycle
+        return latestEra != null ? latestEra : channelEras.last();
     }
 
     @Override
@@ -234,13 +415,20 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
     @Override
     public void add(CharSequence uri, byte[] messageAsBytes) throws IOException {
 //        Log.writeLog(this, this.toString(), "reached add(uri, byte[] message");
-        ASAPInternalChunk chunk = this.chunkStorage.getChunk(uri, this.era);
+        ASAPInternalChunk chunk;
+        int era;
+        synchronized(this.mutationLock) {
+            // always take meta information of other engine objects
+            this.syncMemento();
+            chunk = this.getCurrentChunk(uri);
 
-//        Log.writeLog(this, this.toString(), "call chunk.addMessage()");
-        chunk.addMessage(messageAsBytes);
+//            Log.writeLog(this, this.toString(), "call chunk.addMessage()");
+            chunk.addMessage(messageAsBytes);
 
-        // remember - something changed in that era
-        this.contentChanged();
+            // remember - something changed in that era
+            this.contentChanged();
+            era = this.era;
+        }
 
 //        Log.writeLog(this, this.toString(), "online?");
         if(this.asapOnlineMessageSender != null) {
@@ -248,7 +436,7 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
                 Log.writeLog(this, this.toString(), "send online message...");
                 this.asapOnlineMessageSender.sendASAPAssimilateMessage(
                         this.format, uri, chunk.getRecipients(),
-                        messageAsBytes, this.era);
+                        messageAsBytes, era);
             } catch (IOException | ASAPException e) {
                 Log.writeLog(this, this.toString(),
                     "message written to local storage - but could not write to open asap connection: " +
@@ -260,13 +448,106 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
         }
     }
 
+    @Override
+    public void addAll(CharSequence uri, Collection<byte[]> messagesAsBytes) throws IOException {
+        if(messagesAsBytes == null || messagesAsBytes.isEmpty()) return;
+
+        ASAPInternalChunk chunk = this.addAllLocally(uri, messagesAsBytes);
+        this.sendOnline(uri, chunk, messagesAsBytes);
+    }
+
+    private ASAPSubmissionQueue submissionQueue = null;
+
+    /**
+     * Add a message without waiting for disk and network. Message must not be changed until it is persisted.
+     * @return completes when message is persisted - receipt tells when it was handed to online peers
+     */
+    public CompletableFuture<ASAPDeliveryReceipt> addAsync(CharSequence uri, byte[] messageAsBytes) {
+        List<byte[]> messagesAsBytes = new ArrayList<>();
+        messagesAsBytes.add(messageAsBytes);
+        return this.addAllAsync(uri, messagesAsBytes);
+    }
+
+    /**
+     * Add messages without waiting for disk and network - see addAsync
+     */
+    public CompletableFuture<ASAPDeliveryReceipt> addAllAsync(CharSequence uri, Collection<byte[]> messagesAsBytes) {
+        synchronized(this) {
+            if(this.submissionQueue == null) this.submissionQueue = new ASAPSubmissionQueue(this);
+        }
+        return this.submissionQueue.submit(uri, new ArrayList<>(messagesAsBytes));
+    }
+
+    /**
+     * @return chunk messages were added to
+     */
+    ASAPInternalChunk addAllLocally(CharSequence uri, Collection<byte[]> messagesAsBytes) throws IOException {
+        synchronized(this.mutationLock) {
+            // always take meta information of other engine objects
+            this.syncMemento();
+            ASAPInternalChunk chunk = this.getCurrentChunk(uri);
+
+            // one write transaction - meta data and index are written once
+            chunk.startBatch();
+            try {
+                for(byte[] messageAsBytes : messagesAsBytes) {
+                    chunk.addMessage(messageAsBytes);
+                }
+            }
+            finally {
+                chunk.finishBatch();
+            }
+
+            // remember - something changed in that era
+            this.contentChanged();
+
+            return chunk;
+        }
+    }
+
+    /**
+     * send messages in one PDU to online peers
+     * @return number of peers PDU was handed to
+     */
+    int sendOnline(CharSequence uri, ASAPInternalChunk chunk, Collection<byte[]> messagesAsBytes)
+            throws IOException {
+
+        if(this.asapOnlineMessageSender == null) {
+            Log.writeLog(this, this.toString(), "online sending not active");
+            return 0;
+        }
+
+        // one PDU - messages one after another with offsets
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        List<Long> offsets = new ArrayList<>();
+        boolean first = true;
+        for(byte[] messageAsBytes : messagesAsBytes) {
+            // no offset for first message
+            if(!first) offsets.add((long) baos.size());
+            first = false;
+            baos.write(messageAsBytes);
+        }
+
+        try {
+            Log.writeLog(this, this.toString(), "send " + messagesAsBytes.size() + " online messages...");
+            return this.asapOnlineMessageSender.sendASAPAssimilateMessage(
+                    this.format, uri, chunk.getRecipients(),
+                    baos.toByteArray(), offsets, chunk.getEra());
+        } catch (IOException | ASAPException e) {
+            Log.writeLog(this, this.toString(),
+                "messages written to local storage - but could not write to open asap connection: " +
+                e.getLocalizedMessage());
+            return 0;
+        }
+    }
+
     private void contentChanged() throws IOException {
         this.contentChanged = true;
         Log.writeLog(this, this.toString(), "content changed - save status");
         this.saveStatus();
     }
 
-    private final ASAPChunkStorage chunkStorage;
+    private final ASAPLocalChunkStorage chunkStorage;
     protected String format = ASAP_1_0.ANY_FORMAT.toString();
 
     @Override
@@ -289,29 +570,43 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
 
     @Override
     public void putExtra(CharSequence uri, String key, String value) throws IOException {
-        this.chunkStorage.getChunk(uri, this.era).putExtra(key, value);
+        synchronized(this.mutationLock) {
+            this.getCurrentChunk(uri).putExtra(key, value);
+        }
     }
 
     @Override
     public CharSequence removeExtra(CharSequence uri, String key) throws IOException {
-        return this.chunkStorage.getChunk(uri, this.era).removeExtra(key);
+        synchronized(this.mutationLock) {
+            return this.getCurrentChunk(uri).removeExtra(key);
+        }
     }
 
     @Override
     public CharSequence getExtra(CharSequence uri, String key) throws IOException {
-        return this.chunkStorage.getChunk(uri, this.era).getExtra(key);
+        return this.getChannelChunk(uri).getExtra(key);
     }
 
 
     public List<CharSequence> getChannelURIs() throws IOException {
-        List<CharSequence> uriList = new ArrayList<>();
-
-        List<ASAPInternalChunk> chunks = this.chunkStorage.getChunks(this.era);
-        for(ASAPInternalChunk chunk : chunks) {
-            uriList.add(chunk.getUri());
+        // taken from channel index - channels with most recent chunks first
+        final Map<CharSequence, Long> age = new HashMap<>();
+        for(CharSequence uri : this.chunkStorage.getChannelURIs()) {
+            Integer latestEra = this.getLatestEra(this.chunkStorage.getChannelEras(uri));
+            if(latestEra == null) continue; // dropped in the meantime
+            // eras are cyclic - eras after current era are from previous cycle
+            age.put(uri, latestEra <= this.era ?
+                    (long) this.era - latestEra : (long) this.era - latestEra + ASAP.MAX_ERA + 1);
         }
 
-        return uriList;
+        List<CharSequence> uris = new ArrayList<>(age.keySet());
+        Collections.sort(uris, new Comparator<CharSequence>() {
+            @Override
+            public int compare(CharSequence uri1, CharSequence uri2) {
+                return age.get(uri1).compareTo(age.get(uri2));
+            }
+        });
+        return uris;
     }
 
     @Override
@@ -329,18 +624,16 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
 
     @Override
     public boolean channelExists(CharSequence uri) throws IOException {
-        return this.chunkStorage.existsChunk(uri, this.getEra());
+        return this.getLatestChunk(uri) != null;
     }
 
     public void removeChannel(CharSequence uri) throws IOException {
-        int currentEra;
-        int nextEra = this.getOldestEra();
-        do {
-            currentEra = nextEra;
-            ASAPInternalChunk chunk = this.chunkStorage.getChunk(uri, currentEra);
-            chunk.drop();
-            nextEra = ASAP.nextEra(currentEra);
-        } while(currentEra != this.getEra());
+        synchronized(this.mutationLock) {
+            // a chunk in any era can hold channel meta data
+            for(Integer era : this.chunkStorage.getChannelEras(uri)) {
+                this.chunkStorage.getChunk(uri, era).drop();
+            }
+        }
     }
 
     public ASAPMessages getChunkChain(int uriPosition) throws IOException, ASAPException {
@@ -433,7 +726,7 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
         }
 
         // put messages into container - incoming chunk or transient message container
-        List<Integer> messageOffsets = asapAssimilationPDU.getMessageOffsets();
+        List<Long> messageOffsets = asapAssimilationPDU.getLongMessageOffsets();
 
         // iterate messages and stream into chunk
         InputStream protocolInputStream = asapAssimilationPDU.getInputStream();
@@ -552,36 +845,43 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
     }
 
     private void streamReceivedMessages2Container(MessagesContainer messagesContainer,
-          InputStream is, List<Integer> messageOffsets, long totalLength) throws IOException {
+          InputStream is, List<Long> messageOffsets, long totalLength) throws IOException {
+
+        // keep container open - meta data are written once after all messages are stored
+        messagesContainer.startBatch();
+        try {
+            long offset = 0;
+            for (long nextOffset : messageOffsets) {
+                //<<<<<<<<<<<<<<<<<<debug
+                StringBuilder b = new StringBuilder();
+                b.append("going to read message: [");
+                b.append(offset);
+                b.append(", ");
+                b.append(nextOffset);
+                b.append(")");
+                Log.writeLog(this, this.toString(), b.toString());
+                //>>>>>>>>>>>>>>>>>>>debug
+
+                messagesContainer.addMessage(is, nextOffset - offset);
+                //if(!changed) { changed = true; this.contentChanged();}
+                offset = nextOffset;
+            }
 
-        long offset = 0;
-        for (long nextOffset : messageOffsets) {
+            // last round
             //<<<<<<<<<<<<<<<<<<debug
             StringBuilder b = new StringBuilder();
-            b.append("going to read message: [");
+            b.append("going to read last message: from offset ");
             b.append(offset);
-            b.append(", ");
-            b.append(nextOffset);
-            b.append(")");
+            b.append(" to end of file - total length: ");
+            b.append(totalLength);
             Log.writeLog(this, this.toString(), b.toString());
             //>>>>>>>>>>>>>>>>>>>debug
 
-            messagesContainer.addMessage(is, nextOffset - offset);
-            //if(!changed) { changed = true; this.contentChanged();}
-            offset = nextOffset;
+            messagesContainer.addMessage(is, totalLength - offset);
+        }
+        finally {
+            messagesContainer.finishBatch();
         }
-
-        // last round
-        //<<<<<<<<<<<<<<<<<<debug
-        StringBuilder b = new StringBuilder();
-        b.append("going to read last message: from offset ");
-        b.append(offset);
-        b.append(" to end of file - total length: ");
-        b.append(totalLength);
-        Log.writeLog(this, this.toString(), b.toString());
-        //>>>>>>>>>>>>>>>>>>>debug
-
-        messagesContainer.addMessage(is, totalLength - offset);
     }
 
     private boolean hasSufficientCrypto(ASAP_PDU_1_0 pdu) {
@@ -623,9 +923,14 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
         int workingEra = this.getOldestEra();
 
         // already met?
-        if(this.lastSeen != null) {
-            Integer lastSeenEra = this.lastSeen.get(senderID);
-            if(lastSeenEra != null) workingEra = lastSeenEra;
+        synchronized(this.mutationLock) {
+            if(this.lastSeen != null) {
+                Integer lastSeenEra = this.lastSeen.get(senderID);
+                // last seen era could have been pruned
+                if(lastSeenEra != null && ASAP.isEraInRange(lastSeenEra, this.getOldestEra(), this.era)) {
+                    workingEra = lastSeenEra;
+                }
+            }
         }
 
         // got even information from other side?
@@ -668,7 +973,9 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
             //>>>>>>>>>>>>>>>>>>>debug
 
             // make a breakpoint here
-            if (this.memento != null) this.memento.save(this);
+            synchronized(this.mutationLock) {
+                if (this.memento != null) this.memento.save(this);
+            }
 
             this.sendChunks(this.owner, senderID, this.getChunkStorage(), protocol, workingEra, lastEra, os, true);
             Log.writeLog(this, this.toString(), "ended iterating local chunks");
@@ -733,8 +1040,10 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
     }
 
     public void setBehaviourAllowRouting(boolean on) throws IOException {
-        this.routingAllowed = on;
-        this.saveStatus();
+        synchronized(this.mutationLock) {
+            this.routingAllowed = on;
+            this.saveStatus();
+        }
     }
 
     void sendInterest(CharSequence ownerID, ASAP_1_0 protocol, OutputStream os)
@@ -745,7 +1054,10 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
         // produce encounter map
         Map<String, Integer> encounterMap = new HashMap<>();
 
-        Set<String> encounteredPeers = this.lastSeen.keySet();
+        Set<String> encounteredPeers;
+        synchronized(this.mutationLock) {
+            encounteredPeers = new HashSet<>(this.lastSeen.keySet());
+        }
         for(String peerID : encounteredPeers) {
             try {
                 int lastEra = this.getExistingIncomingStorage(peerID).getEra();
@@ -844,7 +1156,11 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
                             this.getASAPCommunicationCryptoSettings());
 
                     // remember sent
-                    if(remember) chunk.deliveredTo(encounteredPeer);
+                    if(remember) {
+                        synchronized(this.mutationLock) {
+                            chunk.deliveredTo(encounteredPeer);
+                        }
+                    }
                     Log.writeLog(this, this.toString(), "remembered delivered to " + encounteredPeer);
 
                     //>>>>>>>>>>>>>>>>>>>debug
@@ -853,7 +1169,9 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
                         Log.writeLog(this, this.toString(),
                     "#recipients == #deliveredTo chunk delivered to any potential remotePeer - could drop it");
                         if (this.isDropDeliveredChunks()) {
-                            chunk.drop();
+                            synchronized(this.mutationLock) {
+                                chunk.drop();
+                            }
                             Log.writeLog(this, this.toString(), "chunk dropped");
                         } else {
                             Log.writeLog(this, this.toString(),
@@ -866,11 +1184,13 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
             }
 
             if(remember) {
-                // remember that we are in sync until that era
-                this.setLastSeen(encounteredPeer, workingEra);
+                synchronized(this.mutationLock) {
+                    // remember that we are in sync until that era
+                    this.setLastSeen(encounteredPeer, workingEra);
 
-                // make a breakpoint here
-                if (this.memento != null) this.memento.save(this);
+                    // make a breakpoint here
+                    if (this.memento != null) this.memento.save(this);
+                }
             }
 
             // next era which isn't necessarily workingEra++
@@ -885,8 +1205,10 @@ public abstract class ASAPEngine extends ASAPStorageImpl implements ASAPInternal
     }
 
     public void setBehaviourDropDeliveredChunks(boolean drop) throws IOException {
-        this.dropDeliveredChunks = drop;
-        this.saveStatus();
+        synchronized(this.mutationLock) {
+            this.dropDeliveredChunks = drop;
+            this.saveStatus();
+        }
     }
 
     @Override
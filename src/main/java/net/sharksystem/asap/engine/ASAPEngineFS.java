@@ -5,6 +5,7 @@ import net.sharksystem.asap.ASAPException;
 import net.sharksystem.asap.ASAPChunkStorage;
 import net.sharksystem.asap.protocol.ASAP_1_0;
 import net.sharksystem.utils.Log;
+import net.sharksystem.utils.fs.FSUtils;
 
 import java.io.File;
 import java.io.IOException;
@@ -19,16 +20,48 @@ import java.util.List;
 public class ASAPEngineFS extends ASAPEngine {
     public static final String MEMENTO_FILENAME = "asapCurrentAttributes";
     private final String rootDirectory;
+    private final ASAPChunkStorageType chunkStorageType;
     
     public static final String DEFAULT_ROOT_FOLDER_NAME = "SHARKSYSTEM_ASAP";
 
-    private ASAPEngineFS(String owner, String rootDirectory, CharSequence format)
-        throws ASAPException, IOException {
+    private ASAPEngineFS(String owner, String rootDirectory, CharSequence format,
+                         ASAPChunkStorageType chunkStorageType) throws ASAPException, IOException {
         
-        super(new ASAPChunkStorageFS(rootDirectory, format.toString()), format);
+        super(ASAPEngineFS.createChunkStorage(rootDirectory, format.toString(), chunkStorageType, -1), format);
 
         this.owner = owner;
         this.rootDirectory = rootDirectory;
+        this.chunkStorageType = chunkStorageType;
+    }
+
+    private static ASAPLocalChunkStorage createChunkStorage(String rootDirectory, String format,
+                                        ASAPChunkStorageType chunkStorageType, int era) throws IOException {
+        if(chunkStorageType == ASAPChunkStorageType.SEGMENTED_LOG) {
+            // create log right now - it marks folder as segmented log storage
+            ASAPSegmentedLog.getLog(rootDirectory, true);
+            return new ASAPChunkStorageLog(rootDirectory, format, era);
+        }
+
+        return new ASAPChunkStorageFS(rootDirectory, format, era);
+    }
+
+    /**
+     * @param rootDirectory storage folder
+     * @param requestedType type used if there is no storage in that folder yet. FILE_PER_CHUNK if null
+     * @return chunk storage type of an existing storage or requested type
+     */
+    static ASAPChunkStorageType getChunkStorageType(String rootDirectory, ASAPChunkStorageType requestedType) {
+        if(ASAPSegmentedLog.exists(rootDirectory)) return ASAPChunkStorageType.SEGMENTED_LOG;
+        if(FSUtils.getReadableFile(new File(rootDirectory, MEMENTO_FILENAME)).exists()) return ASAPChunkStorageType.FILE_PER_CHUNK;
+        // engines in memory are no ASAPEngineFS
+        if(requestedType == null || requestedType == ASAPChunkStorageType.IN_MEMORY) {
+            return ASAPChunkStorageType.FILE_PER_CHUNK;
+        }
+        return requestedType;
+    }
+
+    public ASAPChunkStorageType getChunkStorageType() {
+        return this.chunkStorageType;
     }
 
     public String toString() {
@@ -66,6 +99,10 @@ public class ASAPEngineFS extends ASAPEngine {
     public static ASAPEngine getExistingASAPEngineFS(String rootDirectory)
             throws IOException, ASAPException {
 
+        if(ASAPEngineInMemo.exists(rootDirectory)) {
+            return ASAPEngineInMemo.getASAPEngine(null, rootDirectory, null);
+        }
+
         // the same
         return ASAPEngineFS.getASAPEngineFS(null, rootDirectory, null);
     }
@@ -82,13 +119,30 @@ public class ASAPEngineFS extends ASAPEngine {
     public static ASAPEngine getASAPEngine(String owner, String rootDirectory, CharSequence format)
             throws IOException, ASAPException {
 
+        return ASAPEngineFS.getASAPEngine(owner, rootDirectory, format, null);
+    }
+
+    /**
+     * get / create engine
+     * @param chunkStorageType used if a new storage is created - type of an existing storage is kept.
+     *                         IN_MEMORY creates an ASAPEngineInMemo - nothing is written to disk.
+     */
+    public static ASAPEngine getASAPEngine(String owner, String rootDirectory, CharSequence format,
+                                           ASAPChunkStorageType chunkStorageType)
+            throws IOException, ASAPException {
+
+        if(chunkStorageType == ASAPChunkStorageType.IN_MEMORY || ASAPEngineInMemo.exists(rootDirectory)) {
+            // no folder
+            return ASAPEngineInMemo.getASAPEngine(owner, rootDirectory, format);
+        }
+
         // check if root directory already exists. If not set it up
         File root = new File(rootDirectory);
         if(!root.exists()) {
             root.mkdirs();
         }
 
-        return ASAPEngineFS.getASAPEngineFS(owner, rootDirectory, format);
+        return ASAPEngineFS.getASAPEngineFS(owner, rootDirectory, format, false, chunkStorageType);
     }
 
     public ASAPInternalStorage refresh() throws IOException, ASAPException {
@@ -121,6 +175,12 @@ public class ASAPEngineFS extends ASAPEngine {
          */
     static ASAPEngineFS getASAPEngineFS(String owner, String rootDirectory, CharSequence format, boolean createFolder)
             throws IOException, ASAPException {
+        return ASAPEngineFS.getASAPEngineFS(owner, rootDirectory, format, createFolder, null);
+    }
+
+    static ASAPEngineFS getASAPEngineFS(String owner, String rootDirectory, CharSequence format, boolean createFolder,
+                                        ASAPChunkStorageType chunkStorageType)
+            throws IOException, ASAPException {
         
         // root directory must exist when setting up an engine
         File root = new File(rootDirectory);
@@ -129,11 +189,12 @@ public class ASAPEngineFS extends ASAPEngine {
                 throw new ASAPException("chunk root directory must exist when creating an ASAPEngine: " + rootDirectory);
             } else {
                 root.mkdirs();
+                ASAPStorageManifest.folderCreated(root);
             }
         }
 
         if(format == null || format.toString().equalsIgnoreCase(ASAP_1_0.ANY_FORMAT)) {
-            ASAPMementoFS asapMementoFS = new ASAPMementoFS(root);
+            ASAPMementoFS asapMementoFS = ASAPMementoFS.getMemento(root);
             asapMementoFS.read();
             format = asapMementoFS.getFormat();
         }
@@ -144,8 +205,8 @@ public class ASAPEngineFS extends ASAPEngine {
                 rootDirectory,
 //                new ASAPChunkStorageFS(rootDirectory, formatString),
 //                ASAP_1_0.ANY_FORMAT // set to default - real value is restored by memento anyway
-                formatString
-
+                formatString,
+                ASAPEngineFS.getChunkStorageType(rootDirectory, chunkStorageType)
         );
 
         
@@ -190,26 +251,13 @@ public class ASAPEngineFS extends ASAPEngine {
     }
 
     void syncMemento() throws IOException {
-        ASAPMementoFS asapMementoFS = new ASAPMementoFS(new File(this.rootDirectory));
-        asapMementoFS.read();
-//        Log.writeLog(this, this.toString(), "read memento: " + asapMementoFS);
-//        Log.writeLog(this, this.toString(), "this.lastwritten: " + this.lastMementoWritten);
-
-        if(asapMementoFS.lastMementoWritten != this.lastMementoWritten) {
+        // memento is shared within process - file is only parsed if changed by another process
+        if(!this.getMemento(this.rootDirectory).isInSync(this)) {
 //            Log.writeLog(this, this.toString(),"restore from memento - out of sync");
             this.restoreFromMemento();
         }
     }
 
-    @Override
-    public void add(CharSequence uri, byte[] messageAsBytes) throws IOException {
-        // always re-read metainformation
-        this.restoreFromMemento();
-        
-        // do the real work
-        super.add(uri, messageAsBytes);
-    }
-
     /*
     public static ASAPEngine getASAPEngine(String rootDirectory, CharSequence format)
             throws IOException, ASAPException {
@@ -219,7 +267,7 @@ public class ASAPEngineFS extends ASAPEngine {
     }*/
 
     private ASAPMementoFS getMemento(String rootDirectory) {
-        return new ASAPMementoFS(new File(rootDirectory));
+        return ASAPMementoFS.getMemento(new File(rootDirectory));
     }
     
     private HashMap<CharSequence, ASAPChunkStorage> storageList = new HashMap<>();
@@ -227,15 +275,26 @@ public class ASAPEngineFS extends ASAPEngine {
     @Override
     public ASAPChunkStorage getReceivedChunksStorage(CharSequence sender) {
         String dir = this.rootDirectory + "/" + sender;
+        ASAPChunkStorageType type = ASAPEngineFS.getChunkStorageType(dir, this.chunkStorageType);
+        if(type == ASAPChunkStorageType.SEGMENTED_LOG) {
+            // no log is created here - it is set up with incoming storage
+            return new ASAPChunkStorageLog(dir, this.format, this.era);
+        }
         return new ASAPChunkStorageFS(dir, this.format, this.era);
     }
 
     public ASAPInternalStorage getIncomingStorage(CharSequence sender, boolean create) throws IOException, ASAPException {
-        return ASAPEngineFS.getASAPEngineFS(
+        ASAPEngineFS incomingStorage = ASAPEngineFS.getASAPEngineFS(
                 sender.toString(), // becomes owner
                 this.rootDirectory + "/" + sender, // folder
                 this.getFormat(), // format taken from superior storage
-                create);
+                create,
+                this.chunkStorageType); // same storage type as superior storage
+
+        // folder exists now
+        ASAPStorageManifest.getManifest(this.rootDirectory).addSender(sender.toString());
+
+        return incomingStorage;
     }
 
     public ASAPInternalStorage getExistingIncomingStorage(CharSequence sender) throws IOException, ASAPException {
@@ -267,6 +326,16 @@ public class ASAPEngineFS extends ASAPEngine {
 
     @Override
     public List<CharSequence> getSender() {
+        try {
+            return ASAPStorageManifest.getManifest(this.rootDirectory).getSenders();
+        } catch (IOException e) {
+            Log.writeLogErr(this, this.toString(), "cannot read manifest - scan folder: "
+                    + e.getLocalizedMessage());
+            return this.getSenderFromFolder();
+        }
+    }
+
+    private List<CharSequence> getSenderFromFolder() {
         List<CharSequence> senderList = new ArrayList<>();
 
         File dir = new File(this.rootDirectory);
@@ -285,7 +354,7 @@ public class ASAPEngineFS extends ASAPEngine {
                 }
 
                 File fileInDir = new File(this.rootDirectory + "/" + fileName);
-                if (fileInDir.isDirectory()) {
+                if (fileInDir.isDirectory() && !fileName.equals(ASAPSegmentedLog.SEGMENT_FOLDER)) {
                     senderList.add(fileName);
                 }
             }
@@ -0,0 +1,300 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPChunkStorage;
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.protocol.ASAP_1_0;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ASAPEngine that keeps everything in memory - made for relay peers and tests. Root directory is just a
+ * name: engines with the same root directory share chunks and memento within this process like file based
+ * engines share a folder. Nothing is written to disk - but a snapshot can be taken.
+ *
+ * @see #snapshot(String)
+ * @author thsc
+ */
+public class ASAPEngineInMemo extends ASAPEngine {
+    // root directory -> memento
+    private static final Map<String, ASAPMementoInMemo> mementos = new HashMap<>();
+    // root directory -> sender with an incoming storage
+    private static final Map<String, Set<String>> senders = new HashMap<>();
+
+    private final String rootDirectory;
+
+    private ASAPEngineInMemo(String owner, String rootDirectory, CharSequence format)
+            throws ASAPException, IOException {
+
+        super(new ASAPChunkStorageInMemo(rootDirectory, format.toString()), format);
+
+        this.owner = owner;
+        this.rootDirectory = rootDirectory;
+    }
+
+    private static ASAPMementoInMemo getMemento(String rootDirectory) {
+        String key = ASAPChunkStorageInMemo.getKey(rootDirectory);
+        synchronized(mementos) {
+            ASAPMementoInMemo memento = mementos.get(key);
+            if(memento == null) {
+                memento = new ASAPMementoInMemo();
+                mementos.put(key, memento);
+            }
+            return memento;
+        }
+    }
+
+    private static Set<String> getSenderSet(String rootDirectory) {
+        String key = ASAPChunkStorageInMemo.getKey(rootDirectory);
+        synchronized(senders) {
+            Set<String> senderSet = senders.get(key);
+            if(senderSet == null) {
+                senderSet = new TreeSet<>();
+                senders.put(key, senderSet);
+            }
+            return senderSet;
+        }
+    }
+
+    /**
+     * @return true if an in-memory engine was set up with that root directory
+     */
+    public static boolean exists(String rootDirectory) {
+        synchronized(mementos) {
+            ASAPMementoInMemo memento = mementos.get(ASAPChunkStorageInMemo.getKey(rootDirectory));
+            return memento != null && memento.isSaved();
+        }
+    }
+
+    /**
+     * @return root directories of in-memory engines that are direct sub folders of that directory
+     */
+    static List<String> getSubFolders(String rootDirectory) {
+        String key = ASAPChunkStorageInMemo.getKey(rootDirectory);
+        List<String> subFolders = new ArrayList<>();
+        synchronized(mementos) {
+            for(Map.Entry<String, ASAPMementoInMemo> entry : mementos.entrySet()) {
+                if(!entry.getValue().isSaved()) continue;
+                File folder = new File(entry.getKey());
+                if(folder.getParentFile() != null && folder.getParentFile().getPath().equals(key)) {
+                    subFolders.add(entry.getKey());
+                }
+            }
+        }
+        return subFolders;
+    }
+
+    /**
+     * Forget engines and chunks with that root directory and in any sub folder - frees memory.
+     */
+    public static void release(String rootDirectory) {
+        String key = ASAPChunkStorageInMemo.getKey(rootDirectory);
+        synchronized(mementos) {
+            Iterator<String> keyIter = mementos.keySet().iterator();
+            while(keyIter.hasNext()) {
+                String mementoKey = keyIter.next();
+                if(mementoKey.equals(key) || mementoKey.startsWith(key + File.separator)) keyIter.remove();
+            }
+        }
+        synchronized(senders) {
+            Iterator<String> keyIter = senders.keySet().iterator();
+            while(keyIter.hasNext()) {
+                String senderKey = keyIter.next();
+                if(senderKey.equals(key) || senderKey.startsWith(key + File.separator)) keyIter.remove();
+            }
+        }
+        ASAPChunkStorageInMemo.release(rootDirectory);
+        ASAPEraTimes.release(rootDirectory);
+    }
+
+    /**
+     * get / create engine
+     * @param owner can be null - restored
+     * @param rootDirectory name of storage - must not be null
+     * @param format can be null - restored
+     */
+    public static ASAPEngineInMemo getASAPEngine(String owner, String rootDirectory, CharSequence format)
+            throws IOException, ASAPException {
+
+        ASAPMementoInMemo memento = ASAPEngineInMemo.getMemento(rootDirectory);
+        if(format == null || format.toString().equalsIgnoreCase(ASAP_1_0.ANY_FORMAT)) {
+            if(memento.getFormat() != null) format = memento.getFormat();
+        }
+
+        String formatString = format != null ? format.toString() : ASAP_1_0.ANY_FORMAT;
+        ASAPEngineInMemo engine = new ASAPEngineInMemo(owner, rootDirectory, formatString);
+        engine.memento = memento;
+        memento.restore(engine);
+
+        if(format != null) {
+            // overwrite default - actually set format
+            if(engine.format.equalsIgnoreCase(ASAP_1_0.ANY_FORMAT.toString())) {
+                engine.format = format.toString();
+            }
+            else { // cannot overwrite a non-default format
+                if(!format.toString().equalsIgnoreCase(engine.format)) {
+                    throw new ASAPException("cannot overwrite existing format (" + format + "with another one: ("
+                            + engine.format + ")");
+                }
+            }
+        }
+
+        // replacing owner could be done
+        if(owner != null
+                && !owner.equalsIgnoreCase(ANONYMOUS_OWNER)
+                && !owner.equalsIgnoreCase(DEFAULT_OWNER)
+        ) {
+            engine.owner = owner;
+        }
+
+        memento.save(engine);
+
+        return engine;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("owner: ");
+        sb.append(this.getOwner());
+        sb.append(" | oldestEra: ");
+        sb.append(this.getOldestEra());
+        sb.append(" | era: ");
+        sb.append(this.getEra());
+        sb.append(" | routing: ");
+        sb.append(this.routingAllowed());
+        sb.append(" | in memory");
+
+        return sb.toString();
+    }
+
+    public String getRootFolder() {
+        return this.rootDirectory;
+    }
+
+    public String getOwner() {
+        return this.owner;
+    }
+
+    public ASAPInternalStorage refresh() throws IOException, ASAPException {
+        this.memento.save(this);
+        return ASAPEngineInMemo.getASAPEngine(null, this.rootDirectory, null);
+    }
+
+    public void setOldestEra(int oldestEra) throws IOException {
+        this.oldestEra = oldestEra;
+        this.memento.save(this);
+    }
+
+    @Override
+    void syncMemento() {
+        ASAPMementoInMemo mementoInMemo = (ASAPMementoInMemo) this.memento;
+        if(mementoInMemo.lastMementoWritten != this.lastMementoWritten) {
+            // another engine object with same root directory changed state
+            mementoInMemo.restore(this);
+        }
+    }
+
+    @Override
+    ASAPEraTimes getEraTimes() {
+        return ASAPEraTimes.getEraTimes(this.rootDirectory, false);
+    }
+
+    @Override
+    public ASAPChunkStorage getReceivedChunksStorage(CharSequence sender) {
+        return new ASAPChunkStorageInMemo(this.rootDirectory + "/" + sender, this.format, this.era);
+    }
+
+    public ASAPInternalStorage getIncomingStorage(CharSequence sender, boolean create)
+            throws IOException, ASAPException {
+
+        String incomingRoot = this.rootDirectory + "/" + sender;
+        if(!create && !ASAPEngineInMemo.exists(incomingRoot)) {
+            throw new ASAPException("there is no incoming storage: " + incomingRoot);
+        }
+
+        ASAPEngineInMemo incomingStorage = ASAPEngineInMemo.getASAPEngine(
+                sender.toString(), // becomes owner
+                incomingRoot,
+                this.getFormat()); // format taken from superior storage
+
+        Set<String> senderSet = ASAPEngineInMemo.getSenderSet(this.rootDirectory);
+        synchronized(senderSet) {
+            senderSet.add(sender.toString());
+        }
+
+        return incomingStorage;
+    }
+
+    public ASAPInternalStorage getExistingIncomingStorage(CharSequence sender) throws IOException, ASAPException {
+        return this.getIncomingStorage(sender, true);
+    }
+
+    public ASAPInternalStorage getIncomingStorage(CharSequence sender) throws IOException, ASAPException {
+        return this.getIncomingStorage(sender, true);
+    }
+
+    @Override
+    public List<CharSequence> getSender() {
+        Set<String> senderSet = ASAPEngineInMemo.getSenderSet(this.rootDirectory);
+        synchronized(senderSet) {
+            return new ArrayList<CharSequence>(senderSet);
+        }
+    }
+
+    /**
+     * Write engine state, its chunks and its incoming storages into a folder - in the format of
+     * file based engines (ASAPEngineFS). A former snapshot in that folder is replaced.
+     *
+     * @param folder snapshot folder
+     */
+    public void snapshot(String folder) throws IOException, ASAPException {
+        File root = new File(folder);
+        if(!root.exists()) root.mkdirs();
+
+        ASAPChunkStorageInMemo storage = (ASAPChunkStorageInMemo) this.getChunkStorage();
+        ASAPChunkStorageFS fsStorage = new ASAPChunkStorageFS(folder, this.format);
+
+        NavigableSet<Integer> eras = storage.getEras();
+        for(Integer era : fsStorage.getEras()) {
+            if(!eras.contains(era)) fsStorage.dropChunks(era);
+        }
+
+        for(Integer era : eras) {
+            for(ASAPInternalChunk chunk : storage.getChunks(era)) {
+                if(fsStorage.existsChunk(chunk.getUri(), era)) {
+                    fsStorage.getChunk(chunk.getUri(), era).drop();
+                }
+                ASAPInternalChunk fsChunk = fsStorage.getChunk(chunk.getUri(), era);
+                fsChunk.startBatch();
+                try {
+                    Iterator<byte[]> messages = chunk.getMessages();
+                    while(messages.hasNext()) fsChunk.addMessage(messages.next());
+                    fsChunk.setASAPHopList(chunk.getASAPHopList());
+                    fsChunk.setRecipients(chunk.getRecipients());
+                    for(Map.Entry<String, String> extra : chunk.getExtraData().entrySet()) {
+                        fsChunk.putExtra(extra.getKey(), extra.getValue());
+                    }
+                    for(CharSequence peer : chunk.getDeliveredTo()) fsChunk.deliveredTo(peer.toString());
+                }
+                finally {
+                    // chunk must not stay in batch mode
+                    fsChunk.finishBatch();
+                }
+            }
+        }
+
+        // file memento sets written time - keep ours
+        long lastWritten = this.lastMementoWritten;
+        ASAPMementoFS snapshotMemento = ASAPMementoFS.getMemento(root);
+        snapshotMemento.save(this);
+        snapshotMemento.flush();
+        this.lastMementoWritten = lastWritten;
+
+        for(CharSequence sender : this.getSender()) {
+            ASAPEngineInMemo incomingStorage = (ASAPEngineInMemo) this.getIncomingStorage(sender);
+            incomingStorage.snapshot(folder + "/" + sender);
+            ASAPStorageManifest.getManifest(folder).addSender(sender.toString());
+        }
+    }
+}
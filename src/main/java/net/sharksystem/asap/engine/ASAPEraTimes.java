@@ -0,0 +1,142 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.fs.FSUtils;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Start time of eras in a storage - used to find out how old an era is. An era ends when its successor
+ * starts. Eras of storages written by former versions have no start time.
+ *
+ * Times are kept in a small file in the storage folder. It is written completely with each change - there
+ * is one entry for each era in storage.
+ *
+ * @author thsc
+ */
+class ASAPEraTimes {
+    public static final String ERA_TIMES_FILENAME = "asapEraTimes";
+    static final long UNKNOWN = -1;
+
+    private static final Map<String, ASAPEraTimes> eraTimesMap = new HashMap<>();
+
+    /**
+     * @param rootDirectory storage folder
+     * @param persistent false: times are kept in memory only
+     * @return era times of that storage - shared within this process
+     */
+    static ASAPEraTimes getEraTimes(String rootDirectory, boolean persistent) {
+        File folder = new File(rootDirectory);
+        String key = folder.getAbsolutePath();
+        synchronized(eraTimesMap) {
+            ASAPEraTimes eraTimes = eraTimesMap.get(key);
+            if(eraTimes == null) {
+                eraTimes = new ASAPEraTimes(persistent ? new File(folder, ERA_TIMES_FILENAME) : null);
+                eraTimesMap.put(key, eraTimes);
+            }
+            return eraTimes;
+        }
+    }
+
+    /**
+     * forget era times of that storage and of storages in sub folders - used for storages in memory
+     */
+    static void release(String rootDirectory) {
+        String key = new File(rootDirectory).getAbsolutePath();
+        synchronized(eraTimesMap) {
+            Iterator<String> keyIter = eraTimesMap.keySet().iterator();
+            while(keyIter.hasNext()) {
+                String eraTimesKey = keyIter.next();
+                if(eraTimesKey.equals(key) || eraTimesKey.startsWith(key + File.separator)) keyIter.remove();
+            }
+        }
+    }
+
+    private final File file; // null: in memory only
+    private final Map<Integer, Long> startTimes = new HashMap<>();
+    private long fileLastModified = -1;
+
+    private ASAPEraTimes(File file) {
+        this.file = file;
+    }
+
+    synchronized void eraStarted(int era, long time) throws IOException {
+        this.sync();
+        this.startTimes.put(era, time);
+        this.write();
+    }
+
+    /**
+     * @return time era started - UNKNOWN if not known
+     */
+    synchronized long getStartTime(int era) throws IOException {
+        this.sync();
+        Long time = this.startTimes.get(era);
+        return time != null ? time : UNKNOWN;
+    }
+
+    synchronized void erasDropped(Collection<Integer> eras) throws IOException {
+        this.sync();
+        boolean changed = false;
+        for(Integer era : eras) {
+            if(this.startTimes.remove(era) != null) changed = true;
+        }
+        if(changed) this.write();
+    }
+
+    private void sync() throws IOException {
+        if(this.file == null) return;
+        // another process could be replacing it
+        File file = FSUtils.getReadableFile(this.file);
+        if(!file.exists()) {
+            // removed - e.g. storage was deleted
+            if(this.fileLastModified != -1) {
+                this.startTimes.clear();
+                this.fileLastModified = -1;
+            }
+            return;
+        }
+        if(file.lastModified() == this.fileLastModified) return;
+
+        this.startTimes.clear();
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int number = dis.readInt();
+            for(int i = 0; i < number; i++) {
+                this.startTimes.put(dis.readInt(), dis.readLong());
+            }
+        }
+        catch(EOFException e) {
+            Log.writeLogErr(this, "era times file incomplete - ignore missing entries: " + this.file);
+        }
+        finally {
+            dis.close();
+        }
+        this.fileLastModified = file.lastModified();
+    }
+
+    private void write() throws IOException {
+        if(this.file == null) return;
+        if(!this.file.getParentFile().exists()) this.file.getParentFile().mkdirs();
+
+        File tmpFile = new File(this.file.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            dos.writeInt(this.startTimes.size());
+            for(Map.Entry<Integer, Long> entry : this.startTimes.entrySet()) {
+                dos.writeInt(entry.getKey());
+                dos.writeLong(entry.getValue());
+            }
+        }
+        finally {
+            dos.close();
+        }
+
+        FSUtils.replaceFile(tmpFile, this.file);
+        this.fileLastModified = this.file.lastModified();
+    }
+}
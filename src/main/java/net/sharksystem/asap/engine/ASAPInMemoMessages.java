@@ -1,44 +1,43 @@
 package net.sharksystem.asap.engine;
 
 import net.sharksystem.asap.ASAPUtils;
-import net.sharksystem.utils.Utils;
 import net.sharksystem.asap.ASAPException;
 import net.sharksystem.asap.ASAPMessages;
 import net.sharksystem.utils.Log;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
  * @author thsc
  */
 class ASAPInMemoMessages implements ASAPMessages {
-    public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
     private final CharSequence uri;
-    private final ASAPChunkStorageFS chunkStorage;
+    private final ASAPLocalChunkStorage chunkStorage;
     private final int fromEra;
     private final int toEra;
     private final String format;
 
     private List<ASAPInternalChunk> chunkList;
 
-    /** the internal message Cache */
-    private List<byte[]> messageCache;
-    private int firstIndexMessageCache = -1;
-    private int lastIndexMessageCache = -1;
-    private int maxCacheLen;
+    /** prefix sums: absolute position of first message in each chunk of chunkList */
+    private int[] chunkFirstPosition = new int[0];
+    /** number of messages in each chunk of chunkList when list was synchronized */
+    private int[] chunkSize = new int[0];
+    /** era of each chunk of chunkList */
+    private int[] chunkEra = new int[0];
 
     private int numberOfMessages = 0;
 
-    public ASAPInMemoMessages(ASAPChunkStorageFS chunkStorage,
-                              String format, CharSequence uri, int fromEra, int toEra, int maxCacheLen) {
+    public ASAPInMemoMessages(ASAPLocalChunkStorage chunkStorage,
+                              String format, CharSequence uri, int fromEra, int toEra) {
 
         this.format = format;
         this.uri = uri;
         this.chunkStorage = chunkStorage;
         this.fromEra = fromEra;
         this.toEra = toEra;
-        this.maxCacheLen = maxCacheLen;
 
         Log.writeLog(this, this.toString());
     }
@@ -52,12 +51,6 @@ class ASAPInMemoMessages implements ASAPMessages {
                 + " | rootDir: " + chunkStorage.getRootDirectory();
     }
 
-    public ASAPInMemoMessages(ASAPChunkStorageFS chunkStorage,
-                              String format, CharSequence uri, int fromEra, int toEra) {
-
-        this(chunkStorage, format, uri, fromEra, toEra, DEFAULT_MAX_CACHE_SIZE);
-    }
-
     private boolean initialized = false;
     
     private void initialize() throws IOException {
@@ -69,7 +62,7 @@ class ASAPInMemoMessages implements ASAPMessages {
 
     private void syncChunkList() throws IOException {
         // get all chunks in chronological order
-        Collection<Integer> erasInFolder = Utils.getErasInFolder(this.chunkStorage.getRootDirectory());
+        Collection<Integer> erasInFolder = this.chunkStorage.getEras();
         if(erasInFolder.isEmpty()) return;
 
         Collection<Integer> erasToUse = ASAPUtils.getErasInRange(erasInFolder, this.fromEra, this.toEra);
@@ -88,17 +81,24 @@ class ASAPInMemoMessages implements ASAPMessages {
         
         // drop old chunk list - if any
         this.chunkList = new ArrayList<>();
+        this.chunkFirstPosition = new int[erasToUse.size()];
+        this.chunkSize = new int[erasToUse.size()];
+        this.chunkEra = new int[erasToUse.size()];
         
 //        do {
         for(Integer thisEra : erasToUse) {
             // check if chunk exists - don't create on
             Log.writeLog(this, "reached era: " + thisEra);
-            if (erasInFolder.contains(thisEra) && this.chunkStorage.existsChunk(this.uri, thisEra)) {
+            if (this.chunkStorage.existsChunk(this.uri, thisEra)) {
                 // is there - get it
                 Log.writeLog(this, "getChunk with era: " + thisEra);
                 ASAPInternalChunk chunk = this.chunkStorage.getChunk(this.uri, thisEra);
+                int index = this.chunkList.size();
                 this.chunkList.add(chunk);
-                this.numberOfMessages += chunk.getNumberMessage();
+                this.chunkFirstPosition[index] = this.numberOfMessages;
+                this.chunkSize[index] = chunk.getNumberMessage();
+                this.chunkEra[index] = thisEra;
+                this.numberOfMessages += this.chunkSize[index];
             }
 
             /*
@@ -115,6 +115,32 @@ class ASAPInMemoMessages implements ASAPMessages {
         }
     }
 
+    /**
+     * binary search in prefix sums
+     * @param position absolute position, chronologically, 0 <= position < numberOfMessages
+     * @return index of chunk in chunkList holding message at that position
+     */
+    private int findChunkIndex(int position) throws ASAPException {
+        if(this.chunkList == null || this.chunkList.isEmpty()) {
+            throw new ASAPException("no chunks - cannot find position: " + position);
+        }
+
+        // find last chunk starting at or before position - empty chunks are skipped that way
+        int low = 0;
+        int high = this.chunkList.size() - 1;
+        while(low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(this.chunkFirstPosition[middle] <= position) low = middle;
+            else high = middle - 1;
+        }
+
+        if(position - this.chunkFirstPosition[low] >= this.chunkSize[low]) {
+            throw new ASAPException("internal failure - wrong calculation in chunk cache");
+        }
+
+        return low;
+    }
+
     public int size() throws IOException {
         this.initialize();
         return this.numberOfMessages;
@@ -159,19 +185,7 @@ class ASAPInMemoMessages implements ASAPMessages {
             position = this.numberOfMessages - 1 - position;
         }
 
-        ASAPInternalChunk foundChunk = null;
-        // find chunk
-        for(ASAPInternalChunk chunk : this.chunkList) {
-            if(position < chunk.getNumberMessage()) {
-                foundChunk = chunk;
-                break;
-            }
-
-            position -= chunk.getNumberMessage();
-        }
-
-        if(foundChunk == null) throw new ASAPException("cannot find chunk for position - looks like a bug");
-        return foundChunk;
+        return this.chunkList.get(this.findChunkIndex(position));
     }
 
     @Override
@@ -188,101 +202,49 @@ class ASAPInMemoMessages implements ASAPMessages {
             position = this.numberOfMessages - 1 - position;
         }
 
-        if(this.messageCache != null && position >= this.firstIndexMessageCache && position <= this.lastIndexMessageCache) {
-            return this.messageCache.get(position - this.firstIndexMessageCache);
-        }
-
-        // not yet in cache - find chunk with required message
-        int firstIndex = 0; // absolut index of first message in current chunk
-        int lastIndex = 0; // absolut index of last message in current chunk
-
-        boolean found = false;
-        ASAPInternalChunk fittingChunk = null;
-        int fittingChunkIndex = 0;
-
-        for(ASAPInternalChunk chunk : this.chunkList) {
-            lastIndex = firstIndex + chunk.getNumberMessage() - 1;
-
-            if(position >= firstIndex && position <= lastIndex) {
-                // we have got our chunk
-                fittingChunk = chunk;
-                break;
-            }
+        // find chunk with required message: O(log #chunks)
+        int fittingChunkIndex = this.findChunkIndex(position);
+        int indexInChunk = position - this.chunkFirstPosition[fittingChunkIndex];
+        int era = this.chunkEra[fittingChunkIndex];
 
-            firstIndex += chunk.getNumberMessage();
-            fittingChunkIndex++;
+        if(!this.chunkStorage.isMessageCacheable()) {
+            return ASAPInMemoMessages.toByteArray(
+                    this.chunkList.get(fittingChunkIndex).getMessageBuffer(indexInChunk));
         }
 
-        if(fittingChunk == null) {
-            throw new ASAPException("internal failure - wrong calculation in chunk cache");
-        }
-
-        // we can fill our cache right now
-
-        // reset cache
-        this.messageCache = new ArrayList<>();
-
-        /////////////////////////////////////////////////////////////////
-        // simple approach in that first implementation ... we keep fitting chunk in memory
-        /////////////////////////////////////////////////////////////////
-
-//        Iterator<CharSequence> messages = fittingChunk.getMessagesAsCharSequence();
-        Iterator<byte[]> messages = fittingChunk.getMessages();
+        ASAPMessageBlockCache cache = ASAPMessageBlockCache.getInstance();
+        String root = this.chunkStorage.getRootDirectory();
+        byte[] message = cache.getMessage(root, era, this.uri, indexInChunk);
+        if(message != null) return message;
 
-        // chunk bigger than max cache size?
-        int chunkSize = fittingChunk.getNumberMessage();
-        if(chunkSize > this.maxCacheLen) {
-            // calculate how many messages to skip before caching
+        // not in cache - read block with required message directly at chunk offsets
+        ASAPInternalChunk fittingChunk = this.chunkList.get(fittingChunkIndex);
+        int blockNumber = indexInChunk / ASAPMessageBlockCache.BLOCK_SIZE;
+        int firstInBlock = blockNumber * ASAPMessageBlockCache.BLOCK_SIZE;
+        int lastInBlock = Math.min(fittingChunk.getNumberMessage(), firstInBlock + ASAPMessageBlockCache.BLOCK_SIZE);
 
-            /*
-            situation:
-            chunk head |................position...........................| tail
-            cache head |................| tail
-
-            solution: put position in middle of the cache
-            chunk |................position...........................|
-            planned cache |........position........|
-            skipLen...|
-             */
-
-            int skipLen = position - (this.maxCacheLen / 2);
-
-            // first index in cache will be this one:
-            firstIndex += skipLen;
-
-            // skip
-            for(;skipLen > 0; skipLen--) {
-                this.messageCache.add(messages.next());
-            }
+        List<byte[]> block = new ArrayList<>(lastInBlock - firstInBlock);
+        for(int i = firstInBlock; i < lastInBlock; i++) {
+            block.add(ASAPInMemoMessages.toByteArray(fittingChunk.getMessageBuffer(i)));
         }
+        cache.putBlock(root, era, this.uri, blockNumber, block);
 
-        this.firstIndexMessageCache = firstIndex;
-
-        int counter = 0;
-        while(messages.hasNext()) {
-            this.messageCache.add(messages.next());
-            counter++;
-            if(counter > this.maxCacheLen) break;
-        }
-
-        this.lastIndexMessageCache = this.firstIndexMessageCache + counter - 1;
-
-        // cache filled - call again
-        /* not: it is always chronologically true!!
-        a) we already came in with true -> it remains true
-        b) we came with false -> we have already recalculated that position, we would
-        move it around again with that call - keep position unchanged: true!
-         */
+        // cached array is shared - caller gets its own copy
+        return block.get(indexInChunk - firstInBlock).clone();
+    }
 
-        return this.getMessage(position, true);
+    static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
     }
 
     public void sync() throws IOException {
         this.initialized = false;
-        this.firstIndexMessageCache = -1;
-        this.lastIndexMessageCache = -1;
         this.numberOfMessages = 0;
-        this.messageCache = null;
+        this.chunkFirstPosition = new int[0];
+        this.chunkSize = new int[0];
+        this.chunkEra = new int[0];
     }
 
     //////////////////////////////////////////////////////////////////////////////////////////
@@ -305,29 +267,30 @@ class ASAPInMemoMessages implements ASAPMessages {
         }
 
         /**
-         * read next message in field messageAhead.
+         * read next message in field messageAhead. Chunks deliver streaming iterators - only
+         * one message is kept in memory. Chunks are opened one after another.
          */
         private void readAhead() {
-            if (this.currentIterator != null) {
-                if (this.currentIterator.hasNext()) {
+            for(;;) {
+                if (this.currentIterator != null && this.currentIterator.hasNext()) {
                     // 'normal' case: we read next message
                     this.messageAhead = this.currentIterator.next();
                     return; // done
                 }
-            }
-            // no more messages in that iterator / chunk
-            if (this.chunkList == null || nextIndex >= this.chunkList.size() ) {
-                return; // there is no list at all or we are already through with it
-            }
 
-            // open next chunk / iterator
-            this.currentChunk = this.chunkList.get(this.nextIndex++);
-            try {
-                this.currentIterator = this.getMessageIterator(currentChunk);
-                this.readAhead(); // next try
-            } catch (IOException e) {
-                // cannot recover from that problem
-                return;
+                // no more messages in that iterator / chunk
+                if (this.chunkList == null || nextIndex >= this.chunkList.size()) {
+                    return; // there is no list at all or we are already through with it
+                }
+
+                // open next chunk / iterator
+                this.currentChunk = this.chunkList.get(this.nextIndex++);
+                try {
+                    this.currentIterator = this.getMessageIterator(currentChunk);
+                } catch (IOException e) {
+                    // cannot recover from that problem
+                    return;
+                }
             }
         }
 
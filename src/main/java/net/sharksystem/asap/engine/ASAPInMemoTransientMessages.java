@@ -98,4 +98,14 @@ public class ASAPInMemoTransientMessages implements ASAPMessages, MessagesContai
     public void addMessage(byte[] message) throws IOException {
         this.messageList.add(message);
     }
+
+    @Override
+    public void startBatch() {
+        // nothing to keep open - messages are in memory
+    }
+
+    @Override
+    public void finishBatch() {
+        // nothing to flush - messages are in memory
+    }
 }
@@ -6,6 +6,7 @@ import net.sharksystem.asap.ASAPHop;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -63,6 +64,20 @@ public interface ASAPInternalChunk extends ASAPChunk, MessagesContainer {
 
     InputStream getMessageInputStream();
 
+    /**
+     * Zero-copy access to a single message. Content is not copied onto the heap.
+     * @param index message index in that chunk, starting with 0
+     * @return read-only buffer, position 0 and limit == message length
+     * @throws IOException no message with that index or content cannot be accessed
+     */
+    ByteBuffer getMessageBuffer(int index) throws IOException;
+
+    /**
+     * @return read-only buffers of all messages in this chunk - see getMessageBuffer(int)
+     * @throws IOException
+     */
+    List<ByteBuffer> getMessageBuffers() throws IOException;
+
     void putExtra(String key, String value) throws IOException;
 
     CharSequence removeExtra(String key) throws IOException;
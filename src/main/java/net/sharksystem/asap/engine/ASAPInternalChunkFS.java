@@ -9,6 +9,9 @@ import net.sharksystem.utils.Log;
 import net.sharksystem.utils.SerializationHelper;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -19,36 +22,69 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     public static final String META_DATA_EXTENSION = "meta";
     public static final String DATA_EXTENSION = "content";
     public static final String DEFAULT_URL = "content://sharksystem.net/noContext";
+
+    /** buffer size when copying messages from a stream into the content file */
+    public static final int COPY_BUFFER_SIZE = 8192;
+
+    /** max time (ms) meta data are kept unwritten during a batch of added messages */
+    public static final long DEFAULT_META_DATA_FLUSH_INTERVAL = 1000;
+    private static long metaDataFlushInterval = DEFAULT_META_DATA_FLUSH_INTERVAL;
+
+    /**
+     * Meta data (e.g. message offsets) are written at the end of a batch of added messages. A long running batch
+     * writes meta data at least after that interval. Zero: meta data are written with each message.
+     * @param interval milliseconds
+     */
+    public static void setMetaDataFlushInterval(long interval) {
+        metaDataFlushInterval = interval < 0 ? 0 : interval;
+    }
+
     private final ASAPChunkStorageFS storage;
     private String sender;
     private String uri = DEFAULT_URL;
     private Set<CharSequence> recipients;
     private List<CharSequence> deliveredTo;
-    private List<Long> messageStartOffsets = new ArrayList<>();
+    private ASAPChunkOffsetIndex offsetIndex;
     private File metaFile;
     private File messageFile;
 
+    // offsets found in meta data of former versions - moved into index file
+    private List<Long> legacyOffsetList = null;
+
     private List<ASAPHop> hopList;
     
     private int era;
 
     private HashMap<String, String> extraData = new HashMap<>();
 
+    // content file is kept open while a batch of messages is added
+    private FileOutputStream contentOS = null;
+    private FileChannel contentChannel = null;
+    private MappedByteBuffer contentMap = null;
+    private int batchLevel = 0;
+    private boolean metaDataDirty = false;
+    private long lastFlush = 0;
+
+    // meta data file state when read or written - detects changes made by others
+    private long metaFileModified = 0;
+    private long metaFileLength = 0;
+
 
     @Override
-    public void clone(ASAPInternalChunk chunkSource) throws IOException {
+    public synchronized void clone(ASAPInternalChunk chunkSource) throws IOException {
         this.uri = chunkSource.getUri();
-        this.recipients = chunkSource.getRecipients();
-        this.extraData = chunkSource.getExtraData();
+        // copy - chunk objects are cached and must not share meta data
+        this.recipients = new HashSet<>(chunkSource.getRecipients());
+        this.extraData = new HashMap<>(chunkSource.getExtraData());
 
         this.saveStatus();
     }
 
     @Override
-    public void copyMetaData(ASAPChannel channel) throws IOException {
+    public synchronized void copyMetaData(ASAPChannel channel) throws IOException {
         this.uri = channel.getUri().toString();
-        this.recipients = channel.getRecipients();
-        this.extraData = channel.getExtraData();
+        this.recipients = new HashSet<>(channel.getRecipients());
+        this.extraData = new HashMap<>(channel.getExtraData());
 
         this.saveStatus();
     }
@@ -58,7 +94,7 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
         return this.hopList;
     }
 
-    public void setASAPHopList(List<ASAPHop> asapHopList) throws IOException {
+    public synchronized void setASAPHopList(List<ASAPHop> asapHopList) throws IOException {
         this.hopList = asapHopList;
         this.saveStatus();
     }
@@ -68,7 +104,7 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     }
 
     @Override
-    public void deliveredTo(String peer) throws IOException {
+    public synchronized void deliveredTo(String peer) throws IOException {
         this.deliveredTo.add(peer);
         this.saveStatus();
     }
@@ -104,12 +140,22 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
         this.initFiles(trunkName);
     }
 
+    /**
+     * set up existing chunk from its files
+     */
+    ASAPInternalChunkFS(ASAPChunkStorageFS storage, int era, String trunkName) throws IOException {
+        this(storage, trunkName);
+        this.era = era;
+    }
+
     private void initFiles(String trunkName) throws IOException {
         String messageFileName = trunkName + "." +  DATA_EXTENSION;
         String metaFileName = trunkName + "." + META_DATA_EXTENSION;
+        String indexFileName = trunkName + "." + ASAPChunkOffsetIndex.INDEX_EXTENSION;
 
         this.messageFile = new File(messageFileName);
         this.metaFile = new File(metaFileName);
+        this.offsetIndex = new ASAPChunkOffsetIndex(new File(indexFileName));
         
         // init meta file - message file keeps untouched (good idea?)
         if(!this.metaFile.exists()) {
@@ -121,18 +167,92 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
         }
 
         // try to read existing meta data
-        if(!this.readMetaData(this.metaFile)) {
+        boolean metaDataRead = this.readMetaData(this.metaFile);
+        this.rememberMetaFileState();
+        if(!metaDataRead) {
             // no meta date to be read - set defaults
             this.writeMetaData(this.metaFile);
             this.recipients = new HashSet<>();
             this.deliveredTo = new ArrayList<>();
-            this.messageStartOffsets = new ArrayList<>();
             this.hopList = new ArrayList<>();
         }
+
+        this.setupOffsetIndex();
+    }
+
+    private void setupOffsetIndex() throws IOException {
+        if(this.offsetIndex.exists()) {
+            this.offsetIndex.load();
+        }
+        else if(this.legacyOffsetList != null && !this.legacyOffsetList.isEmpty()) {
+            // migrate: offsets were kept in meta data file in former versions
+            Log.writeLog(this, "move message offsets from meta data into index file: " + this.metaFile);
+            this.offsetIndex.write(this.legacyOffsetList);
+            this.writeMetaData(this.metaFile);
+        }
+        this.legacyOffsetList = null;
     }
     
     private void saveStatus() throws IOException {
-        this.writeMetaData(this.metaFile);
+        if(this.batchLevel > 0) {
+            // defer writing - at the end of the batch or after flush interval
+            this.metaDataDirty = true;
+            if(System.currentTimeMillis() - this.lastFlush >= metaDataFlushInterval) {
+                this.writeMetaData(this.metaFile);
+            }
+        } else {
+            this.writeMetaData(this.metaFile);
+        }
+    }
+
+    @Override
+    public synchronized void startBatch() {
+        this.batchLevel++;
+    }
+
+    @Override
+    public synchronized void finishBatch() throws IOException {
+        if(this.batchLevel > 0) this.batchLevel--;
+        if(this.batchLevel == 0) {
+            try {
+                if(this.metaDataDirty) this.writeMetaData(this.metaFile);
+            }
+            finally {
+                this.closeContentChannel();
+            }
+        }
+    }
+
+    /**
+     * @return content channel, positioned at the end of the content file. Created if necessary.
+     * @throws IOException
+     */
+    private FileChannel getContentChannel() throws IOException {
+        if(this.contentChannel == null) {
+            if(!this.messageFile.exists()) {
+                if(!this.messageFile.getParentFile().exists()) {
+                    this.messageFile.getParentFile().mkdirs();
+                    Log.writeLog(this, "parent folder created: " + this.messageFile.getParentFile().exists());
+                }
+                this.messageFile.createNewFile();
+            }
+
+            // android compatible - no java.nio.file
+            this.contentOS = new FileOutputStream(this.messageFile, true);
+            this.contentChannel = this.contentOS.getChannel();
+        }
+
+        return this.contentChannel;
+    }
+
+    private void closeContentChannel() throws IOException {
+        this.offsetIndex.close();
+        if(this.contentChannel != null) {
+            this.contentChannel = null;
+            FileOutputStream os = this.contentOS;
+            this.contentOS = null;
+            os.close();
+        }
     }
     
     @Override
@@ -141,17 +261,18 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     }
 
     @Override
-    public void addRecipient(CharSequence recipient) throws IOException {
-        this.recipients.add(recipient);
+    public synchronized void addRecipient(CharSequence recipient) throws IOException {
+        // null is not written to meta data - chunk objects are cached, keep memory and file consistent
+        if(recipient != null) this.recipients.add(recipient);
         this.writeMetaData(this.metaFile);
     }
 
     @Override
-    public void setRecipients(Collection<CharSequence> newRecipients) throws IOException {
+    public synchronized void setRecipients(Collection<CharSequence> newRecipients) throws IOException {
         this.recipients = new HashSet<>();
-        if(recipients != null) {
+        if(newRecipients != null) {
             for (CharSequence recipient : newRecipients) {
-                this.recipients.add(recipient);
+                if(recipient != null) this.recipients.add(recipient);
             }
         }
         
@@ -159,7 +280,7 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     }
 
     @Override
-    public void removeRecipient(CharSequence recipient) throws IOException {
+    public synchronized void removeRecipient(CharSequence recipient) throws IOException {
         this.recipients.remove(recipient);
         this.writeMetaData(this.metaFile);
     }
@@ -176,92 +297,83 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     }
 */
     @Override
-    public void addMessage(byte[] messageAsBytes) throws IOException {
-        if(messageAsBytes.length > Integer.MAX_VALUE) {
-            throw new IOException("message must not be longer than Integer.MAXVALUE");
-        }
-
-        InputStream is = new ByteArrayInputStream(messageAsBytes);
+    public synchronized void addMessage(byte[] messageAsBytes) throws IOException {
+        FileChannel channel = this.getContentChannel();
+        try {
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(messageAsBytes);
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
 
-        this.addMessage(is, messageAsBytes.length);
+            this.messageAppended(offset);
+        }
+        finally {
+            if(this.batchLevel == 0) this.closeContentChannel();
+        }
     }
 
-    public void addMessage(InputStream messageByteIS, long length) throws IOException {
+    public synchronized void addMessage(InputStream messageByteIS, long length) throws IOException {
         //Log.writeLog(this, "going to add message to chunkFS" );
         if(length > Integer.MAX_VALUE) {
             throw new IOException("message must not be longer than Integer.MAXVALUE");
         }
 
-        long offset = 0;
-        if(!this.messageFile.exists()) {
-            if(!this.messageFile.getParentFile().exists()) {
-                this.messageFile.getParentFile().mkdirs();
-                Log.writeLog(this, "parent folder created: " + this.messageFile.getParentFile().exists());
+        FileChannel channel = this.getContentChannel();
+        try {
+            long offset = channel.size();
+
+            byte[] buffer = new byte[(int) Math.max(1, Math.min(length, COPY_BUFFER_SIZE))];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            while(length > 0) {
+                int read = messageByteIS.read(buffer, 0, (int) Math.min(length, buffer.length));
+                if(read < 0) {
+                    throw new EOFException("stream ended before message was completely read - missing bytes: "
+                            + length);
+                }
+                byteBuffer.clear();
+                byteBuffer.limit(read);
+                while(byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                length -= read;
             }
-            this.messageFile.createNewFile();
-        } else {
-            offset = this.messageFile.length();
-        }
-        //Log.writeLog(this, "got chunk content file length: " + offset);
 
-        OutputStream os = new FileOutputStream(this.messageFile, true);
-        //Log.writeLog(this, "opened chunk content file to append data");
-
-        //Log.writeLog(this, "write message to the end of chunk file");
-        while(length-- > 0) {
-            os.write(messageByteIS.read());
+            this.messageAppended(offset);
+        }
+        finally {
+            if(this.batchLevel == 0) this.closeContentChannel();
         }
+    }
 
-        //Log.writeLog(this, "closing");
-        os.close();
+    private void messageAppended(long offset) throws IOException {
+        if(this.storage != null) {
+            ASAPMessageBlockCache.getInstance().invalidate(
+                    this.storage.getRootDirectory(), this.era, this.uri, this.offsetIndex.size() + (offset > 0 ? 1 : 0));
+        }
 
-        // remember offset if not 0
+        // remember offset if not 0 - meta data file is not touched
         if(offset > 0) {
-            this.messageStartOffsets.add(offset);
-            this.saveStatus();
+            this.offsetIndex.append(offset);
+            if(this.batchLevel > 0
+                    && System.currentTimeMillis() - this.lastFlush >= metaDataFlushInterval) {
+                this.offsetIndex.flush();
+                if(this.metaDataDirty) this.writeMetaData(this.metaFile);
+                this.lastFlush = System.currentTimeMillis();
+            }
         }
     }
 
+    /**
+     * @return iterator that reads messages in batches from content file - see ChunkMessageStreamIterator
+     * @throws IOException
+     */
     @Override
-    public Iterator<byte[]> getMessages() throws IOException {
-        return this.getMessagesAsBytesList().iterator();
-    }
-
-    private List<byte[]> getMessagesAsBytesList() throws IOException {
-        List<byte[]> byteMessageList = new ArrayList<>();
-
-        if(this.messageFile.length() > 0) {
-            InputStream is = new FileInputStream((this.messageFile));
-            long offset = 0;
-            for(Long nextOffset : this.messageStartOffsets) {
-                long messageLenLong = nextOffset.longValue() - offset;
-                if(messageLenLong > Integer.MAX_VALUE) {
-                    throw new IOException("message longer than Integer.MAXVALUE");
-                }
-
-                int messageLen = (int) messageLenLong;
-                byte[] messageBytes = new byte[messageLen];
-
-                is.read(messageBytes);
-
-                byteMessageList.add(messageBytes);
-
-                offset = nextOffset;
-            }
-
-            // read last one
-            long messageLenLong = this.messageFile.length() - offset;
-            if(messageLenLong > Integer.MAX_VALUE) {
-                throw new IOException("message longer than Integer.MAXVALUE");
-            }
-
-            int messageLen = (int) messageLenLong;
-            byte[] messageBytes = new byte[messageLen];
-            is.read(messageBytes);
-            byteMessageList.add(messageBytes);
-        }
+    public synchronized Iterator<byte[]> getMessages() throws IOException {
+        long contentLength = this.messageFile.length();
+        int numberMessages = contentLength == 0 ? 0 : this.offsetIndex.size() + 1;
 
-        return byteMessageList;
+        return new ChunkMessageStreamIterator(this.messageFile, this.offsetIndex, numberMessages, contentLength);
     }
 
     public long getLength() {
@@ -269,8 +381,8 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     }
 
     @Override
-    public List<Long> getOffsetList() {
-        return this.messageStartOffsets;
+    public synchronized List<Long> getOffsetList() {
+        return this.offsetIndex.asList();
     }
 
     @Override
@@ -285,8 +397,62 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
         return is;
     }
 
+    /**
+     * @return content file mapped into memory - re-mapped if file has changed its length
+     * @throws IOException
+     */
+    private ByteBuffer getContentMap() throws IOException {
+        long length = this.messageFile.length();
+        if(this.contentMap == null || this.contentMap.capacity() != length) {
+            if(length > Integer.MAX_VALUE) {
+                throw new IOException("content file too large to be mapped: " + this.messageFile);
+            }
+            RandomAccessFile raf = new RandomAccessFile(this.messageFile, "r");
+            try {
+                // mapping remains valid after closing the file
+                this.contentMap = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            finally {
+                raf.close();
+            }
+        }
+
+        return this.contentMap;
+    }
+
+    @Override
+    public synchronized ByteBuffer getMessageBuffer(int index) throws IOException {
+        int number = this.getNumberMessage();
+        if(index < 0 || index >= number) {
+            throw new IOException("no message with index " + index + " | number of messages: " + number);
+        }
+
+        ByteBuffer map = this.getContentMap();
+        long start = index == 0 ? 0 : this.offsetIndex.get(index - 1);
+        long end = index == number - 1 ? map.capacity() : this.offsetIndex.get(index);
+        if(start > end || end > map.capacity()) {
+            throw new IOException("message offsets do not fit to content file: " + this.messageFile);
+        }
+
+        ByteBuffer messageBuffer = map.duplicate();
+        messageBuffer.limit((int) end);
+        messageBuffer.position((int) start);
+        return messageBuffer.slice();
+    }
+
     @Override
-    public void putExtra(String key, String value) throws IOException {
+    public synchronized List<ByteBuffer> getMessageBuffers() throws IOException {
+        int number = this.getNumberMessage();
+        List<ByteBuffer> bufferList = new ArrayList<>(number);
+        for(int i = 0; i < number; i++) {
+            bufferList.add(this.getMessageBuffer(i));
+        }
+
+        return bufferList;
+    }
+
+    @Override
+    public synchronized void putExtra(String key, String value) throws IOException {
         if(key == null || value == null) {
             throw new IOException("null values are not allowed in extra data");
         }
@@ -295,7 +461,7 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     }
 
     @Override
-    public CharSequence removeExtra(String key) throws IOException {
+    public synchronized CharSequence removeExtra(String key) throws IOException {
         if(key == null) throw new IOException("null key not allowed");
         String removed = this.extraData.remove(key);
         this.saveStatus();
@@ -311,17 +477,30 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
 
     @Override
     public Iterator<CharSequence> getMessagesAsCharSequence() throws IOException {
-        try {
-            return new MessageIter(this.getMessagesAsBytesList());
-        } catch (FileNotFoundException ex) {
-            throw new IOException(ex.getLocalizedMessage());
-        }
+        return new MessageIter(this.getMessages());
     }
 
     @Override
-    public void drop() {
+    public synchronized void drop() {
+        try {
+            this.closeContentChannel();
+        } catch (IOException e) {
+            Log.writeLogErr(this, "cannot close content file: " + e.getLocalizedMessage());
+        }
+        this.batchLevel = 0;
+        this.metaDataDirty = false;
+        this.contentMap = null;
+        if(this.storage != null) {
+            ASAPMessageBlockCache.getInstance().invalidateAll(this.storage.getRootDirectory(), this.era, this.uri);
+            try {
+                this.storage.chunkDropped(this);
+            } catch (IOException e) {
+                Log.writeLogErr(this, "cannot remove chunk from manifest: " + e.getLocalizedMessage());
+            }
+        }
         this.metaFile.delete();
         this.messageFile.delete();
+        this.offsetIndex.delete();
     }
 
     private boolean readMetaData(File metaFile) throws IOException {
@@ -345,9 +524,9 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
             this.recipients = SerializationHelper.string2CharSequenceSet(dis.readUTF());
             this.deliveredTo = SerializationHelper.string2CharSequenceList(dis.readUTF());
 
-            // finally read offset list
+            // finally read offset list - empty unless written by former versions; offsets are in index file
             String offsetList = dis.readUTF();
-            this.messageStartOffsets = this.messageOffsetString2List(offsetList);
+            this.legacyOffsetList = this.messageOffsetString2List(offsetList);
         }
         catch(IOException e) {
             // no more data - ok
@@ -370,33 +549,49 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
         dos.writeUTF(SerializationHelper.collection2String(this.recipients));
         dos.writeUTF(SerializationHelper.collection2String(this.deliveredTo));
 
-        // write offsetList
-        dos.writeUTF(this.messageStartOffsetListAsString());
+        // offset list is kept in index file - empty string keeps meta data format readable
+        dos.writeUTF("");
         
         dos.close();
-    }
 
-    private String messageStartOffsetListAsString() {
-        StringBuilder sb = new StringBuilder();
+        this.metaDataDirty = false;
+        this.lastFlush = System.currentTimeMillis();
+        this.rememberMetaFileState();
+    }
 
-        boolean first = true;
-        for(Long offset : this.messageStartOffsets) {
-            if(!first) {
-                sb.append(ASAPLogHelper.SERIALIZATION_DELIMITER);
-            }
-            first = false;
-            sb.append(offset.toString());
-        }
+    private void rememberMetaFileState() {
+        this.metaFileModified = this.metaFile.lastModified();
+        this.metaFileLength = this.metaFile.length();
+    }
 
-        return sb.toString();
+    /**
+     * Cheap check (no parsing) if chunk files were changed by another object or process or dropped since
+     * this object has read or written them.
+     * @return true if this object still reflects chunk on disk
+     */
+    synchronized boolean isUpToDate() {
+        if(this.batchLevel > 0) return true; // we are writing
+        return this.metaFile.exists()
+                && this.metaFile.lastModified() == this.metaFileModified
+                && this.metaFile.length() == this.metaFileLength
+                && this.offsetIndex.isUpToDate();
     }
 
     private String getExtraAsString() throws IOException {
+        return ASAPInternalChunkFS.extraData2String(this.extraData);
+    }
+
+    private void setExtraByString(String extraString) throws IOException {
+        if(extraString == null) return;
+        this.extraData = ASAPInternalChunkFS.string2ExtraData(extraString);
+    }
+
+    static String extraData2String(Map<String, String> extraData) throws IOException {
         StringBuilder sb = new StringBuilder();
 
         boolean first = true;
-        for(String key : this.extraData.keySet()) {
-            String value = this.extraData.get(key);
+        for(String key : extraData.keySet()) {
+            String value = extraData.get(key);
             if(value == null) {
                 throw new IOException("null value not allowed in extra data");
             };
@@ -412,9 +607,7 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
         return sb.toString();
     }
 
-    private void setExtraByString(String extraString) throws IOException {
-        if(extraString == null) return;
-
+    static HashMap<String, String> string2ExtraData(String extraString) throws IOException {
         try {
             HashMap<String, String> extra = new HashMap<>();
             StringTokenizer st = new StringTokenizer(extraString, ASAPLogHelper.SERIALIZATION_DELIMITER);
@@ -425,7 +618,7 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
                 extra.put(key, value);
             }
 
-            this.extraData = extra;
+            return extra;
         }
         catch(RuntimeException e) {
             // missing token or something
@@ -449,10 +642,10 @@ public class ASAPInternalChunkFS implements ASAPInternalChunk {
     }
 
     @Override
-    public int getNumberMessage() {
+    public synchronized int getNumberMessage() {
         if(this.messageFile.length() == 0) return 0;
 
-        return this.messageStartOffsets.size() + 1;
+        return this.offsetIndex.size() + 1;
     }
 
     @Override
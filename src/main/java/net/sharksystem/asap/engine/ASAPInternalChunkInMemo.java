@@ -0,0 +1,238 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPChannel;
+import net.sharksystem.asap.ASAPHop;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Chunk that is kept in memory only - see ASAPChunkStorageInMemo.
+ *
+ * @author thsc
+ */
+class ASAPInternalChunkInMemo implements ASAPInternalChunk {
+    private final ASAPChunkStorageInMemo storage;
+    private final String uri;
+    private final int era;
+
+    private final List<byte[]> messages = new ArrayList<>();
+    private long length = 0;
+
+    private List<ASAPHop> hopList = new ArrayList<>();
+    private Set<CharSequence> recipients = new HashSet<>();
+    private HashMap<String, String> extraData = new HashMap<>();
+    private List<CharSequence> deliveredTo = new ArrayList<>();
+
+    ASAPInternalChunkInMemo(ASAPChunkStorageInMemo storage, String uri, int era) {
+        this.storage = storage;
+        this.uri = uri;
+        this.era = era;
+    }
+
+    @Override
+    public String getUri() {
+        return this.uri;
+    }
+
+    @Override
+    public int getEra() {
+        return this.era;
+    }
+
+    @Override
+    public synchronized int getNumberMessage() {
+        return this.messages.size();
+    }
+
+    @Override
+    public synchronized long getLength() {
+        return this.length;
+    }
+
+    @Override
+    public synchronized List<Long> getOffsetList() {
+        // no offset for first message - like the file based chunk
+        List<Long> offsetList = new ArrayList<>();
+        long offset = 0;
+        for(int i = 0; i < this.messages.size() - 1; i++) {
+            offset += this.messages.get(i).length;
+            offsetList.add(offset);
+        }
+        return offsetList;
+    }
+
+    @Override
+    public synchronized void addMessage(byte[] messageAsBytes) throws IOException {
+        // caller could change that array later
+        byte[] message = Arrays.copyOf(messageAsBytes, messageAsBytes.length);
+        this.messages.add(message);
+        this.length += message.length;
+    }
+
+    @Override
+    public void addMessage(InputStream is, long length) throws IOException {
+        if(length > Integer.MAX_VALUE) throw new IOException("message too long to keep it in memory: " + length);
+
+        byte[] message = new byte[(int) length];
+        int read = 0;
+        while(read < message.length) {
+            int n = is.read(message, read, message.length - read);
+            if(n < 0) throw new EOFException("stream ended before message was complete");
+            read += n;
+        }
+
+        synchronized(this) {
+            this.messages.add(message);
+            this.length += message.length;
+        }
+    }
+
+    @Override
+    public void startBatch() {
+        // nothing to do - nothing to write
+    }
+
+    @Override
+    public void finishBatch() {
+        // nothing to do - nothing to write
+    }
+
+    @Override
+    public synchronized Iterator<byte[]> getMessages() {
+        // snapshot - messages are never changed once added
+        return new ArrayList<>(this.messages).iterator();
+    }
+
+    @Override
+    public Iterator<CharSequence> getMessagesAsCharSequence() {
+        return new MessageIter(this.getMessages());
+    }
+
+    @Override
+    public synchronized InputStream getMessageInputStream() {
+        List<InputStream> streams = new ArrayList<>(this.messages.size());
+        for(byte[] message : this.messages) {
+            streams.add(new ByteArrayInputStream(message));
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    @Override
+    public synchronized ByteBuffer getMessageBuffer(int index) throws IOException {
+        if(index < 0 || index >= this.messages.size()) {
+            throw new IOException("message index out of range: " + index);
+        }
+        return ByteBuffer.wrap(this.messages.get(index)).asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized List<ByteBuffer> getMessageBuffers() throws IOException {
+        List<ByteBuffer> bufferList = new ArrayList<>(this.messages.size());
+        for(byte[] message : this.messages) {
+            bufferList.add(ByteBuffer.wrap(message).asReadOnlyBuffer());
+        }
+        return bufferList;
+    }
+
+    @Override
+    public void drop() {
+        this.storage.chunkDropped(this);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                     meta data                                        //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public synchronized List<ASAPHop> getASAPHopList() {
+        return this.hopList;
+    }
+
+    @Override
+    public synchronized void setASAPHopList(List<ASAPHop> asapHopList) {
+        this.hopList = asapHopList != null ? new ArrayList<>(asapHopList) : new ArrayList<ASAPHop>();
+    }
+
+    @Override
+    public synchronized Set<CharSequence> getRecipients() {
+        return this.recipients;
+    }
+
+    @Override
+    public synchronized void addRecipient(CharSequence recipient) {
+        // no null - behave like the file based chunk
+        if(recipient != null) this.recipients.add(recipient);
+    }
+
+    @Override
+    public synchronized void setRecipients(Collection<CharSequence> newRecipients) {
+        this.recipients = new HashSet<>();
+        if(newRecipients != null) {
+            for(CharSequence recipient : newRecipients) {
+                if(recipient != null) this.recipients.add(recipient);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeRecipient(CharSequence recipient) {
+        this.recipients.remove(recipient);
+    }
+
+    @Override
+    public synchronized void putExtra(String key, String value) throws IOException {
+        if(key == null || value == null) {
+            throw new IOException("null values are not allowed in extra data");
+        }
+        this.extraData.put(key, value);
+    }
+
+    @Override
+    public synchronized CharSequence removeExtra(String key) throws IOException {
+        if(key == null) throw new IOException("null key not allowed");
+        return this.extraData.remove(key);
+    }
+
+    @Override
+    public synchronized CharSequence getExtra(String key) throws IOException {
+        if(key == null) throw new IOException("null key not allowed");
+        return this.extraData.get(key);
+    }
+
+    @Override
+    public synchronized HashMap<String, String> getExtraData() {
+        return this.extraData;
+    }
+
+    @Override
+    public synchronized void deliveredTo(String peer) {
+        this.deliveredTo.add(peer);
+    }
+
+    @Override
+    public synchronized List<CharSequence> getDeliveredTo() {
+        return this.deliveredTo;
+    }
+
+    @Override
+    public synchronized void clone(ASAPInternalChunk chunkSource) {
+        this.recipients = new HashSet<>(chunkSource.getRecipients());
+        this.extraData = new HashMap<>(chunkSource.getExtraData());
+    }
+
+    @Override
+    public synchronized void copyMetaData(ASAPChannel channel) throws IOException {
+        this.recipients = new HashSet<>(channel.getRecipients());
+        this.extraData = new HashMap<>(channel.getExtraData());
+    }
+
+    public String toString() {
+        return this.era + "/" + this.uri + " in memory";
+    }
+}
@@ -0,0 +1,330 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPChannel;
+import net.sharksystem.asap.ASAPHop;
+import net.sharksystem.utils.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Chunk in a segmented log. This object is a view - chunk data are kept by the log (see ASAPSegmentedLog).
+ * Changes are appended to the log immediately.
+ *
+ * @author thsc
+ */
+class ASAPInternalChunkLog implements ASAPInternalChunk {
+    private final ASAPChunkStorageLog storage;
+    private final String uri;
+    private final int era;
+
+    ASAPInternalChunkLog(ASAPChunkStorageLog storage, String uri, int era) {
+        this.storage = storage;
+        this.uri = uri;
+        this.era = era;
+    }
+
+    /**
+     * @return chunk entry or null if chunk does not exist (any longer)
+     */
+    private ASAPSegmentedLog.ChunkEntry getEntry() {
+        try {
+            ASAPSegmentedLog log = this.storage.getLog(false);
+            return log == null ? null : log.getEntry(this.era, this.uri);
+        } catch (IOException e) {
+            Log.writeLogErr(this, "cannot access log: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return chunk entry - chunk is created if it was dropped
+     */
+    private ASAPSegmentedLog.ChunkEntry getWritableEntry(ASAPSegmentedLog log) throws IOException {
+        return log.getOrCreateEntry(this.era, this.uri);
+    }
+
+    private ASAPSegmentedLog getLog() throws IOException {
+        return this.storage.getLog(true);
+    }
+
+    @Override
+    public String getUri() {
+        return this.uri;
+    }
+
+    @Override
+    public int getEra() {
+        return this.era;
+    }
+
+    @Override
+    public int getNumberMessage() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        return entry == null ? 0 : entry.getNumberMessages();
+    }
+
+    @Override
+    public long getLength() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        return entry == null ? 0 : entry.getContentLength();
+    }
+
+    @Override
+    public List<Long> getOffsetList() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        return entry == null ? new ArrayList<Long>() : entry.getOffsetList();
+    }
+
+    @Override
+    public void addMessage(byte[] messageAsBytes) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            log.appendMessage(this.getWritableEntry(log), messageAsBytes);
+        }
+    }
+
+    @Override
+    public void addMessage(InputStream is, long length) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            log.appendMessage(this.getWritableEntry(log), is, length);
+        }
+    }
+
+    @Override
+    public void startBatch() throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            log.startBatch(this.getWritableEntry(log));
+        }
+    }
+
+    @Override
+    public void finishBatch() throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            log.finishBatch(this.getWritableEntry(log));
+        }
+    }
+
+    @Override
+    public Iterator<byte[]> getMessages() throws IOException {
+        final ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        final int number = entry == null ? 0 : entry.getNumberMessages();
+        final ASAPSegmentedLog log = this.getLog();
+
+        // snapshot - messages added later are not delivered
+        return new Iterator<byte[]>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.next < number;
+            }
+
+            @Override
+            public byte[] next() {
+                if(!this.hasNext()) throw new NoSuchElementException("no more messages");
+                try {
+                    return log.readMessage(entry, this.next++);
+                } catch (IOException e) {
+                    throw new IllegalStateException("cannot read message from log: " + e.getLocalizedMessage());
+                }
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("messages cannot be removed");
+            }
+        };
+    }
+
+    @Override
+    public Iterator<CharSequence> getMessagesAsCharSequence() throws IOException {
+        return new MessageIter(this.getMessages());
+    }
+
+    @Override
+    public InputStream getMessageInputStream() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        try {
+            if(entry != null) return this.getLog().getContentStream(entry);
+        } catch (IOException e) {
+            Log.writeLogErr(this, "cannot access log: " + e.getLocalizedMessage());
+        }
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public ByteBuffer getMessageBuffer(int index) throws IOException {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        if(entry == null) throw new IOException("chunk does not exist: " + this.era + "/" + this.uri);
+        return this.getLog().getMessageBuffer(entry, index);
+    }
+
+    @Override
+    public List<ByteBuffer> getMessageBuffers() throws IOException {
+        int number = this.getNumberMessage();
+        List<ByteBuffer> bufferList = new ArrayList<>(number);
+        for(int i = 0; i < number; i++) {
+            bufferList.add(this.getMessageBuffer(i));
+        }
+        return bufferList;
+    }
+
+    @Override
+    public void drop() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        if(entry == null) return;
+        try {
+            this.getLog().dropChunk(entry);
+        } catch (IOException e) {
+            Log.writeLogErr(this, "cannot drop chunk: " + e.getLocalizedMessage());
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                     meta data                                        //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public List<ASAPHop> getASAPHopList() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        return entry == null ? new ArrayList<ASAPHop>() : entry.hopList;
+    }
+
+    @Override
+    public void setASAPHopList(List<ASAPHop> asapHopList) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            entry.hopList = asapHopList;
+            log.metaDataChanged(entry);
+        }
+    }
+
+    @Override
+    public Set<CharSequence> getRecipients() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        return entry == null ? new HashSet<CharSequence>() : entry.recipients;
+    }
+
+    @Override
+    public void addRecipient(CharSequence recipient) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            // null is not serialized
+            if(recipient != null) entry.recipients.add(recipient);
+            log.metaDataChanged(entry);
+        }
+    }
+
+    @Override
+    public void setRecipients(Collection<CharSequence> newRecipients) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            entry.recipients = new HashSet<>();
+            if(newRecipients != null) {
+                for(CharSequence recipient : newRecipients) {
+                    if(recipient != null) entry.recipients.add(recipient);
+                }
+            }
+            log.metaDataChanged(entry);
+        }
+    }
+
+    @Override
+    public void removeRecipient(CharSequence recipient) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            entry.recipients.remove(recipient);
+            log.metaDataChanged(entry);
+        }
+    }
+
+    @Override
+    public void putExtra(String key, String value) throws IOException {
+        if(key == null || value == null) {
+            throw new IOException("null values are not allowed in extra data");
+        }
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            entry.extraData.put(key, value);
+            log.metaDataChanged(entry);
+        }
+    }
+
+    @Override
+    public CharSequence removeExtra(String key) throws IOException {
+        if(key == null) throw new IOException("null key not allowed");
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            String removed = entry.extraData.remove(key);
+            log.metaDataChanged(entry);
+            return removed;
+        }
+    }
+
+    @Override
+    public CharSequence getExtra(String key) throws IOException {
+        if(key == null) throw new IOException("null key not allowed");
+        return this.getExtraData().get(key);
+    }
+
+    @Override
+    public HashMap<String, String> getExtraData() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        return entry == null ? new HashMap<String, String>() : entry.extraData;
+    }
+
+    @Override
+    public void deliveredTo(String peer) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            entry.deliveredTo.add(peer);
+            log.metaDataChanged(entry);
+        }
+    }
+
+    @Override
+    public List<CharSequence> getDeliveredTo() {
+        ASAPSegmentedLog.ChunkEntry entry = this.getEntry();
+        return entry == null ? new ArrayList<CharSequence>() : entry.deliveredTo;
+    }
+
+    @Override
+    public void clone(ASAPInternalChunk chunkSource) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            entry.recipients = new HashSet<>(chunkSource.getRecipients());
+            entry.extraData = new HashMap<>(chunkSource.getExtraData());
+            log.metaDataChanged(entry);
+        }
+    }
+
+    @Override
+    public void copyMetaData(ASAPChannel channel) throws IOException {
+        ASAPSegmentedLog log = this.getLog();
+        synchronized(log) {
+            ASAPSegmentedLog.ChunkEntry entry = this.getWritableEntry(log);
+            entry.recipients = new HashSet<>(channel.getRecipients());
+            entry.extraData = new HashMap<>(channel.getExtraData());
+            log.metaDataChanged(entry);
+        }
+    }
+
+    public String toString() {
+        return this.era + "/" + this.uri + " in " + this.storage.getRootDirectory();
+    }
+}
@@ -24,6 +24,7 @@ public class ASAPInternalPeerFS implements
     private CharSequence owner;
     private HashMap<CharSequence, EngineSetting> folderMap;
     private final long maxExecutionTime;
+    private final ASAPChunkStorageType chunkStorageType;
     private ASAPKeyStore ASAPKeyStore;
     private DefaultSecurityAdministrator defaultSecurityAdministrator = new DefaultSecurityAdministrator();
     private InMemoASAPKeyStore inMemoASAPKeyStore;
@@ -57,6 +58,20 @@ public class ASAPInternalPeerFS implements
         return new ASAPInternalPeerFS(owner, rootFolder, DEFAULT_MAX_PROCESSING_TIME, supportFormats, listener);
     }
 
+    /**
+     * @param chunkStorageType storage type of engines created by this peer - existing engines keep their type
+     */
+    public static ASAPInternalPeer createASAPPeer(CharSequence owner, CharSequence rootFolder,
+                                                  long maxExecutionTime,
+                                                  Collection<CharSequence> supportFormats,
+                                                  ASAPChunkStorageType chunkStorageType,
+                                                  ASAPChunkAssimilatedListener listener)
+            throws ASAPException, IOException {
+
+        return new ASAPInternalPeerFS(owner, rootFolder, maxExecutionTime, supportFormats,
+                chunkStorageType, listener);
+    }
+
     public static ASAPInternalPeer createASAPPeer(CharSequence owner, CharSequence rootFolder,
                                                   long maxExecutionTime,
                                                   ASAPChunkAssimilatedListener listener) throws ASAPException, IOException {
@@ -88,6 +103,13 @@ public class ASAPInternalPeerFS implements
     private ASAPInternalPeerFS(CharSequence owner, CharSequence rootFolderName, long maxExecutionTime,
                                Collection<CharSequence> apps, ASAPChunkAssimilatedListener listener)
             throws ASAPException, IOException {
+        this(owner, rootFolderName, maxExecutionTime, apps, ASAPChunkStorageType.FILE_PER_CHUNK, listener);
+    }
+
+    private ASAPInternalPeerFS(CharSequence owner, CharSequence rootFolderName, long maxExecutionTime,
+                               Collection<CharSequence> apps, ASAPChunkStorageType chunkStorageType,
+                               ASAPChunkAssimilatedListener listener)
+            throws ASAPException, IOException {
 
         // owner id must not be a numerical value only - it would interfere with our era numbers
         try {
@@ -101,18 +123,21 @@ public class ASAPInternalPeerFS implements
 
         this.owner = owner;
         this.maxExecutionTime = maxExecutionTime;
+        this.chunkStorageType = chunkStorageType;
         this.rootFolderName = rootFolderName;
         this.listener = listener;
 
-        File rootFolder = new File(rootFolderName.toString());
+        if(chunkStorageType != ASAPChunkStorageType.IN_MEMORY) {
+            File rootFolder = new File(rootFolderName.toString());
 
-        if(!rootFolder.exists()) {
-            // create
-            rootFolder.mkdirs();
-        }
+            if (!rootFolder.exists()) {
+                // create
+                rootFolder.mkdirs();
+            }
 
-        if (!rootFolder.isDirectory()) {
-            throw new ASAPException("exists but is not a directory: " + rootFolderName);
+            if (!rootFolder.isDirectory()) {
+                throw new ASAPException("exists but is not a directory: " + rootFolderName);
+            }
         }
 
         this.setupFolderMap();
@@ -154,8 +179,8 @@ public class ASAPInternalPeerFS implements
     private void setupEngine(CharSequence folderName, CharSequence formatName) throws IOException, ASAPException {
         String fileName = this.rootFolderName + "/" + folderName;
         Log.writeLog(this, "set up: " + formatName + " in folder " + fileName);
-        ASAPEngine asapEngine = ASAPEngineFS.getASAPStorage(this.getOwner().toString(),
-                fileName, formatName);
+        ASAPEngine asapEngine = ASAPEngineFS.getASAPEngine(this.getOwner().toString(),
+                fileName, formatName, this.chunkStorageType);
 
         asapEngine.setSecurityAdministrator(this.defaultSecurityAdministrator);
 
@@ -169,6 +194,11 @@ public class ASAPInternalPeerFS implements
 
     private void setupFolderMap() throws IOException, ASAPException {
         this.folderMap = new HashMap<>();
+        if(this.chunkStorageType == ASAPChunkStorageType.IN_MEMORY) {
+            this.setupFolderMapInMemo();
+            return;
+        }
+
         File rootFolder = new File(rootFolderName.toString());
 
         Log.writeLog(this, "setting up ASAPEngine based on sub folders in " + this.rootFolderName);
@@ -188,6 +218,51 @@ public class ASAPInternalPeerFS implements
         }
     }
 
+    private void setupFolderMapInMemo() throws IOException, ASAPException {
+        Log.writeLog(this, "setting up ASAPEngine based on in-memory engines in " + this.rootFolderName);
+        for(String folderName : ASAPEngineInMemo.getSubFolders(this.rootFolderName.toString())) {
+            ASAPEngine engine = ASAPEngineInMemo.getASAPEngine(null, folderName, null);
+            EngineSetting setting = new EngineSetting(folderName, listener);
+            setting.setASAPEngine(engine);
+            this.folderMap.put(engine.format, setting);
+        }
+    }
+
+    /**
+     * Write all engines kept in memory into a folder. Folder can be used as root folder of a peer with
+     * file based engines afterwards. Nothing happens with file based engines.
+     *
+     * @param folderName snapshot folder
+     */
+    public void snapshot(CharSequence folderName) throws IOException, ASAPException {
+        for(CharSequence format : this.folderMap.keySet()) {
+            ASAPEngine engine = this.getEngineByFormat(format);
+            if(engine instanceof ASAPEngineInMemo) {
+                ASAPEngineInMemo engineInMemo = (ASAPEngineInMemo) engine;
+                String engineFolderName = new File(engineInMemo.getRootFolder()).getName();
+                engineInMemo.snapshot(folderName + "/" + engineFolderName);
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot when this process ends - see snapshot.
+     *
+     * @param folderName snapshot folder
+     */
+    public void snapshotOnShutdown(final CharSequence folderName) {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ASAPInternalPeerFS.this.snapshot(folderName);
+                } catch (IOException | ASAPException e) {
+                    Log.writeLogErr(ASAPInternalPeerFS.this, "cannot write snapshot: " + e.getLocalizedMessage());
+                }
+            }
+        }));
+    }
+
     /**
      * increase era for each engine
      */
@@ -220,7 +295,8 @@ public class ASAPInternalPeerFS implements
         ASAPEngine asapEngine = engineSetting.engine;
 
         if (asapEngine == null) {
-            asapEngine = ASAPEngineFS.getASAPEngine(owner.toString(), engineSetting.folder.toString(), format);
+            asapEngine = ASAPEngineFS.getASAPEngine(owner.toString(), engineSetting.folder.toString(), format,
+                    this.chunkStorageType);
             engineSetting.setASAPEngine(asapEngine); // remember - keep that object
         }
         asapEngine.setSecurityAdministrator(this.defaultSecurityAdministrator);
@@ -247,7 +323,8 @@ public class ASAPInternalPeerFS implements
         }
 
         String folderName = this.getEngineFolderByAppName(format);
-        ASAPEngine asapEngine = ASAPEngineFS.getASAPEngine(String.valueOf(this.getOwner()), folderName, format);
+        ASAPEngine asapEngine = ASAPEngineFS.getASAPEngine(String.valueOf(this.getOwner()), folderName, format,
+                this.chunkStorageType);
         this.folderMap.put(format, new EngineSetting(folderName, listener));
 
         asapEngine.setSecurityAdministrator(this.defaultSecurityAdministrator);
@@ -284,7 +361,8 @@ public class ASAPInternalPeerFS implements
         }
 
         System.out.println(this.getLogStart() + "setup engine with folder" + foldername);
-        ASAPEngine asapEngine = ASAPEngineFS.getASAPEngine(this.getOwner().toString(), foldername, format);
+        ASAPEngine asapEngine = ASAPEngineFS.getASAPEngine(this.getOwner().toString(), foldername, format,
+                this.chunkStorageType);
         // add to folderMap
         EngineSetting setting = new EngineSetting(foldername, this.listener);
         setting.setASAPEngine(asapEngine);
@@ -358,16 +436,14 @@ public class ASAPInternalPeerFS implements
 
         this.announceNewEra(); // announce when connection is actually established
 
-        Thread thread = new Thread(asapConnection);
-        thread.start();
-
-        // remember
-        this.runningThreads.add(thread);
+        // remember before it can terminate
+        this.runningConnections.add(asapConnection);
+        asapConnection.start();
 
         sb = new StringBuilder();
         sb.append(this.getLogStart());
-        sb.append("launched new asapConnection thread, total number is now: ");
-        sb.append(this.runningThreads.size());
+        sb.append("launched new asapConnection, total number is now: ");
+        sb.append(this.runningConnections.size());
         System.out.println(sb.toString());
 
         return asapConnection;
@@ -381,8 +457,8 @@ public class ASAPInternalPeerFS implements
         }
     }
 
-    /** all running threads */
-    private List<Thread> runningThreads = new ArrayList<>();
+    /** all running connections */
+    private List<ASAPConnection> runningConnections = Collections.synchronizedList(new ArrayList<ASAPConnection>());
 
     @Override
     public void finished(Thread thread) {
@@ -394,12 +470,11 @@ public class ASAPInternalPeerFS implements
             return;
         }
 
-        this.runningThreads.remove(thread);
-
+        // connections run on shared threads - connection was removed when terminated
         StringBuilder sb = new StringBuilder();
         sb.append(this.getLogStart());
-        sb.append("thread terminated - number of running threads is now: ");
-        sb.append(this.runningThreads.size());
+        sb.append("connection terminated - number of running connections is now: ");
+        sb.append(this.runningConnections.size());
         System.out.println(sb.toString());
     }
 
@@ -499,6 +574,8 @@ public class ASAPInternalPeerFS implements
             return;
         }
 
+        this.runningConnections.remove(thread);
+
         // get thread name
         CharSequence peerName = this.threadPeerNames.remove(thread);
         this.connectedThreads.remove(peerName);
@@ -682,6 +759,19 @@ public class ASAPInternalPeerFS implements
         }
     }
 
+    ///////////////////////////////// retention
+    private ASAPRetentionManager retentionManager = null;
+
+    /**
+     * @return retention policies of this peer - nothing is pruned before a policy is set
+     */
+    public synchronized ASAPRetentionManager getRetentionManager() {
+        if(this.retentionManager == null) {
+            this.retentionManager = new ASAPRetentionManager(this);
+        }
+        return this.retentionManager;
+    }
+
     ///////////////////////////////// SharkNet
     @Override
     public ASAPKeyStore getASAPKeyStore() throws ASAPSecurityException {
@@ -698,7 +788,11 @@ public class ASAPInternalPeerFS implements
 
     private ExtraData getExtraData() throws SharkException, IOException {
         if(this.extraData == null) {
-            this.extraData = new ExtraDataFS(this.rootFolderName);
+            if(this.chunkStorageType == ASAPChunkStorageType.IN_MEMORY) {
+                this.extraData = new ExtraDataInMemo();
+            } else {
+                this.extraData = new ExtraDataFS(this.rootFolderName);
+            }
         }
 
         return this.extraData;
@@ -711,4 +805,18 @@ public class ASAPInternalPeerFS implements
     public byte[] getExtra(CharSequence key) throws IOException, SharkException {
         return this.getExtraData().getExtra(key);
     }
+
+    private static class ExtraDataInMemo implements ExtraData {
+        private final Map<CharSequence, byte[]> extraData = new HashMap<>();
+
+        @Override
+        public synchronized void putExtra(CharSequence key, byte[] value) {
+            this.extraData.put(key, value);
+        }
+
+        @Override
+        public synchronized byte[] getExtra(CharSequence key) {
+            return this.extraData.get(key);
+        }
+    }
 }
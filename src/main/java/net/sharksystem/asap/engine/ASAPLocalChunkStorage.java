@@ -0,0 +1,42 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPChunkStorage;
+
+import java.io.IOException;
+import java.util.NavigableSet;
+import java.util.Set;
+
+/**
+ * Chunk storage kept on this device. Messages of such a storage can be read era by era - see
+ * ASAPInMemoMessages.
+ *
+ * @author thsc
+ */
+interface ASAPLocalChunkStorage extends ASAPChunkStorage {
+    /**
+     * @return folder this storage is kept in - identifies storage, e.g. in message block cache
+     */
+    String getRootDirectory();
+
+    /**
+     * @return true if messages read from this storage are worth keeping in message block cache. False if
+     * messages are held in memory anyway.
+     */
+    boolean isMessageCacheable();
+
+    /**
+     * @return eras in this storage - sorted
+     */
+    NavigableSet<Integer> getEras() throws IOException;
+
+    /**
+     * @return eras with a chunk of that channel - sorted, empty if there is none. Taken from an index that
+     * is kept up to date when chunks are added or dropped - no era is searched.
+     */
+    NavigableSet<Integer> getChannelEras(CharSequence uri) throws IOException;
+
+    /**
+     * @return uris of channels with a chunk in any era - taken from channel index
+     */
+    Set<CharSequence> getChannelURIs() throws IOException;
+}
@@ -2,75 +2,156 @@ package net.sharksystem.asap.engine;
 
 import net.sharksystem.asap.protocol.ASAP_1_0;
 import net.sharksystem.utils.Log;
+import net.sharksystem.utils.fs.FSUtils;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Engine memento implementation in filesystem.
- * 
+ *
+ * There is one memento object for each storage folder within a process - engine objects of the same folder
+ * share it. Saving changes the memento in memory and marks it dirty. Dirty mementos are written in
+ * background after a flush interval and when this process ends. Files are written completely into a
+ * temporary file which replaces the memento file. The first save of a memento is written immediately -
+ * an existing memento file marks a folder as storage.
+ *
+ * Other processes can change a memento file. File modification time and length tell if it was changed -
+ * it is only parsed if so. Local changes that are not yet written win over changes of other processes.
+ * A removed memento file (e.g. storage removed) resets memento.
+ *
  * @author local
  */
 class ASAPMementoFS implements ASAPMemento {
+    /** 0: each save is written immediately */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    private static long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    // storage folder -> memento
+    private static final Map<String, ASAPMementoFS> mementos = new HashMap<>();
+    private static Thread flushThread = null;
+    private static boolean shutdownHookSet = false;
+
+    /**
+     * @param interval milliseconds a changed memento is kept in memory at most. 0: write each change immediately
+     */
+    public static void setFlushInterval(long interval) {
+        flushInterval = interval;
+        if(interval <= 0) flushAll();
+    }
+
+    /**
+     * @return memento of that storage folder - shared within this process
+     */
+    static ASAPMementoFS getMemento(File rootDirectory) {
+        String key = rootDirectory.getAbsolutePath();
+        synchronized(mementos) {
+            ASAPMementoFS memento = mementos.get(key);
+            if(memento == null) {
+                memento = new ASAPMementoFS(rootDirectory);
+                mementos.put(key, memento);
+            }
+            if(!shutdownHookSet) {
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ASAPMementoFS.flushAll();
+                    }
+                }));
+                shutdownHookSet = true;
+            }
+            return memento;
+        }
+    }
+
+    /**
+     * write all dirty mementos
+     */
+    static void flushAll() {
+        List<ASAPMementoFS> mementoList;
+        synchronized(mementos) {
+            mementoList = new ArrayList<>(mementos.values());
+        }
+
+        for(ASAPMementoFS memento : mementoList) {
+            try {
+                memento.flush();
+            } catch (IOException e) {
+                Log.writeLogErr(memento, "cannot write memento: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static void startFlushThread() {
+        synchronized(mementos) {
+            if(flushThread != null) return;
+            flushThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for(;;) {
+                            Thread.sleep(flushInterval > 0 ? flushInterval : DEFAULT_FLUSH_INTERVAL);
+                            ASAPMementoFS.flushAll();
+                        }
+                    } catch (InterruptedException e) {
+                        // end
+                    }
+                }
+            });
+            flushThread.setDaemon(true);
+            flushThread.start();
+        }
+    }
+
     private final File rootDirectory;
+    private final File file;
+
+    private boolean hasState = false;
     private String owner;
     private String format;
     private int era;
     private int oldestEra;
     private boolean contentChanged;
     private boolean dropDeliveredChunks;
-    private boolean sendReceivedChunks;
-    private HashMap<String, Integer> lastSeen;
+    private boolean routingAllowed;
+    private HashMap<String, Integer> lastSeen = new HashMap<>();
     public long lastMementoWritten;
 
-    public ASAPMementoFS(File rootDirectory) {
+    private boolean dirty = false;
+    private boolean fileKnown = false; // file was read or written
+    private long fileLastModified = -1;
+    private long fileLength = -1;
+
+    private ASAPMementoFS(File rootDirectory) {
         this.rootDirectory = rootDirectory;
+        this.file = new File(rootDirectory, ASAPEngineFS.MEMENTO_FILENAME);
     }
 
     @Override
-    public void save(ASAPEngine engine) throws IOException {
-        /*
-        Log.writeLog(this, "\n" +
-                ">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>save memento<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
-                ">>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>save memento<<<<<<<<<<<<<<<<<<<<<<<<<<<<<");
-         */
-        String fName = this.getMementoFileName();
-
-        File file = new File(fName);
-        if(!file.exists()) {
-            if(!file.createNewFile()) {
-                throw new IOException("could not create file (problems with directory?): " + fName);
-            }
-        }
-
-        DataOutputStream dos = new DataOutputStream(new FileOutputStream(fName));
+    public synchronized void save(ASAPEngine engine) throws IOException {
+        this.sync();
 
+        // a sequence - two saves within a millisecond must differ
         long now = System.currentTimeMillis();
+        this.lastMementoWritten = now > this.lastMementoWritten ? now : this.lastMementoWritten + 1;
+        engine.lastMementoWritten = this.lastMementoWritten;
 
-        engine.lastMementoWritten = now;
-        this.lastMementoWritten = engine.lastMementoWritten;
-        dos.writeLong(now);
-        dos.writeUTF(engine.owner);
-        dos.writeUTF(engine.format);
-        dos.writeInt(engine.era);
-        dos.writeInt(engine.oldestEra);
-        dos.writeBoolean(engine.contentChanged);
+        this.owner = engine.owner;
+        this.format = engine.format;
+        this.era = engine.era;
+        this.oldestEra = engine.oldestEra;
         this.contentChanged = engine.contentChanged;
-        dos.writeBoolean(engine.dropDeliveredChunks);
-        dos.writeBoolean(engine.routingAllowed);
-
-        // write lastSeen hash map
-        if(engine.lastSeen != null && !engine.lastSeen.isEmpty()) {
-            for(String key : engine.lastSeen.keySet()) {
-                Integer era = engine.lastSeen.get(key);
-
-                // write peer and era
-                dos.writeUTF(key);
-                dos.writeInt(era);
-            }
-        }
-
-        //Log.writeLog(this, "saved: " + this);
+        this.dropDeliveredChunks = engine.dropDeliveredChunks;
+        this.routingAllowed = engine.routingAllowed;
+        this.lastSeen = engine.lastSeen != null ? new HashMap<>(engine.lastSeen) : new HashMap<String, Integer>();
+        this.hasState = true;
+        this.dirty = true;
+
+        if(!this.fileKnown || flushInterval <= 0) this.flush();
+        else ASAPMementoFS.startFlushThread();
     }
 
     private void setDefaults(ASAPEngine engine) {
@@ -84,17 +165,76 @@ class ASAPMementoFS implements ASAPMemento {
         engine.routingAllowed = true;
     }
 
-    public void read() throws IOException {
-        String fName = this.getMementoFileName();
+    /**
+     * take changes of other processes
+     */
+    public synchronized void read() throws IOException {
+        this.sync();
+    }
+
+    public synchronized void restore(ASAPEngine engine) throws IOException {
+        this.sync();
+        if(!this.hasState) {
+            this.setDefaults(engine);
+            return;
+        }
+
+        engine.lastMementoWritten = this.lastMementoWritten;
+        engine.owner = this.owner;
+        engine.format = this.format;
+        engine.era = this.era;
+        engine.oldestEra = this.oldestEra;
+        engine.contentChanged = this.contentChanged;
+        engine.dropDeliveredChunks = this.dropDeliveredChunks;
+        engine.routingAllowed = this.routingAllowed;
+        engine.lastSeen = new HashMap<>(this.lastSeen);
+    }
+
+    /**
+     * @return true if engine state is what was saved last
+     */
+    synchronized boolean isInSync(ASAPEngine engine) throws IOException {
+        this.sync();
+        return this.hasState && this.lastMementoWritten == engine.lastMementoWritten;
+    }
+
+    private void reset() {
+        this.hasState = false;
+        this.format = null;
+        this.lastSeen = new HashMap<>();
+        this.dirty = false;
+        this.fileKnown = false;
+        this.fileLastModified = -1;
+        this.fileLength = -1;
+    }
 
-        File file = new File(fName);
+    private void sync() throws IOException {
+        // another process could be replacing it
+        File file = FSUtils.getReadableFile(this.file);
         if(!file.exists()) {
+            // removed - e.g. storage was deleted
+            if(this.fileKnown) this.reset();
+            return;
+        }
+
+        // cheap check first
+        if(file.lastModified() == this.fileLastModified && file.length() == this.fileLength) return;
+
+        if(this.dirty) {
+            Log.writeLog(this, "memento changed by another process - overwrite with local changes: " + this.file);
+            this.fileLastModified = file.lastModified();
+            this.fileLength = file.length();
             return;
         }
 
-        DataInputStream dis = new DataInputStream(
-                new FileInputStream(file));
+        this.readFile(file);
+    }
 
+    private void readFile(File file) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
         try {
             this.lastMementoWritten = dis.readLong();
             this.owner = dis.readUTF();
@@ -103,106 +243,90 @@ class ASAPMementoFS implements ASAPMemento {
             this.oldestEra = dis.readInt();
             this.contentChanged = dis.readBoolean();
             this.dropDeliveredChunks = dis.readBoolean();
-            this.sendReceivedChunks = dis.readBoolean();
-        }
-        catch(EOFException e) {
-            // ignore and work with set defaults
-            return; // reached end of file - nothing to do here
-        }
+            this.routingAllowed = dis.readBoolean();
+            this.hasState = true;
 
-        // try to read lastSeen list
-        boolean first = true;
-        try {
+            // try to read lastSeen list
+            this.lastSeen = new HashMap<>();
             for(;;) { // escapes from that loop via ioexception
                 String peer = dis.readUTF();
-                // got one
-                if(first) {
-                    // init empty list
-                    this.lastSeen = new HashMap<>();
-                    first = false;
-                }
-
                 Integer era = dis.readInt();
 
                 // remember
                 this.lastSeen.put(peer, era);
             }
         }
-        catch(IOException ioe) {
+        catch(EOFException e) {
             // ok  no more data
         }
-        dis.close();
-    }
-
-    public void restore(ASAPEngine engine) throws IOException {
-        String fName = this.getMementoFileName();
-
-        File file = new File(fName);
-        if(!file.exists()) {
-            this.setDefaults(engine);
-            return;
+        finally {
+            dis.close();
         }
 
-        DataInputStream dis = new DataInputStream(
-                new FileInputStream(file));
+        this.fileKnown = true;
+        this.fileLastModified = lastModified;
+        this.fileLength = length;
+    }
 
-        try {
-            engine.lastMementoWritten = dis.readLong();
-            this.lastMementoWritten = engine.lastMementoWritten;
-            engine.owner = dis.readUTF();
-            engine.format = dis.readUTF();
-            engine.era = dis.readInt();
-            engine.oldestEra = dis.readInt();
-            engine.contentChanged = dis.readBoolean();
-            this.contentChanged = engine.contentChanged;
-            engine.dropDeliveredChunks = dis.readBoolean();
-            engine.routingAllowed = dis.readBoolean();
-        }
-        catch(EOFException e) {
-            // ignore and work with set defaults
-            return; // reached end of file - nothing to do here
+    /**
+     * write memento if changed
+     */
+    synchronized void flush() throws IOException {
+        if(!this.dirty) return;
+
+        if(!this.rootDirectory.exists()) {
+            if(this.fileKnown) {
+                // storage removed meanwhile
+                this.reset();
+                return;
+            }
+            throw new IOException("could not create file (problems with directory?): " + this.file);
         }
 
-        // try to read lastSeen list
-        boolean first = true;
+        File tmpFile = new File(this.file.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
         try {
-            for(;;) { // escapes from that loop via ioexception
-                String peer = dis.readUTF();
-                // got one
-                if(first) {
-                    // init empty list
-                    engine.lastSeen = new HashMap<>();
-                    first = false;
-                }
-
-                Integer era = dis.readInt();
-
-                // remember
-                engine.lastSeen.put(peer, era);
+            dos.writeLong(this.lastMementoWritten);
+            dos.writeUTF(this.owner);
+            dos.writeUTF(this.format);
+            dos.writeInt(this.era);
+            dos.writeInt(this.oldestEra);
+            dos.writeBoolean(this.contentChanged);
+            dos.writeBoolean(this.dropDeliveredChunks);
+            dos.writeBoolean(this.routingAllowed);
+
+            // write lastSeen hash map
+            for(Map.Entry<String, Integer> entry : this.lastSeen.entrySet()) {
+                // write peer and era
+                dos.writeUTF(entry.getKey());
+                dos.writeInt(entry.getValue());
             }
         }
-        catch(IOException ioe) {
-            // ok  no more data
+        finally {
+            dos.close();
         }
-        dis.close();
 
-        //Log.writeLog(this, "restored: " + this);
-    }
+        // concurrent readers must never miss the file - they would reset engine. See FSUtils.getReadableFile
+        FSUtils.replaceFile(tmpFile, this.file);
 
-    private String getMementoFileName() {
-        return this.rootDirectory + "/" + ASAPEngineFS.MEMENTO_FILENAME;
+        this.dirty = false;
+        this.fileKnown = true;
+        this.fileLastModified = this.file.lastModified();
+        this.fileLength = this.file.length();
     }
 
-    public String getFormat() {
+    public synchronized String getFormat() {
         return this.format;
     }
 
-    public String toString() {
+    public synchronized String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("changed == ");
         sb.append(this.contentChanged);
         sb.append(" | written == ");
         sb.append(this.lastMementoWritten);
+        sb.append(" | dirty == ");
+        sb.append(this.dirty);
 
         return sb.toString();
     }
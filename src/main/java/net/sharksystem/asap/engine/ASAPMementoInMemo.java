@@ -0,0 +1,86 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.protocol.ASAP_1_0;
+
+import java.util.HashMap;
+
+/**
+ * Engine memento kept in memory. There is one memento for each root directory name - engine objects
+ * with the same root directory share it like file based engines share their memento file.
+ *
+ * @author thsc
+ */
+class ASAPMementoInMemo implements ASAPMemento {
+    private boolean saved = false;
+    private String owner;
+    private String format;
+    private int era;
+    private int oldestEra;
+    private boolean contentChanged;
+    private boolean dropDeliveredChunks;
+    private boolean routingAllowed;
+    private HashMap<String, Integer> lastSeen;
+    long lastMementoWritten = 0;
+
+    @Override
+    public synchronized void save(ASAPEngine engine) {
+        // written time tells engines that their state is outdated - make it unique
+        long now = Math.max(System.currentTimeMillis(), this.lastMementoWritten + 1);
+        engine.lastMementoWritten = now;
+        this.lastMementoWritten = now;
+
+        this.owner = engine.owner;
+        this.format = engine.format;
+        this.era = engine.era;
+        this.oldestEra = engine.oldestEra;
+        this.contentChanged = engine.contentChanged;
+        this.dropDeliveredChunks = engine.dropDeliveredChunks;
+        this.routingAllowed = engine.routingAllowed;
+        this.lastSeen = engine.lastSeen != null ? new HashMap<>(engine.lastSeen) : new HashMap<String, Integer>();
+        this.saved = true;
+    }
+
+    synchronized void restore(ASAPEngine engine) {
+        if(!this.saved) {
+            engine.owner = ASAPEngine.DEFAULT_OWNER;
+            engine.format = ASAP_1_0.ANY_FORMAT.toString();
+            engine.era = ASAPEngine.DEFAULT_INIT_ERA;
+            engine.oldestEra = ASAPEngine.DEFAULT_INIT_ERA;
+            engine.lastSeen = new HashMap<>();
+            engine.dropDeliveredChunks = false;
+            engine.routingAllowed = true;
+            return;
+        }
+
+        engine.lastMementoWritten = this.lastMementoWritten;
+        engine.owner = this.owner;
+        engine.format = this.format;
+        engine.era = this.era;
+        engine.oldestEra = this.oldestEra;
+        engine.contentChanged = this.contentChanged;
+        engine.dropDeliveredChunks = this.dropDeliveredChunks;
+        engine.routingAllowed = this.routingAllowed;
+        engine.lastSeen = new HashMap<>(this.lastSeen);
+    }
+
+    synchronized boolean isSaved() {
+        return this.saved;
+    }
+
+    /**
+     * @return format of saved engine - null if never saved
+     */
+    synchronized String getFormat() {
+        return this.format;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("changed == ");
+        sb.append(this.contentChanged);
+        sb.append(" | written == ");
+        sb.append(this.lastMementoWritten);
+
+        return sb.toString();
+    }
+}
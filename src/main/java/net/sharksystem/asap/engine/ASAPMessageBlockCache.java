@@ -0,0 +1,225 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.utils.fs.FSUtils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide cache of messages read from chunks. Messages are cached in blocks of BLOCK_SIZE consecutive
+ * messages of a chunk. A block is identified by storage root, era, channel uri and block number. Roots are
+ * taken as canonical paths - a folder reached by different (relative / absolute) paths shares its blocks.
+ * Cache is limited by a byte budget - least recently used blocks are evicted first.
+ *
+ * Chunks are append-only. A block that was cached before messages were added holds fewer messages than
+ * the chunk now has - it is reloaded when asked for a message it does not hold. Chunks invalidate
+ * their blocks when messages are added or chunks are dropped.
+ *
+ * @author thsc
+ */
+public class ASAPMessageBlockCache {
+    /** number of messages in a block */
+    public static final int BLOCK_SIZE = 64;
+    public static final long DEFAULT_BYTE_BUDGET = 8 * 1024 * 1024; // 8 MB
+    // rough estimation of memory used by a block beside message content
+    private static final int BLOCK_OVERHEAD = 128;
+    private static final int MESSAGE_OVERHEAD = 16;
+
+    private static ASAPMessageBlockCache instance = null;
+
+    public static synchronized ASAPMessageBlockCache getInstance() {
+        if(instance == null) {
+            instance = new ASAPMessageBlockCache(DEFAULT_BYTE_BUDGET);
+        }
+        return instance;
+    }
+
+    private long byteBudget;
+    private long usedBytes = 0;
+
+    // metrics
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    // access ordered - eldest entry is least recently used
+    private final LinkedHashMap<BlockKey, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    // root as used by storages -> canonical path; there are only a few roots in a process
+    private final Map<String, String> canonicalRoots = new HashMap<>();
+
+    ASAPMessageBlockCache(long byteBudget) {
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * @param byteBudget max bytes used by cached messages. 0 switches cache off.
+     */
+    public synchronized void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget < 0 ? 0 : byteBudget;
+        this.evict();
+    }
+
+    public synchronized long getByteBudget() {
+        return this.byteBudget;
+    }
+
+    private String canonicalRoot(String root) {
+        String canonicalRoot = this.canonicalRoots.get(root);
+        if(canonicalRoot == null) {
+            canonicalRoot = FSUtils.getCanonicalPath(root);
+            this.canonicalRoots.put(root, canonicalRoot);
+        }
+        return canonicalRoot;
+    }
+
+    /**
+     * @return copy of message or null if not in cache
+     */
+    synchronized byte[] getMessage(String root, int era, CharSequence uri, int indexInChunk) {
+        Block block = this.blocks.get(
+                new BlockKey(this.canonicalRoot(root), era, uri, indexInChunk / BLOCK_SIZE));
+        int indexInBlock = indexInChunk % BLOCK_SIZE;
+        if(block == null || indexInBlock >= block.messages.size()) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        // cached array is shared by all readers - callers must not be able to change it
+        return block.messages.get(indexInBlock).clone();
+    }
+
+    /**
+     * Put a block into cache. It is not cached if it exceeds byte budget.
+     * @param blockNumber block number, first message in block has index blockNumber * BLOCK_SIZE in its chunk
+     * @param messages up to BLOCK_SIZE messages
+     */
+    synchronized void putBlock(String root, int era, CharSequence uri, int blockNumber, List<byte[]> messages) {
+        long size = BLOCK_OVERHEAD;
+        for(byte[] message : messages) size += message.length + MESSAGE_OVERHEAD;
+        if(size > this.byteBudget) return;
+
+        Block replaced = this.blocks.put(
+                new BlockKey(this.canonicalRoot(root), era, uri, blockNumber), new Block(messages, size));
+        if(replaced != null) this.usedBytes -= replaced.size;
+        this.usedBytes += size;
+
+        this.evict();
+    }
+
+    /**
+     * Message added to a chunk. Only the block that receives the new message can be outdated.
+     * @param indexInChunk index of added message
+     */
+    synchronized void invalidate(String root, int era, CharSequence uri, int indexInChunk) {
+        Block removed = this.blocks.remove(
+                new BlockKey(this.canonicalRoot(root), era, uri, indexInChunk / BLOCK_SIZE));
+        if(removed != null) {
+            this.usedBytes -= removed.size;
+            this.invalidations++;
+        }
+    }
+
+    /**
+     * remove any block of a chunk (uri != null) or of all chunks of an era (uri == null)
+     */
+    synchronized void invalidateAll(String root, int era, CharSequence uri) {
+        root = this.canonicalRoot(root);
+        Iterator<Map.Entry<BlockKey, Block>> iterator = this.blocks.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<BlockKey, Block> entry = iterator.next();
+            BlockKey key = entry.getKey();
+            if(key.era == era && key.root.equals(root) && (uri == null || key.uri.equals(uri.toString()))) {
+                iterator.remove();
+                this.usedBytes -= entry.getValue().size;
+                this.invalidations++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.blocks.clear();
+        this.usedBytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Block> iterator = this.blocks.values().iterator();
+        while(this.usedBytes > this.byteBudget && iterator.hasNext()) {
+            Block eldest = iterator.next();
+            iterator.remove();
+            this.usedBytes -= eldest.size;
+            this.evictions++;
+        }
+    }
+
+    public synchronized long getHits() { return this.hits; }
+    public synchronized long getMisses() { return this.misses; }
+    public synchronized long getEvictions() { return this.evictions; }
+    public synchronized long getInvalidations() { return this.invalidations; }
+    public synchronized long getUsedBytes() { return this.usedBytes; }
+    public synchronized int getNumberBlocks() { return this.blocks.size(); }
+
+    public synchronized void resetStatistics() {
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+        this.invalidations = 0;
+    }
+
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("blocks: "); sb.append(this.blocks.size());
+        sb.append(" | bytes: "); sb.append(this.usedBytes);
+        sb.append(" / "); sb.append(this.byteBudget);
+        sb.append(" | hits: "); sb.append(this.hits);
+        sb.append(" | misses: "); sb.append(this.misses);
+        sb.append(" | evictions: "); sb.append(this.evictions);
+        sb.append(" | invalidations: "); sb.append(this.invalidations);
+        return sb.toString();
+    }
+
+    private static class Block {
+        private final List<byte[]> messages;
+        private final long size;
+
+        Block(List<byte[]> messages, long size) {
+            this.messages = messages;
+            this.size = size;
+        }
+    }
+
+    private static class BlockKey {
+        private final String root;
+        private final int era;
+        private final String uri;
+        private final int blockNumber;
+
+        BlockKey(String root, int era, CharSequence uri, int blockNumber) {
+            this.root = root;
+            this.era = era;
+            this.uri = uri.toString();
+            this.blockNumber = blockNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof BlockKey)) return false;
+            BlockKey other = (BlockKey) o;
+            return this.era == other.era && this.blockNumber == other.blockNumber
+                    && this.root.equals(other.root) && this.uri.equals(other.uri);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.root.hashCode();
+            hash = 31 * hash + this.uri.hashCode();
+            hash = 31 * hash + this.era;
+            return 31 * hash + this.blockNumber;
+        }
+    }
+}
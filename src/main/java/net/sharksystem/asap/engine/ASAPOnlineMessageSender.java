@@ -3,12 +3,23 @@ package net.sharksystem.asap.engine;
 import net.sharksystem.asap.ASAPException;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
 public interface ASAPOnlineMessageSender {
     void sendASAPAssimilateMessage(CharSequence format, CharSequence urlTarget, Set<CharSequence> recipients,
                                    byte[] messageAsBytes, int era) throws IOException, ASAPException;
 
+    /**
+     * send a number of messages in one PDU
+     * @param messagesAsBytes messages one after another
+     * @param offsets offsets of each message but the first one
+     * @return number of online peers PDU was handed to
+     */
+    int sendASAPAssimilateMessage(CharSequence format, CharSequence urlTarget, Set<CharSequence> recipients,
+                                   byte[] messagesAsBytes, List<Long> offsets, int era)
+            throws IOException, ASAPException;
+
     void sendASAPAssimilateMessage(CharSequence format, CharSequence urlTarget, CharSequence recipient,
                                    byte[] messageAsBytes, int era) throws IOException, ASAPException;
 
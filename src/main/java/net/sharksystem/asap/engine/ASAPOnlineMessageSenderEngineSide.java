@@ -37,6 +37,10 @@ public class ASAPOnlineMessageSenderEngineSide extends ASAPAbstractOnlineMessage
     public void sendASAPAssimilateMessage(CharSequence format, CharSequence uri, byte[] messageAsBytes, int era)
             throws IOException, ASAPException {
 
+        this.sendASAPAssimilateMessage(format, uri, this.getOnlinePeerSet(), messageAsBytes, null, era);
+    }
+
+    private Set<CharSequence> getOnlinePeerSet() throws ASAPException {
         Set<CharSequence> onlinePeers = this.multiEngine.getOnlinePeers();
         if(onlinePeers == null || onlinePeers.size() < 1) {
             System.out.println(this.getLogStart() + "no online peers");
@@ -49,16 +53,22 @@ public class ASAPOnlineMessageSenderEngineSide extends ASAPAbstractOnlineMessage
             System.out.println(this.getLogStart() + peerName  + " is online");
         }
 
-        this.sendASAPAssimilateMessage(format, uri, onlinePeerList, messageAsBytes, era);
+        return onlinePeerList;
     }
 
     public void sendASAPAssimilateMessage(CharSequence format, CharSequence uri, Set<CharSequence> receiver,
                                           byte[] messageAsBytes, int era) throws IOException, ASAPException {
 
+        this.sendASAPAssimilateMessage(format, uri, receiver, messageAsBytes, null, era);
+    }
+
+    public int sendASAPAssimilateMessage(CharSequence format, CharSequence uri, Set<CharSequence> receiver,
+                                          byte[] messageAsBytes, List<Long> offsets, int era)
+            throws IOException, ASAPException {
+
         if(receiver == null || receiver.size() < 1) {
             // replace empty recipient list with list of online peers.
-            this.sendASAPAssimilateMessage(format, uri, messageAsBytes, era);
-            return;
+            receiver = this.getOnlinePeerSet();
         }
 
         StringBuilder sb = Log.startLog(this);
@@ -81,6 +91,7 @@ public class ASAPOnlineMessageSenderEngineSide extends ASAPAbstractOnlineMessage
 
         // is there an open connection to each of the receiver.
         boolean foundAll = true; // optimism captain :)
+        int handedOver = 0;
         for(CharSequence recipient : receiver) {
             sb = Log.startLog(this);
             sb.append("try to find connection for recipient: ");
@@ -94,7 +105,7 @@ public class ASAPOnlineMessageSenderEngineSide extends ASAPAbstractOnlineMessage
 
                 // serialize message for this recipient
                 ByteArrayOutputStream asapPDUBytes = new ByteArrayOutputStream();
-                this.protocol.assimilate(this.multiEngine.getOwner(), recipient, format, uri, era, null, // no offsets
+                this.protocol.assimilate(this.multiEngine.getOwner(), recipient, format, uri, era, offsets,
                         null, messageAsBytes, asapPDUBytes, asapConnection.isSigned());
 
                 // I guess maps are synchronized
@@ -106,9 +117,10 @@ public class ASAPOnlineMessageSenderEngineSide extends ASAPAbstractOnlineMessage
 
                 messageList.add(asapPDUBytes.toByteArray());
 
-                // subscribe and remember it
-                asapConnection.addOnlineMessageSource(this);
+                // remember it and subscribe - connection can send right after subscription
                 this.connectionPeers.put(asapConnection, recipient);
+                asapConnection.addOnlineMessageSource(this);
+                handedOver++;
             } else {
                 sb = Log.startLog(this);
                 sb.append("no connection found");
@@ -116,6 +128,8 @@ public class ASAPOnlineMessageSenderEngineSide extends ASAPAbstractOnlineMessage
                 foundAll = false; // at least to one recipient is not open line
             }
         }
+
+        return handedOver;
     }
 
     private String getLogStart() {
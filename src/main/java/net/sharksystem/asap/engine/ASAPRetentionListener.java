@@ -0,0 +1,10 @@
+package net.sharksystem.asap.engine;
+
+/**
+ * Informed whenever pruning reclaimed something - see ASAPRetentionManager.
+ *
+ * @author thsc
+ */
+public interface ASAPRetentionListener {
+    void reclaimed(ASAPRetentionReport report);
+}
@@ -0,0 +1,147 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPStorage;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retention policies of a peer - one for local storage of each format and one for incoming storages of each
+ * format. Policy of an incoming storage can be set for each sender. Storages without policy are not pruned.
+ *
+ * Pruning is done on request or periodically in background.
+ *
+ * @author thsc
+ */
+public class ASAPRetentionManager {
+    public static final long DEFAULT_PRUNING_INTERVAL = 60 * 60 * 1000; // an hour
+
+    private final ASAPInternalPeer peer;
+    private final Map<String, ASAPRetentionPolicy> policies = new HashMap<>();
+    private final Map<String, ASAPRetentionPolicy> incomingPolicies = new HashMap<>();
+    private final Map<String, ASAPRetentionPolicy> senderPolicies = new HashMap<>();
+
+    private ASAPRetentionListener listener = null;
+    private Thread pruningThread = null;
+
+    ASAPRetentionManager(ASAPInternalPeer peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * @param policy policy of local storage - null: no pruning
+     */
+    public synchronized void setRetentionPolicy(CharSequence format, ASAPRetentionPolicy policy) {
+        this.setPolicy(this.policies, format.toString(), policy);
+    }
+
+    /**
+     * @param policy policy of all incoming storages of that format without own policy - null: no pruning
+     */
+    public synchronized void setIncomingRetentionPolicy(CharSequence format, ASAPRetentionPolicy policy) {
+        this.setPolicy(this.incomingPolicies, format.toString(), policy);
+    }
+
+    /**
+     * @param policy policy of incoming storage of that sender - null: policy of all incoming storages applies
+     */
+    public synchronized void setIncomingRetentionPolicy(CharSequence format, CharSequence sender,
+                                                        ASAPRetentionPolicy policy) {
+        this.setPolicy(this.senderPolicies, getSenderKey(format, sender), policy);
+    }
+
+    private void setPolicy(Map<String, ASAPRetentionPolicy> policyMap, String key, ASAPRetentionPolicy policy) {
+        if(policy == null) policyMap.remove(key);
+        else policyMap.put(key, policy);
+    }
+
+    private static String getSenderKey(CharSequence format, CharSequence sender) {
+        return format + "/" + sender;
+    }
+
+    private synchronized ASAPRetentionPolicy getPolicy(CharSequence format) {
+        return this.policies.get(format.toString());
+    }
+
+    private synchronized ASAPRetentionPolicy getIncomingPolicy(CharSequence format, CharSequence sender) {
+        ASAPRetentionPolicy policy = this.senderPolicies.get(getSenderKey(format, sender));
+        return policy != null ? policy : this.incomingPolicies.get(format.toString());
+    }
+
+    public void setRetentionListener(ASAPRetentionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * prune all storages with a policy
+     * @return reports of storages that were pruned - storages with nothing to reclaim are not reported
+     */
+    public List<ASAPRetentionReport> prune() throws IOException, ASAPException {
+        List<ASAPRetentionReport> reports = new ArrayList<>();
+        for(CharSequence format : this.peer.getFormats()) {
+            ASAPEngine engine = this.peer.getEngineByFormat(format);
+
+            ASAPRetentionPolicy policy = this.getPolicy(format);
+            if(policy != null) this.addReport(reports, engine.prune(policy));
+
+            for(CharSequence sender : engine.getSender()) {
+                ASAPRetentionPolicy incomingPolicy = this.getIncomingPolicy(format, sender);
+                if(incomingPolicy == null) continue;
+
+                ASAPStorage incomingStorage = engine.getExistingIncomingStorage(sender);
+                if(incomingStorage instanceof ASAPEngine) {
+                    this.addReport(reports, ((ASAPEngine) incomingStorage).prune(incomingPolicy));
+                }
+            }
+        }
+
+        return reports;
+    }
+
+    private void addReport(List<ASAPRetentionReport> reports, ASAPRetentionReport report) {
+        if(!report.reclaimedAnything()) return;
+        reports.add(report);
+        ASAPRetentionListener listener = this.listener;
+        if(listener != null) listener.reclaimed(report);
+    }
+
+    /**
+     * prune periodically in a background thread
+     * @param interval milliseconds between two runs
+     */
+    public synchronized void startPruning(final long interval) {
+        this.stopPruning();
+
+        this.pruningThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(!Thread.currentThread().isInterrupted()) {
+                    try {
+                        ASAPRetentionManager.this.prune();
+                    } catch (IOException | ASAPException e) {
+                        Log.writeLogErr(ASAPRetentionManager.this, "pruning failed: " + e.getLocalizedMessage());
+                    }
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        this.pruningThread.setDaemon(true);
+        this.pruningThread.start();
+    }
+
+    public synchronized void stopPruning() {
+        if(this.pruningThread != null) {
+            this.pruningThread.interrupt();
+            this.pruningThread = null;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.sharksystem.asap.engine;
+
+/**
+ * Limits of a storage - see ASAPEngine.prune. Oldest eras are dropped as long as a limit is exceeded.
+ * The current era is never dropped.
+ *
+ * Eras not yet delivered to a peer in lastSeen are kept - pruning stops at the first of them. Limits can
+ * stay exceeded. Dropping undelivered eras (e.g. to meet a hard disk quota) must be allowed explicitly.
+ *
+ * @author thsc
+ */
+public class ASAPRetentionPolicy {
+    public static final int NO_LIMIT = -1;
+
+    /** no limits - nothing is ever dropped */
+    public static final ASAPRetentionPolicy KEEP_ALL =
+            new ASAPRetentionPolicy(NO_LIMIT, NO_LIMIT, NO_LIMIT);
+
+    private final int maxEras;
+    private final long maxAge;
+    private final long maxBytes;
+    private final boolean dropUndelivered;
+
+    /**
+     * @param maxEras maximum number of eras including the current one
+     * @param maxAge eras which ended longer ago (milliseconds) are dropped
+     * @param maxBytes maximum size of message content in storage
+     * Use NO_LIMIT for any value that shall not be limited.
+     */
+    public ASAPRetentionPolicy(int maxEras, long maxAge, long maxBytes) {
+        this(maxEras, maxAge, maxBytes, false);
+    }
+
+    /**
+     * @param dropUndelivered true: limits are met even if eras must be dropped that peers have not got yet
+     */
+    public ASAPRetentionPolicy(int maxEras, long maxAge, long maxBytes, boolean dropUndelivered) {
+        this.maxEras = maxEras;
+        this.maxAge = maxAge;
+        this.maxBytes = maxBytes;
+        this.dropUndelivered = dropUndelivered;
+    }
+
+    public int getMaxEras() {
+        return this.maxEras;
+    }
+
+    public long getMaxAge() {
+        return this.maxAge;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public boolean dropsUndelivered() {
+        return this.dropUndelivered;
+    }
+
+    public boolean keepsAll() {
+        return this.maxEras == NO_LIMIT && this.maxAge == NO_LIMIT && this.maxBytes == NO_LIMIT;
+    }
+
+    public String toString() {
+        return "maxEras: " + this.maxEras + " | maxAge: " + this.maxAge + " | maxBytes: " + this.maxBytes
+                + " | dropUndelivered: " + this.dropUndelivered;
+    }
+}
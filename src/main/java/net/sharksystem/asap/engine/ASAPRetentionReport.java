@@ -0,0 +1,98 @@
+package net.sharksystem.asap.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What was reclaimed when a storage was pruned.
+ *
+ * @author thsc
+ */
+public class ASAPRetentionReport {
+    private final String storage;
+    private final String format;
+    private final int oldestEraBefore;
+    int oldestEraAfter;
+    final List<Integer> droppedEras = new ArrayList<>();
+    int droppedChunks = 0;
+    long reclaimedBytes = 0;
+    int undeliveredErasDropped = 0;
+
+    ASAPRetentionReport(String storage, String format, int oldestEraBefore) {
+        this.storage = storage;
+        this.format = format;
+        this.oldestEraBefore = oldestEraBefore;
+        this.oldestEraAfter = oldestEraBefore;
+    }
+
+    /**
+     * @return root folder of pruned storage
+     */
+    public String getStorage() {
+        return this.storage;
+    }
+
+    public String getFormat() {
+        return this.format;
+    }
+
+    public int getOldestEraBefore() {
+        return this.oldestEraBefore;
+    }
+
+    public int getOldestEraAfter() {
+        return this.oldestEraAfter;
+    }
+
+    /**
+     * @return dropped eras - oldest first
+     */
+    public List<Integer> getDroppedEras() {
+        return this.droppedEras;
+    }
+
+    public int getDroppedChunks() {
+        return this.droppedChunks;
+    }
+
+    /**
+     * @return size of dropped message content
+     */
+    public long getReclaimedBytes() {
+        return this.reclaimedBytes;
+    }
+
+    /**
+     * @return number of dropped eras that were not yet delivered to each peer in lastSeen - only a byte
+     * quota drops those eras
+     */
+    public int getUndeliveredErasDropped() {
+        return this.undeliveredErasDropped;
+    }
+
+    public boolean reclaimedAnything() {
+        return !this.droppedEras.isEmpty();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.storage);
+        sb.append(" | format: ");
+        sb.append(this.format);
+        sb.append(" | dropped eras: ");
+        sb.append(this.droppedEras);
+        sb.append(" | chunks: ");
+        sb.append(this.droppedChunks);
+        sb.append(" | bytes: ");
+        sb.append(this.reclaimedBytes);
+        sb.append(" | oldest era: ");
+        sb.append(this.oldestEraBefore);
+        sb.append(" -> ");
+        sb.append(this.oldestEraAfter);
+        if(this.undeliveredErasDropped > 0) {
+            sb.append(" | undelivered eras dropped: ");
+            sb.append(this.undeliveredErasDropped);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,1030 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPHop;
+import net.sharksystem.asap.utils.ASAPSerialization;
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.SerializationHelper;
+import net.sharksystem.utils.fs.FSUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * All eras and chunks of a storage folder in a few append-only segment files - instead of a folder for each era
+ * and files for each chunk.
+ *
+ * Each change is a record appended to the active segment: a message, chunk meta data, a dropped chunk or a
+ * dropped era. Message records carry their index in the chunk - their position in the log does not matter.
+ * Latest meta data record of a chunk is valid.
+ *
+ * Active segment is closed (rolled) if it exceeds segment size. An index file is written for each closed
+ * segment. It lists records without payload - log is set up from index files, only the active segment is
+ * scanned.
+ *
+ * Dropped chunks, dropped eras and outdated meta data leave garbage in segments. Oldest segment is compacted
+ * in background if its garbage exceeds a threshold: live records are appended to the active segment and the
+ * oldest segment is removed. Segments are compacted oldest first - records of a dropped chunk can only be in
+ * the same or older segments than the drop record. Drop records can be discarded that way.
+ *
+ * There is one log object for each folder in a process. A folder must not be used by more than one process.
+ *
+ * @author thsc
+ */
+class ASAPSegmentedLog {
+    public static final String SEGMENT_FOLDER = "asapSegments";
+    public static final String SEGMENT_EXTENSION = "seg";
+    public static final String SEGMENT_INDEX_EXTENSION = "sidx";
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024; // 16 MB
+    /** percentage of garbage in oldest segment that triggers compaction */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 50;
+
+    private static long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private static int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    static final byte MESSAGE = 1;
+    static final byte META = 2;
+    static final byte DROP_CHUNK = 3;
+    static final byte DROP_ERA = 4;
+
+    // a location is segment id and offset in segment
+    private static final int SEGMENT_ID_SHIFT = 40;
+    private static final long OFFSET_MASK = (1L << SEGMENT_ID_SHIFT) - 1;
+    private static final long NO_LOCATION = -1;
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private static final Map<String, ASAPSegmentedLog> logs = new HashMap<>();
+
+    static void setSegmentSize(long size) {
+        segmentSize = size;
+    }
+
+    /**
+     * @param percent percentage of garbage in oldest segment that triggers compaction
+     */
+    static void setCompactionThreshold(int percent) {
+        compactionThreshold = percent;
+    }
+
+    /**
+     * @return true if there is a segmented log in that folder
+     */
+    static boolean exists(String rootDirectory) {
+        return new File(rootDirectory, SEGMENT_FOLDER).isDirectory();
+    }
+
+    /**
+     * @param rootDirectory storage folder
+     * @param create create log if it does not exist
+     * @return log object of that folder - shared within this process. null if log does not exist and
+     * create == false
+     */
+    static ASAPSegmentedLog getLog(String rootDirectory, boolean create) throws IOException {
+        File folder = new File(rootDirectory, SEGMENT_FOLDER);
+        String key = folder.getAbsolutePath();
+        synchronized(logs) {
+            ASAPSegmentedLog log = logs.get(key);
+            if(log != null && !log.isValid()) {
+                // folder removed - e.g. storage was deleted
+                log.close();
+                logs.remove(key);
+                log = null;
+            }
+
+            if(log == null) {
+                if(!create && !folder.isDirectory()) return null;
+                log = new ASAPSegmentedLog(rootDirectory, folder);
+                log.open();
+                logs.put(key, log);
+            }
+
+            return log;
+        }
+    }
+
+    /**
+     * close log of that folder. Log is read from disk again with next call of getLog.
+     */
+    static void closeLog(String rootDirectory) {
+        String key = new File(rootDirectory, SEGMENT_FOLDER).getAbsolutePath();
+        synchronized(logs) {
+            ASAPSegmentedLog log = logs.remove(key);
+            if(log != null) log.close();
+        }
+    }
+
+    private final String rootDirectory;
+    private final File folder;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment activeSegment;
+    private FileOutputStream activeOS;
+    private FileChannel activeChannel;
+
+    // sorted - eras are cyclic, see ASAPUtils.getErasInRange
+    private final TreeMap<Integer, Map<String, ChunkEntry>> eras = new TreeMap<>();
+    // channel index: uri -> eras with a chunk of that channel
+    private final Map<String, TreeSet<Integer>> channelEras = new HashMap<>();
+
+    private boolean compacting = false;
+
+    private ASAPSegmentedLog(String rootDirectory, File folder) {
+        this.rootDirectory = rootDirectory;
+        this.folder = folder;
+    }
+
+    String getRootDirectory() {
+        return this.rootDirectory;
+    }
+
+    private synchronized boolean isValid() {
+        return this.activeSegment != null && this.activeSegment.file.exists();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                       chunks                                         //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized NavigableSet<Integer> getEras() {
+        return new TreeSet<>(this.eras.keySet());
+    }
+
+    /**
+     * @return chunk entry or null if no such chunk
+     */
+    synchronized ChunkEntry getEntry(int era, String uri) {
+        Map<String, ChunkEntry> chunks = this.eras.get(era);
+        return chunks == null ? null : chunks.get(uri);
+    }
+
+    /**
+     * @return eras with a chunk of that channel, sorted - empty if there is none
+     */
+    synchronized NavigableSet<Integer> getChannelEras(String uri) {
+        TreeSet<Integer> channelEras = this.channelEras.get(uri);
+        return channelEras == null ? new TreeSet<Integer>() : new TreeSet<>(channelEras);
+    }
+
+    synchronized Set<CharSequence> getChannelURIs() {
+        return new HashSet<CharSequence>(this.channelEras.keySet());
+    }
+
+    synchronized List<ChunkEntry> getEntries(int era) {
+        Map<String, ChunkEntry> chunks = this.eras.get(era);
+        if(chunks == null) return new ArrayList<>();
+        return new ArrayList<>(chunks.values());
+    }
+
+    /**
+     * get chunk - it is created (meta data written) if it does not exist
+     */
+    synchronized ChunkEntry getOrCreateEntry(int era, String uri) throws IOException {
+        ChunkEntry entry = this.getEntry(era, uri);
+        if(entry == null) {
+            entry = this.putNewEntry(era, uri);
+            this.appendMeta(entry);
+        }
+        return entry;
+    }
+
+    private ChunkEntry putNewEntry(int era, String uri) throws IOException {
+        Map<String, ChunkEntry> chunks = this.eras.get(era);
+        if(chunks == null) {
+            chunks = new HashMap<>();
+            this.eras.put(era, chunks);
+        }
+        ChunkEntry entry = new ChunkEntry(era, uri);
+        chunks.put(uri, entry);
+
+        TreeSet<Integer> channelEras = this.channelEras.get(uri);
+        if(channelEras == null) {
+            channelEras = new TreeSet<>();
+            this.channelEras.put(uri, channelEras);
+        }
+        channelEras.add(era);
+        return entry;
+    }
+
+    synchronized void appendMessage(ChunkEntry entry, byte[] message) throws IOException {
+        this.appendMessage(entry, new ByteArrayInputStream(message), message.length);
+    }
+
+    synchronized void appendMessage(ChunkEntry entry, InputStream is, long length) throws IOException {
+        if(length > Integer.MAX_VALUE) throw new IOException("message too long: " + length);
+        int index = entry.size;
+        this.appendMessageRecord(entry, index, is, (int) length);
+        ASAPMessageBlockCache.getInstance().invalidate(this.rootDirectory, entry.era, entry.uri, index);
+        this.rollIfNecessary();
+    }
+
+    /**
+     * meta data changed - written with next meta data record if in a batch
+     */
+    synchronized void metaDataChanged(ChunkEntry entry) throws IOException {
+        if(entry.batchLevel > 0) {
+            entry.metaDirty = true;
+        } else {
+            this.appendMeta(entry);
+            this.rollIfNecessary();
+        }
+    }
+
+    synchronized void startBatch(ChunkEntry entry) {
+        entry.batchLevel++;
+    }
+
+    synchronized void finishBatch(ChunkEntry entry) throws IOException {
+        if(entry.batchLevel > 0) entry.batchLevel--;
+        if(entry.batchLevel == 0 && entry.metaDirty) {
+            this.appendMeta(entry);
+            this.rollIfNecessary();
+        }
+    }
+
+    synchronized void dropChunk(ChunkEntry entry) throws IOException {
+        if(this.getEntry(entry.era, entry.uri) != entry) return; // already dropped
+
+        this.appendRecord(DROP_CHUNK, entry.era, entry.uri, null);
+        this.removeEntry(entry);
+        ASAPMessageBlockCache.getInstance().invalidateAll(this.rootDirectory, entry.era, entry.uri);
+        this.rollIfNecessary();
+        this.compactInBackgroundIfNecessary();
+    }
+
+    synchronized void dropEra(int era) throws IOException {
+        if(!this.eras.containsKey(era)) return;
+
+        this.appendRecord(DROP_ERA, era, "", null);
+        for(ChunkEntry entry : this.getEntries(era)) {
+            this.removeEntry(entry);
+        }
+        ASAPMessageBlockCache.getInstance().invalidateAll(this.rootDirectory, era, null);
+        this.rollIfNecessary();
+        this.compactInBackgroundIfNecessary();
+    }
+
+    private void removeEntry(ChunkEntry entry) {
+        Map<String, ChunkEntry> chunks = this.eras.get(entry.era);
+        if(chunks == null || chunks.get(entry.uri) != entry) return;
+        chunks.remove(entry.uri);
+        if(chunks.isEmpty()) this.eras.remove(entry.era);
+
+        TreeSet<Integer> channelEras = this.channelEras.get(entry.uri);
+        if(channelEras != null) {
+            channelEras.remove(entry.era);
+            if(channelEras.isEmpty()) this.channelEras.remove(entry.uri);
+        }
+
+        // any record of that chunk is garbage now
+        for(int i = 0; i < entry.size; i++) {
+            this.releaseLocation(entry.locations[i], entry.messageRecordOverhead + entry.lengths[i]);
+        }
+        this.releaseLocation(entry.metaLocation, entry.metaRecordSize);
+        entry.dropped = true;
+    }
+
+    private void releaseLocation(long location, long recordSize) {
+        if(location == NO_LOCATION) return;
+        Segment segment = this.segments.get(segmentId(location));
+        if(segment != null) segment.liveBytes -= recordSize;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                       read                                           //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized byte[] readMessage(ChunkEntry entry, int index) throws IOException {
+        if(index < 0 || index >= entry.size) throw new IOException("no message with index " + index);
+
+        byte[] message = new byte[entry.lengths[index]];
+        this.read(entry.locations[index], ByteBuffer.wrap(message));
+        return message;
+    }
+
+    /**
+     * @return read only buffer on mapped segment
+     */
+    synchronized ByteBuffer getMessageBuffer(ChunkEntry entry, int index) throws IOException {
+        if(index < 0 || index >= entry.size) throw new IOException("no message with index " + index);
+
+        long location = entry.locations[index];
+        Segment segment = this.getSegment(location);
+        int offset = (int) offset(location);
+        int length = entry.lengths[index];
+
+        if(segment.map == null || segment.map.limit() < offset + length) {
+            // (re-)map whole segment - active segment grows
+            segment.map = segment.getReadChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.length);
+        }
+
+        ByteBuffer buffer = segment.map.duplicate();
+        buffer.position(offset);
+        buffer.limit(offset + length);
+        return buffer.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return messages of a chunk as a stream - messages added later are not part of it
+     */
+    synchronized InputStream getContentStream(ChunkEntry entry) {
+        return new ContentInputStream(entry, entry.size);
+    }
+
+    private void read(long location, ByteBuffer buffer) throws IOException {
+        Segment segment = this.getSegment(location);
+        long position = offset(location);
+        FileChannel channel = segment.getReadChannel();
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if(read < 0) throw new EOFException("unexpected end of segment " + segment.file);
+            position += read;
+        }
+    }
+
+    private Segment getSegment(long location) throws IOException {
+        Segment segment = this.segments.get(segmentId(location));
+        if(segment == null) throw new IOException("segment does not exist: " + segmentId(location));
+        return segment;
+    }
+
+    private static int segmentId(long location) {
+        return (int) (location >>> SEGMENT_ID_SHIFT);
+    }
+
+    private static long offset(long location) {
+        return location & OFFSET_MASK;
+    }
+
+    private static long location(int segmentId, long offset) {
+        return ((long) segmentId << SEGMENT_ID_SHIFT) | offset;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                       write                                          //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static byte[] recordHeader(byte type, int era, String uri) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(type);
+        dos.writeInt(era);
+        dos.writeUTF(uri);
+        return baos.toByteArray();
+    }
+
+    private IndexRecord appendRecord(byte type, int era, String uri, byte[] payload) throws IOException {
+        byte[] header = recordHeader(type, era, uri);
+        int payloadLength = payload == null ? 0 : payload.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(header.length + (payload == null ? 0 : 4 + payloadLength));
+        buffer.put(header);
+        if(payload != null) {
+            buffer.putInt(payloadLength);
+            buffer.put(payload);
+        }
+        buffer.flip();
+
+        long recordOffset = this.activeSegment.length;
+        this.writeFully(buffer);
+
+        IndexRecord record = new IndexRecord(type, era, uri, 0, recordOffset,
+                recordOffset + header.length + (payload == null ? 0 : 4), payloadLength);
+        this.activeSegment.records.add(record);
+        return record;
+    }
+
+    private void appendMessageRecord(ChunkEntry entry, int index, InputStream is, int length) throws IOException {
+        byte[] header = recordHeader(MESSAGE, entry.era, entry.uri);
+        ByteBuffer buffer = ByteBuffer.allocate(header.length + 8);
+        buffer.put(header);
+        buffer.putInt(index);
+        buffer.putInt(length);
+        buffer.flip();
+
+        long recordOffset = this.activeSegment.length;
+        try {
+            this.writeFully(buffer);
+
+            byte[] copyBuffer = new byte[Math.min(COPY_BUFFER_SIZE, Math.max(length, 1))];
+            int remaining = length;
+            while(remaining > 0) {
+                int read = is.read(copyBuffer, 0, Math.min(copyBuffer.length, remaining));
+                if(read < 0) throw new EOFException("stream ended before message was read completely");
+                this.writeFully(ByteBuffer.wrap(copyBuffer, 0, read));
+                remaining -= read;
+            }
+        }
+        catch(IOException e) {
+            // remove incomplete record
+            this.activeChannel.truncate(recordOffset);
+            this.activeSegment.length = recordOffset;
+            throw e;
+        }
+
+        long payloadOffset = recordOffset + header.length + 8;
+        this.activeSegment.records.add(
+                new IndexRecord(MESSAGE, entry.era, entry.uri, index, recordOffset, payloadOffset, length));
+
+        this.setMessageLocation(entry, index, location(this.activeSegment.id, payloadOffset), length,
+                header.length + 8);
+        this.activeSegment.liveBytes += header.length + 8 + length;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            this.activeSegment.length += this.activeChannel.write(buffer);
+        }
+    }
+
+    private void appendMeta(ChunkEntry entry) throws IOException {
+        IndexRecord record = this.appendRecord(META, entry.era, entry.uri, entry.serializeMetaData());
+        this.setMetaLocation(entry, location(this.activeSegment.id, record.recordOffset), record.size());
+        this.activeSegment.liveBytes += record.size();
+        entry.metaDirty = false;
+    }
+
+    private void setMessageLocation(ChunkEntry entry, int index, long location, int length, int recordOverhead) {
+        entry.messageRecordOverhead = recordOverhead;
+        if(index < entry.size && entry.locations[index] != NO_LOCATION) {
+            // replaced - e.g. by compaction
+            this.releaseLocation(entry.locations[index], recordOverhead + entry.lengths[index]);
+        }
+        entry.setMessage(index, location, length);
+    }
+
+    private void setMetaLocation(ChunkEntry entry, long location, int recordSize) {
+        this.releaseLocation(entry.metaLocation, entry.metaRecordSize);
+        entry.metaLocation = location;
+        entry.metaRecordSize = recordSize;
+    }
+
+    private void rollIfNecessary() throws IOException {
+        if(this.activeSegment.length < segmentSize) return;
+
+        Log.writeLog(this, "roll segment: " + this.activeSegment.file);
+        this.closeActiveSegment();
+        this.activeSegment.writeIndex();
+        this.openActiveSegment(this.activeSegment.id + 1);
+        this.compactInBackgroundIfNecessary();
+    }
+
+    private void openActiveSegment(int id) throws IOException {
+        Segment segment = this.segments.get(id);
+        if(segment == null) {
+            segment = new Segment(id);
+            this.segments.put(id, segment);
+        }
+        if(segment.records == null) segment.records = new ArrayList<>();
+
+        this.activeSegment = segment;
+        this.activeOS = new FileOutputStream(segment.file, true);
+        this.activeChannel = this.activeOS.getChannel();
+        segment.length = this.activeChannel.size();
+    }
+
+    private void closeActiveSegment() throws IOException {
+        if(this.activeOS != null) {
+            FileOutputStream os = this.activeOS;
+            this.activeOS = null;
+            this.activeChannel = null;
+            os.close();
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                 open / replay                                        //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private void open() throws IOException {
+        if(!this.folder.exists()) this.folder.mkdirs();
+
+        // only place where this folder is listed
+        String[] fileNames = this.folder.list();
+        TreeSet<Integer> ids = new TreeSet<>();
+        if(fileNames != null) {
+            String extension = "." + SEGMENT_EXTENSION;
+            for(String fileName : fileNames) {
+                if(!fileName.endsWith(extension)) continue;
+                try {
+                    ids.add(Integer.parseInt(fileName.substring(0, fileName.length() - extension.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+
+        int activeId = 0;
+        for(Integer id : ids) {
+            Segment segment = new Segment(id);
+            this.segments.put(id, segment);
+            segment.length = segment.file.length();
+
+            List<IndexRecord> records = null;
+            if(id < ids.last() || FSUtils.getReadableFile(segment.indexFile).exists()) {
+                // closed segment
+                records = segment.readIndex();
+                if(records == null) {
+                    records = segment.scan();
+                    segment.records = records;
+                    segment.writeIndex();
+                }
+                activeId = id + 1;
+            } else {
+                // active segment - scan
+                records = segment.scan();
+                segment.records = records;
+                activeId = id;
+            }
+
+            for(IndexRecord record : records) {
+                this.replay(segment, record);
+            }
+            if(id != activeId) segment.records = null;
+        }
+
+        // messages must be complete
+        for(Map<String, ChunkEntry> chunks : this.eras.values()) {
+            for(ChunkEntry entry : chunks.values()) entry.cutAtFirstGap();
+        }
+
+        this.openActiveSegment(activeId);
+    }
+
+    private void replay(Segment segment, IndexRecord record) throws IOException {
+        ChunkEntry entry = this.getEntry(record.era, record.uri);
+        switch(record.type) {
+            case MESSAGE:
+                if(entry == null) entry = this.putNewEntry(record.era, record.uri);
+                int overhead = (int) (record.payloadOffset - record.recordOffset);
+                this.setMessageLocation(entry, record.index, location(segment.id, record.payloadOffset),
+                        record.payloadLength, overhead);
+                segment.liveBytes += overhead + record.payloadLength;
+                break;
+
+            case META:
+                if(entry == null) entry = this.putNewEntry(record.era, record.uri);
+                byte[] metaData = new byte[record.payloadLength];
+                this.read(location(segment.id, record.payloadOffset), ByteBuffer.wrap(metaData));
+                entry.deserializeMetaData(metaData);
+                this.setMetaLocation(entry, location(segment.id, record.recordOffset), record.size());
+                segment.liveBytes += record.size();
+                break;
+
+            case DROP_CHUNK:
+                if(entry != null) this.removeEntry(entry);
+                break;
+
+            case DROP_ERA:
+                for(ChunkEntry eraEntry : this.getEntries(record.era)) {
+                    this.removeEntry(eraEntry);
+                }
+                break;
+
+            default:
+                throw new IOException("unknown record type in " + segment.file + ": " + record.type);
+        }
+    }
+
+    synchronized void close() {
+        try {
+            this.closeActiveSegment();
+        } catch (IOException e) {
+            Log.writeLogErr(this, "cannot close active segment: " + e.getLocalizedMessage());
+        }
+        for(Segment segment : this.segments.values()) segment.close();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                    compaction                                        //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private boolean compactionNecessary() {
+        if(this.segments.size() < 2) return false; // never compact active segment
+        Segment oldest = this.segments.firstEntry().getValue();
+        if(oldest.length == 0) return true;
+        return (oldest.length - oldest.liveBytes) * 100 / oldest.length >= compactionThreshold;
+    }
+
+    private void compactInBackgroundIfNecessary() {
+        if(this.compacting || !this.compactionNecessary()) return;
+
+        this.compacting = true;
+        Thread compactionThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ASAPSegmentedLog.this.compact();
+                } catch (IOException e) {
+                    Log.writeLogErr(ASAPSegmentedLog.this, "compaction failed: " + e.getLocalizedMessage());
+                } finally {
+                    synchronized(ASAPSegmentedLog.this) {
+                        ASAPSegmentedLog.this.compacting = false;
+                    }
+                }
+            }
+        });
+        compactionThread.setDaemon(true);
+        compactionThread.start();
+    }
+
+    /**
+     * compact oldest segments as long as they exceed garbage threshold.
+     * @return number of removed segments
+     */
+    int compact() throws IOException {
+        int removed = 0;
+        for(;;) {
+            // one segment at a time - writers can go ahead in between
+            synchronized(this) {
+                if(!this.compactionNecessary()) return removed;
+                this.compactOldestSegment();
+                removed++;
+            }
+        }
+    }
+
+    private void compactOldestSegment() throws IOException {
+        Segment oldest = this.segments.firstEntry().getValue();
+        Log.writeLog(this, "compact segment: " + oldest.file);
+
+        List<IndexRecord> records = oldest.readIndex();
+        if(records == null) records = oldest.scan();
+
+        for(IndexRecord record : records) {
+            ChunkEntry entry = this.getEntry(record.era, record.uri);
+            if(entry == null) continue; // dropped
+
+            switch(record.type) {
+                case MESSAGE:
+                    long location = location(oldest.id, record.payloadOffset);
+                    if(record.index < entry.size && entry.locations[record.index] == location) {
+                        byte[] message = new byte[record.payloadLength];
+                        this.read(location, ByteBuffer.wrap(message));
+                        this.appendMessageRecord(entry, record.index,
+                                new ByteArrayInputStream(message), message.length);
+                    }
+                    break;
+
+                case META:
+                    if(entry.metaLocation == location(oldest.id, record.recordOffset)) {
+                        this.appendMeta(entry);
+                    }
+                    break;
+
+                default:
+                    // drop records refer to this or older segments - not needed any longer
+            }
+        }
+
+        this.segments.remove(oldest.id);
+        oldest.close();
+        oldest.indexFile.delete();
+        if(!oldest.file.delete()) {
+            Log.writeLogErr(this, "cannot delete compacted segment: " + oldest.file);
+        }
+
+        // copied records can exceed segment size
+        this.rollIfNecessary();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                       helper                                         //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * in memory state of a chunk
+     */
+    static class ChunkEntry {
+        private static final int INITIAL_CAPACITY = 8;
+
+        final int era;
+        final String uri;
+
+        private long[] locations = new long[INITIAL_CAPACITY];
+        private int[] lengths = new int[INITIAL_CAPACITY];
+        private int size = 0;
+        private long contentLength = 0;
+        private int messageRecordOverhead = 0;
+
+        private long metaLocation = NO_LOCATION;
+        private int metaRecordSize = 0;
+        private int batchLevel = 0;
+        private boolean metaDirty = false;
+        private boolean dropped = false;
+
+        // meta data
+        List<ASAPHop> hopList = new ArrayList<>();
+        Set<CharSequence> recipients = new HashSet<>();
+        HashMap<String, String> extraData = new HashMap<>();
+        List<CharSequence> deliveredTo = new ArrayList<>();
+
+        ChunkEntry(int era, String uri) {
+            this.era = era;
+            this.uri = uri;
+            Arrays.fill(this.locations, NO_LOCATION);
+        }
+
+        int getNumberMessages() { return this.size; }
+        long getContentLength() { return this.contentLength; }
+        boolean isDropped() { return this.dropped; }
+
+        List<Long> getOffsetList() {
+            List<Long> offsets = new ArrayList<>();
+            long offset = 0;
+            for(int i = 0; i < this.size - 1; i++) {
+                offset += this.lengths[i];
+                offsets.add(offset);
+            }
+            return offsets;
+        }
+
+        private void setMessage(int index, long location, int length) {
+            if(index >= this.locations.length) {
+                int newCapacity = Math.max(this.locations.length * 2, index + 1);
+                int oldCapacity = this.locations.length;
+                this.locations = Arrays.copyOf(this.locations, newCapacity);
+                this.lengths = Arrays.copyOf(this.lengths, newCapacity);
+                Arrays.fill(this.locations, oldCapacity, newCapacity, NO_LOCATION);
+            }
+
+            if(this.locations[index] == NO_LOCATION) {
+                this.contentLength += length;
+            } else {
+                this.contentLength += length - this.lengths[index];
+            }
+            if(index >= this.size) this.size = index + 1;
+            this.locations[index] = location;
+            this.lengths[index] = length;
+        }
+
+        private void cutAtFirstGap() {
+            for(int i = 0; i < this.size; i++) {
+                if(this.locations[i] == NO_LOCATION) {
+                    Log.writeLogErr(this, "messages missing in log - chunk is cut: " + this.era + "/" + this.uri);
+                    this.size = i;
+                    this.contentLength = 0;
+                    for(int j = 0; j < i; j++) this.contentLength += this.lengths[j];
+                    return;
+                }
+            }
+        }
+
+        /**
+         * same format as meta data file of ASAPInternalChunkFS
+         */
+        byte[] serializeMetaData() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            ASAPSerialization.writeASAPHopList(this.hopList, dos);
+            dos.writeUTF(this.uri);
+            dos.writeUTF(ASAPInternalChunkFS.extraData2String(this.extraData));
+            dos.writeUTF(SerializationHelper.collection2String(this.recipients));
+            dos.writeUTF(SerializationHelper.collection2String(this.deliveredTo));
+            return baos.toByteArray();
+        }
+
+        void deserializeMetaData(byte[] metaData) throws IOException {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(metaData));
+            try {
+                this.hopList = ASAPSerialization.readASAPHopList(dis);
+            } catch (ASAPException e) {
+                throw new IOException("cannot read hop list: " + e.getLocalizedMessage());
+            }
+            dis.readUTF(); // uri - known already
+            this.extraData = ASAPInternalChunkFS.string2ExtraData(dis.readUTF());
+            this.recipients = SerializationHelper.string2CharSequenceSet(dis.readUTF());
+            this.deliveredTo = SerializationHelper.string2CharSequenceList(dis.readUTF());
+        }
+    }
+
+    /**
+     * record without payload - kept in segment index files
+     */
+    private static class IndexRecord {
+        final byte type;
+        final int era;
+        final String uri;
+        final int index;
+        final long recordOffset;
+        final long payloadOffset;
+        final int payloadLength;
+
+        IndexRecord(byte type, int era, String uri, int index,
+                    long recordOffset, long payloadOffset, int payloadLength) {
+            this.type = type;
+            this.era = era;
+            this.uri = uri;
+            this.index = index;
+            this.recordOffset = recordOffset;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+        }
+
+        int size() {
+            return (int) (this.payloadOffset - this.recordOffset) + this.payloadLength;
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            dos.writeByte(this.type);
+            dos.writeInt(this.era);
+            dos.writeUTF(this.uri);
+            dos.writeInt(this.index);
+            dos.writeLong(this.recordOffset);
+            dos.writeLong(this.payloadOffset);
+            dos.writeInt(this.payloadLength);
+        }
+
+        static IndexRecord read(DataInputStream dis, byte type) throws IOException {
+            return new IndexRecord(type, dis.readInt(), dis.readUTF(), dis.readInt(),
+                    dis.readLong(), dis.readLong(), dis.readInt());
+        }
+    }
+
+    private class Segment {
+        final int id;
+        final File file;
+        final File indexFile;
+        long length = 0;
+        long liveBytes = 0;
+
+        // records of active segment - written into index file when rolled
+        List<IndexRecord> records = null;
+
+        private RandomAccessFile readFile = null;
+        private FileChannel readChannel = null;
+        private MappedByteBuffer map = null;
+
+        Segment(int id) {
+            this.id = id;
+            this.file = new File(ASAPSegmentedLog.this.folder, id + "." + SEGMENT_EXTENSION);
+            this.indexFile = new File(ASAPSegmentedLog.this.folder, id + "." + SEGMENT_INDEX_EXTENSION);
+        }
+
+        FileChannel getReadChannel() throws IOException {
+            if(this.readChannel == null) {
+                this.readFile = new RandomAccessFile(this.file, "r");
+                this.readChannel = this.readFile.getChannel();
+            }
+            return this.readChannel;
+        }
+
+        void close() {
+            this.map = null;
+            if(this.readFile != null) {
+                try {
+                    this.readFile.close();
+                } catch (IOException e) {
+                    Log.writeLogErr(this, "cannot close segment: " + e.getLocalizedMessage());
+                }
+                this.readFile = null;
+                this.readChannel = null;
+            }
+        }
+
+        /**
+         * @return records from index file - null if there is no (complete) index file
+         */
+        List<IndexRecord> readIndex() throws IOException {
+            // could be replaced right now
+            File indexFile = FSUtils.getReadableFile(this.indexFile);
+            if(!indexFile.exists()) return null;
+
+            List<IndexRecord> indexRecords = new ArrayList<>();
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                int type;
+                while((type = dis.read()) != -1) {
+                    indexRecords.add(IndexRecord.read(dis, (byte) type));
+                }
+            }
+            catch(EOFException e) {
+                Log.writeLogErr(this, "incomplete segment index - scan segment: " + this.file);
+                return null;
+            }
+            finally {
+                dis.close();
+            }
+            return indexRecords;
+        }
+
+        void writeIndex() throws IOException {
+            File tmpFile = new File(this.indexFile.getPath() + ".tmp");
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                for(IndexRecord record : this.records) record.write(dos);
+            }
+            finally {
+                dos.close();
+            }
+            FSUtils.replaceFile(tmpFile, this.indexFile);
+            this.records = null;
+        }
+
+        /**
+         * read whole segment. An incomplete last record (e.g. process was killed while writing) is cut off.
+         */
+        List<IndexRecord> scan() throws IOException {
+            List<IndexRecord> scannedRecords = new ArrayList<>();
+            long position = 0;
+            long fileLength = this.file.length();
+
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+            try {
+                while(position < fileLength) {
+                    byte type = dis.readByte();
+                    int era = dis.readInt();
+                    String uri = dis.readUTF();
+                    long headerEnd = position + recordHeader(type, era, uri).length;
+
+                    int index = 0;
+                    long payloadOffset = headerEnd;
+                    int payloadLength = 0;
+                    if(type == MESSAGE) {
+                        index = dis.readInt();
+                        payloadLength = dis.readInt();
+                        payloadOffset = headerEnd + 8;
+                    } else if(type == META) {
+                        payloadLength = dis.readInt();
+                        payloadOffset = headerEnd + 4;
+                    } else if(type != DROP_CHUNK && type != DROP_ERA) {
+                        throw new EOFException("unknown record type - handle as incomplete record: " + type);
+                    }
+
+                    if(payloadOffset + payloadLength > fileLength) throw new EOFException();
+                    long skip = payloadLength;
+                    while(skip > 0) {
+                        long skipped = dis.skip(skip);
+                        if(skipped <= 0) throw new EOFException();
+                        skip -= skipped;
+                    }
+
+                    scannedRecords.add(new IndexRecord(type, era, uri, index, position, payloadOffset, payloadLength));
+                    position = payloadOffset + payloadLength;
+                }
+            }
+            catch(EOFException e) {
+                Log.writeLogErr(this, "incomplete record at end of segment - cut at " + position + ": " + this.file);
+                dis.close();
+                RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+                try {
+                    raf.setLength(position);
+                } finally {
+                    raf.close();
+                }
+                this.length = position;
+            }
+            finally {
+                dis.close();
+            }
+
+            return scannedRecords;
+        }
+    }
+
+    /**
+     * reads messages of a chunk one after another directly from segments
+     */
+    private class ContentInputStream extends InputStream {
+        private final ChunkEntry entry;
+        private final int numberMessages;
+        private int message = 0;
+        private int positionInMessage = 0;
+
+        ContentInputStream(ChunkEntry entry, int numberMessages) {
+            this.entry = entry;
+            this.numberMessages = numberMessages;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = this.read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+
+            // locations are taken from entry with each read - compaction can move messages meanwhile
+            synchronized(ASAPSegmentedLog.this) {
+                while(this.message < this.numberMessages
+                        && this.positionInMessage == this.entry.lengths[this.message]) {
+                    this.message++;
+                    this.positionInMessage = 0;
+                }
+                if(this.message == this.numberMessages) return -1;
+
+                int toRead = Math.min(len, this.entry.lengths[this.message] - this.positionInMessage);
+                ASAPSegmentedLog.this.read(this.entry.locations[this.message] + this.positionInMessage,
+                        ByteBuffer.wrap(b, off, toRead));
+                this.positionInMessage += toRead;
+                return toRead;
+            }
+        }
+    }
+}
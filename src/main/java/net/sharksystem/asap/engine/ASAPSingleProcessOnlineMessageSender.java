@@ -6,6 +6,7 @@ import net.sharksystem.asap.protocol.ASAPOnlineMessageSource;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Set;
 
 public class ASAPSingleProcessOnlineMessageSender
@@ -26,6 +27,15 @@ public class ASAPSingleProcessOnlineMessageSender
                 format, uri, recipients, messageAsBytes, era);
     }
 
+    @Override
+    public int sendASAPAssimilateMessage(CharSequence format, CharSequence uri, Set<CharSequence> recipients,
+                                          byte[] messagesAsBytes, List<Long> offsets, int era)
+            throws IOException, ASAPException {
+
+        return this.asapOnlineMessageSenderEngineSide.sendASAPAssimilateMessage(
+                format, uri, recipients, messagesAsBytes, offsets, era);
+    }
+
     public void sendASAPAssimilateMessage(CharSequence format, CharSequence uri, byte[] messageAsBytes)
             throws IOException, ASAPException {
         this.sendASAPAssimilateMessage(format, uri, messageAsBytes, ASAPEngineFS.DEFAULT_INIT_ERA);
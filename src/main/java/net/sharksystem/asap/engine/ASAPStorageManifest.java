@@ -0,0 +1,413 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.fs.FSUtils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Manifest of a storage folder: eras, chunks in each era and senders (folders of incoming storages).
+ * Replaces directory listings - manifest is read once and updated incrementally.
+ *
+ * Manifest file is an append-only journal: a header followed by records (chunk added, chunk dropped,
+ * era dropped, sender added). It is rewritten if it holds too many outdated records. Manifest is
+ * rebuilt from directory content if the file does not exist (folder set up by former versions) or
+ * cannot be read.
+ *
+ * Manifest indexes eras by chunk name as well - the eras holding a channel are known without searching
+ * eras.
+ *
+ * There is one manifest object for each folder in a process. Changes by other processes are detected by
+ * comparing file length - manifest is re-read in that case.
+ *
+ * @author thsc
+ */
+class ASAPStorageManifest {
+    public static final String MANIFEST_FILENAME = "asapManifest";
+    private static final int MAGIC = 0x4153504D; // ASPM
+    private static final byte VERSION = 1;
+
+    private static final byte CHUNK_ADDED = 1;
+    private static final byte CHUNK_DROPPED = 2;
+    private static final byte ERA_DROPPED = 3;
+    private static final byte SENDER_ADDED = 4;
+
+    // rewrite journal if it has more records than that beside live entries
+    private static final int MAX_OUTDATED_RECORDS = 256;
+
+    private static final Map<String, ASAPStorageManifest> manifests = new HashMap<>();
+
+    /**
+     * @param rootDirectory storage folder
+     * @return manifest object of that folder - shared within this process
+     */
+    static ASAPStorageManifest getManifest(String rootDirectory) {
+        File folder = new File(rootDirectory);
+        // same key as chunk and block caches - a folder reached by different paths has one manifest
+        String key = FSUtils.getCanonicalPath(rootDirectory);
+        synchronized(manifests) {
+            ASAPStorageManifest manifest = manifests.get(key);
+            if(manifest == null) {
+                manifest = new ASAPStorageManifest(folder);
+                manifests.put(key, manifest);
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * A storage folder was created. It is an incoming storage if its parent is a storage folder with a
+     * manifest. Sender is added to parent manifest in that case.
+     */
+    static void folderCreated(File folder) {
+        File parent = folder.getAbsoluteFile().getParentFile();
+        if(parent != null && FSUtils.getReadableFile(new File(parent, MANIFEST_FILENAME)).exists()) {
+            try {
+                getManifest(parent.getAbsolutePath()).addSender(folder.getName());
+            } catch (IOException e) {
+                Log.writeLogErr(ASAPStorageManifest.class, "cannot add sender to manifest: "
+                        + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private final File folder;
+    private final File manifestFile;
+
+    // sorted - eras are cyclic, see ASAPUtils.getErasInRange
+    private final TreeMap<Integer, Set<String>> eras = new TreeMap<>();
+    // channel index: chunk name -> eras with a chunk of that channel
+    private final Map<String, TreeSet<Integer>> chunkEras = new HashMap<>();
+    private final TreeSet<String> senders = new TreeSet<>();
+
+    private boolean loaded = false;
+    private long expectedLength = 0;
+    private int numberRecords = 0;
+
+    private ASAPStorageManifest(File folder) {
+        this.folder = folder;
+        this.manifestFile = new File(folder, MANIFEST_FILENAME);
+    }
+
+    /**
+     * @return eras in this folder, sorted
+     */
+    synchronized NavigableSet<Integer> getEras() throws IOException {
+        this.sync();
+        return new TreeSet<>(this.eras.keySet());
+    }
+
+    /**
+     * @return names (not uris) of chunk files in an era - empty if era does not exist
+     */
+    synchronized List<String> getChunkNames(int era) throws IOException {
+        this.sync();
+        Set<String> chunkNames = this.eras.get(era);
+        if(chunkNames == null) return new ArrayList<>();
+        return new ArrayList<>(chunkNames);
+    }
+
+    /**
+     * @return eras with a chunk of that name, sorted - empty if there is none
+     */
+    synchronized NavigableSet<Integer> getChunkEras(String chunkName) throws IOException {
+        this.sync();
+        TreeSet<Integer> eras = this.chunkEras.get(chunkName);
+        return eras == null ? new TreeSet<Integer>() : new TreeSet<>(eras);
+    }
+
+    /**
+     * @return chunk name -> an era holding a chunk of that name
+     */
+    synchronized Map<String, Integer> getChunkNames() throws IOException {
+        this.sync();
+        Map<String, Integer> chunkNames = new HashMap<>();
+        for(Map.Entry<String, TreeSet<Integer>> entry : this.chunkEras.entrySet()) {
+            chunkNames.put(entry.getKey(), entry.getValue().last());
+        }
+        return chunkNames;
+    }
+
+    synchronized List<CharSequence> getSenders() throws IOException {
+        this.sync();
+        return new ArrayList<CharSequence>(this.senders);
+    }
+
+    synchronized void addChunk(int era, String chunkName) throws IOException {
+        this.sync();
+        if(this.putChunk(era, chunkName)) {
+            this.appendRecord(CHUNK_ADDED, era, chunkName);
+        }
+    }
+
+    synchronized void chunkDropped(int era, String chunkName) throws IOException {
+        this.sync();
+        if(this.removeChunk(era, chunkName)) {
+            this.appendRecord(CHUNK_DROPPED, era, chunkName);
+            this.compactIfNecessary();
+        }
+    }
+
+    synchronized void eraDropped(int era) throws IOException {
+        this.sync();
+        if(this.removeEra(era)) {
+            this.appendRecord(ERA_DROPPED, era, null);
+            this.compactIfNecessary();
+        }
+    }
+
+    // eras and channel index are only changed here
+
+    private boolean putChunk(int era, String chunkName) {
+        Set<String> chunkNames = this.eras.get(era);
+        if(chunkNames == null) {
+            chunkNames = new HashSet<>();
+            this.eras.put(era, chunkNames);
+        }
+        if(!chunkNames.add(chunkName)) return false;
+
+        TreeSet<Integer> eras = this.chunkEras.get(chunkName);
+        if(eras == null) {
+            eras = new TreeSet<>();
+            this.chunkEras.put(chunkName, eras);
+        }
+        eras.add(era);
+        return true;
+    }
+
+    private boolean removeChunk(int era, String chunkName) {
+        Set<String> chunkNames = this.eras.get(era);
+        if(chunkNames == null || !chunkNames.remove(chunkName)) return false;
+        if(chunkNames.isEmpty()) this.eras.remove(era);
+        this.removeFromIndex(era, chunkName);
+        return true;
+    }
+
+    private boolean removeEra(int era) {
+        Set<String> chunkNames = this.eras.remove(era);
+        if(chunkNames == null) return false;
+        for(String chunkName : chunkNames) this.removeFromIndex(era, chunkName);
+        return true;
+    }
+
+    private void removeFromIndex(int era, String chunkName) {
+        TreeSet<Integer> eras = this.chunkEras.get(chunkName);
+        if(eras != null) {
+            eras.remove(era);
+            if(eras.isEmpty()) this.chunkEras.remove(chunkName);
+        }
+    }
+
+    private void clear() {
+        this.eras.clear();
+        this.chunkEras.clear();
+        this.senders.clear();
+    }
+
+    synchronized void addSender(String sender) throws IOException {
+        this.sync();
+        if(this.senders.add(sender)) {
+            this.appendRecord(SENDER_ADDED, 0, sender);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                     persistence                                      //
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * read manifest if not yet done or if file was changed by someone else
+     */
+    private void sync() throws IOException {
+        if(this.loaded && this.manifestFile.length() == this.expectedLength) return;
+
+        this.clear();
+        this.numberRecords = 0;
+        this.expectedLength = 0;
+
+        if(!this.folder.exists()) {
+            // nothing stored yet - manifest is written with first entry
+            this.loaded = true;
+            return;
+        }
+
+        if(FSUtils.getReadableFile(this.manifestFile).exists()) {
+            try {
+                if(!this.read()) {
+                    // incomplete last record - e.g. process was killed while writing
+                    this.writeManifest();
+                }
+                this.loaded = true;
+                return;
+            }
+            catch(IOException e) {
+                Log.writeLogErr(this, "cannot read manifest - rebuild it: " + e.getLocalizedMessage());
+                this.clear();
+            }
+        }
+
+        this.rebuildFromFolder();
+        this.writeManifest();
+        this.loaded = true;
+    }
+
+    /**
+     * @return false if last record was incomplete
+     */
+    private boolean read() throws IOException {
+        // manifest is small - read it at once
+        // another process could be replacing it
+        File file = FSUtils.getReadableFile(this.manifestFile);
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream fileDis = new DataInputStream(new FileInputStream(file));
+        try {
+            fileDis.readFully(content);
+        }
+        finally {
+            fileDis.close();
+        }
+
+        ByteArrayInputStream bais = new ByteArrayInputStream(content);
+        DataInputStream dis = new DataInputStream(bais);
+        if(content.length < 5 || dis.readInt() != MAGIC) {
+            throw new IOException("not a manifest file: " + this.manifestFile);
+        }
+        byte version = dis.readByte();
+        if(version != VERSION) throw new IOException("unknown manifest version: " + version);
+
+        long validLength = content.length - bais.available();
+        try {
+            while(bais.available() > 0) {
+                this.replay(dis.readByte(), dis);
+                this.numberRecords++;
+                validLength = content.length - bais.available();
+            }
+        }
+        catch(EOFException e) {
+            this.expectedLength = validLength;
+            return false;
+        }
+
+        this.expectedLength = validLength;
+        return true;
+    }
+
+    private void replay(byte type, DataInputStream dis) throws IOException {
+        switch(type) {
+            case CHUNK_ADDED: {
+                int era = dis.readInt();
+                this.putChunk(era, dis.readUTF());
+                break;
+            }
+            case CHUNK_DROPPED: {
+                int era = dis.readInt();
+                this.removeChunk(era, dis.readUTF());
+                break;
+            }
+            case ERA_DROPPED:
+                this.removeEra(dis.readInt());
+                break;
+            case SENDER_ADDED:
+                this.senders.add(dis.readUTF());
+                break;
+            default:
+                throw new IOException("unknown manifest record type: " + type);
+        }
+    }
+
+    private void appendRecord(byte type, int era, String name) throws IOException {
+        if(this.expectedLength == 0) {
+            // no manifest file yet
+            this.writeManifest();
+            return;
+        }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(this.manifestFile, true)));
+        try {
+            dos.writeByte(type);
+            if(type != SENDER_ADDED) dos.writeInt(era);
+            if(name != null) dos.writeUTF(name);
+        }
+        finally {
+            dos.close();
+        }
+        this.expectedLength += dos.size();
+        this.numberRecords++;
+    }
+
+    private void compactIfNecessary() throws IOException {
+        int liveEntries = this.senders.size();
+        for(Set<String> chunkNames : this.eras.values()) liveEntries += chunkNames.size();
+
+        if(this.numberRecords - liveEntries > MAX_OUTDATED_RECORDS) {
+            this.writeManifest();
+        }
+    }
+
+    /**
+     * write whole manifest into a temporary file and replace manifest file.
+     */
+    private void writeManifest() throws IOException {
+        if(!this.folder.exists()) this.folder.mkdirs();
+
+        File tmpFile = new File(this.folder, MANIFEST_FILENAME + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        int records = 0;
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+            for(Map.Entry<Integer, Set<String>> era : this.eras.entrySet()) {
+                for(String chunkName : era.getValue()) {
+                    dos.writeByte(CHUNK_ADDED);
+                    dos.writeInt(era.getKey());
+                    dos.writeUTF(chunkName);
+                    records++;
+                }
+            }
+            for(String sender : this.senders) {
+                dos.writeByte(SENDER_ADDED);
+                dos.writeUTF(sender);
+                records++;
+            }
+        }
+        finally {
+            dos.close();
+        }
+
+        FSUtils.replaceFile(tmpFile, this.manifestFile);
+
+        this.expectedLength = dos.size();
+        this.numberRecords = records;
+    }
+
+    /**
+     * set up manifest from folder content - folder was written without manifest
+     */
+    private void rebuildFromFolder() {
+        String[] dirEntries = this.folder.list();
+        if(dirEntries == null) return;
+
+        for(String fileName : dirEntries) {
+            File fileInDir = new File(this.folder, fileName);
+            if(!fileInDir.isDirectory() || fileName.equals(ASAPSegmentedLog.SEGMENT_FOLDER)) continue;
+
+            try {
+                int era = Integer.parseInt(fileName);
+                String[] chunkFiles = fileInDir.list();
+                if(chunkFiles == null) continue;
+
+                String metaExtension = "." + ASAPInternalChunkFS.META_DATA_EXTENSION;
+                for(String chunkFile : chunkFiles) {
+                    if(chunkFile.endsWith(metaExtension)) {
+                        this.putChunk(era, chunkFile.substring(0, chunkFile.length() - metaExtension.length()));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // no number - folder of an incoming storage
+                this.senders.add(fileName);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPDeliveryReceipt;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Messages submitted asynchronously to an engine. A single writer thread takes all waiting submissions,
+ * adds consecutive submissions of the same channel in one batch and hands them in one PDU to online peers.
+ * Writer thread ends when queue is empty and is started again with next submission.
+ *
+ * @author thsc
+ */
+class ASAPSubmissionQueue {
+    private final ASAPEngine engine;
+    private final LinkedList<Submission> queue = new LinkedList<>();
+    private Thread writerThread = null;
+
+    private static class Submission {
+        final CharSequence uri;
+        final Collection<byte[]> messages;
+        final CompletableFuture<ASAPDeliveryReceipt> persisted = new CompletableFuture<>();
+        final CompletableFuture<Integer> onlineDelivery = new CompletableFuture<>();
+
+        Submission(CharSequence uri, Collection<byte[]> messages) {
+            this.uri = uri;
+            this.messages = messages;
+        }
+    }
+
+    ASAPSubmissionQueue(ASAPEngine engine) {
+        this.engine = engine;
+    }
+
+    CompletableFuture<ASAPDeliveryReceipt> submit(CharSequence uri, Collection<byte[]> messages) {
+        Submission submission = new Submission(uri, messages);
+        synchronized(this.queue) {
+            this.queue.add(submission);
+            if(this.writerThread == null) {
+                this.writerThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ASAPSubmissionQueue.this.write();
+                    }
+                });
+                this.writerThread.setDaemon(true);
+                this.writerThread.start();
+            }
+        }
+        return submission.persisted;
+    }
+
+    private void write() {
+        for(;;) {
+            List<Submission> submissions;
+            synchronized(this.queue) {
+                if(this.queue.isEmpty()) {
+                    this.writerThread = null;
+                    return;
+                }
+                submissions = new ArrayList<>(this.queue);
+                this.queue.clear();
+            }
+
+            // consecutive submissions of same channel are written together - order is kept
+            int i = 0;
+            while(i < submissions.size()) {
+                CharSequence uri = submissions.get(i).uri;
+                List<Submission> batch = new ArrayList<>();
+                while(i < submissions.size() && submissions.get(i).uri.toString().equals(uri.toString())) {
+                    batch.add(submissions.get(i++));
+                }
+                this.write(uri, batch);
+            }
+        }
+    }
+
+    private void write(CharSequence uri, List<Submission> batch) {
+        List<byte[]> messages = new ArrayList<>();
+        for(Submission submission : batch) messages.addAll(submission.messages);
+
+        ASAPInternalChunk chunk;
+        int era;
+        try {
+            // engine lock is taken - see ASAPEngine.mutationLock
+            chunk = this.engine.addAllLocally(uri, messages);
+            era = chunk.getEra();
+        } catch (IOException | RuntimeException e) {
+            Log.writeLogErr(this, "cannot write submitted messages: " + e.getLocalizedMessage());
+            for(Submission submission : batch) {
+                submission.persisted.completeExceptionally(e);
+                submission.onlineDelivery.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for(Submission submission : batch) {
+            submission.persisted.complete(new ASAPDeliveryReceipt(
+                    this.engine.getFormat(), uri, era, submission.onlineDelivery));
+        }
+
+        try {
+            int onlinePeers = this.engine.sendOnline(uri, chunk, messages);
+            for(Submission submission : batch) submission.onlineDelivery.complete(onlinePeers);
+        } catch (IOException | RuntimeException e) {
+            Log.writeLogErr(this, "cannot send submitted messages online: " + e.getLocalizedMessage());
+            for(Submission submission : batch) submission.onlineDelivery.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.sharksystem.asap.engine;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates messages of a chunk content file. Messages are read in batches of about READ_AHEAD_SIZE bytes -
+ * only a batch is kept on the heap, regardless of chunk size.
+ *
+ * Iterator works on a snapshot: messages added after creation are not delivered. Content file is only open
+ * while a batch is read - an iterator that is not read to its end holds no file descriptor.
+ *
+ * @author thsc
+ */
+class ChunkMessageStreamIterator implements Iterator<byte[]> {
+    static final int READ_AHEAD_SIZE = 64 * 1024;
+
+    private final File contentFile;
+    private final ASAPChunkOffsetIndex offsetIndex;
+    private final int numberMessages;
+    private final long contentLength;
+
+    private final ArrayDeque<byte[]> readMessages = new ArrayDeque<>();
+    private int nextIndex = 0;
+    // next message to read from file
+    private int readIndex = 0;
+    private long position = 0;
+
+    ChunkMessageStreamIterator(File contentFile, ASAPChunkOffsetIndex offsetIndex,
+                               int numberMessages, long contentLength) {
+        this.contentFile = contentFile;
+        this.offsetIndex = offsetIndex;
+        this.numberMessages = numberMessages;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.nextIndex < this.numberMessages;
+    }
+
+    @Override
+    public byte[] next() {
+        if(!this.hasNext()) {
+            throw new NoSuchElementException("no more messages");
+        }
+
+        if(this.readMessages.isEmpty()) {
+            try {
+                this.readBatch();
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot read message from " + this.contentFile
+                        + ": " + e.getLocalizedMessage());
+            }
+        }
+
+        this.nextIndex++;
+        return this.readMessages.poll();
+    }
+
+    /**
+     * read at least one message - more as long as batch does not exceed READ_AHEAD_SIZE
+     */
+    private void readBatch() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(this.contentFile, "r");
+        try {
+            file.seek(this.position);
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file.getFD()), (int) Math.min(READ_AHEAD_SIZE,
+                        Math.max(1, this.contentLength - this.position))));
+
+            long batchSize = 0;
+            do {
+                long end = this.readIndex == this.numberMessages - 1 ?
+                        this.contentLength : this.offsetIndex.get(this.readIndex);
+
+                long messageLen = end - this.position;
+                if(messageLen < 0 || messageLen > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("corrupted message offsets in " + this.contentFile);
+                }
+
+                byte[] message = new byte[(int) messageLen];
+                dis.readFully(message);
+                this.readMessages.add(message);
+
+                batchSize += messageLen;
+                this.position = end;
+                this.readIndex++;
+            } while(this.readIndex < this.numberMessages && batchSize < READ_AHEAD_SIZE);
+        }
+        finally {
+            file.close();
+        }
+    }
+}
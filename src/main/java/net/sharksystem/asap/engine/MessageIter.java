@@ -5,20 +5,23 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
-public class MessageIter implements Iterator {
-    private final List<byte[]> byteMessages;
-    private int nextIndex;
-    private String nextString;
-
+public class MessageIter implements Iterator<CharSequence> {
+    private final Iterator<byte[]> byteMessages;
 
     public MessageIter(List<byte[]> byteMessages) throws FileNotFoundException {
+        this(byteMessages.iterator());
+    }
+
+    /**
+     * @param byteMessages messages are taken from that iterator one by one - not kept
+     */
+    public MessageIter(Iterator<byte[]> byteMessages) {
         this.byteMessages = byteMessages;
-        this.nextIndex = 0;
     }
 
     @Override
     public boolean hasNext() {
-        return this.byteMessages.size() > nextIndex;
+        return this.byteMessages.hasNext();
     }
 
     @Override
@@ -27,6 +30,6 @@ public class MessageIter implements Iterator {
             throw new NoSuchElementException("no more messages");
         }
 
-        return new String(this.byteMessages.get(nextIndex++));
+        return new String(this.byteMessages.next());
     }
 }
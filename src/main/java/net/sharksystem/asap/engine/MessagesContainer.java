@@ -9,4 +9,18 @@ import java.util.List;
 public interface MessagesContainer {
     void addMessage(InputStream is, long length) throws IOException;
     void setASAPHopList(List<ASAPHop> asapHopList) throws IOException;
+
+    /**
+     * A sequence of addMessage calls is about to come. Implementations can keep resources open and
+     * defer writing meta data until finishBatch is called. Calls can be nested.
+     * @throws IOException
+     */
+    void startBatch() throws IOException;
+
+    /**
+     * End of a sequence of addMessage calls. Deferred meta data are written and resources released
+     * when the outermost batch is finished.
+     * @throws IOException
+     */
+    void finishBatch() throws IOException;
 }
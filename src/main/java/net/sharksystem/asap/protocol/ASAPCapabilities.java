@@ -0,0 +1,51 @@
+package net.sharksystem.asap.protocol;
+
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Optional protocol features (capabilities) like compression. Peers exchange features they support at the
+ * beginning of a connection - only features both sides support are used on that connection.
+ * Capabilities are names - unknown names are ignored. ASAP 1.0 peers do not exchange capabilities and
+ * never get a PDU that requires any.
+ *
+ * @author thsc
+ */
+public class ASAPCapabilities {
+    /** encrypted PDUs are encrypted and decrypted in frames while they are sent and received */
+    public static final String FRAMED_ENCRYPTION = "framedEncryption";
+
+    private static final Set<String> supportedCapabilities = new HashSet<>();
+
+    static {
+        // default codec
+        supportedCapabilities.add(ASAPCompression.DEFLATE);
+        supportedCapabilities.add(FRAMED_ENCRYPTION);
+    }
+
+    /**
+     * @param capability feature name
+     * @param supported this peer can use it (again) or no longer
+     */
+    public static synchronized void setSupported(CharSequence capability, boolean supported) {
+        if(supported) supportedCapabilities.add(capability.toString());
+        else supportedCapabilities.remove(capability.toString());
+    }
+
+    /**
+     * @return features this peer offers encounter peers
+     */
+    public static synchronized Set<String> getSupported() {
+        return new HashSet<>(supportedCapabilities);
+    }
+
+    /**
+     * @param os output stream of a connection
+     * @param capability feature name
+     * @return true if both sides of that connection agreed to use that feature
+     */
+    public static boolean agreed(OutputStream os, CharSequence capability) {
+        return ASAPConnectionOutputStream.getAgreedCapabilities(os).contains(capability.toString());
+    }
+}
@@ -0,0 +1,121 @@
+package net.sharksystem.asap.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Payload compression of assimilate PDUs. Codecs are capabilities - a codec is used on a connection if both
+ * peers support it. First registered codec wins if both support more than one. Deflate is registered by
+ * default.
+ *
+ * Each PDU payload is compressed separately. Small payloads are sent as they are, so are payloads which
+ * would not shrink enough. A sample of large payloads is compressed first - incompressible data (e.g. images)
+ * are recognized without compressing all of it.
+ *
+ * Payloads are compressed in memory - max size limits heap used for it. Larger payloads are sent uncompressed.
+ * Receivers decompress while reading from stream, nothing is buffered. They have their own limits: the size
+ * of a compressed payload and how much it may grow when decompressed. Own max size only decides what this
+ * peer compresses.
+ *
+ * @author thsc
+ */
+public class ASAPCompression {
+    public static final String DEFLATE = "compression/deflate";
+
+    /** payloads smaller than that are not compressed */
+    public static final int DEFAULT_MIN_SIZE = 512;
+    /** payloads are compressed in memory - larger payloads are not compressed */
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+    /** compressed payload must not exceed that percentage of original size */
+    public static final int DEFAULT_MAX_RATIO = 90;
+    public static final int SAMPLE_SIZE = 4 * 1024;
+    /** compressed payloads of encounter peers are accepted up to that size */
+    public static final int DEFAULT_MAX_RECEIVED_SIZE = 64 * 1024 * 1024;
+    /** received payloads must not grow beyond that multiple when decompressed - deflate reaches ~1000 */
+    public static final int DEFAULT_MAX_EXPANSION = 1100;
+
+    private static int minSize = DEFAULT_MIN_SIZE;
+    private static int maxSize = DEFAULT_MAX_SIZE;
+    private static int maxRatio = DEFAULT_MAX_RATIO;
+    private static int maxReceivedSize = DEFAULT_MAX_RECEIVED_SIZE;
+    private static int maxExpansion = DEFAULT_MAX_EXPANSION;
+    private static int deflateLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private static final Map<String, ASAPCompressionCodec> codecs = new LinkedHashMap<>();
+
+    static {
+        codecs.put(DEFLATE, new DeflateCodec());
+    }
+
+    /**
+     * Register codec - it is offered to encounter peers from now on.
+     */
+    public static synchronized void register(ASAPCompressionCodec codec) {
+        codecs.put(codec.getName(), codec);
+        ASAPCapabilities.setSupported(codec.getName(), true);
+    }
+
+    public static synchronized void unregister(CharSequence name) {
+        codecs.remove(name.toString());
+        ASAPCapabilities.setSupported(name, false);
+    }
+
+    static synchronized ASAPCompressionCodec getCodec(CharSequence name) {
+        return codecs.get(name.toString());
+    }
+
+    /**
+     * @param os output stream of a connection
+     * @return codec agreed on that connection - null if none
+     */
+    static synchronized ASAPCompressionCodec selectCodec(OutputStream os) {
+        Set<String> agreed = ASAPConnectionOutputStream.getAgreedCapabilities(os);
+        if(agreed.isEmpty()) return null;
+
+        for(ASAPCompressionCodec codec : codecs.values()) {
+            if(agreed.contains(codec.getName())) return codec;
+        }
+
+        return null;
+    }
+
+    public static void setMinSize(int size) { minSize = size; }
+    public static void setMaxSize(int size) { maxSize = size; }
+    public static void setMaxRatio(int percent) { maxRatio = percent; }
+    public static void setDeflateLevel(int level) { deflateLevel = level; }
+    public static void setMaxReceivedSize(int size) { maxReceivedSize = size; }
+    public static void setMaxExpansion(int factor) { maxExpansion = factor; }
+
+    static int getMinSize() { return minSize; }
+    static int getMaxSize() { return maxSize; }
+    static int getDeflateLevel() { return deflateLevel; }
+    static int getMaxReceivedSize() { return maxReceivedSize; }
+    static int getMaxExpansion() { return maxExpansion; }
+
+    /**
+     * @return compressed data - null if it does not pay off
+     */
+    static byte[] compress(ASAPCompressionCodec codec, byte[] data) throws IOException {
+        // a sample tells if compressing is worth it
+        if(data.length > 2 * SAMPLE_SIZE) {
+            ByteArrayOutputStream sample = new ByteArrayOutputStream();
+            codec.compress(data, 0, SAMPLE_SIZE, sample);
+            if(!shrinksEnough(SAMPLE_SIZE, sample.size())) return null;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2);
+        codec.compress(data, 0, data.length, baos);
+        if(!shrinksEnough(data.length, baos.size())) return null;
+
+        return baos.toByteArray();
+    }
+
+    private static boolean shrinksEnough(long originalSize, long compressedSize) {
+        return compressedSize * 100 <= originalSize * maxRatio;
+    }
+}
@@ -0,0 +1,33 @@
+package net.sharksystem.asap.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses PDU payloads. Codecs are registered with ASAPCompression. Its name is a capability -
+ * it is used on connections with peers that support it as well.
+ *
+ * @author thsc
+ * @see ASAPCompression
+ */
+public interface ASAPCompressionCodec {
+    /**
+     * @return capability name, e.g. compression/deflate
+     */
+    String getName();
+
+    /**
+     * @param data data to be compressed
+     * @param offset first byte
+     * @param length number of bytes
+     * @param os compressed data are written into that stream
+     */
+    void compress(byte[] data, int offset, int length, OutputStream os) throws IOException;
+
+    /**
+     * @param is stream of compressed data
+     * @return stream of decompressed data
+     */
+    InputStream decompress(InputStream is) throws IOException;
+}
@@ -1,5 +1,7 @@
 package net.sharksystem.asap.protocol;
 
+import java.util.Set;
+
 public interface ASAPConnection {
     CharSequence getEncounteredPeer();
 
@@ -12,6 +14,17 @@ public interface ASAPConnection {
 
     boolean isSigned();
 
+    /**
+     * @return optional protocol features both sides agreed to use - empty until agreed or with ASAP 1.0 peers
+     * @see ASAPCapabilities
+     */
+    Set<String> getAgreedCapabilities();
+
+    /**
+     * @return payload sent and received - before and after compression
+     */
+    ASAPConnectionStatistics getStatistics();
+
     // terminate that connection - does not effect the underlying connections established e.g. with Bluetooth
     void kill();
 }
@@ -0,0 +1,134 @@
+package net.sharksystem.asap.protocol;
+
+import net.sharksystem.utils.streams.ChannelOutputStream;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Output stream of an ASAP connection. Anything written to this connection passes it - it knows which
+ * protocol version encounter peer reads, who that peer is and which capabilities both sides agreed on.
+ * PDUs are encoded with ASAP 1.0 without any capability until peer declared otherwise.
+ *
+ * @author thsc
+ */
+class ASAPConnectionOutputStream extends FilterOutputStream {
+    private volatile byte protocolVersion = ASAP_1_1.VERSION_1_0;
+    private volatile Set<String> agreedCapabilities = Collections.emptySet();
+    private volatile String encounteredPeer = null;
+    private boolean capabilitiesSent = false;
+    private final ASAPConnectionStatistics statistics = new ASAPConnectionStatistics();
+
+    ASAPConnectionOutputStream(OutputStream os) {
+        super(os);
+    }
+
+    /**
+     * @param os any stream
+     * @return protocol version PDUs are to be written in on that stream - 1.0 if unknown
+     */
+    static byte getProtocolVersion(OutputStream os) {
+        if(os instanceof ASAPConnectionOutputStream) {
+            return ((ASAPConnectionOutputStream) os).protocolVersion;
+        }
+
+        return ASAP_1_1.VERSION_1_0;
+    }
+
+    /**
+     * @param os any stream
+     * @return statistics of that connection - null if not a connection stream
+     */
+    static ASAPConnectionStatistics getStatistics(OutputStream os) {
+        if(os instanceof ASAPConnectionOutputStream) {
+            return ((ASAPConnectionOutputStream) os).statistics;
+        }
+
+        return null;
+    }
+
+    /**
+     * Channels are exposed by {@link ChannelOutputStream} (e.g. TCPStream, SocketFactory) and file streams.
+     * Streams of the NIO TCP server and wrapped stream pairs keep theirs: data must pass their buffers
+     * resp. activity tracking.
+     *
+     * @param os any stream
+     * @return channel of the transport below a connection stream - null if transport does not expose one.
+     * Flush the stream before writing into that channel.
+     */
+    static WritableByteChannel getChannel(OutputStream os) {
+        if(os instanceof ASAPConnectionOutputStream) {
+            OutputStream transport = ((ASAPConnectionOutputStream) os).out;
+            if(transport instanceof ChannelOutputStream) return ((ChannelOutputStream) transport).getChannel();
+            if(transport instanceof FileOutputStream) return ((FileOutputStream) transport).getChannel();
+        }
+
+        return null;
+    }
+
+    /**
+     * @param os any stream
+     * @return peer on the other side of that connection - null if not known (yet)
+     */
+    static CharSequence getEncounteredPeer(OutputStream os) {
+        if(os instanceof ASAPConnectionOutputStream) {
+            return ((ASAPConnectionOutputStream) os).encounteredPeer;
+        }
+
+        return null;
+    }
+
+    void setEncounteredPeer(CharSequence encounteredPeer) {
+        this.encounteredPeer = encounteredPeer != null ? encounteredPeer.toString() : null;
+    }
+
+    /**
+     * @param os any stream
+     * @return capabilities both sides agreed on - empty if unknown
+     */
+    static Set<String> getAgreedCapabilities(OutputStream os) {
+        if(os instanceof ASAPConnectionOutputStream) {
+            return ((ASAPConnectionOutputStream) os).agreedCapabilities;
+        }
+
+        return Collections.emptySet();
+    }
+
+    /**
+     * @param peerCapabilities capabilities encounter peer supports
+     * @return capabilities both sides support - same result on both sides
+     */
+    Set<String> agreeCapabilities(Set<String> peerCapabilities) {
+        Set<String> agreed = ASAPCapabilities.getSupported();
+        agreed.retainAll(peerCapabilities);
+        this.agreedCapabilities = Collections.unmodifiableSet(agreed);
+        return this.agreedCapabilities;
+    }
+
+    /**
+     * @return true if own capabilities are to be sent - once and only to peers that read them
+     */
+    synchronized boolean sendCapabilities() {
+        if(this.capabilitiesSent || this.protocolVersion < ASAP_1_1.VERSION_1_1) return false;
+        this.capabilitiesSent = true;
+        return true;
+    }
+
+    /**
+     * Peer declared highest version it reads. Use it if known here.
+     */
+    void peerAcceptsProtocolVersion(byte version) {
+        this.protocolVersion = version < ASAP_1_1.HIGHEST_VERSION ? version : ASAP_1_1.HIGHEST_VERSION;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        // FilterOutputStream would write byte by byte
+        this.out.write(buffer, offset, length);
+    }
+}
@@ -0,0 +1,223 @@
+package net.sharksystem.asap.protocol;
+
+import net.sharksystem.utils.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads shared by all ASAP connections of this process. No thread is created per PDU.
+ * <ul>
+ *     <li>readers: each connection reads PDUs in a loop. Reading blocks until the peer sends
+ *     something - a connection keeps one reader while it is open. Readers are reused. Bounded by max
+ *     connections - further connections are refused.</li>
+ *     <li>executions: PDU processing and online message sending. Bounded - it is (mainly) CPU and disk work.
+ *     Readers hand over each PDU and read the next one in the meantime. Payload of assimilate PDUs up to
+ *     max pipelined payload is read before - larger payload stays in stream, reader waits until it is taken.</li>
+ *     <li>timer: a single thread observing execution time.</li>
+ * </ul>
+ *
+ * Virtual threads (Java 21+) can be used instead - a blocked reader costs next to nothing then. That mode
+ * falls back to platform threads on older runtimes and on Android.
+ *
+ * @author thsc
+ */
+public class ASAPConnectionRuntime {
+    public static final int DEFAULT_MAX_EXECUTION_THREADS =
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+    public static final long DEFAULT_MAX_PIPELINED_PAYLOAD = 1024 * 1024; // 1 MB
+    /** idle threads are removed after that time */
+    public static final long KEEP_ALIVE_MS = 60000;
+
+    private static int maxExecutionThreads = DEFAULT_MAX_EXECUTION_THREADS;
+    private static int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private static long maxPipelinedPayload = DEFAULT_MAX_PIPELINED_PAYLOAD;
+    private static boolean useVirtualThreads = false;
+
+    private static ExecutorService readers = null;
+    private static ExecutorService executions = null;
+    private static ScheduledExecutorService timer = null;
+
+    /**
+     * @param number max number of threads processing PDUs - applies to threads created from now on
+     */
+    public static synchronized void setMaxExecutionThreads(int number) {
+        if(number < 1) throw new IllegalArgumentException("need at least one execution thread");
+        maxExecutionThreads = number;
+        shutdownPools();
+    }
+
+    public static synchronized int getMaxExecutionThreads() {
+        return maxExecutionThreads;
+    }
+
+    /**
+     * @param number max number of connections read at the same time - applies to connections started
+     * from now on
+     */
+    public static synchronized void setMaxConnections(int number) {
+        if(number < 1) throw new IllegalArgumentException("need at least one connection");
+        maxConnections = number;
+        shutdownPools();
+    }
+
+    public static synchronized int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param size assimilate payloads up to that size (bytes) are read into memory - reader goes ahead with
+     *             next PDU while it is processed. 0: payload is always taken from stream by processing thread.
+     */
+    public static synchronized void setMaxPipelinedPayload(long size) {
+        maxPipelinedPayload = size < 0 ? 0 : size;
+    }
+
+    public static synchronized long getMaxPipelinedPayload() {
+        return maxPipelinedPayload;
+    }
+
+    /**
+     * @param on use virtual threads if available - applies to connections started from now on
+     * @return true if virtual threads are used
+     */
+    public static synchronized boolean setUseVirtualThreads(boolean on) {
+        if(on && getVirtualThreadFactory() == null) {
+            Log.writeLog(ASAPConnectionRuntime.class, "virtual threads not available - use platform threads");
+            on = false;
+        }
+
+        if(on != useVirtualThreads) {
+            useVirtualThreads = on;
+            shutdownPools();
+        }
+
+        return useVirtualThreads;
+    }
+
+    public static synchronized boolean usesVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Run a connection - it keeps a reader thread until it terminates.
+     * @return false if connection is refused - max connections are already read
+     */
+    static boolean startConnection(Runnable connection) {
+        try {
+            getReaders().execute(connection);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.writeLog(ASAPConnectionRuntime.class, "max connections reached: " + getMaxConnections());
+            return false;
+        }
+    }
+
+    /**
+     * Run a task of a connection, e.g. processing a PDU.
+     */
+    static void execute(Runnable task) {
+        getExecutions().execute(task);
+    }
+
+    /**
+     * @param task called if not cancelled in time
+     * @param delayMS time until task is called
+     * @return handle to cancel - null if delay is unlimited
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delayMS) {
+        if(delayMS == Long.MAX_VALUE) return null;
+        return getTimer().schedule(task, delayMS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a task of a connection after a delay - timer thread only hands it over to execution threads.
+     */
+    static void executeLater(final Runnable task, long delayMS) {
+        getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                execute(task);
+            }
+        }, delayMS, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ExecutorService getReaders() {
+        if(readers == null) {
+            ThreadFactory virtual = useVirtualThreads ? getVirtualThreadFactory() : null;
+            ThreadFactory factory = virtual != null ? virtual : new DaemonThreadFactory("ASAPReader");
+            // no queue - a connection gets a reader at once or is refused
+            readers = new ThreadPoolExecutor(0, maxConnections, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new SynchronousQueue<Runnable>(), factory);
+        }
+        return readers;
+    }
+
+    private static synchronized ExecutorService getExecutions() {
+        if(executions == null) {
+            ThreadFactory virtual = useVirtualThreads ? getVirtualThreadFactory() : null;
+            ThreadFactory factory = virtual != null ? virtual : new DaemonThreadFactory("ASAPExecution");
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxExecutionThreads, maxExecutionThreads,
+                    KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+            pool.allowCoreThreadTimeOut(true);
+            executions = pool;
+        }
+        return executions;
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if(timer == null) {
+            ScheduledThreadPoolExecutor scheduler =
+                    new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("ASAPTimer"));
+            scheduler.setRemoveOnCancelPolicy(true);
+            timer = scheduler;
+        }
+        return timer;
+    }
+
+    private static void shutdownPools() {
+        // running and queued tasks are finished - new tasks go to new pools
+        if(readers != null) readers.shutdown();
+        if(executions != null) executions.shutdown();
+        readers = null;
+        executions = null;
+    }
+
+    private static ThreadFactory getVirtualThreadFactory() {
+        // Thread.ofVirtual().factory() - reflection: we compile against Java 8 and run on Android
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger number = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.name + "-" + this.number.incrementAndGet());
+            // connections must not keep an application alive
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package net.sharksystem.asap.protocol;
+
+/**
+ * Payload sent and received on a connection - before and after compression.
+ *
+ * @author thsc
+ */
+public class ASAPConnectionStatistics {
+    private long payloadBytesSent = 0;
+    private long transmittedBytesSent = 0;
+    private int compressedPDUsSent = 0;
+    private int incompressiblePDUsSent = 0;
+    private int zeroCopyPDUsSent = 0;
+
+    private long payloadBytesReceived = 0;
+    private long transmittedBytesReceived = 0;
+    private int compressedPDUsReceived = 0;
+
+    synchronized void payloadSent(long payloadBytes, long transmittedBytes, boolean compressed,
+                                  boolean incompressible) {
+        this.payloadBytesSent += payloadBytes;
+        this.transmittedBytesSent += transmittedBytes;
+        if(compressed) this.compressedPDUsSent++;
+        if(incompressible) this.incompressiblePDUsSent++;
+    }
+
+    synchronized void zeroCopySent() {
+        this.zeroCopyPDUsSent++;
+    }
+
+    synchronized void payloadReceived(long payloadBytes, long transmittedBytes, boolean compressed) {
+        this.payloadBytesReceived += payloadBytes;
+        this.transmittedBytesReceived += transmittedBytes;
+        if(compressed) this.compressedPDUsReceived++;
+    }
+
+    /** @return payload bytes before compression */
+    public synchronized long getPayloadBytesSent() { return this.payloadBytesSent; }
+    /** @return payload bytes actually sent */
+    public synchronized long getTransmittedBytesSent() { return this.transmittedBytesSent; }
+    public synchronized int getCompressedPDUsSent() { return this.compressedPDUsSent; }
+    /** @return PDUs sent uncompressed although compression was agreed - did not compress well */
+    public synchronized int getIncompressiblePDUsSent() { return this.incompressiblePDUsSent; }
+    /** @return PDUs whose payload was transferred from file to transport without passing the JVM heap */
+    public synchronized int getZeroCopyPDUsSent() { return this.zeroCopyPDUsSent; }
+
+    /** @return payload bytes after decompression */
+    public synchronized long getPayloadBytesReceived() { return this.payloadBytesReceived; }
+    /** @return payload bytes actually received */
+    public synchronized long getTransmittedBytesReceived() { return this.transmittedBytesReceived; }
+    public synchronized int getCompressedPDUsReceived() { return this.compressedPDUsReceived; }
+
+    public synchronized void resetStatistics() {
+        this.payloadBytesSent = 0;
+        this.transmittedBytesSent = 0;
+        this.compressedPDUsSent = 0;
+        this.incompressiblePDUsSent = 0;
+        this.zeroCopyPDUsSent = 0;
+        this.payloadBytesReceived = 0;
+        this.transmittedBytesReceived = 0;
+        this.compressedPDUsReceived = 0;
+    }
+
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("sent: "); sb.append(this.payloadBytesSent);
+        sb.append(" / "); sb.append(this.transmittedBytesSent);
+        sb.append(" | compressed: "); sb.append(this.compressedPDUsSent);
+        sb.append(" | incompressible: "); sb.append(this.incompressiblePDUsSent);
+        sb.append(" | zero copy: "); sb.append(this.zeroCopyPDUsSent);
+        sb.append(" | received: "); sb.append(this.payloadBytesReceived);
+        sb.append(" / "); sb.append(this.transmittedBytesReceived);
+        sb.append(" | compressed: "); sb.append(this.compressedPDUsReceived);
+        return sb.toString();
+    }
+}
@@ -4,21 +4,34 @@ import net.sharksystem.asap.ASAPException;
 import net.sharksystem.asap.ASAPSecurityException;
 import net.sharksystem.asap.crypto.ASAPKeyStore;
 import net.sharksystem.asap.crypto.ASAPCryptoAlgorithms;
+import net.sharksystem.asap.crypto.ASAPFramedCipher;
 import net.sharksystem.asap.utils.ASAPSerialization;
 
 import java.io.*;
-
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * Signs / verifies and encrypts / decrypts ASAP PDUs. Signatures are calculated while a PDU is written or
+ * read - signed PDUs are not kept in memory for that purpose. Framed encryption works the same way; otherwise
+ * an encrypted PDU is encrypted / decrypted as a whole.
+ */
 class ASAPCryptoMessage {
     private boolean encrypted;
     private boolean sign;
+    private boolean framed;
     private CharSequence recipient;
     private ASAPKeyStore ASAPKeyStore;
     private byte cmd;
 
     private OutputStream effectiveOS;
     private OutputStream realOS;
+    private OutputStream frameOS;
+    private InputStream framedIS;
+    private ASAPFramedCipher.FramedMessageHeader framedMessageHeader;
     private ByteArrayOutputStream outputStreamCopy;
-    private InputStreamCopy inputStreamCopy;
+    private Signature signature;
+    private VerifyingInputStream verifyingInputStream;
     private ASAPCryptoAlgorithms.EncryptedMessagePackage encryptedMessagePackage;
 
     ASAPCryptoMessage(ASAPKeyStore ASAPKeyStore) {
@@ -30,6 +43,17 @@ class ASAPCryptoMessage {
                       ASAPKeyStore ASAPKeyStore)
             throws ASAPSecurityException {
 
+        this(cmd, os, sign, encrypted, false, recipient, ASAPKeyStore);
+    }
+
+    /**
+     * @param framed encrypt in frames - encounter peer must have agreed
+     */
+    ASAPCryptoMessage(byte cmd, OutputStream os, boolean sign, boolean encrypted, boolean framed,
+                      CharSequence recipient,
+                      ASAPKeyStore ASAPKeyStore)
+            throws ASAPSecurityException {
+
         this.cmd = cmd;
         this.realOS = os;
         this.effectiveOS = os; // still this one
@@ -37,16 +61,20 @@ class ASAPCryptoMessage {
         this.recipient = recipient;
         this.encrypted = encrypted;
         this.sign = sign;
+        this.framed = encrypted && framed;
 
         if(encrypted || sign) {
             // we need some basic crypto parameters
             if(ASAPKeyStore == null) {
                 throw new ASAPSecurityException("cannot encrypt or sign without cryptp parameters / key store");
             }
-            this.setupCopyOutputStream();
         }
 
         if(encrypted) {
+            // frames are sent with cmd - otherwise encryption needs the whole message
+            if(this.framed) this.cmd += ASAP_1_1.FRAMED_ENCRYPTION_CMD;
+            else this.setupCopyOutputStream();
+
             // mark encryption in command - rest will be encrypted
             this.cmd += ASAP_1_0.ENCRYPTED_CMD;
             if(this.recipient == null) {
@@ -59,6 +87,7 @@ class ASAPCryptoMessage {
             if(ASAPKeyStore.getPrivateKey() == null) {
                 throw new ASAPSecurityException("asap message is to be signed but no private key - fatal, give up");
             }
+            this.signature = ASAPCryptoAlgorithms.initSigning(ASAPKeyStore);
         }
     }
 
@@ -73,6 +102,17 @@ class ASAPCryptoMessage {
     public void sendCmd() throws IOException {
         // send cmd in clear
         PDU_Impl.sendCmd(this.cmd, this.realOS);
+
+        if(this.framed) {
+            try {
+                this.frameOS = ASAPFramedCipher.encrypt(this.recipient, this.ASAPKeyStore, this.realOS);
+            } catch (ASAPSecurityException e) {
+                throw new IOException(this.getLogStart() + "cannot encrypt", e);
+            }
+            this.effectiveOS = this.frameOS;
+        }
+
+        if(this.sign) this.effectiveOS = new SigningOutputStream(this.effectiveOS);
     }
 
     public OutputStream getOutputStream() {
@@ -82,25 +122,26 @@ class ASAPCryptoMessage {
     public void finish() throws ASAPSecurityException {
         if(this.sign) {
             try {
-                // get message as bytes
-                byte[] asapMessageAsBytes = this.outputStreamCopy.toByteArray();
-                // produce signature
-                byte[] signatureBytes = ASAPCryptoAlgorithms.sign(asapMessageAsBytes, this.ASAPKeyStore);
-
-                if(this.encrypted) {
-                    // have to store it - message and signature will be encrypted
-                    ASAPSerialization.writeByteArray(signatureBytes, this.outputStreamCopy);
-                } else {
-                    // no encryption planned - write clear to stream
-                    this.realOS.write(asapMessageAsBytes);
-                    ASAPSerialization.writeByteArray(signatureBytes, this.realOS);
-                }
-            } catch (IOException e) {
+                // message passed signature already - message is written, signature follows
+                byte[] signatureBytes = this.signature.sign();
+
+                // message and signature will be encrypted or are sent in clear
+                OutputStream signatureOS = this.realOS;
+                if(this.encrypted) signatureOS = this.framed ? this.frameOS : this.outputStreamCopy;
+                ASAPSerialization.writeByteArray(signatureBytes, signatureOS);
+            } catch (IOException | SignatureException e) {
                 throw new ASAPSecurityException(this.getLogStart(), e);
             }
         }
 
-        if(this.encrypted) {
+        if(this.framed) {
+            try {
+                // last frame
+                this.frameOS.close();
+            } catch (IOException e) {
+                throw new ASAPSecurityException(this.getLogStart(), e);
+            }
+        } else if(this.encrypted) {
             // get maybe signed asap message
             byte[] asapMessageAsBytes = this.outputStreamCopy.toByteArray();
 
@@ -113,29 +154,73 @@ class ASAPCryptoMessage {
         return this.recipient;
     }
 
+    ////////////////////////////////// sign
+    private class SigningOutputStream extends FilterOutputStream {
+        SigningOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                signature.update(buffer, offset, length);
+            } catch (SignatureException e) {
+                throw new IOException(getLogStart() + "signing failed", e);
+            }
+            this.out.write(buffer, offset, length);
+        }
+    }
+
     ////////////////////////////////// verify
-    private class InputStreamCopy extends InputStream {
+
+    /**
+     * Feeds signature with anything read. Sender (and its key) is part of the signed PDU header - bytes are kept
+     * until verification is initialized.
+     */
+    private class VerifyingInputStream extends InputStream {
         private final InputStream is;
-        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private ByteArrayOutputStream header = new ByteArrayOutputStream();
 
-        InputStreamCopy(byte[] bytes, InputStream is) throws IOException {
+        VerifyingInputStream(byte[] bytes, InputStream is) throws IOException {
             // add byte if any
             if(bytes != null && bytes.length > 0) {
-                copy.write(bytes);
+                this.header.write(bytes);
             }
 
             this.is = is;
         }
 
+        void initVerification(Signature signature) throws SignatureException {
+            if(signature != null) signature.update(this.header.toByteArray());
+            this.header = null;
+        }
+
         @Override
         public int read() throws IOException {
-            int read = is.read();
-            copy.write(read);
-            return read;
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
         }
 
-        byte[] getCopy() {
-            return copy.toByteArray();
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = is.read(buffer, offset, length);
+            if(read > 0) {
+                if(this.header != null) {
+                    this.header.write(buffer, offset, read);
+                } else if(signature != null) {
+                    try {
+                        signature.update(buffer, offset, read);
+                    } catch (SignatureException e) {
+                        throw new IOException(getLogStart() + "verifying failed", e);
+                    }
+                }
+            }
+            return read;
         }
     }
 
@@ -143,26 +228,39 @@ class ASAPCryptoMessage {
             throws IOException {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-//        if(writeInt) {
-//            PDU_Impl.sendFlags(flags, baos);
-//        }
-
         PDU_Impl.sendFlags(flags, baos);
-        //baos.write(flags);
 
-        this.inputStreamCopy = new InputStreamCopy(baos.toByteArray(), is);
-        return this.inputStreamCopy;
+        this.verifyingInputStream = new VerifyingInputStream(baos.toByteArray(), is);
+        return this.verifyingInputStream;
     }
 
-    public boolean verify(String sender, InputStream is) throws IOException, ASAPException {
-        // try to get senders' public key
-        byte[] signedData = this.inputStreamCopy.getCopy();
+    /**
+     * Header is read - anything read from now on is fed directly into signature.
+     * @param sender sender of signed PDU
+     */
+    public void initVerification(String sender) throws ASAPSecurityException {
+        // no key - no verification
+        this.signature = ASAPCryptoAlgorithms.initVerification(sender, this.ASAPKeyStore);
+        try {
+            this.verifyingInputStream.initVerification(this.signature);
+        } catch (SignatureException e) {
+            throw new ASAPSecurityException(this.getLogStart(), e);
+        }
+    }
+
+    /**
+     * @param is stream signature is to be read from - signed data must have been read
+     * @return true if signature matches
+     */
+    public boolean verify(InputStream is) throws IOException, ASAPException {
         byte[] signatureBytes = ASAPSerialization.readByteArray(is);
-        // debug break
-        boolean wasVerified =
-                ASAPCryptoAlgorithms.verify(signedData, signatureBytes, sender, this.ASAPKeyStore);
+        if(this.signature == null) return false;
 
-        return wasVerified;
+        try {
+            return this.signature.verify(signatureBytes);
+        } catch (SignatureException e) {
+            throw new ASAPSecurityException(this.getLogStart() + "verifying failed", e);
+        }
     }
 
     ////////////////////////////////// decrypt
@@ -179,6 +277,21 @@ class ASAPCryptoMessage {
      * @throws ASAPException
      */
     public boolean initDecryption(byte cmd, InputStream is) throws IOException, ASAPException {
+        if((cmd & ASAP_1_1.FRAMED_ENCRYPTION_MASK) != 0) {
+            // frames remain on stream - decrypted while read
+            this.framedMessageHeader = ASAPFramedCipher.readHeader(is);
+            this.recipient = this.framedMessageHeader.getReceiver();
+            this.framedIS = is;
+
+            if(this.ASAPKeyStore != null && this.ASAPKeyStore.isOwner(this.recipient)) return true;
+
+            if(this.ASAPKeyStore == null) {
+                System.out.println(this.getLogStart() + "no keystore set: cannot handle encrypted messages");
+            }
+            ASAPFramedCipher.skip(is);
+            return false;
+        }
+
         // make a copy of encrypted message - it is redundant. Same data in encryptedMessagePackage
         //InputStream copyStream = this.setupCopyInputStream(cmd, is);
 
@@ -210,7 +323,11 @@ class ASAPCryptoMessage {
          */
     }
 
-    public InputStream doDecryption() throws ASAPSecurityException {
+    public InputStream doDecryption() throws ASAPSecurityException, IOException {
+        if(this.framedMessageHeader != null) {
+            return ASAPFramedCipher.decrypt(this.framedMessageHeader, this.ASAPKeyStore, this.framedIS);
+        }
+
         if(this.encryptedMessagePackage == null) {
             throw new ASAPSecurityException("forgot to initialize decryption? There are no data");
         }
@@ -11,9 +11,14 @@ import net.sharksystem.asap.crypto.ASAPKeyStore;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ASAPPersistentConnection extends ASAPProtocolEngine
-        implements ASAPConnection, Runnable, ThreadFinishedListener {
+        implements ASAPConnection, Runnable {
 
     private final List<ASAPConnectionListener> asapConnectionListener;
     private final ASAPInternalPeer asapInternalPeer;
@@ -21,13 +26,11 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
     private final boolean encrypt;
     private final boolean sign;
     private final ASAPEncounterConnectionType connectionType;
-    private Thread managementThread = null;
     private final long maxExecutionTime;
     private String encounteredPeer;
 
     private List<ASAPOnlineMessageSource> onlineMessageSources = new ArrayList<>();
-    private Thread threadWaiting4StreamsLock;
-    private boolean terminated = false;
+    private volatile boolean terminated = false;
 
     public ASAPPersistentConnection(InputStream is, OutputStream os, ASAPInternalPeer asapInternalPeer,
                                     ASAP_1_0 protocol, ASAPUndecryptableMessageHandler unencryptableMessageHandler,
@@ -71,6 +74,7 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
         if(this.encounteredPeer == null) {
 
             this.encounteredPeer = remotePeerName;
+            this.os.setEncounteredPeer(remotePeerName);
 
             StringBuilder sb = new StringBuilder();
             sb.append(this.getLogParameter());
@@ -100,6 +104,16 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
         return false;
     }
 
+    @Override
+    public Set<String> getAgreedCapabilities() {
+        return ASAPConnectionOutputStream.getAgreedCapabilities(this.os);
+    }
+
+    @Override
+    public ASAPConnectionStatistics getStatistics() {
+        return ASAPConnectionOutputStream.getStatistics(this.os);
+    }
+
     @Override
     public void kill() {
         this.kill(new ASAPException("kill called from outside asap connection"));
@@ -109,12 +123,9 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
         if(!this.terminated) {
             this.terminated = true;
             // kill reader - proofed to be useful in a bluetooth environment
-            if(this.pduReader != null && this.pduReader.isAlive()) {
-                this.pduReader.interrupt();
-            }
-            if(this.managementThread != null && this.managementThread.isAlive()) {
-                this.managementThread.interrupt();
-            }
+            this.interruptReadingThread();
+            // writers blocked in a stalled stream fail and release stream access
+            this.closeStreams();
             // inform listener
             if (this.asapConnectionListener != null) {
                 for(ASAPConnectionListener l : this.asapConnectionListener) {
@@ -128,10 +139,16 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
         }
     }
 
-    @Override
-    public void finished(Thread t) {
-        if(this.managementThread != null) {
-            this.managementThread.interrupt();
+    private void closeStreams() {
+        try {
+            this.os.close();
+        } catch (IOException e) {
+            Log.writeLog(this, this.getLogParameter(), "cannot close output stream: " + e.getLocalizedMessage());
+        }
+        try {
+            this.is.close();
+        } catch (IOException e) {
+            Log.writeLog(this, this.getLogParameter(), "cannot close input stream: " + e.getLocalizedMessage());
         }
     }
 
@@ -164,16 +181,18 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
         }
     }
 
-    private class OnlineMessageSenderThread extends Thread {
+    private class OnlineMessageSender implements Runnable {
+        private final long created = System.currentTimeMillis();
+
         public void run() {
+            // get exclusive access to streams
+            Log.writeLog(this, getLogParameter(), "online sender is going to ask for stream access");
+            if(!lockStreamsOrRunLater(this, this.created)) return;
             try {
-                // get exclusive access to streams
-                Log.writeLog(this, getLogParameter(), "online sender is going to wait for stream access");
-                wait4ExclusiveStreamsAccess();
                 Log.writeLog(this, getLogParameter(), "online sender got stream access");
                 sendOnlineMessages();
                 // prepare a graceful death
-                onlineMessageSenderThread = null;
+                onlineMessageSender = null;
                 // are new message waiting in the meantime?
                 checkRunningOnlineMessageSender();
             } catch (IOException e) {
@@ -186,9 +205,9 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
         }
     }
 
-    private OnlineMessageSenderThread onlineMessageSenderThread = null;
-    private ASAPPDUReader pduReader = null;
-    Thread executor = null;
+    private OnlineMessageSender onlineMessageSender = null;
+    private Thread readingThread = null;
+    private CountDownLatch pendingExecution = null;
 
     @Override
     public void addOnlineMessageSource(ASAPOnlineMessageSource source) {
@@ -197,15 +216,51 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
     }
 
     private synchronized void checkRunningOnlineMessageSender() {
-        if(this.onlineMessageSenderThread == null
+        if(this.onlineMessageSender == null
                 && this.onlineMessageSources != null && this.onlineMessageSources.size() > 0) {
-            this.onlineMessageSenderThread = new OnlineMessageSenderThread();
-            this.onlineMessageSenderThread.start();
+            this.onlineMessageSender = new OnlineMessageSender();
+            ASAPConnectionRuntime.execute(this.onlineMessageSender);
+        }
+    }
+
+    /**
+     * Run this connection on shared threads - no thread is created for this connection.
+     * @see ASAPConnectionRuntime
+     */
+    public void start() {
+        if(!ASAPConnectionRuntime.startConnection(this)) {
+            this.terminate("connection refused", new ASAPException("max connections reached: "
+                    + ASAPConnectionRuntime.getMaxConnections()));
         }
     }
 
+    /**
+     * Pushes interests and reads PDUs until connection is terminated. PDUs are processed on execution threads
+     * while the next PDU is read - see ASAPConnectionRuntime.
+     */
     public void run() {
-        ASAP_1_0 protocol = new ASAP_Modem_Impl(this.ASAPKeyStore, this.undecryptableMessageHandler);
+        this.setReadingThread(Thread.currentThread());
+        try {
+            this.readAndProcess();
+        }
+        finally {
+            // thread is reused by other connections
+            this.setReadingThread(null);
+        }
+    }
+
+    private synchronized void setReadingThread(Thread thread) {
+        this.readingThread = thread;
+    }
+
+    private synchronized void interruptReadingThread() {
+        if(this.readingThread != null && this.readingThread != Thread.currentThread()) {
+            this.readingThread.interrupt();
+        }
+    }
+
+    private void readAndProcess() {
+        ASAP_1_1 protocol = new ASAP_Modem_Impl(this.ASAPKeyStore, this.undecryptableMessageHandler);
 
         try {
             // let engine write their interest - at least management interest is sent which als introduces
@@ -219,31 +274,29 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
 
         /////////////////////////////// read
         while (!this.terminated) {
-            this.pduReader = new ASAPPDUReader(protocol, is, this);
-            Throwable unexpectedThrowable = null;
+            ASAP_PDU_1_0 asappdu = null;
+            Throwable problem = null;
             try {
                 Log.writeLog(this, this.getLogParameter(), "start reading");
-                this.runObservedThread(pduReader, this.maxExecutionTime);
-            } catch (ASAPExecTimeExceededException e) {
-                Log.writeLog(this, this.getLogParameter(),  "reading on stream took longer than allowed");
-            }
-            catch(Throwable t) {
-                unexpectedThrowable = t;
+                asappdu = protocol.readPDU(this.is);
+            } catch (IOException e) {
+                Log.writeLog(this, this.getLogParameter(), "IOException when reading from stream");
+                problem = e;
+            } catch (ASAPException e) {
+                Log.writeLog(this, this.getLogParameter(), "ASAPException when reading from stream");
+                problem = e;
+            } catch(Throwable t) {
                 Log.writeLog(this, this.getLogParameter(),  "while reading PDU: "
                         + t.getClass().getSimpleName() + ": " + t.getLocalizedMessage());
+                problem = t;
             }
 
             Log.writeLog(this, this.getLogParameter(),  "back from reading");
             if(terminated) break; // thread could be killed in the meantime
 
-            if (unexpectedThrowable != null || pduReader.getIoException() != null || pduReader.getAsapException() != null) {
+            if (problem != null) {
                 Log.writeLog(this, this.getLogParameter(), "connection broken");
 
-                Throwable problem = pduReader.getIoException() != null ?
-                        pduReader.getIoException() : pduReader.getAsapException();
-
-                if(problem == null) problem = unexpectedThrowable;
-
                 try {
                     Log.writeLog(this, this.getLogParameter(), "close input stream");
                     this.is.close();
@@ -255,35 +308,67 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
                 this.terminate("problem when reading from stream (close asap session and stream): ", problem);
                 break;
             }
-            
-            ASAP_PDU_1_0 asappdu = pduReader.getASAPPDU();
+
             /////////////////////////////// process
             if(asappdu != null) {
                 Log.writeLog(this, this.getLogParameter(),  "read valid pdu");
+                // ASAP 1.1 peers say so in each pdu
+                this.os.peerAcceptsProtocolVersion(asappdu.getAcceptedProtocolVersion());
+                if(this.os.sendCapabilities()) {
+                    if(!this.wait4ExclusiveStreamsAccess()) break;
+                    try {
+                        protocol.capabilities(ASAPCapabilities.getSupported(), this.os);
+                    } catch (IOException e) {
+                        this.terminate("could not send capabilities: ", e);
+                        break;
+                    } finally {
+                        this.releaseStreamsLock();
+                    }
+                }
+
+                if(asappdu.getCommand() == ASAP_1_1.CAPABILITIES_CMD) {
+                    Set<String> agreed = this.os.agreeCapabilities(
+                            ((ASAP_CapabilitiesPDU_1_1) asappdu).getCapabilities());
+                    Log.writeLog(this, this.getLogParameter(),  "agreed capabilities: " + agreed);
+                    continue;
+                }
+
                 this.setEncounteredPeer(asappdu.getSender());
+                boolean payloadInStream = false;
+                if(asappdu instanceof ASAP_AssimilationPDU_1_0) {
+                    ASAP_AssimilationPDU_1_0 assimilationPDU = (ASAP_AssimilationPDU_1_0) asappdu;
+                    this.getStatistics().payloadReceived(assimilationPDU.getLength(),
+                            assimilationPDU.getTransmittedLength(), assimilationPDU.compressed());
+
+                    if(assimilationPDU.getLength() <= ASAPConnectionRuntime.getMaxPipelinedPayload()) {
+                        // take payload - next pdu can be read while this one is processed
+                        try {
+                            assimilationPDU.getData();
+                        } catch (IOException e) {
+                            this.terminate("problem when reading payload from stream: ", e);
+                            break;
+                        }
+                    } else {
+                        payloadInStream = true;
+                    }
+                }
+
+                // PDUs are processed in order
+                if(!this.waitForPendingExecution()) break;
 
                 try {
-                    this.executor = new ASAPPDUExecutor(asappdu,
+                    CountDownLatch done = new CountDownLatch(1);
+                    ASAPPDUExecutor executor = new ASAPPDUExecutor(asappdu,
                                         this.encounteredPeer,
                                         this.is, this.os,
                                         this.asapInternalPeer.getEngineSettings(asappdu.getFormat()),
-                                        protocol,this.connectionType, this);
+                                        protocol, this.connectionType, done);
 
-                    // get exclusive access to streams
-                    Log.writeLog(this, this.getLogParameter(),  "asap pdu executor going to wait for stream access");
-                    this.wait4ExclusiveStreamsAccess();
-                    try {
-                        Log.writeLog(this, this.getLogParameter(),  "asap pdu executor got stream access - process pdu");
-                        this.runObservedThread(executor, maxExecutionTime);
-                    } catch (ASAPExecTimeExceededException e) {
-                        Log.writeLog(this, this.getLogParameter(),  "asap pdu processing took longer than allowed");
-                        this.terminate("asap pdu processing took longer than allowed", e);
-                        break;
-                    } finally {
-                        // wake waiting thread if any
-                        this.releaseStreamsLock();
-                        Log.writeLog(this, this.getLogParameter(),  "asap pdu executor release locks");
-                    }
+                    this.pendingExecution = done;
+                    ASAPConnectionRuntime.execute(executor);
+
+                    // large payload is taken from stream by execution thread - wait before reading on
+                    if(payloadInStream && !this.waitForPendingExecution()) break;
                 } catch (ASAPException e) {
                     Log.writeLog(this, this.getLogParameter(),  " problem when executing asap received pdu: " + e);
                 }
@@ -291,89 +376,87 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
         }
     }
 
-    private Thread threadUsingStreams = null;
-    private synchronized Thread getThreadUsingStreams(Thread t) {
-        if(this.threadUsingStreams == null) {
-            this.threadUsingStreams = t;
-            return null;
-        }
-
-        return this.threadUsingStreams;
-    }
-
-    // why not simply synchronized(this) { ... }?? OK, that code works but looks complicated (thsc42)
-    private void wait4ExclusiveStreamsAccess() {
-        // synchronize with other thread using streams
-        Thread threadUsingStreams = this.getThreadUsingStreams(Thread.currentThread());
+    /**
+     * @return false if connection was killed while waiting
+     */
+    private boolean waitForPendingExecution() {
+        CountDownLatch pending = this.pendingExecution;
+        if(pending == null) return true;
 
-        // got lock - go ahead
-        if(threadUsingStreams == null) {
-            return;
+        try {
+            pending.await();
+        } catch (InterruptedException e) {
+            Log.writeLog(this, this.getLogParameter(),  "interrupted while waiting for pdu processing");
         }
-
-        // there is another thread - wait until it dies
-        do {
-            Log.writeLog(this, this.getLogParameter(),  "enter waiting loop for exclusive stream access");
-            // wait
-            try {
-                this.threadWaiting4StreamsLock = Thread.currentThread();
-                threadUsingStreams.join();
-            } catch (InterruptedException e) {
-                Log.writeLog(this, this.getLogParameter(),  "woke up from join");
-            }
-            finally {
-                this.threadWaiting4StreamsLock = null;
-            }
-            // try again
-            Log.writeLog(this, this.getLogParameter(),  "try to get streams access again");
-            threadUsingStreams = this.getThreadUsingStreams(Thread.currentThread());
-        } while(threadUsingStreams != null);
-        Log.writeLog(this, this.getLogParameter(),  "leave waiting loop for exclusive stream access");
+        this.pendingExecution = null;
+        return !this.terminated;
     }
 
-    private void releaseStreamsLock() {
-        this.threadUsingStreams = null; // take me out
-        if(this.threadWaiting4StreamsLock != null) {
-            Log.writeLog(this, this.getLogParameter(),  "wake waiting thread");
-            this.threadWaiting4StreamsLock.interrupt();
-        }
-    }
+    /** tasks on shared threads ask again for stream access after that time */
+    private static final long STREAM_ACCESS_RETRY_MS = 20;
+    private final ReentrantLock streamsLock = new ReentrantLock();
 
-    private void runObservedThread(Thread t, long maxExecutionTime) throws ASAPExecTimeExceededException {
-        this.managementThread = Thread.currentThread();
-        t.start();
+    /**
+     * Reader waits for exclusive stream access - not longer than max execution time. Killing this connection
+     * interrupts reader.
+     * @return false if there is no access - connection is terminated
+     */
+    private boolean wait4ExclusiveStreamsAccess() {
+        if(this.streamsLock.tryLock()) return true;
 
-        // wait for reader
+        Log.writeLog(this, this.getLogParameter(),  "wait for exclusive stream access");
         try {
-            Thread.sleep(maxExecutionTime);
+            if(this.streamsLock.tryLock(this.maxExecutionTime, TimeUnit.MILLISECONDS)) return true;
+            this.terminate("no stream access",
+                    new ASAPExecTimeExceededException("no stream access within max execution time of "
+                            + this.maxExecutionTime + " ms"));
         } catch (InterruptedException e) {
-            // was woken up by thread - that's good
-            return;
+            Log.writeLog(this, this.getLogParameter(),  "interrupted while waiting for stream access");
         }
+        return false;
+    }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("thread (");
-        sb.append(t.getClass().getSimpleName());
-        sb.append(") exceeded max execution time of ");
-        sb.append(maxExecutionTime);
-        sb.append(" ms");
+    /**
+     * Tasks on shared threads never wait for a connection - they are run again later if another one
+     * uses the streams.
+     * @param task task asking for access
+     * @param since time that task asked first
+     * @return true if task has exclusive stream access - false if task runs again later or connection
+     * is terminated
+     */
+    private boolean lockStreamsOrRunLater(Runnable task, long since) {
+        if(this.terminated) return false;
+        if(this.streamsLock.tryLock()) return true;
+
+        if(System.currentTimeMillis() - since > this.maxExecutionTime) {
+            this.terminate("no stream access",
+                    new ASAPExecTimeExceededException("no stream access within max execution time of "
+                            + this.maxExecutionTime + " ms"));
+            return false;
+        }
 
-        throw new ASAPExecTimeExceededException(sb.toString());
+        ASAPConnectionRuntime.executeLater(task, STREAM_ACCESS_RETRY_MS);
+        return false;
+    }
+
+    private void releaseStreamsLock() {
+        this.streamsLock.unlock();
     }
 
-    private class ASAPPDUExecutor extends Thread {
+    private class ASAPPDUExecutor implements Runnable {
         private final ASAP_PDU_1_0 asapPDU;
         private final InputStream is;
         private final OutputStream os;
         private final EngineSetting engineSetting;
         private final ASAP_1_0 protocol;
-        private final ThreadFinishedListener threadFinishedListener;
+        private final CountDownLatch done;
         private final String encounteredPeer;
         private final ASAPEncounterConnectionType connectionType;
+        private final long created = System.currentTimeMillis();
 
         public ASAPPDUExecutor(ASAP_PDU_1_0 asapPDU, String encounteredPeer, InputStream is, OutputStream os,
                                EngineSetting engineSetting, ASAP_1_0 protocol,
-                               ASAPEncounterConnectionType connectionType, ThreadFinishedListener threadFinishedListener) {
+                               ASAPEncounterConnectionType connectionType, CountDownLatch done) {
             this.asapPDU = asapPDU;
             this.encounteredPeer = encounteredPeer;
             this.is = is;
@@ -381,7 +464,7 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
             this.engineSetting = engineSetting;
             this.protocol = protocol;
             this.connectionType = connectionType;
-            this.threadFinishedListener = threadFinishedListener;
+            this.done = done;
 
             StringBuilder sb = new StringBuilder();
             sb.append(getLogParameter());
@@ -395,17 +478,45 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
             Log.writeLog(this, ASAPPersistentConnection.this.getLogParameter(), sb.toString());
         }
 
-        private void finish() {
-            if(this.threadFinishedListener != null) {
-                this.threadFinishedListener.finished(this);
+        public void run() {
+            // get exclusive access to streams
+            Log.writeLog(this, ASAPPersistentConnection.this.getLogParameter(),
+                    "asap pdu executor going to ask for stream access");
+            if(!lockStreamsOrRunLater(this, this.created)) {
+                // reader must not wait for a pdu that is never processed
+                if(terminated) this.done.countDown();
+                return;
+            }
+
+            ScheduledFuture<?> timeout = ASAPConnectionRuntime.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    Log.writeLog(this, getLogParameter(),  "asap pdu processing took longer than allowed");
+                    terminate("asap pdu processing took longer than allowed",
+                            new ASAPExecTimeExceededException("processing exceeded max execution time of "
+                                    + maxExecutionTime + " ms"));
+                }
+            }, maxExecutionTime);
+
+            try {
+                Log.writeLog(this, ASAPPersistentConnection.this.getLogParameter(),
+                        "asap pdu executor got stream access - process pdu");
+                this.process();
+            }
+            finally {
+                if(timeout != null) timeout.cancel(false);
+                // wake waiting thread if any
+                releaseStreamsLock();
+                Log.writeLog(this, ASAPPersistentConnection.this.getLogParameter(),
+                        "asap pdu executor release locks");
+                this.done.countDown();
             }
         }
 
-        public void run() {
+        private void process() {
             if(engineSetting.engine == null) {
                 Log.writeLogErr(this, ASAPPersistentConnection.this.getLogParameter(),
                         "ASAPPDUExecutor called without engine set - fatal");
-                this.finish();
                 return;
             }
 
@@ -455,64 +566,6 @@ public class ASAPPersistentConnection extends ASAPProtocolEngine
                     //ex.printStackTrace();
                 }
             }
-            finally {
-                this.finish();
-            }
-        }
-    }
-
-    /**
-     * Waits for one PDU and goes away if read.
-     */
-    private class ASAPPDUReader extends Thread {
-        private final ASAP_1_0 protocol;
-        private final InputStream is;
-        private final ThreadFinishedListener pduReaderListener;
-        private ASAP_PDU_1_0 asapPDU = null;
-        private IOException ioException = null;
-        private ASAPException asapException = null;
-
-        ASAPPDUReader(ASAP_1_0 protocol, InputStream is, ThreadFinishedListener listener) {
-            this.protocol = protocol;
-            this.is = is;
-            this.pduReaderListener = listener;
-        }
-
-        IOException getIoException() {
-            return this.ioException;
-        }
-
-        ASAPException getAsapException() {
-            return this.asapException;
-        }
-
-        ASAP_PDU_1_0 getASAPPDU() {
-            return this.asapPDU;
-        }
-
-        public void run() {
-            try {
-                //boolean dropped = false;
-                //do {
-                    //if(dropped) Log.writeLog(this, "dropped pdu: no sufficient encryption");
-                    this.asapPDU = protocol.readPDU(is);
-                    //dropped = true;
-                //} // refuse lesser security settings and read next pdu
-                //while((encrypt && !this.asapPDU.encrypted()) || (sign && !this.asapPDU.verified()));
-            } catch (IOException e) {
-                this.ioException = e;
-                Log.writeLog(this, ASAPPersistentConnection.this.getLogParameter(),
-                        "IOException when reading from stream");
-            } catch (ASAPException e) {
-                Log.writeLog(this, ASAPPersistentConnection.this.getLogParameter(),
-                        "ASAPException when reading from stream");
-                this.asapException = e;
-            }
-            finally {
-                if(this.pduReaderListener != null) {
-                    this.pduReaderListener.finished(this);
-                }
-            }
         }
     }
 }
@@ -4,6 +4,7 @@ import net.sharksystem.asap.engine.ASAPUndecryptableMessageHandler;
 import net.sharksystem.asap.crypto.ASAPKeyStore;
 import net.sharksystem.utils.Log;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -11,7 +12,7 @@ import java.io.OutputStream;
 public abstract class ASAPProtocolEngine {
     protected final ASAP_1_0 protocol;
     protected final InputStream is;
-    protected final OutputStream os;
+    protected final ASAPConnectionOutputStream os;
     protected final ASAPUndecryptableMessageHandler undecryptableMessageHandler;
     protected final ASAPKeyStore ASAPKeyStore;
 
@@ -22,8 +23,10 @@ public abstract class ASAPProtocolEngine {
         this.is = new ISWrapper(is);
         this.os = new OSWrapper(os);
          */
-        this.is = is;
-        this.os = os;
+        // PDUs are read in blocks - stream is owned by this engine from now on
+        this.is = new BufferedInputStream(is, ASAP_Modem_Impl.PDU_BUFFER_SIZE);
+        // knows protocol version of encounter peer
+        this.os = new ASAPConnectionOutputStream(os);
         this.protocol = protocol;
         this.undecryptableMessageHandler = undecryptableMessageHandler;
         this.ASAPKeyStore = ASAPKeyStore;
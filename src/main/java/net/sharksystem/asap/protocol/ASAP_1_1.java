@@ -0,0 +1,50 @@
+package net.sharksystem.asap.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * ASAP 1.1 keeps commands, flags and parameter order of ASAP 1.0. Numbers are encoded differently:
+ * <ul>
+ *     <li>eras, era ranges and encounter map size: variable length</li>
+ *     <li>data length: variable length, 64 bit</li>
+ *     <li>message offsets: number of offsets followed by zig-zag encoded differences of
+ *     consecutive offsets (64 bit) - no longer a comma separated string</li>
+ *     <li>eras in encounter map: zig-zag encoded</li>
+ * </ul>
+ *
+ * A flag tells how a PDU is encoded. Another flag tells that its sender reads ASAP 1.1 PDUs.
+ * Each side of a connection sends 1.0 PDUs until it received a PDU with that flag. ASAP 1.0 peers
+ * ignore unknown flags - they never receive 1.1 PDUs.
+ *
+ * ASAP 1.1 peers send a capabilities PDU once they know encounter peer reads 1.1:
+ * CMD | FLAGS | NUMBER (variable length) | CAPABILITY NAMES. Features both sides support can be used
+ * on that connection from then on.
+ *
+ * Encrypted PDUs are encrypted in frames (see {@link net.sharksystem.asap.crypto.ASAPFramedCipher}) if
+ * both sides agreed on {@link ASAPCapabilities#FRAMED_ENCRYPTION} and encounter peer is recipient - a command bit
+ * marks those PDUs. PDUs for other peers are encrypted as a whole: encounter peer can keep and forward them.
+ *
+ * @author thsc
+ */
+public interface ASAP_1_1 extends ASAP_1_0 {
+    byte VERSION_1_0 = 0;
+    byte VERSION_1_1 = 1;
+
+    /** highest version this implementation reads and writes */
+    byte HIGHEST_VERSION = VERSION_1_1;
+
+    byte CAPABILITIES_CMD = 4;
+
+    int FRAMED_ENCRYPTION_MASK = 0x8; // 1000
+    byte FRAMED_ENCRYPTION_CMD = 8;
+
+    /**
+     * @param capabilities features this peer supports
+     * @param os stream that PDU is to be sent
+     * @throws IOException exception during writing on stream
+     * @see ASAPCapabilities
+     */
+    void capabilities(Set<String> capabilities, OutputStream os) throws IOException;
+}
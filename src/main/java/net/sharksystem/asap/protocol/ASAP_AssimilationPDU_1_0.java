@@ -18,6 +18,16 @@ public interface ASAP_AssimilationPDU_1_0 extends ASAP_PDU_1_0 {
      */
     long getLength();
 
+    /**
+     * @return true if data were compressed during transmission
+     */
+    boolean compressed();
+
+    /**
+     * @return length of data on the wire - less than getLength() if compressed
+     */
+    long getTransmittedLength();
+
     /**
      * it is assumed that the stream of bytes contains a number of
      * opaque, application specific messages. This list contains the offsets where
@@ -33,6 +43,12 @@ public interface ASAP_AssimilationPDU_1_0 extends ASAP_PDU_1_0 {
      */
     List<Integer> getMessageOffsets();
 
+    /**
+     * @return same as getMessageOffsets - with 64 bit offsets. Chunks can exceed 2 GB.
+     * @see #getMessageOffsets()
+     */
+    List<Long> getLongMessageOffsets();
+
     List<ASAPHop> getASAPHopList();
 
     /**
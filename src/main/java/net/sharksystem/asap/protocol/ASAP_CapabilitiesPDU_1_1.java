@@ -0,0 +1,10 @@
+package net.sharksystem.asap.protocol;
+
+import java.util.Set;
+
+public interface ASAP_CapabilitiesPDU_1_1 extends ASAP_PDU_1_0 {
+    /**
+     * @return features sender of this PDU supports
+     */
+    Set<String> getCapabilities();
+}
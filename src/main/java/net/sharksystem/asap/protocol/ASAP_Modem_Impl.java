@@ -10,16 +10,33 @@ import net.sharksystem.asap.crypto.ASAPKeyStore;
 import net.sharksystem.asap.crypto.ASAPPoint2PointCryptoSettings;
 import net.sharksystem.asap.utils.ASAPSerialization;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-public class ASAP_Modem_Impl implements ASAP_1_0 {
+public class ASAP_Modem_Impl implements ASAP_1_1 {
     private final ASAPKeyStore signAndEncryptionKeyStorage;
     private final ASAPUndecryptableMessageHandler undecryptableMessageHandler;
+    /** outgoing PDUs are buffered up to that size */
+    public static final int PDU_BUFFER_SIZE = 8 * 1024;
+    /** received signed data are kept in memory up to that size - larger data are buffered in a temporary file */
+    public static final long DEFAULT_MAX_SIGNED_DATA_IN_MEMORY = 1024 * 1024;
+
+    private static long maxSignedDataInMemory = DEFAULT_MAX_SIGNED_DATA_IN_MEMORY;
+
+    public static void setMaxSignedDataInMemory(long size) {
+        maxSignedDataInMemory = size;
+    }
+
+    public static long getMaxSignedDataInMemory() {
+        return maxSignedDataInMemory;
+    }
+
     private byte initialTTL = DEFAULT_INITIAL_TTL;
 
     public ASAP_Modem_Impl() {
@@ -40,6 +57,17 @@ public class ASAP_Modem_Impl implements ASAP_1_0 {
         this.undecryptableMessageHandler = undecryptableMessageHandler;
     }
 
+    /**
+     * Frames are decrypted while read - a peer that is not recipient cannot keep and forward them. PDUs are
+     * only framed if encounter peer agreed and is recipient. Others get a message package they can redistribute.
+     */
+    private static boolean framedEncryption(OutputStream os, CharSequence recipient) {
+        CharSequence encounteredPeer = ASAPConnectionOutputStream.getEncounteredPeer(os);
+        return recipient != null && encounteredPeer != null
+                && ASAPCryptoAlgorithms.sameID(recipient, encounteredPeer)
+                && ASAPCapabilities.agreed(os, ASAPCapabilities.FRAMED_ENCRYPTION);
+    }
+
     // Character are transmitted as bytes: number of bytes (first byte), content following, 0 mean no content
     /*
     general structure (asap message)
@@ -126,17 +154,23 @@ public class ASAP_Modem_Impl implements ASAP_1_0 {
             throws IOException, ASAPException {
 
         // prepare encryption and signing if required
+        // encounter peer could still be an ASAP 1.0 peer
+        byte protocolVersion = ASAPConnectionOutputStream.getProtocolVersion(os);
+
+        // PDU is written in blocks - not byte by byte into e.g. a socket
+        BufferedOutputStream pduOS = new BufferedOutputStream(os, PDU_BUFFER_SIZE);
         ASAPCryptoMessage cryptoMessage = new ASAPCryptoMessage(ASAP_1_0.INTEREST_CMD,
-                os, signed, encrypted, recipient,
-                this.signAndEncryptionKeyStorage);
+                pduOS, signed, encrypted, framedEncryption(os, recipient),
+                recipient, this.signAndEncryptionKeyStorage);
 
         cryptoMessage.sendCmd();
 
         InterestPDU_Impl.sendPDUWithoutCmd(sender, recipient, format, channel, eraFrom, eraTo,
-                cryptoMessage.getOutputStream(), signed, asapRoutingAllowed, encounterMap);
+                cryptoMessage.getOutputStream(), signed, asapRoutingAllowed, encounterMap, protocolVersion);
 
         // finish crypto session - maybe nothing has to be done
         cryptoMessage.finish();
+        pduOS.flush();
     }
 
     @Override
@@ -171,17 +205,26 @@ public class ASAP_Modem_Impl implements ASAP_1_0 {
                            OutputStream os, boolean signed, boolean encrypted) throws IOException, ASAPException {
 
         // prepare encryption and signing if required
+        // encounter peer could still be an ASAP 1.0 peer
+        byte protocolVersion = ASAPConnectionOutputStream.getProtocolVersion(os);
+
+        // PDU is written in blocks - not byte by byte into e.g. a socket
+        BufferedOutputStream pduOS = new BufferedOutputStream(os, PDU_BUFFER_SIZE);
         ASAPCryptoMessage cryptoMessage = new ASAPCryptoMessage(ASAP_1_0.ASSIMILATE_CMD,
-                os, signed, encrypted, recipient,
-                this.signAndEncryptionKeyStorage);
+                pduOS, signed, encrypted, framedEncryption(os, recipient),
+                recipient, this.signAndEncryptionKeyStorage);
 
         cryptoMessage.sendCmd();
 
+        // data can bypass stream if nothing is added to or computed from them
         AssimilationPDU_Impl.sendPDUWithoutCmd(sender, recipient, format, channel, era,
-                length, offsets, asapHops, dataIS, cryptoMessage.getOutputStream(), signed);
+                length, offsets, asapHops, dataIS, cryptoMessage.getOutputStream(), signed, protocolVersion,
+                ASAPCompression.selectCodec(os), ASAPConnectionOutputStream.getStatistics(os),
+                signed || encrypted ? null : ASAPConnectionOutputStream.getChannel(os));
 
         // finish crypto session - maybe nothing has to be done
         cryptoMessage.finish();
+        pduOS.flush();
     }
 
     @Override
@@ -204,6 +247,14 @@ public class ASAP_Modem_Impl implements ASAP_1_0 {
                 new ByteArrayInputStream(data), os, signed, encrypted);
     }
 
+    @Override
+    public void capabilities(Set<String> capabilities, OutputStream os) throws IOException {
+        BufferedOutputStream pduOS = new BufferedOutputStream(os, PDU_BUFFER_SIZE);
+        PDU_Impl.sendCmd(ASAP_1_1.CAPABILITIES_CMD, pduOS);
+        CapabilitiesPDU_Impl.sendPDUWithoutCmd(capabilities, pduOS);
+        pduOS.flush();
+    }
+
     @Override
     public ASAP_PDU_1_0 readPDU(InputStream is) throws IOException, ASAPException {
         byte cmd = ASAPSerialization.readByte(is);
@@ -221,7 +272,11 @@ public class ASAP_Modem_Impl implements ASAP_1_0 {
             } else {
                 // we cannot decrypt this message - we are not recipient - but we can keep and redistribute it
                 ASAPCryptoAlgorithms.EncryptedMessagePackage encryptedASAPMessage = cryptoMessage.getEncryptedMessage();
-                if(this.undecryptableMessageHandler != null) {
+                if(encryptedASAPMessage == null) {
+                    // frames are only sent to recipients - sender took this peer for another one
+                    System.out.println(this.getLogStart() + "skipped framed message for another peer: "
+                            + cryptoMessage.getReceiver());
+                } else if(this.undecryptableMessageHandler != null) {
                     System.out.println(this.getLogStart() + "call handler to handle undecryptable message");
                     this.undecryptableMessageHandler.handleUndecryptableMessage(
                             encryptedASAPMessage, cryptoMessage.getReceiver());
@@ -245,24 +300,26 @@ public class ASAP_Modem_Impl implements ASAP_1_0 {
 
         PDU_Impl pdu = null;
 
-        // remove encrypted flag
+        // remove encrypted flags
         cmd = (byte)(cmd & CMD_MASK);
         switch(cmd) {
             case ASAP_1_0.INTEREST_CMD: pdu = new InterestPDU_Impl(flagsInt, encrypted, is); break;
             case ASAP_1_0.ASSIMILATE_CMD: pdu = new AssimilationPDU_Impl(flagsInt, encrypted, is); break;
+            case ASAP_1_1.CAPABILITIES_CMD: pdu = new CapabilitiesPDU_Impl(flagsInt, is); break;
             default: throw new ASAPException("unknown command: " + cmd);
         }
 
         if(verifyCryptoMessage != null) {
             String sender = pdu.getSender();
-            if(sender != null) {
+            try {
+                // header is read - data are fed into signature while taken from stream
+                if(sender != null) verifyCryptoMessage.initVerification(sender);
+                pdu.takeSignedData();
                 // read signature and try to verify
-                try {
-                    pdu.setVerified(verifyCryptoMessage.verify(sender, realIS));
-                }
-                catch(ASAPException e) {
-                    System.out.println(this.getLogStart() + " cannot verify message");
-                }
+                if(sender != null) pdu.setVerified(verifyCryptoMessage.verify(realIS));
+            }
+            catch(ASAPException e) {
+                System.out.println(this.getLogStart() + " cannot verify message");
             }
         }
 
@@ -82,6 +82,18 @@ public interface ASAP_PDU_1_0 {
      */
     public boolean encounterList();
 
+    /**
+     * @return protocol version this PDU was encoded with
+     * @see ASAP_1_1
+     */
+    byte getProtocolVersion();
+
+    /**
+     * @return highest protocol version sender of this PDU reads
+     * @see ASAP_1_1
+     */
+    byte getAcceptedProtocolVersion();
+
     /**
      * Make sure that their are no more data on the real input stream. This pdu object will no longer be used.
      */
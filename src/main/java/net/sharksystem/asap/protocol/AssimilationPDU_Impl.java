@@ -5,22 +5,27 @@ import net.sharksystem.asap.ASAPHop;
 import net.sharksystem.asap.utils.ASAPSerialization;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 
 class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0 {
     private final long dataLength;
-    private final InputStream is;
+    private InputStream is;
     private String recipientPeer;
     public static final String OFFSET_DELIMITER = ",";
-    private List<Integer> offsets = new ArrayList<>();
+    private List<Long> offsets = new ArrayList<>();
 
     private byte[] data = null;
     private boolean dataNoLongerOnStream = false;
     private List<ASAPHop> asapHopList;
+    private final boolean compressed;
+    private final long transmittedLength;
 
-    // PDU: CMD | FLAGS | PEER | RECIPIENT | FORMAT | CHANNEL | ERA | OFFSETS | LENGTH | DATA
+    // PDU: CMD | FLAGS | PEER | RECIPIENT | FORMAT | CHANNEL | ERA | OFFSETS | HOPS | LENGTH | DATA
+    // compressed (1.1): ... | HOPS | LENGTH | CODEC | COMPRESSED LENGTH | COMPRESSED DATA
 
     public AssimilationPDU_Impl(int flagsInt, boolean encrypted, InputStream is) throws IOException, ASAPException {
         super(ASAP_1_0.ASSIMILATE_CMD, encrypted);
@@ -35,18 +40,217 @@ class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0
         if(this.offsetsSet()) { this.readOffsets(is); }
         this.readASAPHops(is);
 
-        this.dataLength = ASAPSerialization.readLongParameter(is);
+        this.dataLength = this.compactEncoding() ?
+                ASAPSerialization.readVarLongParameter(is) : ASAPSerialization.readLongParameter(is);
 
-        this.is = is;
+        this.compressed = this.compactEncoding() && flagSet(COMPRESSED_BIT_POSITION, flagsInt);
+        if(this.compressed) {
+            String codecName = ASAPSerialization.readCharSequenceParameter(is);
+            ASAPCompressionCodec codec = ASAPCompression.getCodec(codecName);
+            if(codec == null) throw new ASAPException("unknown compression codec: " + codecName);
 
-        if(this.signed()) {
-            // read data from stream, verification needs to reach signature
+            this.transmittedLength = ASAPSerialization.readVarLongParameter(is);
+            if(this.transmittedLength > ASAPCompression.getMaxReceivedSize()) {
+                throw new ASAPException("compressed data exceed limit: " + this.transmittedLength);
+            }
+            // decompression bomb?
+            if(this.dataLength > this.transmittedLength * ASAPCompression.getMaxExpansion()) {
+                throw new ASAPException("compressed data would expand beyond limit: "
+                        + this.transmittedLength + " -> " + this.dataLength);
+            }
+
+            // decompressed while read - never beyond compressed data of this pdu
+            this.is = new DecompressingInputStream(codec, is, this.transmittedLength, this.dataLength);
+        } else {
+            this.transmittedLength = this.dataLength;
+            this.is = is;
+        }
+    }
+
+    /**
+     * Compressed data are read as far as they are needed to deliver decompressed data. Compressed data left
+     * (e.g. trailer of a codec) are skipped when last decompressed byte is delivered - stream is at next pdu.
+     * Codec stream is closed then, or on error - its native resources (e.g. an Inflater) are released at once.
+     */
+    private static class DecompressingInputStream extends InputStream {
+        private final InputStream compressed;
+        private final InputStream decompressed;
+        private long compressedRemaining;
+        private long remaining;
+
+        DecompressingInputStream(ASAPCompressionCodec codec, InputStream is, long compressedLength, long length)
+                throws IOException {
+            this.compressed = is;
+            this.compressedRemaining = compressedLength;
+            this.remaining = length;
+            this.decompressed = codec.decompress(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return readCompressed(b, off, len);
+                }
+            });
+        }
+
+        private int readCompressed(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            if(this.compressedRemaining <= 0) return -1;
+
+            int read = this.compressed.read(b, off, (int) Math.min(len, this.compressedRemaining));
+            if(read < 0) throw new EOFException("compressed data ended - missing bytes: " + this.compressedRemaining);
+            this.compressedRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            if(this.remaining <= 0) return -1;
+
+            try {
+                int read = this.decompressed.read(b, off, (int) Math.min(len, this.remaining));
+                if(read < 0) throw new EOFException("decompressed data ended - missing bytes: " + this.remaining);
+                this.remaining -= read;
+
+                if(this.remaining <= 0) {
+                    // skip what decompression did not need
+                    byte[] skipBuffer = new byte[1024];
+                    int skipped;
+                    do {
+                        skipped = this.readCompressed(skipBuffer, 0, skipBuffer.length);
+                    } while(skipped > 0);
+                    this.close();
+                }
+                return read;
+            }
+            catch(IOException e) {
+                this.remaining = 0;
+                this.close();
+                throw e;
+            }
+        }
+
+        /**
+         * closes codec stream only - connection stream stays open
+         */
+        @Override
+        public void close() throws IOException {
+            this.decompressed.close();
+        }
+    }
+
+    @Override
+    void takeSignedData() throws IOException {
+        // read data from stream, verification needs to reach signature
+        if(this.dataLength <= ASAP_Modem_Impl.getMaxSignedDataInMemory()) {
             this.getData();
+            return;
+        }
+
+        // heap stays small - data wait in a file until verified
+        File dataFile = File.createTempFile("asapSignedData", null);
+        try {
+            OutputStream fos = new FileOutputStream(dataFile);
+            try {
+                ASAPSerialization.copy(this.is, fos, this.dataLength);
+            } finally {
+                fos.close();
+            }
+            this.is = new SignedDataFileInputStream(dataFile, this.dataLength);
+        } finally {
+            // still readable through open stream - fails on some file systems, file is deleted when closed
+            dataFile.delete();
+        }
+    }
+
+    /**
+     * Reads data from a temporary file - file is closed (and deleted if still there) as soon as all data
+     * are read.
+     */
+    private static class SignedDataFileInputStream extends FilterInputStream {
+        private final File file;
+        private long remaining;
+        private boolean closed = false;
+
+        SignedDataFileInputStream(File file, long length) throws FileNotFoundException {
+            super(new FileInputStream(file));
+            this.file = file;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            if(this.remaining <= 0) {
+                this.close();
+                return -1;
+            }
+
+            int read = this.in.read(b, off, (int) Math.min(len, this.remaining));
+            if(read < 0) this.remaining = 0;
+            else this.remaining -= read;
+
+            if(this.remaining <= 0) this.close();
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if(this.remaining <= 0) {
+                this.close();
+                return 0;
+            }
+
+            long skipped = this.in.skip(Math.min(n, this.remaining));
+            this.remaining -= skipped;
+            if(this.remaining <= 0) this.close();
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.closed ? 0 : (int) Math.min(this.in.available(), this.remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(this.closed) return;
+            this.closed = true;
+            this.in.close();
+            if(this.file.exists() && !this.file.delete()) this.file.deleteOnExit();
         }
     }
 
     private void readOffsets(InputStream is) throws IOException, ASAPException {
-        this.offsets = string2list(ASAPSerialization.readCharSequenceParameter(is));
+        if(this.compactEncoding()) {
+            // number of offsets and differences to previous offset
+            int number = ASAPSerialization.readVarIntParameter(is);
+            this.offsets = new ArrayList<>();
+            long offset = 0;
+            for(int i = 0; i < number; i++) {
+                offset += ASAPSerialization.readZigZagLongParameter(is);
+                this.offsets.add(offset);
+            }
+        } else {
+            this.offsets = string2list(ASAPSerialization.readCharSequenceParameter(is));
+        }
     }
 
     private void readASAPHops(InputStream is) throws IOException, ASAPException {
@@ -59,7 +263,9 @@ class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0
 
     static void sendPDUWithoutCmd(CharSequence peer, CharSequence recipient, CharSequence format, CharSequence channel,
                                   int era, long length, List<Long> offsets, List<ASAPHop> asapHops, InputStream is, OutputStream os,
-                                  boolean signed)
+                                  boolean signed, byte protocolVersion,
+                                  ASAPCompressionCodec codec, ASAPConnectionStatistics statistics,
+                                  WritableByteChannel transport)
             throws IOException, ASAPException {
 
         // first: check protocol errors
@@ -75,6 +281,19 @@ class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0
         flags = PDU_Impl.setFlag(era, flags, ERA_BIT_POSITION);
         flags = PDU_Impl.setFlag(offsets, flags, OFFSETS_BIT_POSITION);
         flags = PDU_Impl.setFlag(signed, flags, SIGNED_TO_BIT_POSITION);
+        flags = PDU_Impl.setProtocolVersionFlags(protocolVersion, flags);
+
+        // compress if agreed and worth it
+        byte[] data = null;
+        byte[] compressedData = null;
+        // payload is compressed in memory - max size is an int, larger payloads are sent as they are
+        if(codec != null && protocolVersion >= ASAP_1_1.VERSION_1_1
+                && length >= ASAPCompression.getMinSize() && length <= ASAPCompression.getMaxSize()) {
+            data = new byte[(int) length];
+            ASAPSerialization.readFully(is, data, 0, data.length);
+            compressedData = ASAPCompression.compress(codec, data);
+        }
+        flags = PDU_Impl.setFlag(compressedData != null, flags, COMPRESSED_BIT_POSITION);
 
         PDU_Impl.sendFlags(flags, os);
 
@@ -82,15 +301,67 @@ class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0
         ASAPSerialization.writeCharSequenceParameter(recipient, os); // opt
         ASAPSerialization.writeCharSequenceParameter(format, os); // mand
         ASAPSerialization.writeCharSequenceParameter(channel, os); // opt
-        ASAPSerialization.writeNonNegativeIntegerParameter(era, os); // opt
-        ASAPSerialization.writeCharSequenceParameter(list2string(offsets), os); // opt
-        ASAPSerialization.writeASAPHopList(asapHops, os); // mand - can be null (length == 0)
-        ASAPSerialization.writeLongParameter(length, os); // mand
+        PDU_Impl.writeEraParameter(era, protocolVersion, os); // opt
+        if(protocolVersion >= ASAP_1_1.VERSION_1_1) {
+            if(offsets != null && !offsets.isEmpty()) {  // opt
+                ASAPSerialization.writeVarIntParameter(offsets.size(), os);
+                long previous = 0;
+                for(long offset : offsets) {
+                    ASAPSerialization.writeZigZagLongParameter(offset - previous, os);
+                    previous = offset;
+                }
+            }
+            ASAPSerialization.writeASAPHopList(asapHops, os); // mand - can be null (length == 0)
+            ASAPSerialization.writeVarLongParameter(length, os); // mand
+            if(compressedData != null) {
+                ASAPSerialization.writeCharSequenceParameter(codec.getName(), os);
+                ASAPSerialization.writeVarLongParameter(compressedData.length, os);
+            }
+        } else {
+            ASAPSerialization.writeCharSequenceParameter(list2string(offsets), os); // opt
+            ASAPSerialization.writeASAPHopList(asapHops, os); // mand - can be null (length == 0)
+            ASAPSerialization.writeLongParameter(length, os); // mand
+        }
 
         // stream data
-        while(length-- > 0) {
-            os.write(is.read());
+        if(compressedData != null) os.write(compressedData);
+        else if(data != null) os.write(data);
+        else if(transport != null && is instanceof FileInputStream) {
+            // file content goes straight into transport (sendfile) - header must be there before
+            os.flush();
+            long left = transferFile(((FileInputStream) is).getChannel(), transport, length);
+            if(statistics != null && left < length) statistics.zeroCopySent();
+            // file position moved with transfer - stream goes on from there
+            if(left > 0) ASAPSerialization.copy(is, os, left);
+        }
+        else ASAPSerialization.copy(is, os, length);
+
+        if(statistics != null) {
+            statistics.payloadSent(length, compressedData != null ? compressedData.length : length,
+                    compressedData != null, data != null && compressedData == null);
+        }
+    }
+
+    /**
+     * @return bytes not transferred - transport took nothing, e.g. a non-blocking channel that is not ready.
+     * Those bytes are to be copied.
+     */
+    private static long transferFile(FileChannel file, WritableByteChannel transport, long length)
+            throws IOException {
+        long position = file.position();
+        long end = position + length;
+        while(position < end) {
+            long transferred = file.transferTo(position, end - position, transport);
+            if(transferred <= 0) {
+                if(position >= file.size()) {
+                    throw new EOFException("file ended - missing bytes: " + (end - position));
+                }
+                break;
+            }
+            position += transferred;
         }
+        file.position(position);
+        return end - position;
     }
 
     static String list2string(List<Long> list) {
@@ -111,14 +382,14 @@ class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0
         return  sb.toString();
     }
 
-    private List<Integer> string2list(String s) throws ASAPException {
-        List<Integer> l = new ArrayList<>();
+    private List<Long> string2list(String s) throws ASAPException {
+        List<Long> l = new ArrayList<>();
 
         StringTokenizer st = new StringTokenizer(s, OFFSET_DELIMITER);
 
         try {
             while (st.hasMoreTokens()) {
-                l.add(Integer.parseInt(st.nextToken()));
+                l.add(Long.parseLong(st.nextToken()));
             }
         }
         catch(RuntimeException re) {
@@ -135,8 +406,24 @@ class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0
     @Override
     public long getLength() { return this.dataLength; }
 
+    @Override
+    public boolean compressed() { return this.compressed; }
+
+    @Override
+    public long getTransmittedLength() { return this.transmittedLength; }
+
     @Override
     public List<Integer> getMessageOffsets() {
+        List<Integer> intOffsets = new ArrayList<>();
+        for(long offset : this.offsets) {
+            if(offset > Integer.MAX_VALUE) throw new IllegalStateException("offset exceeds 32 bit: " + offset);
+            intOffsets.add((int) offset);
+        }
+        return intOffsets;
+    }
+
+    @Override
+    public List<Long> getLongMessageOffsets() {
         return this.offsets;
     }
 
@@ -204,8 +491,6 @@ class AssimilationPDU_Impl extends PDU_Impl implements ASAP_AssimilationPDU_1_0
             useIS = new ByteArrayInputStream(this.data);
         }
 
-        for (int i = 0; i < this.dataLength; i++) {
-            os.write(useIS.read());
-        }
+        ASAPSerialization.copy(useIS, os, this.dataLength);
     }
 }
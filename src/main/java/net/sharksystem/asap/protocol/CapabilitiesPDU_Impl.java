@@ -0,0 +1,47 @@
+package net.sharksystem.asap.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+class CapabilitiesPDU_Impl extends PDU_Impl implements ASAP_CapabilitiesPDU_1_1 {
+    private final Set<String> capabilities = new HashSet<>();
+
+    // PDU: CMD | FLAGS | NUMBER | CAPABILITIES
+
+    CapabilitiesPDU_Impl(int flagsInt, InputStream is) throws IOException, ASAPException {
+        super(ASAP_1_1.CAPABILITIES_CMD, false);
+
+        evaluateFlags(flagsInt);
+
+        int number = ASAPSerialization.readVarIntParameter(is);
+        for(int i = 0; i < number; i++) {
+            this.capabilities.add(ASAPSerialization.readCharSequenceParameter(is));
+        }
+    }
+
+    static void sendPDUWithoutCmd(Set<String> capabilities, OutputStream os) throws IOException {
+        // always 1.1 - it is sent to 1.1 peers only
+        PDU_Impl.sendFlags(PDU_Impl.setProtocolVersionFlags(ASAP_1_1.VERSION_1_1, 0), os);
+
+        ASAPSerialization.writeVarIntParameter(capabilities.size(), os);
+        for(String capability : capabilities) {
+            ASAPSerialization.writeCharSequenceParameter(capability, os);
+        }
+    }
+
+    @Override
+    public Set<String> getCapabilities() {
+        return this.capabilities;
+    }
+
+    @Override
+    public void takeDataFromStream() {
+        // there is nothing to do here - all data are already read when object was created
+    }
+}
@@ -0,0 +1,33 @@
+package net.sharksystem.asap.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+class DeflateCodec implements ASAPCompressionCodec {
+    @Override
+    public String getName() {
+        return ASAPCompression.DEFLATE;
+    }
+
+    @Override
+    public void compress(byte[] data, int offset, int length, OutputStream os) throws IOException {
+        Deflater deflater = new Deflater(ASAPCompression.getDeflateLevel());
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater);
+            dos.write(data, offset, length);
+            dos.finish();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public InputStream decompress(InputStream is) {
+        return new InflaterInputStream(is);
+    }
+}
@@ -36,16 +36,17 @@ class InterestPDU_Impl extends PDU_Impl implements ASAP_Interest_PDU_1_0 {
     }
 
     private void readToEra(InputStream is) throws IOException, ASAPException {
-        this.eraTo = ASAPSerialization.readIntegerParameter(is);
+        this.eraTo = this.readEraParameter(is);
     }
 
     private void readFromEra(InputStream is) throws IOException, ASAPException {
-        this.eraFrom = ASAPSerialization.readIntegerParameter(is);
+        this.eraFrom = this.readEraParameter(is);
     }
 
     static void sendPDUWithoutCmd(CharSequence sender, CharSequence recipient, CharSequence format,
                                   CharSequence channel, int eraFrom, int eraTo, OutputStream os,
-                                  boolean signed, boolean routingAllowed, Map<String, Integer> encounterMap)
+                                  boolean signed, boolean routingAllowed, Map<String, Integer> encounterMap,
+                                  byte protocolVersion)
             throws IOException, ASAPException {
 
         if(format == null || format.length() < 1) format = ASAP_1_0.ANY_FORMAT;
@@ -70,6 +71,7 @@ class InterestPDU_Impl extends PDU_Impl implements ASAP_Interest_PDU_1_0 {
 
         flags = PDU_Impl.setFlag(encounterMap != null && !encounterMap.isEmpty(),
                 flags, ENCOUNTER_MAP_BIT_POSITION);
+        flags = PDU_Impl.setProtocolVersionFlags(protocolVersion, flags);
 
         // send flags
         PDU_Impl.sendFlags(flags, os);
@@ -79,18 +81,22 @@ class InterestPDU_Impl extends PDU_Impl implements ASAP_Interest_PDU_1_0 {
         ASAPSerialization.writeCharSequenceParameter(recipient, os); // opt
         ASAPSerialization.writeCharSequenceParameter(format, os); // mand
         ASAPSerialization.writeCharSequenceParameter(channel, os); // opt
-        ASAPSerialization.writeNonNegativeIntegerParameter(eraFrom, os); // opt
-        ASAPSerialization.writeNonNegativeIntegerParameter(eraTo, os); // opt
+        PDU_Impl.writeEraParameter(eraFrom, protocolVersion, os); // opt
+        PDU_Impl.writeEraParameter(eraTo, protocolVersion, os); // opt
 
         if(encounterMap != null && !encounterMap.isEmpty()) {
             // serialize encounter map
 
+            boolean compact = protocolVersion >= ASAP_1_1.VERSION_1_1;
+
             // write size
-            ASAPSerialization.writeNonNegativeIntegerParameter(encounterMap.size(), os);
+            if(compact) ASAPSerialization.writeVarIntParameter(encounterMap.size(), os);
+            else ASAPSerialization.writeNonNegativeIntegerParameter(encounterMap.size(), os);
 
             for(String peerID : encounterMap.keySet()) {
                 ASAPSerialization.writeCharSequenceParameter(peerID, os);
-                ASAPSerialization.writeNonNegativeIntegerParameter(encounterMap.get(peerID), os);
+                if(compact) ASAPSerialization.writeZigZagLongParameter(encounterMap.get(peerID), os);
+                else ASAPSerialization.writeNonNegativeIntegerParameter(encounterMap.get(peerID), os);
             }
         }
     }
@@ -99,10 +105,12 @@ class InterestPDU_Impl extends PDU_Impl implements ASAP_Interest_PDU_1_0 {
         Map<String, Integer> map = new HashMap<>();
 
         // read length
-        int len = ASAPSerialization.readIntegerParameter(is);
+        boolean compact = this.compactEncoding();
+        int len = compact ? ASAPSerialization.readVarIntParameter(is) : ASAPSerialization.readIntegerParameter(is);
         for(int i = 0; i < len; i++) {
             String peerID = ASAPSerialization.readCharSequenceParameter(is);
-            int era = ASAPSerialization.readIntegerParameter(is);
+            int era = compact ? (int) ASAPSerialization.readZigZagLongParameter(is)
+                    : ASAPSerialization.readIntegerParameter(is);
             map.put(peerID, era);
         }
         return map;
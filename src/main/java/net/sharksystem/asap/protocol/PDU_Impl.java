@@ -21,6 +21,9 @@ abstract class PDU_Impl implements ASAP_PDU_1_0, ASAP_PDU_Management {
     public static final int SIGNED_TO_BIT_POSITION = 7;
     public static final int ROUTING_BIT_POSITION = 8;
     public static final int ENCOUNTER_MAP_BIT_POSITION = 9;
+    public static final int ASAP_1_1_ENCODING_BIT_POSITION = 10;
+    public static final int READS_ASAP_1_1_BIT_POSITION = 11;
+    public static final int COMPRESSED_BIT_POSITION = 12;
 
     private boolean senderSet = false;
     private boolean recipientSet = false;
@@ -31,6 +34,8 @@ abstract class PDU_Impl implements ASAP_PDU_1_0, ASAP_PDU_Management {
     private boolean offsetsSet = false;
     private boolean routing = false;
     private boolean encounterList = false;
+    private byte protocolVersion = ASAP_1_1.VERSION_1_0;
+    private byte acceptedProtocolVersion = ASAP_1_1.VERSION_1_0;
 
     private final byte cmd;
     private final boolean encrypted;
@@ -54,11 +59,20 @@ abstract class PDU_Impl implements ASAP_PDU_1_0, ASAP_PDU_Management {
     public boolean verified() { return this.verified; };
     public boolean routing() { return this.routing; };
     public boolean encounterList() { return this.encounterList; };
+    public byte getProtocolVersion() { return this.protocolVersion; }
+    public byte getAcceptedProtocolVersion() { return this.acceptedProtocolVersion; }
+
+    protected boolean compactEncoding() { return this.protocolVersion >= ASAP_1_1.VERSION_1_1; }
 
     public void setVerified(boolean verified) {
         this.verified = verified;
     }
 
+    /**
+     * Signature follows data. Take signed data from stream that are not yet read.
+     */
+    void takeSignedData() throws IOException { }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
 
@@ -66,6 +80,7 @@ abstract class PDU_Impl implements ASAP_PDU_1_0, ASAP_PDU_Management {
         switch(cmd) {
             case ASAP_1_0.INTEREST_CMD: sb.append("I"); break;
             case ASAP_1_0.ASSIMILATE_CMD: sb.append("A"); break;
+            case ASAP_1_1.CAPABILITIES_CMD: sb.append("C"); break;
         }
         sb.append(" | sender: "); if(senderSet) sb.append(this.sender); else sb.append("not set");
         sb.append(" | format: "); sb.append(format);
@@ -76,6 +91,7 @@ abstract class PDU_Impl implements ASAP_PDU_1_0, ASAP_PDU_Management {
         sb.append(" | encrypted: "); this.appendTrueFalse(this.encrypted, sb);
         sb.append(" | routing: "); this.appendTrueFalse(this.routing, sb);
         sb.append(" | encounterList: "); this.appendTrueFalse(this.encounterList, sb);
+        sb.append(" | version: "); sb.append(this.protocolVersion == ASAP_1_1.VERSION_1_1 ? "1.1" : "1.0");
 
         return sb.toString();
     }
@@ -139,6 +155,10 @@ abstract class PDU_Impl implements ASAP_PDU_1_0, ASAP_PDU_Management {
         this.signed = flagSet(SIGNED_TO_BIT_POSITION, flag);
         this.routing = flagSet(ROUTING_BIT_POSITION, flag);
         this.encounterList = flagSet(ENCOUNTER_MAP_BIT_POSITION, flag);
+        this.protocolVersion = flagSet(ASAP_1_1_ENCODING_BIT_POSITION, flag) ?
+                ASAP_1_1.VERSION_1_1 : ASAP_1_1.VERSION_1_0;
+        this.acceptedProtocolVersion = flagSet(READS_ASAP_1_1_BIT_POSITION, flag) ?
+                ASAP_1_1.VERSION_1_1 : ASAP_1_1.VERSION_1_0;
     }
 
     static boolean flagSet(int bitPosition, int flags) {
@@ -201,7 +221,26 @@ abstract class PDU_Impl implements ASAP_PDU_1_0, ASAP_PDU_Management {
     }
 
     protected void readEra(InputStream is) throws IOException, ASAPException {
-        this.era = ASAPSerialization.readIntegerParameter(is);
+        this.era = this.readEraParameter(is);
+    }
+
+    protected int readEraParameter(InputStream is) throws IOException, ASAPException {
+        if(this.compactEncoding()) return ASAPSerialization.readVarIntParameter(is);
+        return ASAPSerialization.readIntegerParameter(is);
+    }
+
+    static void writeEraParameter(int era, byte protocolVersion, OutputStream os) throws IOException {
+        if(era < 0) return; // not set
+        if(protocolVersion >= ASAP_1_1.VERSION_1_1) ASAPSerialization.writeVarIntParameter(era, os);
+        else ASAPSerialization.writeNonNegativeIntegerParameter(era, os);
+    }
+
+    /**
+     * Set flags that tell encoding of this PDU and that this implementation reads ASAP 1.1
+     */
+    static int setProtocolVersionFlags(byte protocolVersion, int flags) {
+        flags = setFlag(protocolVersion >= ASAP_1_1.VERSION_1_1, flags, ASAP_1_1_ENCODING_BIT_POSITION);
+        return setFlag(ASAP_1_1.HIGHEST_VERSION >= ASAP_1_1.VERSION_1_1, flags, READS_ASAP_1_1_BIT_POSITION);
     }
 
     static void sendCommand(byte cmd, OutputStream os) throws IOException {
@@ -17,6 +17,51 @@ public class ASAPSerialization {
     public static final short BLANK_LEFT_SHORT = 0x00FF;
     public static final short BLANK_RIGHT_SHORT = (short) 0xFF00;
 
+    /** data are copied in blocks of that size at most */
+    public static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Read until buffer is filled - a single read can return less bytes than requested.
+     * @throws EOFException stream ended before length bytes were read
+     */
+    public static void readFully(InputStream is, byte[] buffer, int offset, int length) throws IOException {
+        while(length > 0) {
+            int read = is.read(buffer, offset, length);
+            if(read < 0) throw new EOFException("stream ended - missing bytes: " + length);
+            offset += read;
+            length -= read;
+        }
+    }
+
+    /**
+     * Copy length bytes in blocks
+     * @throws EOFException stream ended before length bytes were copied
+     */
+    public static void copy(InputStream is, OutputStream os, long length) throws IOException {
+        if(length <= 0) return;
+        byte[] buffer = new byte[(int) Math.min(length, COPY_BUFFER_SIZE)];
+        while(length > 0) {
+            int read = is.read(buffer, 0, (int) Math.min(length, buffer.length));
+            if(read < 0) throw new EOFException("stream ended - missing bytes: " + length);
+            os.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * read bytes of a number parameter
+     */
+    private static byte[] readParameterBytes(InputStream is, int length) throws IOException, ASAPException {
+        byte[] bytes = new byte[length];
+        try {
+            readFully(is, bytes, 0, length);
+        }
+        catch(EOFException e) {
+            throw new ASAPException("read -1: no more data in stream");
+        }
+        return bytes;
+    }
+
     public static void writeByteArray(byte[] bytes2Write, OutputStream os) throws IOException {
         if(bytes2Write == null) {
             writeNonNegativeIntegerParameter(0, os);
@@ -33,7 +78,7 @@ public class ASAPSerialization {
 
         byte[] messageBytes = new byte[len];
         // read encrypted bytes from stream
-        is.read(messageBytes);
+        readFully(is, messageBytes, 0, len);
 
         return messageBytes;
     }
@@ -93,31 +138,23 @@ public class ASAPSerialization {
     }
 
     public static void writeShortParameter(short shortValue, OutputStream os) throws IOException {
-        // short = 16 bit = 2 bytes
-        short left = (short) (shortValue & BLANK_RIGHT_SHORT);
-        left = (short) (left >> 8);
-        short right = (short) (shortValue & BLANK_LEFT_SHORT);
-        writeByteParameter( (byte)left, os);
-        // cut left part
-        writeByteParameter( (byte)right, os);
+        // short = 16 bit = 2 bytes - most significant first, written at once
+        os.write(new byte[] { (byte) (shortValue >> 8), (byte) shortValue });
     }
 
     public static void writeNonNegativeIntegerParameter(int parameter, OutputStream os) throws IOException {
         if(parameter < 0) return; // non negative!
 
-        // Integer == 32 bit == 4 Byte
-        int left = parameter >> 16;
-        writeShortParameter((short) left, os);
-        writeShortParameter((short) parameter, os);
+        writeIntegerParameter(parameter, os);
     }
 
     public static void writeIntegerParameter(int intValue, OutputStream os) throws IOException {
-        // Integer == 32 bit == 4 Byte
-        int left = intValue & BLANK_RIGHT_INTEGER;
-        left = left >> 16;
-        int right = intValue & BLANK_LEFT_INTEGER;
-        writeShortParameter((short) left, os);
-        writeShortParameter((short) right, os);
+        // Integer == 32 bit == 4 Byte - most significant first, written at once
+        byte[] bytes = new byte[4];
+        for(int i = 0; i < 4; i++) {
+            bytes[i] = getByteFromInt(intValue, 3 - i);
+        }
+        os.write(bytes);
     }
 
     public static void writeNonNegativeLongParameter(long longValue, OutputStream os) throws IOException {
@@ -126,12 +163,12 @@ public class ASAPSerialization {
     }
 
     public static void writeLongParameter(long longValue, OutputStream os) throws IOException {
-        // Long = 64 bit = 2 Integer
-        long left = longValue & BLANK_RIGHT_LONG;
-        left = left >> 32;
-        long right = longValue & BLANK_LEFT_LONG;
-        writeIntegerParameter((int)left, os);
-        writeIntegerParameter((int)right, os);
+        // Long = 64 bit = 8 Byte - most significant first, written at once
+        byte[] bytes = new byte[8];
+        for(int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (longValue >> ((7 - i) * 8));
+        }
+        os.write(bytes);
     }
 
     public static void printBits(long l, int bits) {
@@ -205,6 +242,54 @@ public class ASAPSerialization {
         return readByte(is);
     }
 
+    /**
+     * Variable length encoding (ASAP 1.1): seven bit per byte, least significant group first. Highest bit
+     * is set if more bytes follow. Small numbers take one byte, 64 bit values ten at most.
+     */
+    public static void writeVarLongParameter(long value, OutputStream os) throws IOException {
+        byte[] bytes = new byte[10];
+        int i = 0;
+        while((value & ~0x7FL) != 0) {
+            bytes[i++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[i++] = (byte) value;
+        os.write(bytes, 0, i);
+    }
+
+    public static long readVarLongParameter(InputStream is) throws IOException, ASAPException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte(is);
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new ASAPException("malformed variable length number - more than 64 bit");
+    }
+
+    public static void writeVarIntParameter(int value, OutputStream os) throws IOException {
+        writeVarLongParameter(value & 0xFFFFFFFFL, os);
+    }
+
+    public static int readVarIntParameter(InputStream is) throws IOException, ASAPException {
+        long value = readVarLongParameter(is);
+        if(value > 0xFFFFFFFFL) throw new ASAPException("variable length number exceeds 32 bit: " + value);
+        return (int) value;
+    }
+
+    /**
+     * Zig-zag encoding maps small negative numbers to small positive numbers (0, -1, 1, -2 .. to 0, 1, 2, 3 ..)
+     * which are written with variable length encoding.
+     */
+    public static void writeZigZagLongParameter(long value, OutputStream os) throws IOException {
+        writeVarLongParameter((value << 1) ^ (value >> 63), os);
+    }
+
+    public static long readZigZagLongParameter(InputStream is) throws IOException, ASAPException {
+        long value = readVarLongParameter(is);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
     public static byte readByte(InputStream is) throws IOException, ASAPException {
         try {
             int value = is.read();
@@ -222,48 +307,26 @@ public class ASAPSerialization {
     }
 
     public static short readShortParameter(InputStream is) throws IOException, ASAPException {
-        int value = readByteParameter(is);
-        value = value << 8;
-        // be sure
-        value = value & BLANK_RIGHT_SHORT;
-        int right = readByteParameter(is);
-        // be sure
-        right = right & BLANK_LEFT_SHORT;
-        value += right;
-
-        return (short) value;
+        byte[] bytes = readParameterBytes(is, 2);
+        return (short) (((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF));
     }
 
     public static int readIntegerParameter(InputStream is) throws IOException, ASAPException {
+        byte[] bytes = readParameterBytes(is, 4);
         int value = 0;
-        value = readShortParameter(is);
-        value = value << 16;
-
-        value = value & BLANK_RIGHT_INTEGER;
-
-        int right = readShortParameter(is);
-        right = right & BLANK_LEFT_INTEGER;
-
-        value += right;
+        for(int i = 0; i < 4; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
 
         return value;
     }
 
     public static long readLongParameter(InputStream is) throws IOException, ASAPException {
-        long value = readIntegerParameter(is);
-        value = value << 32;
-        value = value & BLANK_RIGHT_LONG;
-
-        long right = readIntegerParameter(is);
-        right = right & BLANK_LEFT_LONG;
-
-        value += right;
-
-        /*
-        System.out.println("readLongParameter");
-        printBits(value);
-        System.out.print("\n");
-         */
+        byte[] bytes = readParameterBytes(is, 8);
+        long value = 0;
+        for(int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
 
         return value;
     }
@@ -288,7 +351,7 @@ public class ASAPSerialization {
         }
  */
 
-        is.read(parameterBytes);
+        readFully(is, parameterBytes, 0, length);
 
         /*
         String readBytesString = printByteArrayToString(parameterBytes);
@@ -5,8 +5,8 @@ import net.sharksystem.asap.ASAP;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.TreeSet;
 
 public class Utils {
     public static String url2FileName(String url) {
@@ -33,10 +33,10 @@ public class Utils {
     /**
      *
      * @param rootFolder
-     * @return collection of integer values depicting era present in that folder
+     * @return collection of integer values depicting era present in that folder - sorted
      */
     public static Collection<Integer> getErasInFolder(String rootFolder) {
-        Collection<Integer> eras = new HashSet<>();
+        Collection<Integer> eras = new TreeSet<>();
         File dir = new File(rootFolder);
         String[] dirEntries = dir.list();
         if (dirEntries != null) {
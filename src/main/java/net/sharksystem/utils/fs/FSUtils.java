@@ -3,6 +3,7 @@ package net.sharksystem.utils.fs;
 import net.sharksystem.utils.Log;
 
 import java.io.File;
+import java.io.IOException;
 
 public class FSUtils {
     ////////////////////////////////////////////////////////////////////////////////////////
@@ -41,4 +42,52 @@ public class FSUtils {
             // nobody wants to know
         }
     }
+
+    /**
+     * @return canonical path - a folder reached by different paths (relative, symlinks, ..) gets the same
+     * path. Absolute path if canonical path cannot be resolved.
+     */
+    public static String getCanonicalPath(String path) {
+        File file = new File(path);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /** previous content of a file while it is replaced - see replaceFile */
+    public static final String BACKUP_EXTENSION = ".bak";
+
+    /**
+     * Replace target by tmp file. Tmp file must be in same folder. Readers always find content - either old
+     * or new one - if they take the file from getReadableFile: Where rename cannot overwrite (e.g. Windows),
+     * target is moved to a backup file first which is removed when new content is in place.
+     */
+    public static void replaceFile(File tmpFile, File target) throws IOException {
+        if(tmpFile.renameTo(target)) return;
+
+        // rename cannot overwrite on this file system - keep old content until new one is in place
+        File backup = new File(target.getPath() + BACKUP_EXTENSION);
+        backup.delete();
+        if(target.exists() && !target.renameTo(backup)) {
+            throw new IOException("cannot move " + target + " to " + backup);
+        }
+
+        if(!tmpFile.renameTo(target)) {
+            backup.renameTo(target);
+            throw new IOException("cannot replace " + target + " by " + tmpFile);
+        }
+        backup.delete();
+    }
+
+    /**
+     * @return file to read content of a file that is replaced by replaceFile - backup if target is
+     * missing while it is replaced. Target if there is neither.
+     */
+    public static File getReadableFile(File target) {
+        if(target.exists()) return target;
+        File backup = new File(target.getPath() + BACKUP_EXTENSION);
+        return backup.exists() ? backup : target;
+    }
 }
@@ -0,0 +1,39 @@
+package net.sharksystem.utils.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Input stream on a blocking channel. Reads the channel directly - unlike streams from
+ * {@link java.nio.channels.Channels} it never holds the channel's blocking lock while waiting for data.
+ * A thread can write to (or transfer files into) the same socket channel meanwhile.
+ *
+ * @author thsc
+ */
+public class ChannelInputStream extends InputStream {
+    private final ReadableByteChannel channel;
+
+    public ChannelInputStream(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        // blocking channel: at least one byte or end of stream (-1)
+        return this.channel.read(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,41 @@
+package net.sharksystem.utils.streams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output stream on a blocking channel. The channel is exposed - data can be transferred into it without
+ * passing this stream, e.g. from a file with {@link java.nio.channels.FileChannel#transferTo}. Any data written
+ * to this stream are in the channel already - there is no buffer to flush first.
+ *
+ * @author thsc
+ */
+public class ChannelOutputStream extends OutputStream {
+    private final WritableByteChannel channel;
+
+    public ChannelOutputStream(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public WritableByteChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while(buffer.hasRemaining()) this.channel.write(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -106,6 +106,24 @@ public class StreamPairWrapper extends StreamPairListenerManager implements Stre
             return i;
         }
 
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if(this.closed) throw new IOException("wrapped stream closed");
+            int i = this.is.read(buffer, offset, length);
+            if(this.closed) {
+                Log.writeLog(this, "read bytes after already closed " + i);
+                throw new IOException("wrapped stream closed");
+            }
+            // else
+            StreamPairWrapper.this.notifyAction();
+            return i;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.is.available();
+        }
+
         public void close() {
             StreamPairWrapper.this.close();
         }
@@ -126,6 +144,18 @@ public class StreamPairWrapper extends StreamPairListenerManager implements Stre
             StreamPairWrapper.this.notifyAction();
         }
 
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if(this.closed) throw new IOException("wrapped stream closed");
+            this.os.write(buffer, offset, length);
+            StreamPairWrapper.this.notifyAction();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.os.flush();
+        }
+
         public void close() {
             StreamPairWrapper.this.close();
         }
@@ -0,0 +1,207 @@
+package net.sharksystem.utils.tcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection accepted by {@link NIOTCPServer}. Only the selector thread touches the channel. Applications
+ * use blocking streams on top of two buffers: the selector fills the inbound buffer and drains the
+ * outbound buffer. A full inbound buffer stops reading from the socket until the application consumed data.
+ *
+ * @author thsc
+ */
+class NIOConnection {
+    private final NIOTCPServer server;
+    private final SocketChannel channel;
+    private final ByteBuffer inBuffer;
+    private final ByteBuffer outBuffer;
+    private final InputStream is = new NIOInputStream();
+    private final OutputStream os = new NIOOutputStream();
+
+    private SelectionKey key;
+    private boolean eof = false;
+    private boolean closed = false;
+    private IOException failure = null;
+
+    NIOConnection(NIOTCPServer server, SocketChannel channel, int bufferSize) {
+        this.server = server;
+        this.channel = channel;
+        // both buffers are kept in write mode: position == number of bytes in buffer
+        this.inBuffer = ByteBuffer.allocate(bufferSize);
+        this.outBuffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    InputStream getInputStream() { return this.is; }
+
+    OutputStream getOutputStream() { return this.os; }
+
+    SocketChannel getChannel() { return this.channel; }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                  called from selector thread                                  //
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized int readFromChannel() throws IOException {
+        int read = this.channel.read(this.inBuffer);
+        if(read < 0) this.eof = true;
+        if(read != 0) this.notifyAll();
+        this.updateInterest();
+        return read < 0 ? 0 : read;
+    }
+
+    synchronized int writeToChannel() throws IOException {
+        this.outBuffer.flip();
+        int written = this.channel.write(this.outBuffer);
+        this.outBuffer.compact();
+        if(written > 0) this.notifyAll();
+        this.updateInterest();
+        return written;
+    }
+
+    /**
+     * Read if there is space, write if there is data - selector thread only.
+     */
+    synchronized void updateInterest() {
+        if(this.key == null || !this.key.isValid()) return;
+
+        int ops = 0;
+        if(!this.eof && this.inBuffer.hasRemaining()) ops |= SelectionKey.OP_READ;
+        if(this.outBuffer.position() > 0) ops |= SelectionKey.OP_WRITE;
+        this.key.interestOps(ops);
+    }
+
+    synchronized void fail(IOException e) {
+        if(this.failure == null) this.failure = e;
+        this.close();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                      called from anywhere                                      //
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized void close() {
+        if(this.closed) return;
+        this.closed = true;
+        this.notifyAll();
+        try {
+            // cancels selection key as well
+            this.channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        this.server.connectionClosed(this);
+    }
+
+    private void checkOpen() throws IOException {
+        if(this.failure != null) throw new IOException("connection failed: " + this.failure.getLocalizedMessage());
+        if(this.closed) throw new IOException("connection closed");
+    }
+
+    private void waitForSelector() throws IOException {
+        try {
+            this.wait();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while waiting for network");
+        }
+    }
+
+    private class NIOInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            synchronized(NIOConnection.this) {
+                while(inBuffer.position() == 0) {
+                    checkOpen();
+                    if(eof) return -1;
+                    waitForSelector();
+                }
+
+                boolean wasFull = !inBuffer.hasRemaining();
+                inBuffer.flip();
+                int number = Math.min(len, inBuffer.remaining());
+                inBuffer.get(b, off, number);
+                inBuffer.compact();
+
+                // selector stopped reading - there is space again
+                if(wasFull) server.interestChanged(NIOConnection.this);
+                return number;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized(NIOConnection.this) {
+                return inBuffer.position();
+            }
+        }
+
+        @Override
+        public void close() {
+            NIOConnection.this.close();
+        }
+    }
+
+    private class NIOOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized(NIOConnection.this) {
+                while(len > 0) {
+                    checkOpen();
+                    if(!outBuffer.hasRemaining()) {
+                        waitForSelector();
+                        continue;
+                    }
+
+                    boolean wasEmpty = outBuffer.position() == 0;
+                    int number = Math.min(len, outBuffer.remaining());
+                    outBuffer.put(b, off, number);
+                    off += number;
+                    len -= number;
+
+                    if(wasEmpty) server.interestChanged(NIOConnection.this);
+                }
+            }
+        }
+
+        /**
+         * Blocks until all data are handed over to the socket.
+         */
+        @Override
+        public void flush() throws IOException {
+            synchronized(NIOConnection.this) {
+                while(outBuffer.position() > 0) {
+                    checkOpen();
+                    waitForSelector();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.flush();
+            } finally {
+                NIOConnection.this.close();
+            }
+        }
+    }
+}
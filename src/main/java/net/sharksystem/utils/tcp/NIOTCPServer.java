@@ -0,0 +1,287 @@
+package net.sharksystem.utils.tcp;
+
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+import net.sharksystem.utils.streams.StreamPairImpl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP server accepting any number of connections. A single thread runs a selector loop - it accepts,
+ * reads and writes without blocking. Each accepted connection is handed over to the listener as
+ * {@link StreamPair} - listener calls are made in their own threads, e.g. an encounter manager performs a
+ * (blocking) handshake.
+ * <br/><br/>
+ * Unlike {@link SocketFactory} (which accepts exactly one connection) this server keeps its port open until
+ * it is closed.
+ *
+ * @author thsc
+ */
+public class NIOTCPServer implements Runnable {
+    /** bytes buffered per connection and direction */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    public static final boolean DEFAULT_TCP_NODELAY = true;
+    /** 0: keep operating system defaults for socket send / receive buffers */
+    public static final int DEFAULT_SOCKET_BUFFER_SIZE = 0;
+    public static final int DEFAULT_BACKLOG = 1024;
+    /** accepting is paused that long if it fails, e.g. no file descriptors left - open connections go on */
+    static final long ACCEPT_PAUSE_MS = 1000;
+
+    private static int defaultBufferSize = DEFAULT_BUFFER_SIZE;
+    private static boolean defaultTcpNoDelay = DEFAULT_TCP_NODELAY;
+    private static int defaultSocketBufferSize = DEFAULT_SOCKET_BUFFER_SIZE;
+
+    public static void setDefaultBufferSize(int bufferSize) {
+        if(bufferSize < 1) throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+        defaultBufferSize = bufferSize;
+    }
+
+    public static void setDefaultTcpNoDelay(boolean on) {
+        defaultTcpNoDelay = on;
+    }
+
+    public static void setDefaultSocketBufferSize(int size) {
+        defaultSocketBufferSize = size;
+    }
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final SelectionKey acceptKey;
+    // selector thread only
+    private long acceptPausedUntil = 0;
+    private final StreamPairCreatedListener listener;
+    private final int bufferSize;
+    private final boolean tcpNoDelay;
+    private final int socketBufferSize;
+
+    private final Queue<NIOConnection> interestChanged = new ConcurrentLinkedQueue<>();
+    private final Set<NIOConnection> connections = Collections.synchronizedSet(new HashSet<NIOConnection>());
+    private final ExecutorService listenerCalls;
+
+    private volatile boolean running = true;
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public NIOTCPServer(int portNumber, StreamPairCreatedListener listener) throws IOException {
+        this(portNumber, listener, defaultBufferSize, defaultTcpNoDelay, defaultSocketBufferSize);
+    }
+
+    /**
+     * @param portNumber port - 0: any free port, see {@link #getPort()}
+     * @param bufferSize bytes buffered per connection and direction
+     * @param tcpNoDelay disable Nagle's algorithm - small PDUs are sent immediately
+     * @param socketBufferSize socket send / receive buffer size, 0: operating system defaults
+     */
+    public NIOTCPServer(int portNumber, StreamPairCreatedListener listener,
+                        int bufferSize, boolean tcpNoDelay, int socketBufferSize) throws IOException {
+        if(bufferSize < 1) throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+        this.listener = listener;
+        this.bufferSize = bufferSize;
+        this.tcpNoDelay = tcpNoDelay;
+        this.socketBufferSize = socketBufferSize;
+
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        // receive buffer must be set before bind to be valid for accepted sockets
+        if(socketBufferSize > 0) this.serverChannel.socket().setReceiveBufferSize(socketBufferSize);
+        this.serverChannel.socket().bind(new InetSocketAddress(portNumber), DEFAULT_BACKLOG);
+        this.serverChannel.configureBlocking(false);
+        this.acceptKey = this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        this.listenerCalls = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "NIOTCPServerListener");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    public long getNumberAcceptedConnections() { return this.acceptedConnections.get(); }
+
+    public int getNumberOpenConnections() { return this.connections.size(); }
+
+    public long getBytesReceived() { return this.bytesReceived.get(); }
+
+    public long getBytesSent() { return this.bytesSent.get(); }
+
+    /**
+     * Close server socket and all connections - selector thread ends.
+     */
+    public void close() {
+        Log.writeLog(this, "close NIO TCP server on port: " + this.getPort());
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        Log.writeLog(this, "NIO TCP server running - accept connections on port: " + this.getPort());
+        try {
+            while(this.running) {
+                if(this.acceptPausedUntil > 0 && System.currentTimeMillis() >= this.acceptPausedUntil) {
+                    this.acceptPausedUntil = 0;
+                    this.acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+
+                if(this.acceptPausedUntil > 0) {
+                    this.selector.select(Math.max(1, this.acceptPausedUntil - System.currentTimeMillis()));
+                } else {
+                    this.selector.select();
+                }
+
+                NIOConnection connection;
+                while((connection = this.interestChanged.poll()) != null) connection.updateInterest();
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if(!key.isValid()) continue;
+
+                        if(key.isAcceptable()) {
+                            this.accept();
+                        } else {
+                            this.transfer(key, (NIOConnection) key.attachment());
+                        }
+                    } catch (CancelledKeyException e) {
+                        // connection closed from another thread in the meantime
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.writeLogErr(this, "selector loop failed: " + e.getLocalizedMessage());
+        } finally {
+            this.shutdown();
+        }
+    }
+
+    /**
+     * @return next pending connection - null if there is none
+     */
+    SocketChannel acceptChannel() throws IOException {
+        return this.serverChannel.accept();
+    }
+
+    private void accept() {
+        // accept all pending connection attempts
+        while(true) {
+            SocketChannel channel;
+            try {
+                channel = this.acceptChannel();
+            } catch (IOException e) {
+                // e.g. too many open files - would fail again at once
+                Log.writeLogErr(this, "cannot accept connection (pause accepting): " + e.getLocalizedMessage());
+                this.acceptPausedUntil = System.currentTimeMillis() + ACCEPT_PAUSE_MS;
+                this.acceptKey.interestOps(0);
+                return;
+            }
+            if(channel == null) return;
+
+            Socket socket = channel.socket();
+            String remoteAddress;
+            NIOConnection connection;
+            try {
+                channel.configureBlocking(false);
+                socket.setTcpNoDelay(this.tcpNoDelay);
+                if(this.socketBufferSize > 0) socket.setSendBufferSize(this.socketBufferSize);
+                remoteAddress = SocketFactory.getRemoteAddress(socket);
+                connection = new NIOConnection(this, channel, this.bufferSize);
+                connection.setKey(channel.register(this.selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                Log.writeLogErr(this, "cannot set up accepted connection: " + e.getLocalizedMessage());
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // nothing left to do
+                }
+                continue;
+            }
+
+            this.connections.add(connection);
+            this.acceptedConnections.incrementAndGet();
+
+            this.notifyListener(StreamPairImpl.getStreamPairWithEndpointAddress(
+                    connection.getInputStream(), connection.getOutputStream(), remoteAddress));
+        }
+    }
+
+    private void transfer(SelectionKey key, NIOConnection connection) {
+        try {
+            if(key.isReadable()) this.bytesReceived.addAndGet(connection.readFromChannel());
+            if(key.isValid() && key.isWritable()) this.bytesSent.addAndGet(connection.writeToChannel());
+        } catch (IOException e) {
+            connection.fail(e);
+        }
+    }
+
+    private void notifyListener(final StreamPair streamPair) {
+        if(this.listener == null) return;
+
+        // never block the selector thread
+        this.listenerCalls.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.streamPairCreated(streamPair);
+            }
+        });
+    }
+
+    /**
+     * Connection buffers changed outside selector thread.
+     */
+    void interestChanged(NIOConnection connection) {
+        this.interestChanged.add(connection);
+        this.selector.wakeup();
+    }
+
+    void connectionClosed(NIOConnection connection) {
+        this.connections.remove(connection);
+    }
+
+    private void shutdown() {
+        this.running = false;
+        ArrayList<NIOConnection> open;
+        synchronized(this.connections) {
+            open = new ArrayList<>(this.connections);
+        }
+        for(NIOConnection connection : open) connection.close();
+
+        try {
+            this.serverChannel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        this.listenerCalls.shutdown();
+    }
+}
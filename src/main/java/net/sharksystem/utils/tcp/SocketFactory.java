@@ -3,14 +3,18 @@ package net.sharksystem.utils.tcp;
 //import net.sharksystem.asap.ASAPEncounterHelper;
 
 import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.ChannelInputStream;
+import net.sharksystem.utils.streams.ChannelOutputStream;
 import net.sharksystem.utils.streams.StreamPairImpl;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 
 public class SocketFactory implements Runnable {
     private final ServerSocket srv;
@@ -21,8 +25,11 @@ public class SocketFactory implements Runnable {
     private Thread waitForConnectionThread = null;
     private String remoteAddress;
 
+    /**
+     * Accepted connections expose their channel - files can be sent without copying them through heap.
+     */
     public SocketFactory(int portNumber, StreamPairCreatedListener listener) throws IOException {
-        this(new ServerSocket(portNumber));
+        this(openServerSocket(portNumber));
         this.port = portNumber;
         this.listener = listener;
     }
@@ -31,6 +38,12 @@ public class SocketFactory implements Runnable {
         this.srv = srv;
     }
 
+    private static ServerSocket openServerSocket(int portNumber) throws IOException {
+        ServerSocket srv = ServerSocketChannel.open().socket();
+        srv.bind(new InetSocketAddress(portNumber));
+        return srv;
+    }
+
     /**
      * Close server socket - kills thread already running
      */
@@ -46,8 +59,14 @@ public class SocketFactory implements Runnable {
         Log.writeLog(this,"socket factory running - accept connections on port: " + this.port);
         try {
             Socket socket = srv.accept();
-            this.is = socket.getInputStream();
-            this.os = socket.getOutputStream();
+            if(socket.getChannel() != null) {
+                // reading does not block writing into channel
+                this.is = new ChannelInputStream(socket.getChannel());
+                this.os = new ChannelOutputStream(socket.getChannel());
+            } else {
+                this.is = socket.getInputStream();
+                this.os = socket.getOutputStream();
+            }
             this.remoteAddress = SocketFactory.getRemoteAddress(socket);
             Log.writeLog(this,"connection attempt accepted: socket created");
             if(this.waitForConnectionThread != null) {
@@ -101,8 +101,10 @@ public class MultipleEncounterTests {
         // this will only be checked on single encounter tests, as in further tests this gets more and more tedious to do
         Assertions.assertTrue(aliceTestPeer.getASAPStorage(EXAMPLE_APP_FORMAT).getChunkStorage().existsChunk(uriAlice, 0));
         Assertions.assertTrue(bobTestPeer.getASAPStorage(EXAMPLE_APP_FORMAT).getChunkStorage().existsChunk(uriBob, 0));
-        Assertions.assertTrue(aliceTestPeer.getASAPStorage(EXAMPLE_APP_FORMAT).getChunkStorage().existsChunk(uriBob, 1));
-        Assertions.assertTrue(bobTestPeer.getASAPStorage(EXAMPLE_APP_FORMAT).getChunkStorage().existsChunk(uriAlice, 1));
+        // era rollover does not copy chunks - channel is inherited by next era
+        Assertions.assertEquals(1, aliceTestPeer.getASAPStorage(EXAMPLE_APP_FORMAT).getEra());
+        Assertions.assertTrue(aliceTestPeer.getASAPStorage(EXAMPLE_APP_FORMAT).channelExists(uriBob));
+        Assertions.assertTrue(bobTestPeer.getASAPStorage(EXAMPLE_APP_FORMAT).channelExists(uriAlice));
 
 
         // each message should have created a new era, so there should be a meta and content file in each subfolder
@@ -0,0 +1,175 @@
+package net.sharksystem.asap.crypto;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPSecurityException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+import static net.sharksystem.utils.testsupport.TestConstants.ALICE_ID;
+import static net.sharksystem.utils.testsupport.TestConstants.BOB_ID;
+
+public class SessionKeyTests {
+    static final int MESSAGES = 100;
+
+    /** counts asymmetric encryptions and decryptions */
+    private class CountingKeyStore extends InMemoASAPKeyStore {
+        int asymmetricOperations = 0;
+
+        CountingKeyStore(CharSequence ownerID) throws ASAPSecurityException {
+            super(ownerID);
+        }
+
+        @Override
+        public String getAsymmetricEncryptionAlgorithm() {
+            this.asymmetricOperations++;
+            return super.getAsymmetricEncryptionAlgorithm();
+        }
+    }
+
+    private CountingKeyStore aliceKeyStorage;
+    private CountingKeyStore bobKeyStorage;
+
+    @Before
+    public void setupASAPKeyStores() throws ASAPSecurityException {
+        ASAPSessionKeys.clear();
+        this.aliceKeyStorage = new CountingKeyStore(ALICE_ID);
+        this.bobKeyStorage = new CountingKeyStore(BOB_ID);
+
+        // simulate key exchange
+        this.aliceKeyStorage.addKeyPair(BOB_ID, bobKeyStorage.getKeyPair());
+        this.bobKeyStorage.addKeyPair(ALICE_ID, aliceKeyStorage.getKeyPair());
+    }
+
+    @After
+    public void resetRotation() {
+        ASAPSessionKeys.setMaxMessagesPerKey(ASAPSessionKeys.DEFAULT_MAX_MESSAGES_PER_KEY);
+        ASAPSessionKeys.setMaxKeyAge(ASAPSessionKeys.DEFAULT_MAX_KEY_AGE_MS);
+        ASAPSessionKeys.clear();
+    }
+
+    private byte[] encrypt(CharSequence recipient, ASAPKeyStore keyStore, byte[] message)
+            throws IOException, ASAPException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputStream os = ASAPFramedCipher.encrypt(recipient, keyStore, baos);
+        os.write(message);
+        os.close();
+        return baos.toByteArray();
+    }
+
+    private void sendAndReceive(int messages) throws IOException, ASAPException {
+        for(int i = 0; i < messages; i++) {
+            byte[] message = ("message " + i).getBytes();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            OutputStream os = ASAPFramedCipher.encrypt(BOB_ID, this.aliceKeyStorage, baos);
+            os.write(message);
+            os.close();
+
+            InputStream is = new ByteArrayInputStream(baos.toByteArray());
+            InputStream decrypted =
+                    ASAPFramedCipher.decrypt(ASAPFramedCipher.readHeader(is), this.bobKeyStorage, is);
+            byte[] received = new byte[message.length];
+            Assert.assertEquals(message.length, decrypted.read(received));
+            Assert.assertArrayEquals(message, received);
+        }
+    }
+
+    @Test
+    public void onlySymmetricCryptoInSteadyState() throws IOException, ASAPException {
+        this.sendAndReceive(MESSAGES);
+
+        // one session key: encrypted once, decrypted once
+        Assert.assertEquals(1, this.aliceKeyStorage.asymmetricOperations);
+        Assert.assertEquals(1, this.bobKeyStorage.asymmetricOperations);
+    }
+
+    @Test
+    public void keysRotateAfterNumberOfMessages() throws IOException, ASAPException {
+        ASAPSessionKeys.setMaxMessagesPerKey(10);
+        this.sendAndReceive(MESSAGES);
+
+        Assert.assertEquals(MESSAGES / 10, this.aliceKeyStorage.asymmetricOperations);
+        Assert.assertEquals(MESSAGES / 10, this.bobKeyStorage.asymmetricOperations);
+    }
+
+    @Test
+    public void keysRotateAfterTime() throws IOException, ASAPException, InterruptedException {
+        ASAPSessionKeys.setMaxKeyAge(100);
+        this.sendAndReceive(2);
+        Thread.sleep(200);
+        this.sendAndReceive(2);
+
+        Assert.assertEquals(2, this.aliceKeyStorage.asymmetricOperations);
+        Assert.assertEquals(2, this.bobKeyStorage.asymmetricOperations);
+    }
+
+    @Test
+    public void newKeyPairOfRecipientReplacesSessionKey() throws IOException, ASAPException {
+        this.sendAndReceive(1);
+
+        // bob got a new key pair
+        this.bobKeyStorage = new CountingKeyStore(BOB_ID);
+        this.aliceKeyStorage.addKeyPair(BOB_ID, this.bobKeyStorage.getKeyPair());
+        this.sendAndReceive(1);
+
+        Assert.assertEquals(2, this.aliceKeyStorage.asymmetricOperations);
+        Assert.assertEquals(1, this.bobKeyStorage.asymmetricOperations);
+    }
+
+    @Test
+    public void sendersWithSlashInNameDoNotShareKeys() throws IOException, ASAPException {
+        // owner + "/" + recipient would be "a/b/c" for both
+        CountingKeyStore aKeyStorage = new CountingKeyStore("a");
+        CountingKeyStore abKeyStorage = new CountingKeyStore("a/b");
+        aKeyStorage.addKeyPair("b/c", this.bobKeyStorage.getKeyPair());
+        abKeyStorage.addKeyPair("c", this.aliceKeyStorage.getKeyPair());
+
+        for(int i = 0; i < 10; i++) {
+            this.encrypt("b/c", aKeyStorage, "message".getBytes());
+            this.encrypt("c", abKeyStorage, "message".getBytes());
+        }
+
+        Assert.assertEquals(1, aKeyStorage.asymmetricOperations);
+        Assert.assertEquals(1, abKeyStorage.asymmetricOperations);
+    }
+
+    @Test
+    public void noncePrefixIsNotRepeated() throws IOException, ASAPException {
+        Set<String> noncePrefixes = new HashSet<>();
+        for(int i = 0; i < MESSAGES; i++) {
+            InputStream is = new ByteArrayInputStream(this.encrypt(BOB_ID, this.aliceKeyStorage, new byte[1]));
+            ASAPFramedCipher.readHeader(is);
+            byte[] noncePrefix = new byte[ASAPSessionKeys.NONCE_PREFIX_LENGTH];
+            Assert.assertEquals(noncePrefix.length, is.read(noncePrefix));
+            Assert.assertTrue(noncePrefixes.add(new String(noncePrefix, "ISO-8859-1")));
+        }
+        // all with one key
+        Assert.assertEquals(1, this.aliceKeyStorage.asymmetricOperations);
+    }
+
+    @Test
+    public void sessionKeysAreDroppedWithKeyStore() throws IOException, ASAPException, InterruptedException {
+        this.sendAndReceive(1);
+        Assert.assertEquals(2, ASAPSessionKeys.getNumberKeyStores());
+
+        WeakReference<ASAPKeyStore> aliceKeyStorage = new WeakReference<ASAPKeyStore>(this.aliceKeyStorage);
+        this.aliceKeyStorage = null;
+        for(int i = 0; i < 50 && aliceKeyStorage.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        Assert.assertNull(aliceKeyStorage.get());
+        Assert.assertEquals(1, ASAPSessionKeys.getNumberKeyStores());
+    }
+}
@@ -68,4 +68,17 @@ public class ChunkCacheTests {
                     .equalsIgnoreCase(message[0xF - i]));
         }
     }
+
+    @Test
+    public void chunkListTakesCachedChunks() throws IOException {
+        FSUtils.removeFolder(ALICE_FOLDER);
+        ASAPChunkStorageFS storage = new ASAPChunkStorageFS(ALICE_FOLDER, TEST_FORMAT);
+        String uri = "sn://chunk/with:special?chars";
+        ASAPInternalChunk chunk = storage.getChunk(uri, 0);
+        chunk.addMessage(MESSAGE_ONE.getBytes());
+
+        // found by file name from manifest - same object, no new chunk from files
+        Assert.assertSame(chunk, storage.getChunks(0).get(0));
+        Assert.assertSame(chunk, new ASAPChunkStorageFS(ALICE_FOLDER, TEST_FORMAT).getChunk(uri, 0));
+    }
 }
@@ -0,0 +1,328 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAP;
+import net.sharksystem.asap.ASAPChunkStorage;
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPHop;
+import net.sharksystem.asap.ASAPUtils;
+import net.sharksystem.asap.utils.ASAPLogHelper;
+import net.sharksystem.asap.utils.ASAPSerialization;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+public class ChunkStorageFSTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + ChunkStorageFSTests.class.getSimpleName() + "/";
+    static final String FORMAT = "TestFormat";
+    static final String URI = "test/anURI";
+
+    @Test
+    public void batchAppendAndReread() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "batchAppend";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPChunkStorageFS storage = new ASAPChunkStorageFS(testFolder, FORMAT);
+        ASAPInternalChunk chunk = storage.getChunk(URI, 0);
+
+        int number = 1000;
+        chunk.startBatch();
+        for(int i = 0; i < number; i++) {
+            byte[] message = ("message #" + i).getBytes();
+            chunk.addMessage(new ByteArrayInputStream(message), message.length);
+        }
+        chunk.finishBatch();
+
+        // single message outside a batch
+        chunk.addMessage(("message #" + number).getBytes());
+
+        // read from a fresh object - meta data must be written
+        ASAPInternalChunk rereadChunk = storage.getChunk(URI, 0);
+        Assert.assertEquals(number + 1, rereadChunk.getNumberMessage());
+
+        Iterator<byte[]> messages = rereadChunk.getMessages();
+        for(int i = 0; i <= number; i++) {
+            Assert.assertEquals("message #" + i, new String(messages.next()));
+        }
+        Assert.assertFalse(messages.hasNext());
+    }
+
+    @Test
+    public void migrateOffsetsFromMetaData() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "migrateOffsets";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPChunkStorageFS storage = new ASAPChunkStorageFS(testFolder, FORMAT);
+        String trunkName = storage.setupChunkFolder(0, URI);
+
+        // chunk as written by former versions: offsets in meta data, no index file
+        FileOutputStream fos = new FileOutputStream(trunkName + "." + ASAPInternalChunkFS.DATA_EXTENSION);
+        fos.write("abbccc".getBytes());
+        fos.close();
+
+        DataOutputStream dos = new DataOutputStream(
+                new FileOutputStream(trunkName + "." + ASAPInternalChunkFS.META_DATA_EXTENSION));
+        ASAPSerialization.writeASAPHopList(new ArrayList<ASAPHop>(), dos);
+        dos.writeUTF(URI);
+        dos.writeUTF(""); // extra
+        dos.writeUTF(""); // recipients
+        dos.writeUTF(""); // delivered to
+        dos.writeUTF("1" + ASAPLogHelper.SERIALIZATION_DELIMITER + "3");
+        dos.close();
+
+        ASAPInternalChunk chunk = storage.getChunk(URI, 0);
+        Assert.assertEquals(3, chunk.getNumberMessage());
+        Assert.assertTrue(new File(trunkName + "." + ASAPChunkOffsetIndex.INDEX_EXTENSION).exists());
+
+        chunk.addMessage("dddd".getBytes());
+
+        Iterator<byte[]> messages = storage.getChunk(URI, 0).getMessages();
+        Assert.assertEquals("a", new String(messages.next()));
+        Assert.assertEquals("bb", new String(messages.next()));
+        Assert.assertEquals("ccc", new String(messages.next()));
+        Assert.assertEquals("dddd", new String(messages.next()));
+        Assert.assertFalse(messages.hasNext());
+    }
+
+    @Test
+    public void mappedMessageBuffers() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "mappedBuffers";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPChunkStorageFS storage = new ASAPChunkStorageFS(testFolder, FORMAT);
+        ASAPInternalChunk chunk = storage.getChunk(URI, 0);
+        Assert.assertTrue(chunk.getMessageBuffers().isEmpty());
+
+        chunk.addMessage("first".getBytes());
+        chunk.addMessage("second".getBytes());
+        ByteBuffer second = chunk.getMessageBuffer(1);
+        Assert.assertTrue(second.isReadOnly());
+        Assert.assertEquals(6, second.remaining());
+
+        // content file grows - re-mapped
+        chunk.addMessage("third".getBytes());
+        Assert.assertEquals(3, chunk.getMessageBuffers().size());
+
+        byte[] third = new byte[5];
+        chunk.getMessageBuffer(2).get(third);
+        Assert.assertEquals("third", new String(third));
+    }
+
+    @Test
+    public void streamingIteratorIsSnapshot() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "streamingIterator";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPChunkStorageFS storage = new ASAPChunkStorageFS(testFolder, FORMAT);
+        ASAPInternalChunk chunk = storage.getChunk(URI, 0);
+        Assert.assertFalse(chunk.getMessages().hasNext());
+
+        chunk.addMessage("first".getBytes());
+        chunk.addMessage("second".getBytes());
+
+        Iterator<byte[]> messages = chunk.getMessages();
+        Assert.assertEquals("first", new String(messages.next()));
+
+        // not part of the iteration
+        chunk.addMessage("third".getBytes());
+
+        Assert.assertEquals("second", new String(messages.next()));
+        Assert.assertFalse(messages.hasNext());
+
+        Iterator<CharSequence> stringMessages = chunk.getMessagesAsCharSequence();
+        Assert.assertEquals("first", stringMessages.next());
+        Assert.assertEquals("second", stringMessages.next());
+        Assert.assertEquals("third", stringMessages.next());
+        Assert.assertFalse(stringMessages.hasNext());
+    }
+
+    @Test
+    public void chunkObjectsAreCached() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "chunkCache";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPChunkStorageFS storage = new ASAPChunkStorageFS(testFolder, FORMAT);
+        ASAPInternalChunk chunk = storage.getChunk(URI, 0);
+        chunk.addMessage("first".getBytes());
+
+        // same object - even from another storage object on that folder
+        Assert.assertSame(chunk, storage.getChunk(URI, 0));
+        Assert.assertSame(chunk, new ASAPChunkStorageFS(testFolder, FORMAT).getChunk(URI, 0));
+        Assert.assertSame(chunk, storage.getChunks(0).get(0));
+        // folder reached by another path shares the cache
+        String otherPath = new File(testFolder).getAbsolutePath() + "/../" + new File(testFolder).getName();
+        Assert.assertSame(chunk, new ASAPChunkStorageFS(otherPath, FORMAT).getChunk(URI, 0));
+
+        // changed from outside (e.g. another process) - cached object is replaced
+        String trunkName = storage.setupChunkFolder(0, URI);
+        FileOutputStream fos = new FileOutputStream(trunkName + "." + ASAPChunkOffsetIndex.INDEX_EXTENSION, true);
+        new DataOutputStream(fos).writeLong(5);
+        fos.close();
+        fos = new FileOutputStream(trunkName + "." + ASAPInternalChunkFS.DATA_EXTENSION, true);
+        fos.write("second".getBytes());
+        fos.close();
+
+        ASAPInternalChunk rereadChunk = storage.getChunk(URI, 0);
+        Assert.assertNotSame(chunk, rereadChunk);
+        Assert.assertEquals(2, rereadChunk.getNumberMessage());
+
+        // dropped chunks are removed from cache
+        rereadChunk.drop();
+        Assert.assertNotSame(rereadChunk, storage.getChunk(URI, 0));
+    }
+
+    @Test
+    public void manifestReplacesFolderScan() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "manifest";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPStorage(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        ASAPChunkStorageFS storage = (ASAPChunkStorageFS) engine.getChunkStorage();
+        storage.getChunk(URI, 0).addMessage("first".getBytes());
+        storage.getChunk("other", 0).addMessage("second".getBytes());
+        storage.getChunk(URI, 2).addMessage("third".getBytes());
+        engine.getIncomingStorage(TestConstants.BOB_NAME);
+
+        Assert.assertTrue(new File(testFolder, ASAPStorageManifest.MANIFEST_FILENAME).exists());
+        Assert.assertEquals(2, storage.getEras().size());
+        Assert.assertEquals(2, storage.getChunks(0).size());
+        Assert.assertEquals(1, engine.getSender().size());
+        Assert.assertEquals(TestConstants.BOB_NAME, engine.getSender().get(0).toString());
+
+        // one manifest for a folder - even if reached by another path
+        String otherPath = new File(testFolder).getAbsolutePath() + "/../" + new File(testFolder).getName();
+        Assert.assertSame(ASAPStorageManifest.getManifest(testFolder), ASAPStorageManifest.getManifest(otherPath));
+
+        storage.dropChunks(0);
+        Assert.assertEquals(1, storage.getEras().size());
+        Assert.assertTrue(storage.getChunks(0).isEmpty());
+        Assert.assertEquals(1, storage.getChunks(2).size());
+
+        // manifest rebuilt from folder if missing (e.g. written by former versions)
+        new File(testFolder, ASAPStorageManifest.MANIFEST_FILENAME).delete();
+        Assert.assertEquals(1, storage.getChunks(2).size());
+        Assert.assertEquals(1, engine.getSender().size());
+        Assert.assertEquals(1, storage.getASAPMessages(URI, 0, 2).size());
+    }
+
+    @Test
+    public void erasInRangeAreChronological() {
+        ArrayList<Integer> eras = new ArrayList<>();
+        eras.add(ASAP.MAX_ERA);
+        eras.add(2);
+        eras.add(0);
+        eras.add(ASAP.MAX_ERA - 1);
+        eras.add(5);
+
+        Iterator<Integer> inRange = ASAPUtils.getErasInRange(eras, ASAP.MAX_ERA - 1, 2).iterator();
+        Assert.assertEquals(ASAP.MAX_ERA - 1, (int) inRange.next());
+        Assert.assertEquals(ASAP.MAX_ERA, (int) inRange.next());
+        Assert.assertEquals(0, (int) inRange.next());
+        Assert.assertEquals(2, (int) inRange.next());
+        Assert.assertFalse(inRange.hasNext());
+
+        Assert.assertEquals(2, ASAPUtils.getErasInRange(eras, 1, 5).size());
+    }
+
+    @Test
+    public void newEraDoesNotCopyChunks() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "lazyEra";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        engine.createChannel(URI, TestConstants.BOB_NAME);
+        engine.putExtra(URI, "key", "value");
+        engine.add(URI, "first".getBytes());
+        engine.newEra();
+
+        // channel is inherited - no chunk in new era yet
+        ASAPChunkStorage storage = engine.getChunkStorage();
+        Assert.assertEquals(1, engine.getEra());
+        Assert.assertFalse(storage.existsChunk(URI, 1));
+        Assert.assertTrue(engine.channelExists(URI));
+        Assert.assertEquals(1, engine.getChannelURIs().size());
+        Assert.assertTrue(engine.getRecipients(URI).contains(TestConstants.BOB_NAME));
+        Assert.assertEquals("value", engine.getExtra(URI, "key"));
+
+        // materialized with first write - meta data copied
+        engine.add(URI, "second".getBytes());
+        Assert.assertTrue(storage.existsChunk(URI, 1));
+        Assert.assertTrue(storage.getChunk(URI, 1).getRecipients().contains(TestConstants.BOB_NAME));
+        Assert.assertEquals("value", storage.getChunk(URI, 1).getExtra("key"));
+        Assert.assertEquals(2, engine.getChannel(URI).getMessages().size());
+
+        engine.removeChannel(URI);
+        Assert.assertFalse(engine.channelExists(URI));
+    }
+
+    @Test
+    public void abandonedIteratorsHoldNoFiles() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "abandonedIterators";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPChunkStorageFS storage = new ASAPChunkStorageFS(testFolder, FORMAT);
+        ASAPInternalChunk chunk = storage.getChunk(URI, 0);
+        // messages span several read batches - one exceeds a batch
+        int number = 200;
+        for(int i = 0; i < number; i++) {
+            int size = i == 100 ? 2 * ChunkMessageStreamIterator.READ_AHEAD_SIZE : 1000 + i;
+            byte[] message = new byte[size];
+            message[0] = (byte) i;
+            chunk.addMessage(message);
+        }
+
+        Iterator<byte[]> messages = chunk.getMessages();
+        for(int i = 0; i < number; i++) {
+            byte[] message = messages.next();
+            Assert.assertEquals((byte) i, message[0]);
+            Assert.assertEquals(i == 100 ? 2 * ChunkMessageStreamIterator.READ_AHEAD_SIZE : 1000 + i,
+                    message.length);
+        }
+        Assert.assertFalse(messages.hasNext());
+
+        // open file descriptors can only be counted on linux
+        File fdFolder = new File("/proc/self/fd");
+        if(!fdFolder.isDirectory()) return;
+
+        int openFiles = fdFolder.list().length;
+        for(int i = 0; i < 100; i++) chunk.getMessages().next();
+        Assert.assertTrue(fdFolder.list().length < openFiles + 10);
+    }
+
+    @Test
+    public void channelIndexFollowsAddAndDrop() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "channelIndex";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        engine.add("sn://first", "a".getBytes());
+        engine.add("sn://second", "b".getBytes());
+        engine.newEra();
+        engine.add("sn://second", "c".getBytes());
+
+        ASAPLocalChunkStorage storage = (ASAPLocalChunkStorage) engine.getChunkStorage();
+        Assert.assertEquals(2, storage.getChannelEras("sn://second").size());
+        // most recently written channel first
+        Assert.assertEquals("sn://second", engine.getChannelURIs().get(0));
+        Assert.assertEquals(2, engine.getChannelURIs().size());
+
+        storage.dropChunks(0);
+        Assert.assertFalse(engine.channelExists("sn://first"));
+        Assert.assertEquals(1, storage.getChannelEras("sn://second").size());
+
+        engine.removeChannel("sn://second");
+        Assert.assertTrue(storage.getChannelEras("sn://second").isEmpty());
+        Assert.assertTrue(engine.getChannelURIs().isEmpty());
+
+        // index is rebuilt from folder if there is no manifest
+        engine.add("sn://third", "d".getBytes());
+        new File(testFolder, ASAPStorageManifest.MANIFEST_FILENAME).delete();
+        Assert.assertEquals(1, storage.getChannelEras("sn://third").size());
+        Assert.assertTrue(engine.channelExists("sn://third"));
+    }
+}
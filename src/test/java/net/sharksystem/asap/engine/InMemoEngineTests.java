@@ -0,0 +1,103 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPMessages;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+public class InMemoEngineTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + InMemoEngineTests.class.getSimpleName() + "/";
+    static final String FORMAT = "TestFormat";
+    static final String URI = "test/anURI";
+
+    @Test
+    public void engineKeepsEverythingInMemory() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "noDisk";
+        ASAPEngineInMemo.release(testFolder);
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine("Alice", testFolder, FORMAT, ASAPChunkStorageType.IN_MEMORY);
+        Assert.assertTrue(engine instanceof ASAPEngineInMemo);
+        engine.add(URI, "hi".getBytes());
+        engine.newEra();
+        engine.add(URI, "there".getBytes());
+
+        ASAPInternalStorage incoming = (ASAPInternalStorage) engine.getIncomingStorage("Bob");
+        incoming.getChunkStorage().getChunk(URI, 0).addMessage("from Bob".getBytes());
+
+        // engine objects with same name share data
+        ASAPEngine sameEngine = ASAPEngineFS.getExistingASAPEngineFS(testFolder);
+        Assert.assertEquals(1, sameEngine.getEra());
+        Assert.assertEquals(2, sameEngine.getChannel(URI).getMessages().size());
+        Assert.assertEquals(1, sameEngine.getSender().size());
+
+        ASAPMessages received = sameEngine.getReceivedChunksStorage("Bob").getASAPMessages(URI, 0, 0);
+        Assert.assertEquals("from Bob", new String(received.getMessage(0, true)));
+
+        Assert.assertFalse(new File(testFolder).exists());
+        ASAPEngineInMemo.release(testFolder);
+        Assert.assertFalse(ASAPEngineInMemo.exists(testFolder));
+    }
+
+    @Test
+    public void snapshotCanBeReadByFileBasedEngine() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "memory";
+        String snapshotFolder = ROOTFOLDER + "snapshot";
+        ASAPEngineInMemo.release(testFolder);
+        FSUtils.removeFolder(snapshotFolder);
+
+        ASAPEngineInMemo engine = ASAPEngineInMemo.getASAPEngine("Alice", testFolder, FORMAT);
+        engine.add(URI, "first".getBytes());
+        engine.getChannel(URI).putExtraData("key", "value");
+        engine.newEra();
+        engine.add(URI, "second".getBytes());
+        engine.getIncomingStorage("Bob").getChunkStorage().getChunk(URI, 0).addMessage("from Bob".getBytes());
+
+        engine.snapshot(snapshotFolder);
+        // a second snapshot replaces the first one
+        engine.snapshot(snapshotFolder);
+
+        ASAPEngineFS fsEngine = (ASAPEngineFS) ASAPEngineFS.getASAPEngine("Alice", snapshotFolder, FORMAT);
+        Assert.assertEquals(1, fsEngine.getEra());
+        ASAPMessages messages = fsEngine.getChannel(URI).getMessages();
+        Assert.assertEquals(2, messages.size());
+        Iterator<byte[]> messageIter = messages.getMessages();
+        Assert.assertEquals("first", new String(messageIter.next()));
+        Assert.assertEquals("second", new String(messageIter.next()));
+        Assert.assertEquals("value", fsEngine.getChannel(URI).getExtraData().get("key"));
+
+        Assert.assertTrue(fsEngine.getSender().contains("Bob"));
+        Assert.assertEquals(1, fsEngine.getReceivedChunksStorage("Bob").getChunk(URI, 0).getNumberMessage());
+
+        ASAPEngineInMemo.release(testFolder);
+    }
+
+    @Test
+    public void peerWithoutDisk() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "peer";
+        ASAPEngineInMemo.release(testFolder);
+        FSUtils.removeFolder(testFolder);
+
+        Collection<CharSequence> formats = new ArrayList<>();
+        formats.add(FORMAT);
+        ASAPInternalPeer peer = ASAPInternalPeerFS.createASAPPeer("Alice", testFolder,
+                ASAPInternalPeer.DEFAULT_MAX_PROCESSING_TIME, formats, ASAPChunkStorageType.IN_MEMORY, null);
+        peer.getEngineByFormat(FORMAT).add(URI, "hi".getBytes());
+
+        // a peer with same name finds that engine
+        ASAPInternalPeer samePeer = ASAPInternalPeerFS.createASAPPeer("Alice", testFolder,
+                ASAPInternalPeer.DEFAULT_MAX_PROCESSING_TIME, null, ASAPChunkStorageType.IN_MEMORY, null);
+        Assert.assertEquals(1, samePeer.getEngineByFormat(FORMAT).getChannel(URI).getMessages().size());
+
+        Assert.assertFalse(new File(testFolder).exists());
+        ASAPEngineInMemo.release(testFolder);
+    }
+}
@@ -0,0 +1,133 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+
+public class MementoFSTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + MementoFSTests.class.getSimpleName() + "/";
+    static final String FORMAT = "TestFormat";
+    static final String URI = "test/anURI";
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FileInputStream fis = new FileInputStream(file);
+        byte[] buffer = new byte[1024];
+        int read;
+        while((read = fis.read(buffer)) > 0) baos.write(buffer, 0, read);
+        fis.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void changesAreWrittenBehind() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "writeBehind";
+        FSUtils.removeFolder(testFolder);
+        ASAPMementoFS.setFlushInterval(60 * 60 * 1000);
+        try {
+            ASAPEngine engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+            File mementoFile = new File(testFolder, ASAPEngineFS.MEMENTO_FILENAME);
+            // first save is written immediately
+            Assert.assertTrue(mementoFile.exists());
+            byte[] written = readFile(mementoFile);
+
+            engine.add(URI, "hi".getBytes());
+            engine.newEra();
+            Assert.assertEquals(1, engine.getEra());
+            Assert.assertArrayEquals(written, readFile(mementoFile));
+
+            // other engine objects see changes anyway
+            Assert.assertEquals(1, ASAPEngineFS.getExistingASAPEngineFS(testFolder).getEra());
+
+            ASAPMementoFS.flushAll();
+            Assert.assertFalse(new File(mementoFile.getPath() + ".tmp").exists());
+            DataInputStream dis = new DataInputStream(new FileInputStream(mementoFile));
+            dis.readLong();
+            Assert.assertEquals(TestConstants.ALICE_NAME, dis.readUTF());
+            Assert.assertEquals(FORMAT, dis.readUTF());
+            Assert.assertEquals(1, dis.readInt());
+            dis.close();
+        }
+        finally {
+            ASAPMementoFS.setFlushInterval(ASAPMementoFS.DEFAULT_FLUSH_INTERVAL);
+        }
+    }
+
+    @Test
+    public void changesOfOtherProcessesAreDetected() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "otherProcess";
+        String otherFolder = ROOTFOLDER + "otherProcessCopy";
+        FSUtils.removeFolder(testFolder);
+        FSUtils.removeFolder(otherFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        Assert.assertEquals(0, engine.getEra());
+
+        // another process: same memento file - with another era
+        ASAPEngine otherEngine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, otherFolder, FORMAT);
+        otherEngine.add(URI, "hi".getBytes());
+        otherEngine.newEra();
+        otherEngine.add(URI, "hi".getBytes());
+        otherEngine.newEra();
+        ASAPMementoFS.flushAll();
+
+        File mementoFile = new File(testFolder, ASAPEngineFS.MEMENTO_FILENAME);
+        long lastModified = mementoFile.lastModified();
+        FileOutputStream fos = new FileOutputStream(mementoFile);
+        fos.write(readFile(new File(otherFolder, ASAPEngineFS.MEMENTO_FILENAME)));
+        fos.close();
+        mementoFile.setLastModified(lastModified + 2000);
+
+        engine.newEra(); // syncs with memento - nothing changed here
+        Assert.assertEquals(2, engine.getEra());
+    }
+
+    @Test
+    public void removedStorageResetsMemento() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "removed";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        engine.add(URI, "hi".getBytes());
+        engine.newEra();
+        Assert.assertEquals(1, engine.getEra());
+
+        FSUtils.removeFolder(testFolder);
+        ASAPMementoFS.flushAll(); // nothing to write into a removed folder
+
+        engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        Assert.assertEquals(0, engine.getEra());
+    }
+
+    @Test
+    public void fileBeingReplacedIsReadFromBackup() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "replaced";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        engine.add(URI, "hi".getBytes());
+        engine.newEra();
+        ASAPMementoFS.flushAll();
+
+        // another process on a file system without overwriting rename: old content moved to backup
+        File mementoFile = new File(testFolder, ASAPEngineFS.MEMENTO_FILENAME);
+        File backup = new File(mementoFile.getPath() + FSUtils.BACKUP_EXTENSION);
+        Assert.assertTrue(mementoFile.renameTo(backup));
+
+        Assert.assertEquals(backup, FSUtils.getReadableFile(mementoFile));
+        Assert.assertEquals(1, ASAPEngineFS.getExistingASAPEngineFS(testFolder).getEra());
+
+        // new content in place - backup is gone
+        File tmpFile = new File(mementoFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        fos.write(readFile(backup));
+        fos.close();
+        FSUtils.replaceFile(tmpFile, mementoFile);
+        Assert.assertEquals(mementoFile, FSUtils.getReadableFile(mementoFile));
+        Assert.assertFalse(tmpFile.exists());
+    }
+}
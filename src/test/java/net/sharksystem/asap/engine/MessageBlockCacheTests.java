@@ -0,0 +1,86 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPMessages;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageBlockCacheTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + MessageBlockCacheTests.class.getSimpleName() + "/";
+    static final String FORMAT = "TestFormat";
+    static final String URI = "test/anURI";
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        List<byte[]> block = new ArrayList<>();
+        block.add(new byte[100]);
+
+        // room for about two blocks
+        ASAPMessageBlockCache cache = new ASAPMessageBlockCache(600);
+        cache.putBlock("root", 0, URI, 0, block);
+        cache.putBlock("root", 0, URI, 1, block);
+        Assert.assertNotNull(cache.getMessage("root", 0, URI, 0)); // block 0 used recently
+        cache.putBlock("root", 0, URI, 2, block);
+
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNotNull(cache.getMessage("root", 0, URI, 0));
+        Assert.assertNull(cache.getMessage("root", 0, URI, ASAPMessageBlockCache.BLOCK_SIZE));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void sharedBetweenMessagesAndInvalidatedOnAdd() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "shared";
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine storage = ASAPEngineFS.getASAPStorage(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        storage.add(URI, "first");
+        storage.add(URI, "second");
+
+        ASAPMessageBlockCache cache = ASAPMessageBlockCache.getInstance();
+        Assert.assertEquals("first", storage.getChunkChain(URI).getMessageAsCharSequence(0, true));
+
+        // new instance - block is taken from shared cache
+        long hits = cache.getHits();
+        Assert.assertEquals("second", storage.getChunkChain(URI).getMessageAsCharSequence(1, true));
+        Assert.assertEquals(hits + 1, cache.getHits());
+
+        // block is invalidated - new message must be visible
+        storage.add(URI, "third");
+        ASAPMessages messages = storage.getChunkChain(URI);
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals("third", messages.getMessageAsCharSequence(0, false));
+
+        // callers get copies - changing them does not change cached message
+        byte[] message = storage.getChunkChain(URI).getMessage(0, true);
+        message[0] = 'X';
+        Assert.assertEquals("first", storage.getChunkChain(URI).getMessageAsCharSequence(0, true));
+        message = storage.getChunkChain(URI).getMessage(0, true);
+        message[0] = 'X';
+        Assert.assertEquals("first", storage.getChunkChain(URI).getMessageAsCharSequence(0, true));
+    }
+
+    @Test
+    public void rootsAreNormalized() {
+        List<byte[]> block = new ArrayList<>();
+        block.add(new byte[100]);
+
+        ASAPMessageBlockCache cache = new ASAPMessageBlockCache(6000);
+        String absoluteRoot = new File(ROOTFOLDER).getAbsolutePath();
+        cache.putBlock(ROOTFOLDER, 0, URI, 0, block);
+        Assert.assertNotNull(cache.getMessage(absoluteRoot, 0, URI, 0));
+
+        // writing through another path must invalidate block
+        cache.invalidate(absoluteRoot + "/../" + new File(absoluteRoot).getName(), 0, URI, 0);
+        Assert.assertNull(cache.getMessage(ROOTFOLDER, 0, URI, 0));
+        Assert.assertEquals(0, cache.getNumberBlocks());
+    }
+}
@@ -0,0 +1,152 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class RetentionTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + RetentionTests.class.getSimpleName() + "/";
+    static final String FORMAT = "TestFormat";
+    static final String URI = "test/anURI";
+
+    private ASAPEngine setupEngine(String testFolder, int numberEras, int messageSize)
+            throws IOException, ASAPException {
+        FSUtils.removeFolder(testFolder);
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine(TestConstants.ALICE_NAME, testFolder, FORMAT);
+        // era 0 .. numberEras-1 with one message each
+        for(int i = 0; i < numberEras; i++) {
+            engine.add(URI, new byte[messageSize]);
+            if(i < numberEras - 1) engine.newEra();
+        }
+        return engine;
+    }
+
+    @Test
+    public void maxErasAdvancesOldestEra() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "maxEras";
+        ASAPEngine engine = this.setupEngine(testFolder, 5, 10);
+        engine.putExtra(URI, "key", "value");
+        engine.newEra(); // era 5 - nothing written yet
+
+        ASAPRetentionReport report = engine.prune(new ASAPRetentionPolicy(2, ASAPRetentionPolicy.NO_LIMIT,
+                ASAPRetentionPolicy.NO_LIMIT));
+
+        Assert.assertEquals(4, report.getDroppedEras().size());
+        Assert.assertEquals(40, report.getReclaimedBytes());
+        Assert.assertEquals(0, report.getOldestEraBefore());
+        Assert.assertEquals(4, report.getOldestEraAfter());
+
+        // state survives re-reading
+        ASAPEngine rereadEngine = ASAPEngineFS.getExistingASAPEngineFS(testFolder);
+        Assert.assertEquals(4, rereadEngine.getOldestEra());
+        Assert.assertEquals(1, rereadEngine.getChannel(URI).getMessages().size());
+        Assert.assertFalse(rereadEngine.getChunkStorage().existsChunk(URI, 0));
+
+        // meta data are still there
+        Assert.assertEquals("value", rereadEngine.getChannel(URI).getExtraData().get("key"));
+
+        // nothing more to do
+        Assert.assertFalse(rereadEngine.prune(new ASAPRetentionPolicy(2, ASAPRetentionPolicy.NO_LIMIT,
+                ASAPRetentionPolicy.NO_LIMIT)).reclaimedAnything());
+    }
+
+    @Test
+    public void undeliveredErasAreKeptUnlessAllowed() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "lastSeen";
+        ASAPEngine engine = this.setupEngine(testFolder, 5, 10);
+        // Bob got everything before era 2
+        engine.lastSeen.put(TestConstants.BOB_NAME, 2);
+
+        ASAPRetentionReport report = engine.prune(new ASAPRetentionPolicy(1, ASAPRetentionPolicy.NO_LIMIT,
+                ASAPRetentionPolicy.NO_LIMIT));
+        Assert.assertEquals(2, report.getDroppedEras().size());
+        Assert.assertEquals(2, engine.getOldestEra());
+        Assert.assertEquals(0, report.getUndeliveredErasDropped());
+
+        // byte quota does not override lastSeen either
+        report = engine.prune(new ASAPRetentionPolicy(ASAPRetentionPolicy.NO_LIMIT, ASAPRetentionPolicy.NO_LIMIT,
+                25));
+        Assert.assertFalse(report.reclaimedAnything());
+        Assert.assertEquals(2, engine.getOldestEra());
+
+        // unless explicitly allowed
+        report = engine.prune(new ASAPRetentionPolicy(ASAPRetentionPolicy.NO_LIMIT, ASAPRetentionPolicy.NO_LIMIT,
+                25, true));
+        Assert.assertEquals(1, report.getDroppedEras().size());
+        Assert.assertEquals(1, report.getUndeliveredErasDropped());
+        Assert.assertEquals(3, engine.getOldestEra());
+        Assert.assertEquals(2, engine.getChannel(URI).getMessages().size());
+    }
+
+    @Test
+    public void maxAgeDropsOldEras() throws IOException, ASAPException, InterruptedException {
+        String testFolder = ROOTFOLDER + "maxAge";
+        ASAPEngine engine = this.setupEngine(testFolder, 3, 10);
+        Thread.sleep(100);
+        engine.add(URI, new byte[10]);
+        engine.newEra(); // era 3
+
+        // eras 0 and 1 ended more than 50ms ago, era 2 just ended
+        ASAPRetentionReport report = engine.prune(new ASAPRetentionPolicy(ASAPRetentionPolicy.NO_LIMIT, 50,
+                ASAPRetentionPolicy.NO_LIMIT));
+        Assert.assertEquals(2, report.getDroppedEras().size());
+        Assert.assertEquals(2, engine.getOldestEra());
+    }
+
+    @Test
+    public void managerPrunesPeerStorages() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "manager";
+        FSUtils.removeFolder(testFolder);
+
+        Collection<CharSequence> formats = new ArrayList<>();
+        formats.add(FORMAT);
+        ASAPInternalPeerFS peer = (ASAPInternalPeerFS) ASAPInternalPeerFS.createASAPPeer(
+                TestConstants.ALICE_NAME, testFolder, ASAPInternalPeer.DEFAULT_MAX_PROCESSING_TIME, formats, null);
+
+        ASAPEngine engine = peer.getEngineByFormat(FORMAT);
+        for(int i = 0; i < 3; i++) {
+            engine.add(URI, new byte[10]);
+            engine.newEra();
+        }
+
+        // incoming storage of bob
+        ASAPEngine incoming = (ASAPEngine) engine.getIncomingStorage(TestConstants.BOB_NAME);
+        for(int i = 0; i < 3; i++) {
+            incoming.add(URI, new byte[10]);
+            incoming.newEra();
+        }
+
+        ASAPRetentionManager retentionManager = peer.getRetentionManager();
+        Assert.assertTrue(retentionManager.prune().isEmpty());
+
+        final List<ASAPRetentionReport> reported = new ArrayList<>();
+        retentionManager.setRetentionListener(new ASAPRetentionListener() {
+            @Override
+            public void reclaimed(ASAPRetentionReport report) {
+                reported.add(report);
+            }
+        });
+
+        retentionManager.setIncomingRetentionPolicy(FORMAT, TestConstants.BOB_NAME,
+                new ASAPRetentionPolicy(1, ASAPRetentionPolicy.NO_LIMIT, ASAPRetentionPolicy.NO_LIMIT));
+
+        List<ASAPRetentionReport> reports = retentionManager.prune();
+        Assert.assertEquals(1, reports.size());
+        Assert.assertEquals(reports, reported);
+        Assert.assertEquals(3, reports.get(0).getDroppedEras().size());
+        Assert.assertEquals(0, engine.getOldestEra());
+
+        retentionManager.setRetentionPolicy(FORMAT,
+                new ASAPRetentionPolicy(2, ASAPRetentionPolicy.NO_LIMIT, ASAPRetentionPolicy.NO_LIMIT));
+        reports = retentionManager.prune();
+        Assert.assertEquals(1, reports.size());
+        Assert.assertEquals(2, peer.getEngineByFormat(FORMAT).getOldestEra());
+    }
+}
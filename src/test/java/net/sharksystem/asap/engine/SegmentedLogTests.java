@@ -0,0 +1,136 @@
+package net.sharksystem.asap.engine;
+
+import net.sharksystem.asap.ASAPChunkStorage;
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+public class SegmentedLogTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + SegmentedLogTests.class.getSimpleName() + "/";
+    static final String FORMAT = "TestFormat";
+    static final String URI = "test/anURI";
+
+    private static int numberSegments(String rootFolder) {
+        String[] segmentFiles = new File(rootFolder, ASAPSegmentedLog.SEGMENT_FOLDER).list();
+        int number = 0;
+        for(String fileName : segmentFiles) {
+            if(fileName.endsWith("." + ASAPSegmentedLog.SEGMENT_EXTENSION)) number++;
+        }
+        return number;
+    }
+
+    @Test
+    public void appendAndRereadAfterReopen() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "reopen";
+        ASAPSegmentedLog.closeLog(testFolder);
+        FSUtils.removeFolder(testFolder);
+
+        ASAPChunkStorageLog storage = new ASAPChunkStorageLog(testFolder, FORMAT);
+        ASAPInternalChunk chunk = storage.getChunk(URI, 0);
+        chunk.startBatch();
+        for(int i = 0; i < 100; i++) {
+            byte[] message = ("message #" + i).getBytes();
+            chunk.addMessage(new ByteArrayInputStream(message), message.length);
+        }
+        chunk.finishBatch();
+        chunk.addRecipient("Alice");
+        chunk.putExtra("key", "value");
+        storage.getChunk(URI, 1).addMessage("next era".getBytes());
+
+        ASAPSegmentedLog.closeLog(testFolder);
+
+        // read from disk
+        storage = new ASAPChunkStorageLog(testFolder, FORMAT);
+        Assert.assertEquals(2, storage.getEras().size());
+        Assert.assertTrue(storage.existsChunk(URI, 0));
+        ASAPInternalChunk rereadChunk = storage.getChunk(URI, 0);
+        Assert.assertEquals(100, rereadChunk.getNumberMessage());
+        Assert.assertTrue(rereadChunk.getRecipients().contains("Alice"));
+        Assert.assertEquals("value", rereadChunk.getExtra("key"));
+
+        Iterator<byte[]> messages = rereadChunk.getMessages();
+        for(int i = 0; i < 100; i++) {
+            Assert.assertEquals("message #" + i, new String(messages.next()));
+        }
+        Assert.assertFalse(messages.hasNext());
+        Assert.assertEquals("message #42", readBuffer(rereadChunk, 42));
+    }
+
+    private static String readBuffer(ASAPInternalChunk chunk, int index) throws IOException {
+        ByteBuffer buffer = chunk.getMessageBuffer(index);
+        byte[] message = new byte[buffer.remaining()];
+        buffer.get(message);
+        return new String(message);
+    }
+
+    @Test
+    public void rollSegmentsAndCompact() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "compact";
+        ASAPSegmentedLog.closeLog(testFolder);
+        FSUtils.removeFolder(testFolder);
+
+        ASAPSegmentedLog.setSegmentSize(1024);
+        try {
+            ASAPChunkStorageLog storage = new ASAPChunkStorageLog(testFolder, FORMAT);
+            byte[] message = new byte[100];
+            for(int era = 0; era < 3; era++) {
+                ASAPInternalChunk chunk = storage.getChunk(URI, era);
+                for(int i = 0; i < 20; i++) chunk.addMessage(message);
+            }
+            int segmentsBefore = numberSegments(testFolder);
+            Assert.assertTrue(segmentsBefore > 3);
+
+            storage.dropChunks(0);
+            storage.dropChunks(1);
+            storage.getLog(false).compact();
+            Assert.assertTrue(numberSegments(testFolder) < segmentsBefore);
+
+            ASAPSegmentedLog.closeLog(testFolder);
+
+            storage = new ASAPChunkStorageLog(testFolder, FORMAT);
+            Assert.assertEquals(1, storage.getEras().size());
+            Assert.assertFalse(storage.existsChunk(URI, 0));
+            Assert.assertEquals(20, storage.getChunk(URI, 2).getNumberMessage());
+            Assert.assertEquals(2000, storage.getChunk(URI, 2).getLength());
+        }
+        finally {
+            ASAPSegmentedLog.setSegmentSize(ASAPSegmentedLog.DEFAULT_SEGMENT_SIZE);
+            ASAPSegmentedLog.closeLog(testFolder);
+        }
+    }
+
+    @Test
+    public void engineWithSegmentedLog() throws IOException, ASAPException {
+        String testFolder = ROOTFOLDER + "engine";
+        ASAPSegmentedLog.closeLog(testFolder);
+        FSUtils.removeFolder(testFolder);
+
+        ASAPEngine engine = ASAPEngineFS.getASAPEngine("Alice", testFolder, FORMAT,
+                ASAPChunkStorageType.SEGMENTED_LOG);
+        engine.add(URI, "hi".getBytes());
+        engine.newEra();
+        engine.add(URI, "there".getBytes());
+
+        // type is detected when folder is opened again
+        ASAPEngineFS reopened = (ASAPEngineFS) ASAPEngineFS.getASAPEngine("Alice", testFolder, FORMAT);
+        Assert.assertEquals(ASAPChunkStorageType.SEGMENTED_LOG, reopened.getChunkStorageType());
+        Assert.assertEquals(2, reopened.getChannel(URI).getMessages().size());
+        Assert.assertFalse(new File(testFolder, "0").exists());
+
+        // incoming storages use the same storage type
+        ASAPEngineFS incoming = (ASAPEngineFS) reopened.getIncomingStorage("Bob");
+        Assert.assertEquals(ASAPChunkStorageType.SEGMENTED_LOG, incoming.getChunkStorageType());
+        incoming.getChunkStorage().getChunk(URI, 0).addMessage("from Bob".getBytes());
+
+        ASAPChunkStorage received = reopened.getReceivedChunksStorage("Bob");
+        Assert.assertEquals(1, received.getChunk(URI, 0).getNumberMessage());
+    }
+}
@@ -0,0 +1,100 @@
+package net.sharksystem.asap.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.cmdline.TCPStream;
+import net.sharksystem.asap.engine.ASAPInternalPeer;
+import net.sharksystem.asap.engine.ASAPInternalPeerFS;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+public class CapabilitiesTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + CapabilitiesTests.class.getSimpleName() + "/";
+    static final String CAPABILITY = "test/capability";
+    static final int PORT = 7093;
+
+    @Test
+    public void capabilitiesPDU() throws IOException, ASAPException {
+        ASAP_1_1 protocolEngine = new ASAP_Modem_Impl();
+
+        Set<String> capabilities = new HashSet<>();
+        capabilities.add(CAPABILITY);
+        capabilities.add("unknown/somewhere/else");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        protocolEngine.capabilities(capabilities, baos);
+
+        ASAP_PDU_1_0 pdu = protocolEngine.readPDU(new ByteArrayInputStream(baos.toByteArray()));
+        Assert.assertEquals(ASAP_1_1.CAPABILITIES_CMD, pdu.getCommand());
+        Assert.assertEquals(ASAP_1_1.VERSION_1_1, pdu.getAcceptedProtocolVersion());
+        Assert.assertEquals(capabilities, ((ASAP_CapabilitiesPDU_1_1) pdu).getCapabilities());
+
+        // only what both sides support is agreed
+        ASAPCapabilities.setSupported(CAPABILITY, true);
+        try {
+            ASAPConnectionOutputStream os = new ASAPConnectionOutputStream(new ByteArrayOutputStream());
+            Assert.assertTrue(ASAPConnectionOutputStream.getAgreedCapabilities(os).isEmpty());
+            Assert.assertFalse(os.sendCapabilities()); // peer version unknown
+
+            os.peerAcceptsProtocolVersion(pdu.getAcceptedProtocolVersion());
+            Assert.assertTrue(os.sendCapabilities());
+            Assert.assertFalse(os.sendCapabilities()); // once
+
+            os.agreeCapabilities(((ASAP_CapabilitiesPDU_1_1) pdu).getCapabilities());
+            Assert.assertTrue(ASAPCapabilities.agreed(os, CAPABILITY));
+            Assert.assertFalse(ASAPCapabilities.agreed(os, "unknown/somewhere/else"));
+        }
+        finally {
+            ASAPCapabilities.setSupported(CAPABILITY, false);
+        }
+    }
+
+    @Test
+    public void peersAgreeOnConnectionStart() throws IOException, ASAPException, InterruptedException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        Collection<CharSequence> formats = new ArrayList<>();
+        formats.add("app/x-test");
+
+        ASAPInternalPeer alice = ASAPInternalPeerFS.createASAPPeer(TestConstants.ALICE_NAME,
+                ROOTFOLDER + TestConstants.ALICE_NAME, formats, null);
+        ASAPInternalPeer bob = ASAPInternalPeerFS.createASAPPeer(TestConstants.BOB_NAME,
+                ROOTFOLDER + TestConstants.BOB_NAME, formats, null);
+
+        ASAPCapabilities.setSupported(CAPABILITY, true);
+        TCPStream aliceStream = new TCPStream(PORT, true, "alice2bob");
+        TCPStream bobStream = new TCPStream(PORT, false, "bob2alice");
+        try {
+            aliceStream.start();
+            bobStream.start();
+            aliceStream.waitForConnection();
+            bobStream.waitForConnection();
+
+            ASAPConnection aliceConnection =
+                    alice.handleConnection(aliceStream.getInputStream(), aliceStream.getOutputStream());
+            ASAPConnection bobConnection =
+                    bob.handleConnection(bobStream.getInputStream(), bobStream.getOutputStream());
+
+            Thread.sleep(500);
+
+            Assert.assertTrue(aliceConnection.getAgreedCapabilities().contains(CAPABILITY));
+            Assert.assertTrue(bobConnection.getAgreedCapabilities().contains(CAPABILITY));
+
+            aliceConnection.kill();
+            bobConnection.kill();
+        }
+        finally {
+            ASAPCapabilities.setSupported(CAPABILITY, false);
+            aliceStream.kill();
+            bobStream.kill();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package net.sharksystem.asap.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class CompressionTests {
+    public static final String ALICE_ID = "Alice";
+
+    private ASAPConnectionOutputStream createConnectionStream(ByteArrayOutputStream baos, boolean agreeDeflate) {
+        ASAPConnectionOutputStream os = new ASAPConnectionOutputStream(baos);
+        os.peerAcceptsProtocolVersion(ASAP_1_1.VERSION_1_1);
+        Set<String> peerCapabilities = new HashSet<>();
+        if(agreeDeflate) peerCapabilities.add(ASAPCompression.DEFLATE);
+        os.agreeCapabilities(peerCapabilities);
+        return os;
+    }
+
+    private ASAP_AssimilationPDU_1_0 sendAndReceive(byte[] data, List<Long> offsets, ASAPConnectionOutputStream os,
+                                                    ByteArrayOutputStream baos) throws IOException, ASAPException {
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+        baos.reset();
+        protocolEngine.assimilate(ALICE_ID, null, "format", "channel", 1, offsets, null, data, os, false);
+        return (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    @Test
+    public void compressibleDataAreCompressed() throws IOException, ASAPException {
+        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+        List<Long> offsets = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            if(i > 0) offsets.add((long) dataStream.size());
+            dataStream.write(("{\"sensor\": \"temperature\", \"value\": " + (20 + i % 7) + "}").getBytes());
+        }
+        byte[] data = dataStream.toByteArray();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = this.createConnectionStream(baos, true);
+        ASAP_AssimilationPDU_1_0 pdu = this.sendAndReceive(data, offsets, os, baos);
+
+        Assert.assertTrue(pdu.compressed());
+        Assert.assertEquals(data.length, pdu.getLength());
+        Assert.assertTrue(pdu.getTransmittedLength() * 5 < data.length);
+        Assert.assertTrue(baos.size() * 5 < data.length);
+        Assert.assertEquals(offsets, pdu.getLongMessageOffsets());
+        Assert.assertArrayEquals(data, pdu.getData());
+
+        ASAPConnectionStatistics statistics = ASAPConnectionOutputStream.getStatistics(os);
+        Assert.assertEquals(1, statistics.getCompressedPDUsSent());
+        Assert.assertEquals(data.length, statistics.getPayloadBytesSent());
+        Assert.assertEquals(pdu.getTransmittedLength(), statistics.getTransmittedBytesSent());
+    }
+
+    @Test
+    public void incompressibleDataAreSentAsTheyAre() throws IOException, ASAPException {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = this.createConnectionStream(baos, true);
+        ASAP_AssimilationPDU_1_0 pdu = this.sendAndReceive(data, null, os, baos);
+
+        Assert.assertFalse(pdu.compressed());
+        Assert.assertArrayEquals(data, pdu.getData());
+
+        ASAPConnectionStatistics statistics = ASAPConnectionOutputStream.getStatistics(os);
+        Assert.assertEquals(0, statistics.getCompressedPDUsSent());
+        Assert.assertEquals(1, statistics.getIncompressiblePDUsSent());
+        Assert.assertEquals(data.length, statistics.getTransmittedBytesSent());
+    }
+
+    @Test
+    public void noCompressionUnlessAgreed() throws IOException, ASAPException {
+        byte[] data = new byte[10000]; // zeros - very compressible
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = this.createConnectionStream(baos, false);
+        ASAP_AssimilationPDU_1_0 pdu = this.sendAndReceive(data, null, os, baos);
+        Assert.assertFalse(pdu.compressed());
+
+        // small payloads are not compressed either
+        os = this.createConnectionStream(baos, true);
+        pdu = this.sendAndReceive(new byte[ASAPCompression.DEFAULT_MIN_SIZE - 1], null, os, baos);
+        Assert.assertFalse(pdu.compressed());
+    }
+
+    @Test
+    public void payloadsBeyondMaxSizeAreSentAsTheyAre() throws IOException, ASAPException {
+        byte[] data = new byte[10000]; // zeros - very compressible
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = this.createConnectionStream(baos, true);
+        try {
+            // would take too much memory
+            ASAPCompression.setMaxSize(data.length - 1);
+            ASAP_AssimilationPDU_1_0 pdu = this.sendAndReceive(data, null, os, baos);
+            Assert.assertFalse(pdu.compressed());
+            Assert.assertArrayEquals(data, pdu.getData());
+        }
+        finally {
+            ASAPCompression.setMaxSize(ASAPCompression.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    @Test
+    public void compressedPayloadIsDecompressedFromStream() throws IOException, ASAPException {
+        byte[] data = new byte[100000]; // zeros - very compressible
+        byte[] secondData = "second pdu follows in same stream".getBytes();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = this.createConnectionStream(baos, true);
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+        protocolEngine.assimilate(ALICE_ID, null, "format", "channel", 1, null, null, data, os, false);
+        protocolEngine.assimilate(ALICE_ID, null, "format", "channel", 2, null, null, secondData, os, false);
+
+        // read in small steps - nothing may be taken from next pdu
+        ByteArrayInputStream is = new ByteArrayInputStream(baos.toByteArray());
+        ASAP_AssimilationPDU_1_0 pdu = (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(is);
+        Assert.assertTrue(pdu.compressed());
+        InputStream dataIS = pdu.getInputStream();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100];
+        for(int read = dataIS.read(buffer); read > 0; read = dataIS.read(buffer)) {
+            received.write(buffer, 0, read);
+        }
+        Assert.assertArrayEquals(data, received.toByteArray());
+
+        pdu = (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(is);
+        Assert.assertEquals(2, pdu.getEra());
+        Assert.assertArrayEquals(secondData, pdu.getData());
+        Assert.assertEquals(0, is.available());
+    }
+
+    /** deflate - remembers if decompressing streams are closed */
+    private class ClosingObservedCodec implements ASAPCompressionCodec {
+        final List<Boolean> closed = new ArrayList<>();
+        private final ASAPCompressionCodec deflate = new DeflateCodec();
+
+        @Override
+        public String getName() { return "compression/test"; }
+
+        @Override
+        public void compress(byte[] data, int offset, int length, OutputStream os) throws IOException {
+            this.deflate.compress(data, offset, length, os);
+        }
+
+        @Override
+        public InputStream decompress(InputStream is) throws IOException {
+            final int index = this.closed.size();
+            this.closed.add(false);
+            return new FilterInputStream(this.deflate.decompress(is)) {
+                @Override
+                public void close() throws IOException {
+                    closed.set(index, true);
+                    super.close();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void codecStreamIsClosed() throws IOException, ASAPException {
+        ClosingObservedCodec codec = new ClosingObservedCodec();
+        ASAPCompression.register(codec);
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ASAPConnectionOutputStream os = new ASAPConnectionOutputStream(baos);
+            os.peerAcceptsProtocolVersion(ASAP_1_1.VERSION_1_1);
+            Set<String> peerCapabilities = new HashSet<>();
+            peerCapabilities.add(codec.getName());
+            os.agreeCapabilities(peerCapabilities);
+
+            byte[] data = new byte[10000]; // zeros - very compressible
+            ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+            protocolEngine.assimilate(ALICE_ID, null, "format", "channel", 1, null, null, data, os, false);
+            byte[] pduBytes = baos.toByteArray();
+
+            // all data read
+            ASAP_AssimilationPDU_1_0 pdu = (ASAP_AssimilationPDU_1_0)
+                    protocolEngine.readPDU(new ByteArrayInputStream(pduBytes));
+            Assert.assertTrue(pdu.compressed());
+            Assert.assertArrayEquals(data, pdu.getData());
+            Assert.assertTrue(codec.closed.get(0));
+
+            // compressed data end too early
+            byte[] truncated = new byte[pduBytes.length - 5];
+            System.arraycopy(pduBytes, 0, truncated, 0, truncated.length);
+            pdu = (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(new ByteArrayInputStream(truncated));
+            try {
+                pdu.getData();
+                Assert.fail("compressed data are incomplete");
+            }
+            catch(IOException e) {
+                // expected
+            }
+            Assert.assertTrue(codec.closed.get(1));
+        }
+        finally {
+            ASAPCompression.unregister(codec.getName());
+        }
+    }
+
+    @Test
+    public void receiverLimitsDoNotDependOnSendersMaxSize() throws IOException, ASAPException {
+        byte[] data = new byte[64 * 1024];
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = this.createConnectionStream(baos, true);
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+        protocolEngine.assimilate(ALICE_ID, null, "format", "channel", 1, null, null, data, os, false);
+        byte[] pduBytes = baos.toByteArray();
+
+        try {
+            // this peer would not compress that much - but takes it
+            ASAPCompression.setMaxSize(pduBytes.length / 2);
+            ASAP_AssimilationPDU_1_0 pdu = (ASAP_AssimilationPDU_1_0)
+                    protocolEngine.readPDU(new ByteArrayInputStream(pduBytes));
+            Assert.assertTrue(pdu.compressed());
+            Assert.assertArrayEquals(data, pdu.getData());
+
+            // too much growth: decompression bomb
+            ASAPCompression.setMaxExpansion(10);
+            try {
+                protocolEngine.readPDU(new ByteArrayInputStream(pduBytes));
+                Assert.fail("data expand more than allowed");
+            }
+            catch(ASAPException e) {
+                // expected
+            }
+        }
+        finally {
+            ASAPCompression.setMaxSize(ASAPCompression.DEFAULT_MAX_SIZE);
+            ASAPCompression.setMaxExpansion(ASAPCompression.DEFAULT_MAX_EXPANSION);
+        }
+    }
+}
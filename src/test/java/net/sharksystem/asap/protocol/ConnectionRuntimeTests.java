@@ -0,0 +1,285 @@
+package net.sharksystem.asap.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.ASAPHop;
+import net.sharksystem.asap.ASAPMessages;
+import net.sharksystem.asap.cmdline.TCPStream;
+import net.sharksystem.asap.engine.ASAPChunkAssimilatedListener;
+import net.sharksystem.asap.engine.ASAPEngine;
+import net.sharksystem.asap.engine.ASAPInternalPeer;
+import net.sharksystem.asap.engine.ASAPInternalPeerFS;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConnectionRuntimeTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + ConnectionRuntimeTests.class.getSimpleName() + "/";
+    static final String FORMAT = "app/x-runtime";
+    static final int PORT = 7094;
+    static final int CHANNELS = 100;
+
+    private class CountingListener implements ASAPChunkAssimilatedListener {
+        final AtomicInteger stored = new AtomicInteger();
+        final long sleepMS;
+
+        CountingListener(long sleepMS) {
+            this.sleepMS = sleepMS;
+        }
+
+        @Override
+        public void chunkStored(String format, String senderE2E, String uri, int era, List<ASAPHop> asapHop) {
+            if(this.sleepMS > 0) {
+                try {
+                    Thread.sleep(this.sleepMS);
+                } catch (InterruptedException e) {
+                    // connection gave up on us
+                }
+            }
+            this.stored.incrementAndGet();
+        }
+
+        @Override
+        public void transientMessagesReceived(ASAPMessages transientMessages, ASAPHop asapHop) { }
+    }
+
+    private Collection<CharSequence> formats() {
+        Collection<CharSequence> formats = new ArrayList<>();
+        formats.add(FORMAT);
+        return formats;
+    }
+
+    private ASAPInternalPeer createAliceWithChannels(int channels) throws IOException, ASAPException {
+        ASAPInternalPeer alice = ASAPInternalPeerFS.createASAPPeer(TestConstants.ALICE_NAME,
+                ROOTFOLDER + TestConstants.ALICE_NAME, this.formats(), null);
+
+        ASAPEngine aliceEngine = alice.getASAPEngine(FORMAT);
+        for(int i = 0; i < channels; i++) {
+            aliceEngine.add("sn2://channel" + i, ("message" + i).getBytes());
+        }
+        return alice;
+    }
+
+    @Test
+    public void noThreadPerPDU() throws IOException, ASAPException, InterruptedException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        ASAPInternalPeer alice = this.createAliceWithChannels(CHANNELS);
+        CountingListener bobListener = new CountingListener(0);
+        ASAPInternalPeer bob = ASAPInternalPeerFS.createASAPPeer(TestConstants.BOB_NAME,
+                ROOTFOLDER + TestConstants.BOB_NAME, this.formats(), bobListener);
+
+        ASAPConnectionRuntime.setMaxExecutionThreads(4);
+        TCPStream aliceStream = new TCPStream(PORT, true, "alice2bob");
+        TCPStream bobStream = new TCPStream(PORT, false, "bob2alice");
+        try {
+            aliceStream.start();
+            bobStream.start();
+            aliceStream.waitForConnection();
+            bobStream.waitForConnection();
+
+            long threadsBefore = ManagementFactory.getThreadMXBean().getTotalStartedThreadCount();
+            ASAPConnection aliceConnection =
+                    alice.handleConnection(aliceStream.getInputStream(), aliceStream.getOutputStream());
+            ASAPConnection bobConnection =
+                    bob.handleConnection(bobStream.getInputStream(), bobStream.getOutputStream());
+
+            for(int i = 0; i < 100 && bobListener.stored.get() < CHANNELS; i++) Thread.sleep(100);
+            long threadsStarted = ManagementFactory.getThreadMXBean().getTotalStartedThreadCount() - threadsBefore;
+
+            Assert.assertEquals(CHANNELS, bobListener.stored.get());
+            // two threads per pdu before: reader and executor
+            Assert.assertTrue("started threads: " + threadsStarted, threadsStarted < 20);
+
+            aliceConnection.kill();
+            bobConnection.kill();
+        }
+        finally {
+            ASAPConnectionRuntime.setMaxExecutionThreads(ASAPConnectionRuntime.DEFAULT_MAX_EXECUTION_THREADS);
+            aliceStream.kill();
+            bobStream.kill();
+        }
+    }
+
+    @Test
+    public void processingTooLongTerminatesConnection() throws IOException, ASAPException, InterruptedException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        ASAPInternalPeer alice = this.createAliceWithChannels(1);
+        CountingListener bobListener = new CountingListener(5000);
+        ASAPInternalPeer bob = ASAPInternalPeerFS.createASAPPeer(TestConstants.BOB_NAME,
+                ROOTFOLDER + TestConstants.BOB_NAME, 500, this.formats(), bobListener);
+
+        TCPStream aliceStream = new TCPStream(PORT + 1, true, "alice2bob");
+        TCPStream bobStream = new TCPStream(PORT + 1, false, "bob2alice");
+        try {
+            aliceStream.start();
+            bobStream.start();
+            aliceStream.waitForConnection();
+            bobStream.waitForConnection();
+
+            ASAPConnection aliceConnection =
+                    alice.handleConnection(aliceStream.getInputStream(), aliceStream.getOutputStream());
+            bob.handleConnection(bobStream.getInputStream(), bobStream.getOutputStream());
+
+            for(int i = 0; i < 20 && !bob.existASAPConnection(TestConstants.ALICE_NAME); i++) Thread.sleep(100);
+            Assert.assertTrue(bob.existASAPConnection(TestConstants.ALICE_NAME));
+
+            // listener blocks processing - connection is terminated after 500 ms
+            Thread.sleep(2000);
+            Assert.assertFalse(bob.existASAPConnection(TestConstants.ALICE_NAME));
+
+            aliceConnection.kill();
+        }
+        finally {
+            aliceStream.kill();
+            bobStream.kill();
+        }
+    }
+
+    /**
+     * Transport that takes nothing until closed
+     */
+    private class StalledOutputStream extends OutputStream {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final CountDownLatch writerReleased = new CountDownLatch(1);
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.writing.countDown();
+            // like socket streams: interrupts do not help
+            while(this.closed.getCount() > 0) {
+                try {
+                    this.closed.await();
+                } catch (InterruptedException e) {
+                    // still stalled
+                }
+            }
+            this.writerReleased.countDown();
+            throw new IOException("stream closed");
+        }
+
+        @Override
+        public void close() {
+            this.closed.countDown();
+        }
+    }
+
+    @Test
+    public void killReleasesStalledWriter() throws IOException, ASAPException, InterruptedException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        ASAPInternalPeer alice = this.createAliceWithChannels(1);
+
+        StalledOutputStream stalledOS = new StalledOutputStream();
+        ASAPConnection aliceConnection =
+                alice.handleConnection(new PipedInputStream(new PipedOutputStream()), stalledOS);
+
+        // interests are pushed - transport takes nothing
+        Assert.assertTrue(stalledOS.writing.await(5, TimeUnit.SECONDS));
+        aliceConnection.kill();
+        Assert.assertTrue(stalledOS.writerReleased.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void payloadLeftInStreamIsProcessed() throws IOException, ASAPException, InterruptedException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        ASAPInternalPeer alice = this.createAliceWithChannels(10);
+        CountingListener bobListener = new CountingListener(0);
+        ASAPInternalPeer bob = ASAPInternalPeerFS.createASAPPeer(TestConstants.BOB_NAME,
+                ROOTFOLDER + TestConstants.BOB_NAME, this.formats(), bobListener);
+
+        // no payload is read ahead - reader waits for each assimilate pdu
+        ASAPConnectionRuntime.setMaxPipelinedPayload(0);
+        TCPStream aliceStream = new TCPStream(PORT + 2, true, "alice2bob");
+        TCPStream bobStream = new TCPStream(PORT + 2, false, "bob2alice");
+        try {
+            aliceStream.start();
+            bobStream.start();
+            aliceStream.waitForConnection();
+            bobStream.waitForConnection();
+
+            ASAPConnection aliceConnection =
+                    alice.handleConnection(aliceStream.getInputStream(), aliceStream.getOutputStream());
+            ASAPConnection bobConnection =
+                    bob.handleConnection(bobStream.getInputStream(), bobStream.getOutputStream());
+
+            for(int i = 0; i < 100 && bobListener.stored.get() < 10; i++) Thread.sleep(100);
+            Assert.assertEquals(10, bobListener.stored.get());
+
+            aliceConnection.kill();
+            bobConnection.kill();
+        }
+        finally {
+            ASAPConnectionRuntime.setMaxPipelinedPayload(ASAPConnectionRuntime.DEFAULT_MAX_PIPELINED_PAYLOAD);
+            aliceStream.kill();
+            bobStream.kill();
+        }
+    }
+
+    @Test
+    public void connectionsBeyondMaxAreRefused() throws IOException, ASAPException, InterruptedException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        ASAPInternalPeer alice = this.createAliceWithChannels(1);
+
+        ASAPConnectionRuntime.setMaxConnections(1);
+        try {
+            // keeps its reader - transport takes nothing
+            StalledOutputStream firstOS = new StalledOutputStream();
+            ASAPConnection first = alice.handleConnection(new PipedInputStream(new PipedOutputStream()), firstOS);
+            Assert.assertTrue(firstOS.writing.await(5, TimeUnit.SECONDS));
+
+            // no reader left - refused and closed at once
+            StalledOutputStream secondOS = new StalledOutputStream();
+            alice.handleConnection(new PipedInputStream(new PipedOutputStream()), secondOS);
+            Assert.assertEquals(0, secondOS.closed.getCount());
+            Assert.assertEquals(1, secondOS.writing.getCount());
+
+            // reader is free again
+            first.kill();
+            Assert.assertTrue(firstOS.writerReleased.await(5, TimeUnit.SECONDS));
+            Thread.sleep(500);
+            StalledOutputStream thirdOS = new StalledOutputStream();
+            ASAPConnection third = alice.handleConnection(new PipedInputStream(new PipedOutputStream()), thirdOS);
+            Assert.assertTrue(thirdOS.writing.await(5, TimeUnit.SECONDS));
+            third.kill();
+        }
+        finally {
+            ASAPConnectionRuntime.setMaxConnections(ASAPConnectionRuntime.DEFAULT_MAX_CONNECTIONS);
+        }
+    }
+
+    @Test
+    public void virtualThreadsOnlyIfAvailable() {
+        boolean available;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            available = true;
+        } catch (NoSuchMethodException e) {
+            available = false;
+        }
+
+        try {
+            Assert.assertEquals(available, ASAPConnectionRuntime.setUseVirtualThreads(true));
+            Assert.assertEquals(available, ASAPConnectionRuntime.usesVirtualThreads());
+        }
+        finally {
+            Assert.assertFalse(ASAPConnectionRuntime.setUseVirtualThreads(false));
+        }
+    }
+}
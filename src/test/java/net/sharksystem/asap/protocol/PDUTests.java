@@ -2,7 +2,10 @@ package net.sharksystem.asap.protocol;
 
 import net.sharksystem.asap.ASAPException;
 import net.sharksystem.asap.ASAPSecurityException;
+import net.sharksystem.asap.crypto.ASAPCryptoAlgorithms;
+import net.sharksystem.asap.crypto.ASAPFramedCipher;
 import net.sharksystem.asap.crypto.InMemoASAPKeyStore;
+import net.sharksystem.asap.engine.ASAPUndecryptableMessageHandler;
 import net.sharksystem.asap.protocol.*;
 import org.junit.Assert;
 import org.junit.Test;
@@ -10,7 +13,9 @@ import org.junit.Test;
 import java.io.*;
 import java.security.KeyPair;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class PDUTests {
     public static final String ALICE_ID = "Alice";
@@ -572,4 +577,375 @@ public class PDUTests {
         Assert.assertTrue(new String(data_r1).equalsIgnoreCase(testString1));
         Assert.assertTrue(new String(data_r2).equalsIgnoreCase(testString2));
     }
+
+    @Test
+    public void asap_1_1_assimilate() throws IOException, ASAPException {
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+
+        byte[] data = "message 1message 2".getBytes();
+        List<Long> offsetsList = new ArrayList<>();
+        offsetsList.add(9L);
+        // beyond 32 bit - not checked against data length
+        offsetsList.add(3000000000L);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = new ASAPConnectionOutputStream(baos);
+        os.peerAcceptsProtocolVersion(ASAP_1_1.VERSION_1_1);
+
+        protocolEngine.assimilate(ALICE_ID, BOB_ID, "format", "channel", 42, offsetsList, null, data,
+                os, false);
+
+        ASAP_AssimilationPDU_1_0 pdu =
+                (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(new ByteArrayInputStream(baos.toByteArray()));
+
+        Assert.assertEquals(ASAP_1_1.VERSION_1_1, pdu.getProtocolVersion());
+        Assert.assertEquals(ASAP_1_1.VERSION_1_1, pdu.getAcceptedProtocolVersion());
+        Assert.assertEquals(42, pdu.getEra());
+        Assert.assertEquals(BOB_ID, pdu.getRecipientPeer());
+        Assert.assertEquals(offsetsList, pdu.getLongMessageOffsets());
+        Assert.assertEquals(data.length, pdu.getLength());
+        Assert.assertArrayEquals(data, pdu.getData());
+    }
+
+    @Test
+    public void asap_1_1_interest() throws IOException, ASAPException {
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+
+        Map<String, Integer> encounterMap = new HashMap<>();
+        encounterMap.put(BOB_ID, 7);
+        encounterMap.put(CLARA_ID, 100000);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = new ASAPConnectionOutputStream(baos);
+        os.peerAcceptsProtocolVersion(ASAP_1_1.VERSION_1_1);
+
+        protocolEngine.interest(ALICE_ID, null, "format", "channel", 1, 300, os, false, false,
+                true, encounterMap);
+
+        ASAP_Interest_PDU_1_0 pdu =
+                (ASAP_Interest_PDU_1_0) protocolEngine.readPDU(new ByteArrayInputStream(baos.toByteArray()));
+
+        Assert.assertEquals(ASAP_1_1.VERSION_1_1, pdu.getProtocolVersion());
+        Assert.assertEquals(1, pdu.getEraFrom());
+        Assert.assertEquals(300, pdu.getEraTo());
+        Assert.assertEquals(encounterMap, pdu.getEncounterMap());
+    }
+
+    @Test
+    public void asap_1_0_unlessPeerAcceptsNewerVersion() throws IOException, ASAPException {
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+
+        byte[] data = new byte[1000];
+        List<Long> offsetsList = new ArrayList<>();
+        for(long offset = 10; offset < data.length; offset += 10) offsetsList.add(offset);
+
+        // peer version unknown
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream os = new ASAPConnectionOutputStream(baos);
+        protocolEngine.assimilate(ALICE_ID, null, "format", "channel", 1, offsetsList, null, data, os, false);
+        byte[] pdu_1_0 = baos.toByteArray();
+
+        ASAP_AssimilationPDU_1_0 pdu =
+                (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(new ByteArrayInputStream(pdu_1_0));
+        Assert.assertEquals(ASAP_1_1.VERSION_1_0, pdu.getProtocolVersion());
+        // but tells that it reads 1.1
+        Assert.assertEquals(ASAP_1_1.VERSION_1_1, pdu.getAcceptedProtocolVersion());
+        Assert.assertEquals(offsetsList, pdu.getLongMessageOffsets());
+
+        // peer declared it reads 1.1
+        os.peerAcceptsProtocolVersion(pdu.getAcceptedProtocolVersion());
+        baos.reset();
+        protocolEngine.assimilate(ALICE_ID, null, "format", "channel", 1, offsetsList, null, data, os, false);
+        byte[] pdu_1_1 = baos.toByteArray();
+
+        pdu = (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(new ByteArrayInputStream(pdu_1_1));
+        Assert.assertEquals(ASAP_1_1.VERSION_1_1, pdu.getProtocolVersion());
+        Assert.assertEquals(offsetsList, pdu.getLongMessageOffsets());
+        Assert.assertArrayEquals(data, pdu.getData());
+
+        // one byte per offset instead of two or three digits and a delimiter
+        Assert.assertTrue(pdu_1_1.length + 200 < pdu_1_0.length);
+    }
+
+    @Test
+    public void sendAndReceiveLargeAssimilateSigned() throws IOException, ASAPException {
+        InMemoASAPKeyStore keyStorageAlice = new InMemoASAPKeyStore(ALICE_ID);
+        KeyPair bobKeyPair = keyStorageAlice.createTestPeer(BOB_ID);
+        InMemoASAPKeyStore keyStorageBob = new InMemoASAPKeyStore(BOB_ID,bobKeyPair,System.currentTimeMillis());
+        keyStorageBob.addKeyPair(ALICE_ID, keyStorageAlice.getKeyPair());
+
+        ASAP_1_0 asapModemAlice = new ASAP_Modem_Impl(keyStorageAlice);
+        ASAP_1_0 asapModemBob = new ASAP_Modem_Impl(keyStorageBob);
+
+        // larger than received data kept in memory
+        byte[] data = new byte[(int) ASAP_Modem_Impl.getMaxSignedDataInMemory() * 3];
+        new java.util.Random(42).nextBytes(data);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        asapModemAlice.assimilate(ALICE_ID, BOB_ID, "format", "AliceURI", 1, null, null, data, os,
+                true, false);
+        byte[] pduBytes = os.toByteArray();
+
+        ASAP_AssimilationPDU_1_0 assimilationPDU =
+                (ASAP_AssimilationPDU_1_0) asapModemBob.readPDU(new ByteArrayInputStream(pduBytes));
+        Assert.assertTrue(assimilationPDU.signed());
+        Assert.assertTrue(assimilationPDU.verified());
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        assimilationPDU.streamData(received);
+        Assert.assertArrayEquals(data, received.toByteArray());
+
+        // change a byte in the middle of data
+        pduBytes[pduBytes.length / 2]++;
+        assimilationPDU = (ASAP_AssimilationPDU_1_0) asapModemBob.readPDU(new ByteArrayInputStream(pduBytes));
+        Assert.assertTrue(assimilationPDU.signed());
+        Assert.assertFalse(assimilationPDU.verified());
+    }
+
+    @Test
+    public void signedDataFilesAreClosedWhenRead() throws IOException, ASAPException {
+        // open file descriptors can only be counted on linux
+        File fdFolder = new File("/proc/self/fd");
+        if(!fdFolder.isDirectory()) return;
+
+        InMemoASAPKeyStore keyStorageAlice = new InMemoASAPKeyStore(ALICE_ID);
+        KeyPair bobKeyPair = keyStorageAlice.createTestPeer(BOB_ID);
+        InMemoASAPKeyStore keyStorageBob = new InMemoASAPKeyStore(BOB_ID,bobKeyPair,System.currentTimeMillis());
+        keyStorageBob.addKeyPair(ALICE_ID, keyStorageAlice.getKeyPair());
+
+        ASAP_1_0 asapModemAlice = new ASAP_Modem_Impl(keyStorageAlice);
+        ASAP_1_0 asapModemBob = new ASAP_Modem_Impl(keyStorageBob);
+
+        byte[] data = new byte[4096];
+        new java.util.Random(42).nextBytes(data);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        asapModemAlice.assimilate(ALICE_ID, BOB_ID, "format", "AliceURI", 1, null, null, data, os,
+                true, false);
+        byte[] pduBytes = os.toByteArray();
+
+        try {
+            // data wait in temporary files
+            ASAP_Modem_Impl.setMaxSignedDataInMemory(1024);
+            int openFiles = fdFolder.list().length;
+            for(int i = 0; i < 100; i++) {
+                ASAP_AssimilationPDU_1_0 assimilationPDU =
+                        (ASAP_AssimilationPDU_1_0) asapModemBob.readPDU(new ByteArrayInputStream(pduBytes));
+                Assert.assertTrue(assimilationPDU.verified());
+                ByteArrayOutputStream received = new ByteArrayOutputStream();
+                assimilationPDU.streamData(received);
+                Assert.assertArrayEquals(data, received.toByteArray());
+            }
+            Assert.assertTrue(fdFolder.list().length < openFiles + 10);
+        }
+        finally {
+            ASAP_Modem_Impl.setMaxSignedDataInMemory(ASAP_Modem_Impl.DEFAULT_MAX_SIGNED_DATA_IN_MEMORY);
+        }
+    }
+
+    private ASAPConnectionOutputStream framedEncryptionConnection(OutputStream os, String encounteredPeer) {
+        ASAPConnectionOutputStream connectionOS = new ASAPConnectionOutputStream(os);
+        connectionOS.setEncounteredPeer(encounteredPeer);
+        connectionOS.peerAcceptsProtocolVersion(ASAP_1_1.VERSION_1_1);
+        connectionOS.agreeCapabilities(ASAPCapabilities.getSupported());
+        return connectionOS;
+    }
+
+    @Test
+    public void sendAndReceiveAssimilateFramedEncryption() throws IOException, ASAPException {
+        InMemoASAPKeyStore keyStorageAlice = new InMemoASAPKeyStore(ALICE_ID);
+        KeyPair bobKeyPair = keyStorageAlice.createTestPeer(BOB_ID);
+        InMemoASAPKeyStore keyStorageBob = new InMemoASAPKeyStore(BOB_ID,bobKeyPair,System.currentTimeMillis());
+        keyStorageBob.addKeyPair(ALICE_ID, keyStorageAlice.getKeyPair());
+
+        ASAP_1_0 asapModemAlice = new ASAP_Modem_Impl(keyStorageAlice);
+        ASAP_1_0 asapModemBob = new ASAP_Modem_Impl(keyStorageBob);
+
+        // many frames
+        byte[] data = new byte[ASAPFramedCipher.getFrameSize() * 10 + 42];
+        new java.util.Random(42).nextBytes(data);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream connectionOS = this.framedEncryptionConnection(os, BOB_ID);
+        asapModemAlice.assimilate(ALICE_ID, BOB_ID, "format", "AliceURI", 1, null, null, data, connectionOS,
+                true, true);
+        // next pdu follows right after last frame
+        asapModemAlice.interest(ALICE_ID, BOB_ID, "format", "AliceURI", 1, 2, connectionOS, false, true);
+        byte[] pduBytes = os.toByteArray();
+        Assert.assertTrue((pduBytes[0] & ASAP_1_1.FRAMED_ENCRYPTION_MASK) != 0);
+
+        InputStream is = new ByteArrayInputStream(pduBytes);
+        ASAP_AssimilationPDU_1_0 assimilationPDU = (ASAP_AssimilationPDU_1_0) asapModemBob.readPDU(is);
+        Assert.assertTrue(assimilationPDU.encrypted());
+        Assert.assertTrue(assimilationPDU.verified());
+        Assert.assertArrayEquals(data, assimilationPDU.getData());
+
+        ASAP_Interest_PDU_1_0 interestPDU = (ASAP_Interest_PDU_1_0) asapModemBob.readPDU(is);
+        Assert.assertTrue(interestPDU.encrypted());
+        Assert.assertEquals(2, interestPDU.getEraTo());
+        Assert.assertEquals(-1, is.read());
+
+        // frames are authenticated
+        pduBytes[pduBytes.length / 4]++;
+        try {
+            // signed: data are read with pdu
+            asapModemBob.readPDU(new ByteArrayInputStream(pduBytes));
+            Assert.fail("changed frame must not be decrypted");
+        }
+        catch(IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * @return position of each frame in a framed PDU - PDU only
+     */
+    private List<Integer> framePositions(byte[] pduBytes) throws IOException, ASAPException {
+        ByteArrayInputStream is = new ByteArrayInputStream(pduBytes, 1, pduBytes.length - 1); // cmd
+        ASAPFramedCipher.readHeader(is);
+        int position = pduBytes.length - is.available() + 7; // nonce prefix
+
+        List<Integer> positions = new ArrayList<>();
+        boolean last = false;
+        while(!last) {
+            positions.add(position);
+            int lengthField = new DataInputStream(new ByteArrayInputStream(pduBytes, position, 4)).readInt();
+            last = (lengthField & 0x80000000) != 0;
+            position += 4 + (lengthField & 0x7FFFFFFF) + 16; // length, data, tag
+        }
+        Assert.assertEquals(pduBytes.length, position);
+        return positions;
+    }
+
+    private void assertNotDecrypted(ASAP_1_0 asapModem, byte[] pduBytes) throws ASAPException {
+        try {
+            ASAP_AssimilationPDU_1_0 assimilationPDU =
+                    (ASAP_AssimilationPDU_1_0) asapModem.readPDU(new ByteArrayInputStream(pduBytes));
+            assimilationPDU.getData();
+            Assert.fail("manipulated frames must not be decrypted");
+        }
+        catch(IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void manipulatedFramesAreRejected() throws IOException, ASAPException {
+        InMemoASAPKeyStore keyStorageAlice = new InMemoASAPKeyStore(ALICE_ID);
+        KeyPair bobKeyPair = keyStorageAlice.createTestPeer(BOB_ID);
+        InMemoASAPKeyStore keyStorageBob = new InMemoASAPKeyStore(BOB_ID,bobKeyPair,System.currentTimeMillis());
+
+        ASAP_1_0 asapModemAlice = new ASAP_Modem_Impl(keyStorageAlice);
+        ASAP_1_0 asapModemBob = new ASAP_Modem_Impl(keyStorageBob);
+
+        byte[] data = new byte[ASAPFramedCipher.getFrameSize() * 4 + 42];
+        new java.util.Random(42).nextBytes(data);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        asapModemAlice.assimilate(ALICE_ID, BOB_ID, "format", "AliceURI", 1, null, null, data,
+                this.framedEncryptionConnection(os, BOB_ID), false, true);
+        byte[] pduBytes = os.toByteArray();
+
+        List<Integer> frames = this.framePositions(pduBytes);
+        Assert.assertEquals(5, frames.size());
+        ASAP_AssimilationPDU_1_0 assimilationPDU =
+                (ASAP_AssimilationPDU_1_0) asapModemBob.readPDU(new ByteArrayInputStream(pduBytes));
+        Assert.assertArrayEquals(data, assimilationPDU.getData());
+
+        // flip a ciphertext byte
+        byte[] flipped = pduBytes.clone();
+        flipped[frames.get(2) + 100] ^= 1;
+        this.assertNotDecrypted(asapModemBob, flipped);
+
+        // drop last frame
+        byte[] cutOff = java.util.Arrays.copyOf(pduBytes, frames.get(4));
+        this.assertNotDecrypted(asapModemBob, cutOff);
+
+        // swap two frames of same size
+        int frameLength = frames.get(2) - frames.get(1);
+        byte[] swapped = pduBytes.clone();
+        System.arraycopy(pduBytes, frames.get(1), swapped, frames.get(2), frameLength);
+        System.arraycopy(pduBytes, frames.get(2), swapped, frames.get(1), frameLength);
+        this.assertNotDecrypted(asapModemBob, swapped);
+    }
+
+    @Test
+    public void framedEncryptionNotToRecipientIsSkipped() throws IOException, ASAPException {
+        InMemoASAPKeyStore keyStorageAlice = new InMemoASAPKeyStore(ALICE_ID);
+        keyStorageAlice.createTestPeer(BOB_ID);
+        InMemoASAPKeyStore keyStorageClara = new InMemoASAPKeyStore(CLARA_ID);
+
+        ASAP_1_0 asapModemAlice = new ASAP_Modem_Impl(keyStorageAlice);
+        ASAP_1_0 asapModemClara = new ASAP_Modem_Impl(keyStorageClara);
+
+        // alice took clara for bob
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream connectionOS = this.framedEncryptionConnection(os, BOB_ID);
+        asapModemAlice.assimilate(ALICE_ID, BOB_ID, "format", "AliceURI", 1, null, null,
+                new byte[3 * ASAPFramedCipher.getFrameSize()], connectionOS, false, true);
+        asapModemAlice.interest(ALICE_ID, CLARA_ID, "format", "AliceURI", 1, 2, connectionOS, false, false);
+
+        InputStream is = new ByteArrayInputStream(os.toByteArray());
+        try {
+            asapModemClara.readPDU(is);
+            Assert.fail("clara is not recipient");
+        }
+        catch(ASAPSecurityException e) {
+            // expected
+        }
+
+        ASAP_Interest_PDU_1_0 interestPDU = (ASAP_Interest_PDU_1_0) asapModemClara.readPDU(is);
+        Assert.assertEquals(CLARA_ID, interestPDU.getRecipient());
+    }
+
+    @Test
+    public void encryptedMessageForwardedToRecipient() throws IOException, ASAPException {
+        InMemoASAPKeyStore keyStorageAlice = new InMemoASAPKeyStore(ALICE_ID);
+        KeyPair bobKeyPair = keyStorageAlice.createTestPeer(BOB_ID);
+        InMemoASAPKeyStore keyStorageBob = new InMemoASAPKeyStore(BOB_ID, bobKeyPair, System.currentTimeMillis());
+        keyStorageBob.addKeyPair(ALICE_ID, keyStorageAlice.getKeyPair());
+        InMemoASAPKeyStore keyStorageClara = new InMemoASAPKeyStore(CLARA_ID);
+
+        final List<byte[]> keptMessages = new ArrayList<>();
+        ASAPUndecryptableMessageHandler claraHandler = new ASAPUndecryptableMessageHandler() {
+            @Override
+            public void handleUndecryptableMessage(
+                    ASAPCryptoAlgorithms.EncryptedMessagePackage encryptedMessage, CharSequence receiver) {
+                try {
+                    keptMessages.add(ASAPCryptoAlgorithms.getEncryptedMessagePackageAsBytes(encryptedMessage));
+                } catch (IOException | ASAPException e) {
+                    Assert.fail(e.getLocalizedMessage());
+                }
+            }
+        };
+
+        ASAP_1_0 asapModemAlice = new ASAP_Modem_Impl(keyStorageAlice);
+        ASAP_1_0 asapModemClara = new ASAP_Modem_Impl(keyStorageClara, claraHandler);
+        ASAP_1_0 asapModemBob = new ASAP_Modem_Impl(keyStorageBob);
+
+        // alice meets clara - message for bob is not framed even if both agreed
+        byte[] data = new byte[ASAPFramedCipher.getFrameSize() * 3 + 42];
+        new java.util.Random(42).nextBytes(data);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ASAPConnectionOutputStream connectionOS = this.framedEncryptionConnection(os, CLARA_ID);
+        asapModemAlice.assimilate(ALICE_ID, BOB_ID, "format", "AliceURI", 1, null, null, data, connectionOS,
+                true, true);
+        Assert.assertEquals(0, os.toByteArray()[0] & ASAP_1_1.FRAMED_ENCRYPTION_MASK);
+
+        try {
+            asapModemClara.readPDU(new ByteArrayInputStream(os.toByteArray()));
+            Assert.fail("clara is not recipient");
+        }
+        catch(ASAPSecurityException e) {
+            // expected - but message is kept
+        }
+        Assert.assertEquals(1, keptMessages.size());
+
+        // clara meets bob and forwards message
+        ByteArrayOutputStream forwardOS = new ByteArrayOutputStream();
+        forwardOS.write(ASAP_1_0.ASSIMILATE_CMD + ASAP_1_0.ENCRYPTED_CMD);
+        forwardOS.write(keptMessages.get(0));
+
+        ASAP_AssimilationPDU_1_0 assimilationPDU = (ASAP_AssimilationPDU_1_0)
+                asapModemBob.readPDU(new ByteArrayInputStream(forwardOS.toByteArray()));
+        Assert.assertTrue(assimilationPDU.encrypted());
+        Assert.assertTrue(assimilationPDU.verified());
+        Assert.assertEquals(ALICE_ID, assimilationPDU.getSender());
+        Assert.assertArrayEquals(data, assimilationPDU.getData());
+    }
 }
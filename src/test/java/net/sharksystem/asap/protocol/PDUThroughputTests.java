@@ -0,0 +1,290 @@
+package net.sharksystem.asap.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.cmdline.TCPStream;
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.fs.FSUtils;
+import net.sharksystem.utils.streams.ChannelOutputStream;
+import net.sharksystem.utils.streams.StreamPair;
+import net.sharksystem.utils.tcp.SocketFactory;
+import net.sharksystem.utils.tcp.StreamPairCreatedListener;
+import net.sharksystem.utils.testsupport.TestConstants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares byte-by-byte stream handling (former PDU codec) with block wise PDU codec. Files are used
+ * as unbuffered streams - like sockets each read and write call is a system call. Throughput is reported
+ * but not checked - it depends on the machine. Checked is the number of stream calls. Zero copy is checked
+ * to deliver the same data as copying - it is not timed: on loopback it is not reliably faster.
+ */
+public class PDUThroughputTests {
+    static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + PDUThroughputTests.class.getSimpleName() + "/";
+    static final int DATA_SIZE = 4 * 1024 * 1024;
+    static final int PORT = 7096;
+
+    private static String mbPerSecond(long bytes, long nanos) {
+        return String.format("%.1f", (bytes / (1024.0 * 1024.0)) / (nanos / 1000000000.0));
+    }
+
+    /** counts read calls - each is a system call on unbuffered streams */
+    private static class CallCountingInputStream extends FilterInputStream {
+        long calls = 0;
+
+        CallCountingInputStream(InputStream is) { super(is); }
+
+        public int read() throws IOException { this.calls++; return this.in.read(); }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            this.calls++;
+            return this.in.read(b, off, len);
+        }
+    }
+
+    /** counts write calls - each is a system call on unbuffered streams */
+    private static class CallCountingOutputStream extends FilterOutputStream {
+        long calls = 0;
+
+        CallCountingOutputStream(OutputStream os) { super(os); }
+
+        public void write(int b) throws IOException { this.calls++; this.out.write(b); }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.calls++;
+            this.out.write(b, off, len);
+        }
+    }
+
+    @Test
+    public void assimilateThroughput() throws IOException, ASAPException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        new File(ROOTFOLDER).mkdirs();
+
+        byte[] data = new byte[DATA_SIZE];
+        new Random(42).nextBytes(data);
+        File dataFile = new File(ROOTFOLDER + "data");
+        FileOutputStream fos = new FileOutputStream(dataFile);
+        fos.write(data);
+        fos.close();
+
+        // before: each data byte is read and written with its own call
+        File byteWiseFile = new File(ROOTFOLDER + "byteWise");
+        long start = System.nanoTime();
+        CallCountingInputStream is = new CallCountingInputStream(new FileInputStream(dataFile));
+        CallCountingOutputStream os = new CallCountingOutputStream(new FileOutputStream(byteWiseFile));
+        for(int i = 0; i < DATA_SIZE; i++) os.write(is.read());
+        is.close();
+        os.close();
+        long byteWiseCalls = is.calls + os.calls;
+
+        is = new CallCountingInputStream(new FileInputStream(byteWiseFile));
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for(int i = 0; i < DATA_SIZE; i++) received.write(is.read());
+        is.close();
+        long byteWiseNanos = System.nanoTime() - start;
+        byteWiseCalls += is.calls;
+        Assert.assertArrayEquals(data, received.toByteArray());
+
+        // after: PDU codec
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+        List<Long> offsets = new ArrayList<>();
+        offsets.add((long) DATA_SIZE / 2);
+        File pduFile = new File(ROOTFOLDER + "pdu");
+
+        start = System.nanoTime();
+        is = new CallCountingInputStream(new FileInputStream(dataFile));
+        os = new CallCountingOutputStream(new FileOutputStream(pduFile));
+        protocolEngine.assimilate(TestConstants.ALICE_NAME, TestConstants.BOB_NAME, "format", "uri", 1,
+                DATA_SIZE, offsets, null, is, os, false);
+        is.close();
+        os.close();
+        long pduCalls = is.calls + os.calls;
+
+        // protocol engines read from a buffered stream
+        is = new CallCountingInputStream(new FileInputStream(pduFile));
+        ASAP_AssimilationPDU_1_0 pdu = (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(
+                new BufferedInputStream(is, ASAP_Modem_Impl.PDU_BUFFER_SIZE));
+        received = new ByteArrayOutputStream();
+        pdu.streamData(received);
+        is.close();
+        long pduNanos = System.nanoTime() - start;
+        pduCalls += is.calls;
+
+        Assert.assertEquals(DATA_SIZE, pdu.getLength());
+        Assert.assertEquals(DATA_SIZE / 2, (int) pdu.getMessageOffsets().get(0));
+        Assert.assertArrayEquals(data, received.toByteArray());
+
+        Log.writeLog(this, "byte by byte: " + mbPerSecond(DATA_SIZE, byteWiseNanos) + " MB/s, "
+                + byteWiseCalls + " stream calls | PDU codec: " + mbPerSecond(DATA_SIZE, pduNanos) + " MB/s, "
+                + pduCalls + " stream calls");
+
+        // byte by byte needs three calls per byte - codec moves data in blocks
+        Assert.assertEquals(3L * DATA_SIZE, byteWiseCalls);
+        Assert.assertTrue("PDU codec does not move data in blocks", pduCalls * 1000 < byteWiseCalls);
+    }
+
+    /** reads assimilate PDUs from a stream */
+    private class PDUReader extends Thread {
+        private final InputStream is;
+        private final int number;
+        final List<byte[]> received = new ArrayList<>();
+        Exception failure = null;
+
+        PDUReader(InputStream is, int number) {
+            this.is = new BufferedInputStream(is, ASAP_Modem_Impl.PDU_BUFFER_SIZE);
+            this.number = number;
+        }
+
+        public void run() {
+            try {
+                ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+                for(int i = 0; i < this.number; i++) {
+                    ASAP_AssimilationPDU_1_0 pdu = (ASAP_AssimilationPDU_1_0) protocolEngine.readPDU(this.is);
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    pdu.streamData(data);
+                    this.received.add(data.toByteArray());
+                }
+            } catch (Exception e) {
+                this.failure = e;
+            }
+        }
+    }
+
+    @Test
+    public void zeroCopyAssimilate() throws IOException, ASAPException, InterruptedException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        new File(ROOTFOLDER).mkdirs();
+
+        byte[] data = new byte[4 * DATA_SIZE];
+        new Random(42).nextBytes(data);
+        File dataFile = new File(ROOTFOLDER + "data");
+        FileOutputStream fos = new FileOutputStream(dataFile);
+        fos.write(data);
+        fos.close();
+
+        TCPStream aliceStream = new TCPStream(PORT, true, "alice2bob");
+        TCPStream bobStream = new TCPStream(PORT, false, "bob2alice");
+        try {
+            aliceStream.start();
+            bobStream.start();
+            aliceStream.waitForConnection();
+            bobStream.waitForConnection();
+
+            PDUReader reader = new PDUReader(bobStream.getInputStream(), 2);
+            reader.start();
+
+            final OutputStream socketOS = aliceStream.getOutputStream();
+            ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+
+            // before: stream hides transport channel - data are copied through heap
+            ASAPConnectionOutputStream copyOS = new ASAPConnectionOutputStream(new OutputStream() {
+                public void write(int b) throws IOException { socketOS.write(b); }
+                public void write(byte[] b, int off, int len) throws IOException { socketOS.write(b, off, len); }
+            });
+            protocolEngine.assimilate(TestConstants.ALICE_NAME, TestConstants.BOB_NAME, "format", "uri", 1,
+                    data.length, null, null, new FileInputStream(dataFile), copyOS, false);
+
+            // after: file is transferred into socket channel
+            ASAPConnectionOutputStream zeroCopyOS = new ASAPConnectionOutputStream(socketOS);
+            protocolEngine.assimilate(TestConstants.ALICE_NAME, TestConstants.BOB_NAME, "format", "uri", 1,
+                    data.length, null, null, new FileInputStream(dataFile), zeroCopyOS, false);
+
+            reader.join(30000);
+            Assert.assertNull(reader.failure);
+            Assert.assertEquals(2, reader.received.size());
+            Assert.assertArrayEquals(data, reader.received.get(0));
+            Assert.assertArrayEquals(data, reader.received.get(1));
+
+            Assert.assertEquals(0, ASAPConnectionOutputStream.getStatistics(copyOS).getZeroCopyPDUsSent());
+            Assert.assertEquals(1, ASAPConnectionOutputStream.getStatistics(zeroCopyOS).getZeroCopyPDUsSent());
+        }
+        finally {
+            aliceStream.kill();
+            bobStream.kill();
+        }
+    }
+
+    /** transport with a non-blocking channel that is never ready - stream writes are taken */
+    private class BusyChannelOutputStream extends ChannelOutputStream {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        BusyChannelOutputStream() {
+            super(new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer buffer) { return 0; }
+
+                @Override
+                public boolean isOpen() { return true; }
+
+                @Override
+                public void close() { }
+            });
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.received.write(b, off, len);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void zeroCopyFallsBackToStreamCopy() throws IOException, ASAPException {
+        FSUtils.removeFolder(ROOTFOLDER);
+        new File(ROOTFOLDER).mkdirs();
+
+        byte[] data = new byte[DATA_SIZE / 16];
+        new Random(42).nextBytes(data);
+        File dataFile = new File(ROOTFOLDER + "data");
+        FileOutputStream fos = new FileOutputStream(dataFile);
+        fos.write(data);
+        fos.close();
+
+        BusyChannelOutputStream transport = new BusyChannelOutputStream();
+        ASAPConnectionOutputStream os = new ASAPConnectionOutputStream(transport);
+        ASAP_1_0 protocolEngine = new ASAP_Modem_Impl();
+        protocolEngine.assimilate(TestConstants.ALICE_NAME, TestConstants.BOB_NAME, "format", "uri", 1,
+                data.length, null, null, new FileInputStream(dataFile), os, false);
+        Assert.assertEquals(0, ASAPConnectionOutputStream.getStatistics(os).getZeroCopyPDUsSent());
+
+        ASAP_AssimilationPDU_1_0 pdu = (ASAP_AssimilationPDU_1_0)
+                protocolEngine.readPDU(new ByteArrayInputStream(transport.received.toByteArray()));
+        Assert.assertArrayEquals(data, pdu.getData());
+    }
+
+    @Test
+    public void socketFactoryExposesChannel() throws IOException, InterruptedException {
+        final List<StreamPair> streamPairs = new ArrayList<>();
+        final CountDownLatch accepted = new CountDownLatch(1);
+        SocketFactory socketFactory = new SocketFactory(PORT + 1, new StreamPairCreatedListener() {
+            @Override
+            public void streamPairCreated(StreamPair streamPair) {
+                streamPairs.add(streamPair);
+                accepted.countDown();
+            }
+        });
+        new Thread(socketFactory).start();
+
+        Socket peer = new Socket("localhost", PORT + 1);
+        try {
+            Assert.assertTrue(accepted.await(5, TimeUnit.SECONDS));
+            OutputStream os = new ASAPConnectionOutputStream(streamPairs.get(0).getOutputStream());
+            Assert.assertNotNull(ASAPConnectionOutputStream.getChannel(os));
+        }
+        finally {
+            peer.close();
+            // accept could have failed - keep assertion failure visible
+            if(!streamPairs.isEmpty()) streamPairs.get(0).close();
+            socketFactory.close();
+        }
+    }
+}
@@ -79,4 +79,29 @@ public class SerializationTests {
             Assert.assertTrue(origHop.getConnectionType() == receivedHop.getConnectionType());
         }
     }
+
+    @Test
+    public void variableLengthNumbers() throws IOException, ASAPException {
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, 3000000000L, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for(long value : values) {
+            ASAPSerialization.writeVarLongParameter(value, baos);
+            ASAPSerialization.writeZigZagLongParameter(value, baos);
+        }
+        ASAPSerialization.writeVarIntParameter(Integer.MAX_VALUE, baos);
+
+        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        for(long value : values) {
+            Assert.assertEquals(value, ASAPSerialization.readVarLongParameter(bais));
+            Assert.assertEquals(value, ASAPSerialization.readZigZagLongParameter(bais));
+        }
+        Assert.assertEquals(Integer.MAX_VALUE, ASAPSerialization.readVarIntParameter(bais));
+
+        // small numbers take a single byte - small negative numbers too if zig-zag encoded
+        baos = new ByteArrayOutputStream();
+        ASAPSerialization.writeVarLongParameter(127, baos);
+        ASAPSerialization.writeZigZagLongParameter(-64, baos);
+        Assert.assertEquals(2, baos.size());
+    }
 }
@@ -3,13 +3,20 @@ package net.sharksystem.asap.storage;
 import net.sharksystem.utils.fs.FSUtils;
 import net.sharksystem.utils.testsupport.TestConstants;
 import net.sharksystem.asap.*;
+import net.sharksystem.asap.engine.ASAPAbstractOnlineMessageSender;
 import net.sharksystem.asap.engine.ASAPEngine;
 import net.sharksystem.asap.engine.ASAPEngineFS;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class StorageTests {
     static final String ROOTFOLDER = TestConstants.ROOT_DIRECTORY + StorageTests.class.getSimpleName() + "/";
@@ -206,4 +213,118 @@ public class StorageTests {
         msg = messages.getMessage(5, true);
         Assert.assertTrue(msg[0] == 3 || msg[0] == 5); // comes from B or C
     }
+
+    @Test
+    public void addAll() throws IOException, ASAPException {
+        String testFolder = ALICEFOLDER + "_Test_5";
+        FSUtils.removeFolder(testFolder);
+        ASAPEngine storage = ASAPEngineFS.getASAPStorage(TestConstants.ALICE_NAME, testFolder, FORMAT);
+
+        // remember what would be sent online
+        final List<byte[]> sentData = new ArrayList<>();
+        final List<List<Long>> sentOffsets = new ArrayList<>();
+        storage.attachASAPMessageAddListener(new ASAPAbstractOnlineMessageSender() {
+            @Override
+            public int sendASAPAssimilateMessage(CharSequence format, CharSequence urlTarget,
+                      Set<CharSequence> recipients, byte[] messagesAsBytes, List<Long> offsets, int era) {
+                sentData.add(messagesAsBytes);
+                sentOffsets.add(offsets);
+                return 1;
+            }
+
+            @Override
+            public void sendASAPAssimilateMessage(CharSequence format, CharSequence urlTarget,
+                      Set<CharSequence> recipients, byte[] messageAsBytes, int era) {
+                Assert.fail("batch expected");
+            }
+
+            @Override
+            public void sendASAPAssimilateMessage(CharSequence format, CharSequence urlTarget,
+                      byte[] messageAsBytes, int era) {
+                Assert.fail("batch expected");
+            }
+
+            @Override
+            public void sendASAPAssimilateMessage(CharSequence format, CharSequence urlTarget,
+                      byte[] messageAsBytes) {
+                Assert.fail("batch expected");
+            }
+        });
+
+        List<byte[]> messages = new ArrayList<>();
+        messages.add("first".getBytes());
+        messages.add("second".getBytes());
+        messages.add("3".getBytes());
+        storage.addAll(URI, messages);
+
+        ASAPMessages channelMessages = storage.getChannel(URI).getMessages();
+        Assert.assertEquals(3, channelMessages.size());
+        Assert.assertArrayEquals("second".getBytes(), channelMessages.getMessage(1, true));
+
+        // one PDU
+        Assert.assertEquals(1, sentData.size());
+        Assert.assertEquals("firstsecond3", new String(sentData.get(0)));
+        Assert.assertEquals(2, sentOffsets.get(0).size());
+        Assert.assertEquals(5, sentOffsets.get(0).get(0).longValue());
+        Assert.assertEquals(11, sentOffsets.get(0).get(1).longValue());
+
+        // era changed once
+        storage.newEra();
+        Assert.assertEquals(1, storage.getEra());
+    }
+
+    @Test
+    public void addAsync() throws Exception {
+        String testFolder = ALICEFOLDER + "_Test_6";
+        FSUtils.removeFolder(testFolder);
+        ASAPEngine storage = ASAPEngineFS.getASAPStorage(TestConstants.ALICE_NAME, testFolder, FORMAT);
+
+        List<CompletableFuture<ASAPDeliveryReceipt>> futures = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            futures.add(storage.addAsync(URI, ("message #" + i).getBytes()));
+        }
+
+        for(CompletableFuture<ASAPDeliveryReceipt> future : futures) {
+            ASAPDeliveryReceipt receipt = future.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(0, receipt.getEra());
+            // online sending not active
+            Assert.assertEquals(0, receipt.getOnlineDelivery().get(10, TimeUnit.SECONDS).intValue());
+        }
+
+        // order is kept
+        ASAPMessages messages = storage.getChannel(URI).getMessages();
+        Assert.assertEquals(100, messages.size());
+        Assert.assertEquals("message #0", new String(messages.getMessage(0, true)));
+        Assert.assertEquals("message #99", new String(messages.getMessage(99, true)));
+    }
+
+    @Test
+    public void addAsyncWhileChangingEras() throws Exception {
+        String testFolder = ALICEFOLDER + "_Test_7";
+        FSUtils.removeFolder(testFolder);
+        ASAPEngine storage = ASAPEngineFS.getASAPStorage(TestConstants.ALICE_NAME, testFolder, FORMAT);
+
+        // writer thread and this thread change engine at the same time
+        List<CompletableFuture<ASAPDeliveryReceipt>> futures = new ArrayList<>();
+        for(int i = 0; i < 200; i++) {
+            futures.add(storage.addAsync(URI, ("async #" + i).getBytes()));
+            storage.add(URI, ("sync #" + i).getBytes());
+            if(i % 20 == 0) storage.newEra();
+        }
+
+        for(CompletableFuture<ASAPDeliveryReceipt> future : futures) {
+            ASAPDeliveryReceipt receipt = future.get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(receipt.getEra() <= storage.getEra());
+        }
+
+        // nothing lost
+        Set<String> stored = new HashSet<>();
+        Iterator<byte[]> messages = storage.getChannel(URI).getMessages().getMessages();
+        while(messages.hasNext()) stored.add(new String(messages.next()));
+        Assert.assertEquals(400, stored.size());
+        for(int i = 0; i < 200; i++) {
+            Assert.assertTrue(stored.contains("async #" + i));
+            Assert.assertTrue(stored.contains("sync #" + i));
+        }
+    }
 }
@@ -0,0 +1,181 @@
+package net.sharksystem.utils.tcp;
+
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NIOTCPServerTests {
+    static final int PEERS = 1000;
+    static final int BYTES_PER_PEER = 64 * 1024;
+
+    /** reads until end of stream, answers number of bytes */
+    private class CountingListener implements StreamPairCreatedListener {
+        final AtomicLong received = new AtomicLong();
+
+        @Override
+        public void streamPairCreated(StreamPair streamPair) {
+            try {
+                InputStream is = streamPair.getInputStream();
+                byte[] buffer = new byte[4096];
+                int count = 0;
+                int read;
+                while(count < BYTES_PER_PEER && (read = is.read(buffer)) > 0) count += read;
+                this.received.addAndGet(count);
+
+                OutputStream os = streamPair.getOutputStream();
+                os.write(new byte[] {(byte) (count >> 24), (byte) (count >> 16), (byte) (count >> 8), (byte) count});
+                os.flush();
+            } catch (IOException e) {
+                // test fails with missing bytes
+            }
+        }
+    }
+
+    private class EchoListener implements StreamPairCreatedListener {
+        @Override
+        public void streamPairCreated(StreamPair streamPair) {
+            try {
+                InputStream is = streamPair.getInputStream();
+                OutputStream os = streamPair.getOutputStream();
+                byte[] buffer = new byte[1000];
+                int read;
+                while((read = is.read(buffer)) > 0) os.write(buffer, 0, read);
+                os.close();
+            } catch (IOException e) {
+                // test fails with missing bytes
+            }
+        }
+    }
+
+    @Test
+    public void acceptAndTransferWithThousandPeers() throws IOException, InterruptedException {
+        CountingListener listener = new CountingListener();
+        NIOTCPServer server = new NIOTCPServer(0, listener);
+        new Thread(server).start();
+        List<Socket> peers = new ArrayList<>();
+
+        try {
+            long start = System.nanoTime();
+            for(int i = 0; i < PEERS; i++) peers.add(new Socket("localhost", server.getPort()));
+            for(int i = 0; i < 100 && server.getNumberAcceptedConnections() < PEERS; i++) Thread.sleep(50);
+            long acceptNanos = System.nanoTime() - start;
+            Assert.assertEquals(PEERS, server.getNumberAcceptedConnections());
+            Assert.assertEquals(PEERS, server.getNumberOpenConnections());
+
+            byte[] data = new byte[BYTES_PER_PEER];
+            new Random(42).nextBytes(data);
+            // all peers are connected while data flow
+            start = System.nanoTime();
+            for(Socket peer : peers) peer.getOutputStream().write(data);
+            for(Socket peer : peers) {
+                Assert.assertEquals(BYTES_PER_PEER, new DataInputStream(peer.getInputStream()).readInt());
+            }
+            long transferNanos = System.nanoTime() - start;
+
+            // reported, not checked - depends on the machine
+            Log.writeLog(this, PEERS + " peers: " + String.format("%.0f", PEERS / (acceptNanos / 1000000000.0))
+                    + " accepts/s | " + String.format("%.1f", ((double) PEERS * BYTES_PER_PEER / (1024.0 * 1024.0))
+                    / (transferNanos / 1000000000.0)) + " MB/s");
+
+            Assert.assertEquals((long) PEERS * BYTES_PER_PEER, listener.received.get());
+            Assert.assertEquals((long) PEERS * BYTES_PER_PEER, server.getBytesReceived());
+        }
+        finally {
+            for(Socket peer : peers) peer.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void smallBuffersKeepDataIntact() throws IOException, InterruptedException {
+        // buffers much smaller than data: reading from socket pauses until application consumed data
+        NIOTCPServer server = new NIOTCPServer(0, new EchoListener(), 512, true, 0);
+        new Thread(server).start();
+
+        try {
+            final byte[] data = new byte[2 * 1024 * 1024];
+            new Random(42).nextBytes(data);
+            final Socket peer = new Socket("localhost", server.getPort());
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        peer.getOutputStream().write(data);
+                        peer.shutdownOutput();
+                    } catch (IOException e) {
+                        // test fails with missing bytes
+                    }
+                }
+            });
+            writer.start();
+
+            byte[] echo = new byte[data.length];
+            new DataInputStream(peer.getInputStream()).readFully(echo);
+            Assert.assertEquals(-1, peer.getInputStream().read());
+            Assert.assertArrayEquals(data, echo);
+            writer.join();
+            peer.close();
+
+            // closed connections are removed
+            for(int i = 0; i < 20 && server.getNumberOpenConnections() > 0; i++) Thread.sleep(50);
+            Assert.assertEquals(0, server.getNumberOpenConnections());
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    private void assertEcho(Socket peer, byte[] data) throws IOException {
+        peer.getOutputStream().write(data);
+        byte[] echo = new byte[data.length];
+        new DataInputStream(peer.getInputStream()).readFully(echo);
+        Assert.assertArrayEquals(data, echo);
+    }
+
+    @Test
+    public void acceptFailureKeepsServing() throws IOException, InterruptedException {
+        final AtomicInteger acceptFailures = new AtomicInteger();
+        NIOTCPServer server = new NIOTCPServer(0, new EchoListener()) {
+            @Override
+            SocketChannel acceptChannel() throws IOException {
+                if(acceptFailures.getAndDecrement() > 0) throw new IOException("Too many open files");
+                return super.acceptChannel();
+            }
+        };
+        new Thread(server).start();
+
+        Socket first = new Socket("localhost", server.getPort());
+        Socket second = null;
+        try {
+            first.setSoTimeout(10000);
+            this.assertEcho(first, new byte[] {1, 2, 3});
+
+            acceptFailures.set(1);
+            second = new Socket("localhost", server.getPort());
+            second.setSoTimeout(10000);
+
+            // open connection goes on - second one is accepted after a pause
+            this.assertEcho(first, new byte[] {4, 5, 6});
+            this.assertEcho(second, new byte[] {7, 8, 9});
+            Assert.assertEquals(2, server.getNumberAcceptedConnections());
+        }
+        finally {
+            first.close();
+            if(second != null) second.close();
+            server.close();
+        }
+    }
+}